@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.graph.algorithm.util.ConcurrentUnionFind;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+
+/**
+ * The result of a connected-components computation, stored as a component
+ * label per vertex.
+ * <p>
+ * Labels are consecutive integers from {@code 0} to
+ * {@link #numComponents()}{@code - 1}, and are looked up through the
+ * {@link DenseIndex} of the graph vertices. The vertex sets of the components
+ * are only materialized when requested, with {@link #getComponent(int)} or
+ * {@link #getComponents(int)}.
+ *
+ * @param <V>
+ *            the type of vertices in the graph.
+ *
+ * @see ConnectedComponents#labels(int)
+ */
+public class ComponentLabels< V >
+{
+	private final DenseIndex< V > index;
+
+	private final int[] labels;
+
+	private final int[] sizes;
+
+	/**
+	 * Offsets of each component in {@link #members}, built on first request.
+	 */
+	private int[] offsets;
+
+	/**
+	 * Vertex indices sorted by component label, built on first request.
+	 */
+	private int[] members;
+
+	ComponentLabels( final DenseIndex< V > index, final ConcurrentUnionFind unionFind )
+	{
+		this.index = index;
+		final int n = unionFind.size();
+		this.labels = new int[ n ];
+
+		// Label the roots in order of first appearance.
+		final int[] rootLabels = new int[ n ];
+		Arrays.fill( rootLabels, -1 );
+		int count = 0;
+		final V ref = index.createRef();
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( index.getObject( i, ref ) == null )
+			{
+				labels[ i ] = -1;
+				continue;
+			}
+			final int root = unionFind.find( i );
+			if ( rootLabels[ root ] < 0 )
+				rootLabels[ root ] = count++;
+			labels[ i ] = rootLabels[ root ];
+		}
+		index.releaseRef( ref );
+
+		this.sizes = new int[ count ];
+		for ( final int label : labels )
+			if ( label >= 0 )
+				sizes[ label ]++;
+	}
+
+	/**
+	 * Returns the number of connected components.
+	 *
+	 * @return the number of components.
+	 */
+	public int numComponents()
+	{
+		return sizes.length;
+	}
+
+	/**
+	 * Returns the label of the component the specified vertex belongs to, or
+	 * {@code -1} if the vertex was not in the graph when the labels were
+	 * computed.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return the component label.
+	 */
+	public int getLabel( final V vertex )
+	{
+		final int i = index.indexOf( vertex );
+		return ( i < 0 || i >= labels.length ) ? -1 : labels[ i ];
+	}
+
+	/**
+	 * Returns the number of vertices in the specified component.
+	 *
+	 * @param label
+	 *            the component label.
+	 * @return the component size.
+	 */
+	public int getSize( final int label )
+	{
+		return sizes[ label ];
+	}
+
+	/**
+	 * Returns the component label of each vertex, indexed by the vertex index
+	 * in {@link #getIndex()}. Indices that do not correspond to a vertex are
+	 * labeled {@code -1}. The returned array is not a copy and must not be
+	 * modified.
+	 *
+	 * @return the label array.
+	 */
+	public int[] getLabels()
+	{
+		return labels;
+	}
+
+	/**
+	 * Returns the size of each component, indexed by component label. The
+	 * returned array is not a copy and must not be modified.
+	 *
+	 * @return the size array.
+	 */
+	public int[] getSizes()
+	{
+		return sizes;
+	}
+
+	/**
+	 * Returns the vertex index used to key the label array.
+	 *
+	 * @return the vertex index.
+	 */
+	public DenseIndex< V > getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Returns a new set containing the vertices of the specified component.
+	 *
+	 * @param label
+	 *            the component label.
+	 * @return a new {@link RefSet}.
+	 */
+	public RefSet< V > getComponent( final int label )
+	{
+		buildMembers();
+		final RefSet< V > component = RefCollections.createRefSet( index.getCollection(), sizes[ label ] );
+		final V ref = index.createRef();
+		for ( int k = offsets[ label ]; k < offsets[ label + 1 ]; k++ )
+			component.add( index.getObject( members[ k ], ref ) );
+		index.releaseRef( ref );
+		return component;
+	}
+
+	/**
+	 * Returns the set of components that have at least {@code minimalSize}
+	 * vertices. Components are filtered on their size before being
+	 * materialized.
+	 *
+	 * @param minimalSize
+	 *            the minimal size of components to return.
+	 * @return a new {@link Set} of vertex sets, one per component.
+	 */
+	public Set< RefSet< V > > getComponents( final int minimalSize )
+	{
+		final Set< RefSet< V > > components = new HashSet<>();
+		for ( int label = 0; label < sizes.length; label++ )
+			if ( sizes[ label ] >= minimalSize )
+				components.add( getComponent( label ) );
+		return components;
+	}
+
+	/**
+	 * Counting sort of the vertex indices by component label.
+	 */
+	private void buildMembers()
+	{
+		if ( members != null )
+			return;
+
+		final int[] o = new int[ sizes.length + 1 ];
+		for ( int label = 0; label < sizes.length; label++ )
+			o[ label + 1 ] = o[ label ] + sizes[ label ];
+		final int[] m = new int[ o[ sizes.length ] ];
+		final int[] fill = Arrays.copyOf( o, sizes.length );
+		for ( int i = 0; i < labels.length; i++ )
+			if ( labels[ i ] >= 0 )
+				m[ fill[ labels[ i ] ]++ ] = i;
+		offsets = o;
+		members = m;
+	}
+}
@@ -28,22 +28,34 @@
  */
 package org.mastodon.graph.algorithm;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.mastodon.collection.RefSet;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
-import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.ConcurrentUnionFind;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+import org.mastodon.graph.algorithm.util.ParallelRanges;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 
 /**
  * A class to generate the connected components of a graph, regardless of edge
  * direction.
  * <p>
+ * Components are computed with a union-find over the graph edges, so that the
+ * cost is almost linear in the number of edges and there is no recursion. For
+ * pool-backed graphs, the edges can be processed in parallel, by splitting the
+ * range of edge pool indices over several threads.
+ * <p>
  * This version of the algorithm does not listen to changes in the graph. It
- * simply generates a new set of components each time the {@link #get()} method
- * is called.
+ * simply generates a new set of components each time the {@link #get()} or
+ * {@link #labels()} method is called.
+ * <p>
+ * Long computations can be monitored and cancelled with a
+ * {@link ProgressToken}, that counts processed edges.
  *
  * @author Jean-Yves Tinevez.
  *
@@ -54,10 +66,10 @@ import org.mastodon.graph.algorithm.util.Graphs;
  */
 public class ConnectedComponents< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E >
 {
-	private final RefSet< V > visited;
-
 	private final int minimalSize;
 
+	private ProgressToken progress;
+
 	/**
 	 * Creates a new connected-components algorithm.
 	 *
@@ -74,7 +86,6 @@ public class ConnectedComponents< V extends Vertex< E >, E extends Edge< V > > e
 		if ( minimalSize < 1 )
 			throw new IllegalArgumentException( "Minimal size cannot be lower than 1, was " + minimalSize + "." );
 		this.minimalSize = minimalSize;
-		this.visited = createVertexSet();
 	}
 
 	/**
@@ -91,19 +102,16 @@ public class ConnectedComponents< V extends Vertex< E >, E extends Edge< V > > e
 		this( graph, 1 );
 	}
 
-	private void visit( final V v, final RefSet< V > currentComponent )
+	/**
+	 * Sets the token used to report progress and check for cancellation in
+	 * subsequent computations. Progress is counted in processed edges.
+	 *
+	 * @param progress
+	 *            the progress token. Can be {@code null}.
+	 */
+	public void setProgressToken( final ProgressToken progress )
 	{
-		currentComponent.add( v );
-		visited.add( v );
-		final V tmp = vertexRef();
-		for ( final E e : v.edges() )
-		{
-			final V o = Graphs.getOppositeVertex( e, v, tmp );
-			if ( !visited.contains( o ) )
-			{
-				visit( o, currentComponent );
-			};
-		}
+		this.progress = progress;
 	}
 
 	/**
@@ -121,26 +129,119 @@ public class ConnectedComponents< V extends Vertex< E >, E extends Edge< V > > e
 	 *
 	 * @return a new {@link Set} containing the connected components of the
 	 *         graph.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the progress token was cancelled.
 	 */
 	public Set< RefSet< V > > get()
 	{
-		final HashSet< RefSet< V >> components = new HashSet< RefSet< V > >();
-		visited.clear();
+		return labels().getComponents( minimalSize );
+	}
+
+	/**
+	 * Labels the connected components of the graph, in the calling thread.
+	 *
+	 * @return a new {@link ComponentLabels}.
+	 * @see #labels(int)
+	 */
+	public ComponentLabels< V > labels()
+	{
+		return labels( 1 );
+	}
 
-		for ( final V v : graph.vertices() )
+	/**
+	 * Labels the connected components of the graph. Edges are considered
+	 * regardless of their direction.
+	 * <p>
+	 * The vertex sets of the components are not built by this method. They
+	 * can be obtained from the returned {@link ComponentLabels}, after
+	 * filtering on the component sizes if needed.
+	 * <p>
+	 * If both the vertices and edges of the graph are backed by a pool and
+	 * {@code numThreads > 1}, edges are processed concurrently by
+	 * {@code numThreads} threads. Otherwise, they are processed in the calling
+	 * thread. The graph must not be modified during this call.
+	 *
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @return a new {@link ComponentLabels}.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the progress token was cancelled.
+	 */
+	public ComponentLabels< V > labels( final int numThreads )
+	{
+		final DenseIndex< V > vertexIndex = DenseIndex.create( graph.vertices() );
+		final ConcurrentUnionFind unionFind = new ConcurrentUnionFind( vertexIndex.size() );
+
+		final DenseIndex< E > edgeIndex = DenseIndex.create( graph.edges() );
+		if ( progress != null )
+			progress.addTotal( graph.edges().size() );
+		if ( numThreads > 1 && vertexIndex.isPoolBacked() && edgeIndex.isPoolBacked() )
 		{
-			if ( visited.contains( v ) )
+			final List< ParallelRanges.RangeWorker > workers = new ArrayList<>( numThreads );
+			for ( int t = 0; t < numThreads; t++ )
+				workers.add( new UnionWorker( vertexIndex, edgeIndex, unionFind ) );
+			ParallelRanges.run( edgeIndex.size(), workers );
+		}
+		else
+		{
+			final V ref = vertexRef();
+			final ProgressToken.Ticker ticker = ProgressToken.ticker( progress );
+			for ( final E e : graph.edges() )
 			{
-				continue;
+				final int source = vertexIndex.indexOf( e.getSource( ref ) );
+				final int target = vertexIndex.indexOf( e.getTarget( ref ) );
+				unionFind.union( source, target );
+				ticker.tick();
 			}
+			ticker.flush();
+			releaseRef( ref );
+		}
 
-			final RefSet< V > currentComponent = createVertexSet();
-			visit( v, currentComponent );
-			if ( currentComponent.size() >= minimalSize )
+		return new ComponentLabels<>( vertexIndex, unionFind );
+	}
+
+	/**
+	 * Unions the source and target of all the edges in a range of edge
+	 * indices.
+	 */
+	private class UnionWorker implements ParallelRanges.RangeWorker
+	{
+		private final DenseIndex< V > vertexIndex;
+
+		private final DenseIndex< E > edgeIndex;
+
+		private final ConcurrentUnionFind unionFind;
+
+		private final V vref;
+
+		private final E eref;
+
+		private final ProgressToken.Ticker ticker;
+
+		UnionWorker( final DenseIndex< V > vertexIndex, final DenseIndex< E > edgeIndex, final ConcurrentUnionFind unionFind )
+		{
+			this.vertexIndex = vertexIndex;
+			this.edgeIndex = edgeIndex;
+			this.unionFind = unionFind;
+			this.vref = vertexRef();
+			this.eref = edgeRef();
+			this.ticker = ProgressToken.ticker( progress );
+		}
+
+		@Override
+		public void process( final int from, final int to )
+		{
+			for ( int i = from; i < to; i++ )
 			{
-				components.add( currentComponent );
+				final E e = edgeIndex.getObject( i, eref );
+				if ( e == null )
+					continue;
+				final int source = vertexIndex.indexOf( e.getSource( vref ) );
+				final int target = vertexIndex.indexOf( e.getTarget( vref ) );
+				unionFind.union( source, target );
+				ticker.tick();
 			}
+			ticker.flush();
 		}
-		return components;
 	}
 }
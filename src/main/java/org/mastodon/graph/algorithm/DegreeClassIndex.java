@@ -0,0 +1,232 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefSet;
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.graph.ListenableReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+
+/**
+ * Live sets of the vertices of a graph, classified by their degree:
+ * <ul>
+ * <li>roots, with no incoming edges;</li>
+ * <li>leaves, with no outgoing edges;</li>
+ * <li>divisions, with at least two outgoing edges;</li>
+ * <li>merges, with at least two incoming edges.</li>
+ * </ul>
+ * A vertex can belong to several classes. An isolated vertex is both a root
+ * and a leaf.
+ * <p>
+ * At construction, this instance registers as a listener of the specified
+ * graph and updates the sets incrementally following changes in the graph.
+ * Queries are then proportional to the size of the result, instead of
+ * requiring a scan of all the vertices like {@link RootFinder} and
+ * {@link LeafFinder}. For instance, the root set can be passed directly to
+ * the cross-component iterators and searches. To stop updates, remove this
+ * instance from the graph listeners.
+ * <p>
+ * In- and out-degrees are counted from the edge events rather than read from
+ * the vertices, because the graph notifies edge removals before the edges are
+ * actually removed, and notifies all the edge removals of a vertex before
+ * removing any of them.
+ *
+ * @param <V>
+ *            the type of vertices in the graph.
+ * @param <E>
+ *            the type of edges in the graph.
+ */
+public class DegreeClassIndex< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E > implements GraphListener< V, E >
+{
+	private final RefSet< V > roots;
+
+	private final RefSet< V > leaves;
+
+	private final RefSet< V > divisions;
+
+	private final RefSet< V > merges;
+
+	private final RefIntMap< V > inDegrees;
+
+	private final RefIntMap< V > outDegrees;
+
+	/**
+	 * Creates a degree-class index for the specified graph, and registers it
+	 * as a listener of the graph.
+	 *
+	 * @param graph
+	 *            the graph to index.
+	 */
+	public DegreeClassIndex( final ListenableReadOnlyGraph< V, E > graph )
+	{
+		super( graph );
+		this.roots = createVertexSet();
+		this.leaves = createVertexSet();
+		this.divisions = createVertexSet();
+		this.merges = createVertexSet();
+		this.inDegrees = RefMaps.createRefIntMap( graph.vertices(), 0 );
+		this.outDegrees = RefMaps.createRefIntMap( graph.vertices(), 0 );
+		graph.addGraphListener( this );
+		graphRebuilt();
+	}
+
+	/**
+	 * Returns the vertices that have no incoming edges.
+	 *
+	 * @return an unmodifiable view of the roots, updated live.
+	 */
+	public RefSet< V > getRoots()
+	{
+		return RefCollections.unmodifiable( roots );
+	}
+
+	/**
+	 * Returns the vertices that have no outgoing edges.
+	 *
+	 * @return an unmodifiable view of the leaves, updated live.
+	 */
+	public RefSet< V > getLeaves()
+	{
+		return RefCollections.unmodifiable( leaves );
+	}
+
+	/**
+	 * Returns the vertices that have at least two outgoing edges.
+	 *
+	 * @return an unmodifiable view of the divisions, updated live.
+	 */
+	public RefSet< V > getDivisions()
+	{
+		return RefCollections.unmodifiable( divisions );
+	}
+
+	/**
+	 * Returns the vertices that have at least two incoming edges.
+	 *
+	 * @return an unmodifiable view of the merges, updated live.
+	 */
+	public RefSet< V > getMerges()
+	{
+		return RefCollections.unmodifiable( merges );
+	}
+
+	@Override
+	public void graphRebuilt()
+	{
+		roots.clear();
+		leaves.clear();
+		divisions.clear();
+		merges.clear();
+		inDegrees.clear();
+		outDegrees.clear();
+		for ( final V v : graph.vertices() )
+		{
+			final int in = v.incomingEdges().size();
+			final int out = v.outgoingEdges().size();
+			inDegrees.put( v, in );
+			outDegrees.put( v, out );
+			if ( in == 0 )
+				roots.add( v );
+			else if ( in >= 2 )
+				merges.add( v );
+			if ( out == 0 )
+				leaves.add( v );
+			else if ( out >= 2 )
+				divisions.add( v );
+		}
+	}
+
+	@Override
+	public void vertexAdded( final V vertex )
+	{
+		inDegrees.put( vertex, 0 );
+		outDegrees.put( vertex, 0 );
+		roots.add( vertex );
+		leaves.add( vertex );
+	}
+
+	@Override
+	public void vertexRemoved( final V vertex )
+	{
+		inDegrees.remove( vertex );
+		outDegrees.remove( vertex );
+		roots.remove( vertex );
+		leaves.remove( vertex );
+		divisions.remove( vertex );
+		merges.remove( vertex );
+	}
+
+	@Override
+	public void edgeAdded( final E edge )
+	{
+		final V ref = vertexRef();
+
+		final V source = edge.getSource( ref );
+		final int out = outDegrees.adjustOrPutValue( source, 1, 1 );
+		if ( out == 1 )
+			leaves.remove( source );
+		else if ( out == 2 )
+			divisions.add( source );
+
+		final V target = edge.getTarget( ref );
+		final int in = inDegrees.adjustOrPutValue( target, 1, 1 );
+		if ( in == 1 )
+			roots.remove( target );
+		else if ( in == 2 )
+			merges.add( target );
+
+		releaseRef( ref );
+	}
+
+	@Override
+	public void edgeRemoved( final E edge )
+	{
+		final V ref = vertexRef();
+
+		final V source = edge.getSource( ref );
+		final int out = outDegrees.adjustOrPutValue( source, -1, 0 );
+		if ( out == 0 )
+			leaves.add( source );
+		else if ( out == 1 )
+			divisions.remove( source );
+
+		final V target = edge.getTarget( ref );
+		final int in = inDegrees.adjustOrPutValue( target, -1, 0 );
+		if ( in == 0 )
+			roots.add( target );
+		else if ( in == 1 )
+			merges.remove( target );
+
+		releaseRef( ref );
+	}
+}
@@ -0,0 +1,651 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.mastodon.collection.RefSet;
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.Edges;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+import org.mastodon.graph.algorithm.util.ParallelRanges;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Interval index over the lineage trees of a forest-shaped graph, such as a
+ * tracking graph where edges point from a cell to its successors.
+ * <p>
+ * Each tree is traversed depth-first from its root, and each vertex is given
+ * its position in the pre-order of the forest. The descendants of a vertex
+ * (itself included) then occupy the contiguous range of positions
+ * {@code [getPosition(v), getPosition(v) + getSubtreeSize(v))}, which
+ * makes ancestor tests O(1) and descendant enumeration proportional to the
+ * number of descendants. Lowest common ancestors are found in O(1) from a
+ * sparse table of depths over the pre-order, built on the first query.
+ * <p>
+ * The parent of a vertex is the source of its first incoming edge. Vertices
+ * with several incoming edges (merges) only belong to the subtree of this
+ * parent. Roots are the vertices without incoming edges. Vertices that cannot
+ * be reached from a root (on a cycle) are not indexed.
+ * <p>
+ * The index is a snapshot of the graph connectivity when it was last
+ * (re)built. It must be rebuilt with {@link #rebuild()} or
+ * {@link #rebuild(int)} after the graph is modified. Trees are independent,
+ * so a rebuild can process them concurrently.
+ *
+ * @param <V>
+ *            the type of the vertices of the graph.
+ * @param <E>
+ *            the type of the edges of the graph.
+ */
+public class LineageIndex< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E >
+{
+	/**
+	 * Parent value for vertex indices that are not used by the graph.
+	 */
+	private static final int ABSENT = -2;
+
+	private DenseIndex< V > index;
+
+	/**
+	 * Parent vertex index, by vertex index. {@code -1} for roots,
+	 * {@link #ABSENT} for unused indices.
+	 */
+	private int[] parents;
+
+	/**
+	 * Pre-order position, by vertex index. {@code -1} if not indexed.
+	 */
+	private int[] positions;
+
+	/**
+	 * Number of descendants, including the vertex itself, by vertex index.
+	 */
+	private int[] subtreeSizes;
+
+	/**
+	 * Distance to the root, by vertex index.
+	 */
+	private int[] depths;
+
+	/**
+	 * Vertex index, by pre-order position.
+	 */
+	private int[] order;
+
+	/**
+	 * Root vertex indices, in the order of the trees in the pre-order.
+	 */
+	private final TIntArrayList roots;
+
+	/**
+	 * {@code sparseTable[ k ][ p ]} is the index of the vertex with the
+	 * smallest depth in the positions {@code [p, p + 2^k)}. Built lazily, on
+	 * the first query that needs it, and published to concurrent queries
+	 * through this volatile field.
+	 */
+	private volatile int[][] sparseTable;
+
+	/**
+	 * Creates a lineage index for the specified graph, and builds it in the
+	 * calling thread.
+	 *
+	 * @param graph
+	 *            the graph to index.
+	 */
+	public LineageIndex( final ReadOnlyGraph< V, E > graph )
+	{
+		this( graph, 1 );
+	}
+
+	/**
+	 * Creates a lineage index for the specified graph, and builds it with the
+	 * specified number of threads.
+	 *
+	 * @param graph
+	 *            the graph to index.
+	 * @param numThreads
+	 *            the number of threads to use for building the index.
+	 */
+	public LineageIndex( final ReadOnlyGraph< V, E > graph, final int numThreads )
+	{
+		super( graph );
+		this.roots = new TIntArrayList();
+		rebuild( numThreads );
+	}
+
+	/**
+	 * Rebuilds this index in the calling thread, to account for the latest
+	 * graph modifications.
+	 */
+	public void rebuild()
+	{
+		rebuild( 1 );
+	}
+
+	/**
+	 * Rebuilds this index, to account for the latest graph modifications.
+	 * <p>
+	 * If the vertices of the graph are backed by a pool and
+	 * {@code numThreads > 1}, parents are found and trees are traversed
+	 * concurrently by {@code numThreads} threads. Otherwise, the index is
+	 * built in the calling thread. The graph must not be modified during this
+	 * call.
+	 *
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	public void rebuild( final int numThreads )
+	{
+		if ( index == null || !index.isPoolBacked() )
+			index = DenseIndex.create( graph.vertices() );
+		else
+			index.update();
+		final int n = index.size();
+		final boolean parallel = numThreads > 1 && index.isPoolBacked();
+
+		parents = new int[ n ];
+		positions = new int[ n ];
+		subtreeSizes = new int[ n ];
+		depths = new int[ n ];
+		Arrays.fill( positions, -1 );
+		sparseTable = null;
+
+		// Parents.
+		final List< ParentWorker > parentWorkers = new ArrayList<>();
+		for ( int t = 0; t < ( parallel ? numThreads : 1 ); t++ )
+			parentWorkers.add( new ParentWorker() );
+		ParallelRanges.run( n, parentWorkers );
+
+		roots.resetQuick();
+		for ( int i = 0; i < n; i++ )
+			if ( parents[ i ] == -1 )
+				roots.add( i );
+		final int numRoots = roots.size();
+
+		// Tree sizes, then trees laid out one after the other.
+		final int[] offsets = new int[ numRoots + 1 ];
+		final List< TreeWorker > treeWorkers = new ArrayList<>();
+		for ( int t = 0; t < ( parallel ? numThreads : 1 ); t++ )
+			treeWorkers.add( new TreeWorker( offsets ) );
+		ParallelRanges.run( numRoots, 1, treeWorkers );
+
+		for ( int r = 0; r < numRoots; r++ )
+			offsets[ r + 1 ] += offsets[ r ];
+		order = new int[ offsets[ numRoots ] ];
+
+		for ( final TreeWorker worker : treeWorkers )
+			worker.assign = true;
+		ParallelRanges.run( numRoots, 1, treeWorkers );
+
+		for ( final ParentWorker worker : parentWorkers )
+			worker.release();
+		for ( final TreeWorker worker : treeWorkers )
+			worker.release();
+	}
+
+	/**
+	 * Returns the number of vertices in this index.
+	 *
+	 * @return the number of indexed vertices.
+	 */
+	public int size()
+	{
+		return order.length;
+	}
+
+	/**
+	 * Returns whether the specified vertex is in this index.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @return {@code true} if the vertex was reached from a root when this
+	 *         index was built.
+	 */
+	public boolean contains( final V v )
+	{
+		return indexOf( v ) >= 0;
+	}
+
+	/**
+	 * Returns whether {@code ancestor} is an ancestor of {@code descendant}.
+	 * A vertex is considered to be its own ancestor.
+	 *
+	 * @param ancestor
+	 *            the candidate ancestor.
+	 * @param descendant
+	 *            the candidate descendant.
+	 * @return {@code true} if {@code descendant} is in the subtree of
+	 *         {@code ancestor}.
+	 */
+	public boolean isAncestor( final V ancestor, final V descendant )
+	{
+		final int a = indexOf( ancestor );
+		final int d = indexOf( descendant );
+		if ( a < 0 || d < 0 )
+			return false;
+		final int pa = positions[ a ];
+		final int pd = positions[ d ];
+		return pa <= pd && pd < pa + subtreeSizes[ a ];
+	}
+
+	/**
+	 * Returns the lowest common ancestor of two vertices.
+	 *
+	 * @param v1
+	 *            the first vertex.
+	 * @param v2
+	 *            the second vertex.
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the lowest common ancestor, or {@code null} if the two vertices
+	 *         do not belong to the same tree or are not indexed.
+	 */
+	public V getLowestCommonAncestor( final V v1, final V v2, final V ref )
+	{
+		final int i1 = indexOf( v1 );
+		final int i2 = indexOf( v2 );
+		if ( i1 < 0 || i2 < 0 )
+			return null;
+		if ( i1 == i2 )
+			return index.getObject( i1, ref );
+
+		final int p1 = Math.min( positions[ i1 ], positions[ i2 ] );
+		final int p2 = Math.max( positions[ i1 ], positions[ i2 ] );
+		/*
+		 * The shallowest vertex strictly after p1 and up to p2 in pre-order is
+		 * a child of the LCA on the path to the second vertex. If the vertices
+		 * are in different trees, it is the root of another tree.
+		 */
+		final int shallowest = minDepth( p1 + 1, p2 + 1 );
+		final int lca = parents[ shallowest ];
+		return lca < 0 ? null : index.getObject( lca, ref );
+	}
+
+	/**
+	 * Returns the parent of the specified vertex.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the parent, or {@code null} if the vertex is a root or is not
+	 *         indexed.
+	 */
+	public V getParent( final V v, final V ref )
+	{
+		final int i = indexOf( v );
+		if ( i < 0 || parents[ i ] < 0 )
+			return null;
+		return index.getObject( parents[ i ], ref );
+	}
+
+	/**
+	 * Returns the root of the tree that contains the specified vertex.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the root, or {@code null} if the vertex is not indexed.
+	 */
+	public V getRoot( final V v, final V ref )
+	{
+		final int i = indexOf( v );
+		if ( i < 0 )
+			return null;
+		int root = i;
+		final int position = positions[ i ];
+		// The root is the last tree start at or before the position.
+		int lo = 0;
+		int hi = roots.size() - 1;
+		while ( lo <= hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			final int r = roots.getQuick( mid );
+			if ( positions[ r ] <= position )
+			{
+				root = r;
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+		return index.getObject( root, ref );
+	}
+
+	/**
+	 * Returns the depth of the specified vertex, that is its distance to the
+	 * root of its tree.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @return the depth, or {@code -1} if the vertex is not indexed.
+	 */
+	public int getDepth( final V v )
+	{
+		final int i = indexOf( v );
+		return i < 0 ? -1 : depths[ i ];
+	}
+
+	/**
+	 * Returns the position of the specified vertex in the pre-order of the
+	 * forest. Its descendants occupy the positions from this one up to (but
+	 * excluding) this one plus {@link #getSubtreeSize(Vertex)}.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @return the position, or {@code -1} if the vertex is not indexed.
+	 */
+	public int getPosition( final V v )
+	{
+		final int i = indexOf( v );
+		return i < 0 ? -1 : positions[ i ];
+	}
+
+	/**
+	 * Returns the number of descendants of the specified vertex, itself
+	 * included.
+	 *
+	 * @param v
+	 *            the vertex.
+	 * @return the subtree size, or {@code 0} if the vertex is not indexed.
+	 */
+	public int getSubtreeSize( final V v )
+	{
+		final int i = indexOf( v );
+		return i < 0 ? 0 : subtreeSizes[ i ];
+	}
+
+	/**
+	 * Returns the vertex at the specified position in the pre-order of the
+	 * forest.
+	 *
+	 * @param position
+	 *            the position, from {@code 0} to {@link #size()} (exclusive).
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the vertex at this position.
+	 */
+	public V getVertexAt( final int position, final V ref )
+	{
+		return index.getObject( order[ position ], ref );
+	}
+
+	/**
+	 * Returns the descendants of the specified vertices. (The set of
+	 * descendants includes the specified vertices.)
+	 * <p>
+	 * The subtree ranges of the vertices are merged before enumeration, so
+	 * that each descendant is visited once, even for overlapping subtrees.
+	 *
+	 * @param vertices
+	 *            the vertices.
+	 * @return a new {@link RefSet} containing the descendants.
+	 */
+	public RefSet< V > getDescendants( final Collection< V > vertices )
+	{
+		final TIntArrayList starts = new TIntArrayList( vertices.size() );
+		for ( final V v : vertices )
+		{
+			final int i = indexOf( v );
+			if ( i >= 0 )
+				starts.add( positions[ i ] );
+		}
+		starts.sort();
+
+		final RefSet< V > descendants = createVertexSet();
+		final V ref = vertexRef();
+		int end = 0;
+		for ( int k = 0; k < starts.size(); k++ )
+		{
+			final int start = starts.getQuick( k );
+			final int subtreeEnd = start + subtreeSizes[ order[ start ] ];
+			// Skip ranges nested in the previous one.
+			for ( int p = Math.max( start, end ); p < subtreeEnd; p++ )
+				descendants.add( index.getObject( order[ p ], ref ) );
+			end = Math.max( end, subtreeEnd );
+		}
+		releaseRef( ref );
+		return descendants;
+	}
+
+	private int indexOf( final V v )
+	{
+		final int i = index.indexOf( v );
+		return ( i < 0 || i >= positions.length || positions[ i ] < 0 ) ? -1 : i;
+	}
+
+	/**
+	 * Returns the index of the vertex of smallest depth in the positions
+	 * {@code [from, to)}.
+	 */
+	private int minDepth( final int from, final int to )
+	{
+		int[][] table = sparseTable;
+		if ( table == null )
+			table = buildSparseTable();
+		final int k = 31 - Integer.numberOfLeadingZeros( to - from );
+		final int a = table[ k ][ from ];
+		final int b = table[ k ][ to - ( 1 << k ) ];
+		return depths[ a ] <= depths[ b ] ? a : b;
+	}
+
+	private synchronized int[][] buildSparseTable()
+	{
+		final int[][] built = sparseTable;
+		if ( built != null )
+			return built;
+		final int n = order.length;
+		final int levels = n == 0 ? 1 : 32 - Integer.numberOfLeadingZeros( n );
+		final int[][] table = new int[ levels ][];
+		table[ 0 ] = order;
+		for ( int k = 1; k < levels; k++ )
+		{
+			final int half = 1 << ( k - 1 );
+			final int[] previous = table[ k - 1 ];
+			final int[] level = new int[ n - ( 1 << k ) + 1 ];
+			for ( int p = 0; p < level.length; p++ )
+			{
+				final int a = previous[ p ];
+				final int b = previous[ p + half ];
+				level[ p ] = depths[ a ] <= depths[ b ] ? a : b;
+			}
+			table[ k ] = level;
+		}
+		sparseTable = table;
+		return table;
+	}
+
+	/**
+	 * Finds the parent of the vertices in a range of vertex indices.
+	 */
+	private class ParentWorker implements ParallelRanges.RangeWorker
+	{
+		private final V vref;
+
+		private final E eref;
+
+		ParentWorker()
+		{
+			this.vref = vertexRef();
+			this.eref = edgeRef();
+		}
+
+		@Override
+		public void process( final int from, final int to )
+		{
+			for ( int i = from; i < to; i++ )
+			{
+				final V v = index.getObject( i, vref );
+				if ( v == null )
+				{
+					parents[ i ] = ABSENT;
+					continue;
+				}
+				final Edges< E > incoming = v.incomingEdges();
+				parents[ i ] = incoming.isEmpty()
+						? -1
+						: index.indexOf( incoming.get( 0, eref ).getSource( vref ) );
+			}
+		}
+
+		void release()
+		{
+			releaseRef( vref );
+			releaseRef( eref );
+		}
+	}
+
+	/**
+	 * Traverses the trees of a range of roots. In the first pass, only counts
+	 * the vertices of each tree. In the second pass, assigns positions,
+	 * depths and subtree sizes, starting from the tree offset.
+	 */
+	private class TreeWorker implements ParallelRanges.RangeWorker
+	{
+		private final int[] offsets;
+
+		private final TIntArrayList stack;
+
+		private final V vref;
+
+		private final V tref;
+
+		private final E eref;
+
+		private final E fref;
+
+		boolean assign;
+
+		TreeWorker( final int[] offsets )
+		{
+			this.offsets = offsets;
+			this.stack = new TIntArrayList();
+			this.vref = vertexRef();
+			this.tref = vertexRef();
+			this.eref = edgeRef();
+			this.fref = edgeRef();
+		}
+
+		@Override
+		public void process( final int from, final int to )
+		{
+			for ( int r = from; r < to; r++ )
+			{
+				final int root = roots.getQuick( r );
+				if ( assign )
+					layout( root, offsets[ r ] );
+				else
+					offsets[ r + 1 ] = count( root );
+			}
+		}
+
+		private int count( final int root )
+		{
+			int count = 0;
+			stack.resetQuick();
+			stack.add( root );
+			while ( !stack.isEmpty() )
+			{
+				final int current = stack.removeAt( stack.size() - 1 );
+				count++;
+				pushChildren( current );
+			}
+			return count;
+		}
+
+		private void layout( final int root, final int offset )
+		{
+			int position = offset;
+			depths[ root ] = 0;
+			stack.resetQuick();
+			stack.add( root );
+			while ( !stack.isEmpty() )
+			{
+				final int current = stack.removeAt( stack.size() - 1 );
+				positions[ current ] = position;
+				order[ position ] = current;
+				subtreeSizes[ current ] = 1;
+				position++;
+				final int first = stack.size();
+				pushChildren( current );
+				for ( int k = first; k < stack.size(); k++ )
+					depths[ stack.getQuick( k ) ] = depths[ current ] + 1;
+			}
+
+			// Accumulate subtree sizes in reverse pre-order.
+			for ( int p = position - 1; p > offset; p-- )
+			{
+				final int i = order[ p ];
+				subtreeSizes[ parents[ i ] ] += subtreeSizes[ i ];
+			}
+		}
+
+		/**
+		 * Pushes the children of a vertex: the targets of its outgoing edges
+		 * for which this edge is the first incoming edge. Children are pushed
+		 * in reverse order so that they are visited in edge order.
+		 */
+		private void pushChildren( final int current )
+		{
+			final V v = index.getObject( current, vref );
+			final Edges< E > outgoing = v.outgoingEdges();
+			for ( int k = outgoing.size() - 1; k >= 0; k-- )
+			{
+				final E e = outgoing.get( k, eref );
+				final V target = e.getTarget( tref );
+				if ( isParentEdge( e, target ) )
+					stack.add( index.indexOf( target ) );
+			}
+		}
+
+		private boolean isParentEdge( final E e, final V target )
+		{
+			final Edges< E > incoming = target.incomingEdges();
+			if ( incoming.size() == 1 )
+				return true;
+			return incoming.get( 0, fref ).equals( e );
+		}
+
+		void release()
+		{
+			releaseRef( vref );
+			releaseRef( tref );
+			releaseRef( eref );
+			releaseRef( fref );
+		}
+	}
+}
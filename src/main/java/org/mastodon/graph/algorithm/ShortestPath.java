@@ -28,17 +28,41 @@
  */
 package org.mastodon.graph.algorithm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
 import org.mastodon.collection.RefList;
+import org.mastodon.collection.RefMaps;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.Graph;
 import org.mastodon.graph.Vertex;
-import org.mastodon.graph.algorithm.traversal.BreadthFirstSearch;
 import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
-import org.mastodon.graph.algorithm.traversal.SearchListener;
+import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.IndexedMinHeap;
+
+import gnu.trove.list.array.TIntArrayList;
 
 /**
- * A plain shortest path for unweighted graphs, directed or not. Simply based on
- * {@link BreadthFirstSearch}.
+ * Shortest paths between two vertices, for directed or undirected graphs.
+ * <p>
+ * Unweighted paths are found with a bidirectional breadth-first search, that
+ * grows a search frontier from both ends and stops when they meet. Weighted
+ * paths are found with Dijkstra's algorithm, or A* when a heuristic is
+ * provided.
+ * <p>
+ * Search state is kept in primitive arrays indexed by vertex pool index, and
+ * reused across queries. The arrays grow as the queries reach vertices with
+ * larger indices, and only the entries touched by a query are reset before the
+ * next one, so that the cost of a query depends on the number of vertices it
+ * explores and not on the size of the graph. For graphs that are not backed by
+ * a pool, vertices are numbered as each query reaches them.
+ * <p>
+ * Instances should therefore be reused for successive queries on the same
+ * graph. They are not thread-safe.
  *
  * @author Jean-Yves Tinevez
  *
@@ -51,6 +75,62 @@ public class ShortestPath< V extends Vertex< E >, E extends Edge< V > > extends
 {
 	private final SearchDirection directivity;
 
+	/**
+	 * The pool of the vertices, whose ids index the state arrays, or
+	 * {@code null} if the graph is not backed by a pool.
+	 */
+	private final RefPool< V > pool;
+
+	/**
+	 * For graphs that are not backed by a pool, the vertices reached by the
+	 * current query, by index.
+	 */
+	private final ArrayList< V > vertices;
+
+	/**
+	 * For graphs that are not backed by a pool, the index of the vertices
+	 * reached by the current query.
+	 */
+	private final RefIntMap< V > indices;
+
+	/**
+	 * Hop distance from the path start (forward search), or {@code -1}.
+	 */
+	private int[] forwardDepths;
+
+	/**
+	 * Hop distance from the path end (backward search), or {@code -1}.
+	 */
+	private int[] backwardDepths;
+
+	/**
+	 * Parent index in the forward search tree, or {@code -1}.
+	 */
+	private int[] forwardParents;
+
+	/**
+	 * Parent index in the backward search tree, or {@code -1}.
+	 */
+	private int[] backwardParents;
+
+	/**
+	 * Path cost from the path start (weighted search).
+	 */
+	private double[] costs;
+
+	/**
+	 * Indices of the entries modified by the last query.
+	 */
+	private final TIntArrayList touched;
+
+	private final TIntArrayList forwardFrontier;
+
+	private final TIntArrayList backwardFrontier;
+
+	private final TIntArrayList nextFrontier;
+
+	private final IndexedMinHeap heap;
+
 	/**
 	 * Creates a new shortest path searcher.
 	 *
@@ -63,10 +143,24 @@ public class ShortestPath< V extends Vertex< E >, E extends Edge< V > > extends
 	{
 		super( graph );
 		this.directivity = directivity;
+		this.pool = RefCollections.tryGetRefPool( graph.vertices() );
+		this.vertices = pool == null ? new ArrayList<>() : null;
+		this.indices = pool == null ? RefMaps.createRefIntMap( graph.vertices(), -1 ) : null;
+		this.touched = new TIntArrayList();
+		this.forwardFrontier = new TIntArrayList();
+		this.backwardFrontier = new TIntArrayList();
+		this.nextFrontier = new TIntArrayList();
+		this.heap = new IndexedMinHeap( 16 );
+		this.forwardDepths = new int[ 0 ];
+		this.backwardDepths = new int[ 0 ];
+		this.forwardParents = new int[ 0 ];
+		this.backwardParents = new int[ 0 ];
+		this.costs = new double[ 0 ];
 	}
 
 	/**
-	 * Finds the path between the specified vertices.
+	 * Finds the path between the specified vertices, with the smallest number
+	 * of edges.
 	 * <p>
 	 * The success and result of this search strongly depends on whether this
 	 * search is directed or undirected.
@@ -81,63 +175,299 @@ public class ShortestPath< V extends Vertex< E >, E extends Edge< V > > extends
 	 */
 	public RefList< V > findPath( final V from, final V to )
 	{
-		final BreadthFirstSearch< V, E > search = new BreadthFirstSearch<>( graph, directivity );
-		final VertexFinderListener vfl = new VertexFinderListener( to );
-		search.setTraversalListener( vfl );
-		search.start( from );
+		prepare();
+		final int source = indexOf( from );
+		final int target = indexOf( to );
+		ensureCapacity( Math.max( source, target ) );
+
+		forwardDepths[ source ] = 0;
+		touched.add( source );
+		if ( source == target )
+			return toPath( source, -1, -1 );
+		backwardDepths[ target ] = 0;
+		touched.add( target );
 
-		if ( search.wasAborted() )
+		forwardFrontier.resetQuick();
+		forwardFrontier.add( source );
+		backwardFrontier.resetQuick();
+		backwardFrontier.add( target );
+
+		final SearchDirection backward = directivity.reverse();
+		final int[] meeting = new int[ 2 ];
+		final V vref = vertexRef();
+		final V tref = vertexRef();
+		try
 		{
-			// Path found. Create list in reverse order.
-			V tmp = vertexRef();
-			final RefList< V > path = createVertexList( search.depthOf( to ) + 1 );
-			tmp = assign( to, tmp );
-			path.add( tmp );
-			while ( !tmp.equals( from ) )
+			while ( !forwardFrontier.isEmpty() && !backwardFrontier.isEmpty() )
 			{
-				tmp = assign( search.parent( tmp ), tmp );
-				path.add( tmp );
+				// Expand the smaller frontier by one full level.
+				if ( forwardFrontier.size() <= backwardFrontier.size() )
+				{
+					if ( expandLevel( forwardFrontier, directivity, forwardDepths, forwardParents, backwardDepths, meeting, vref, tref ) )
+						return toPath( source, meeting[ 0 ], meeting[ 1 ] );
+				}
+				else
+				{
+					if ( expandLevel( backwardFrontier, backward, backwardDepths, backwardParents, forwardDepths, meeting, vref, tref ) )
+						return toPath( source, meeting[ 1 ], meeting[ 0 ] );
+				}
 			}
-			releaseRef( tmp );
-			return path;
+			return null;
 		}
-		else
+		finally
 		{
-			// Path not found.
-			return null;
+			releaseRef( vref );
+			releaseRef( tref );
 		}
 	}
 
-	private class VertexFinderListener implements SearchListener< V, E, BreadthFirstSearch< V, E > >
+	/**
+	 * Finds the path between the specified vertices that minimizes the sum of
+	 * the specified edge weights, using Dijkstra's algorithm.
+	 *
+	 * @param from
+	 *            the vertex to start search from.
+	 * @param to
+	 *            the vertex to reach.
+	 * @param edgeWeight
+	 *            the weight of each edge. Weights must be non-negative.
+	 * @return a new {@link RefList}, containing the path found <b>in reverse
+	 *         order</b> ({@code to → from}). Returns {@code null} if
+	 *         a path cannot be found between the specified vertices.
+	 * @throws IllegalArgumentException
+	 *             if a negative edge weight is met.
+	 */
+	public RefList< V > findPath( final V from, final V to, final ToDoubleFunction< E > edgeWeight )
+	{
+		return findPath( from, to, edgeWeight, null );
+	}
+
+	/**
+	 * Finds the path between the specified vertices that minimizes the sum of
+	 * the specified edge weights, using the A* algorithm.
+	 * <p>
+	 * The heuristic estimates the cost of the remaining path from a vertex to
+	 * {@code to}. It must never overestimate the actual cost (admissible
+	 * heuristic) for the returned path to be optimal. If it is {@code null},
+	 * the search is a plain Dijkstra search.
+	 *
+	 * @param from
+	 *            the vertex to start search from.
+	 * @param to
+	 *            the vertex to reach.
+	 * @param edgeWeight
+	 *            the weight of each edge. Weights must be non-negative.
+	 * @param heuristic
+	 *            the remaining cost estimate. Can be {@code null}.
+	 * @return a new {@link RefList}, containing the path found <b>in reverse
+	 *         order</b> ({@code to → from}). Returns {@code null} if
+	 *         a path cannot be found between the specified vertices.
+	 * @throws IllegalArgumentException
+	 *             if a negative edge weight is met.
+	 */
+	public RefList< V > findPath( final V from, final V to, final ToDoubleFunction< E > edgeWeight, final ToDoubleFunction< V > heuristic )
 	{
+		prepare();
+		final int source = indexOf( from );
+		final int target = indexOf( to );
+		ensureCapacity( Math.max( source, target ) );
 
-		private final V target;
+		costs[ source ] = 0.;
+		touched.add( source );
+		heap.clear();
+		heap.insert( source, heuristic == null ? 0. : heuristic.applyAsDouble( from ) );
 
-		public VertexFinderListener( final V target )
+		final V vref = vertexRef();
+		final V tref = vertexRef();
+		try
 		{
-			this.target = target;
-		}
+			while ( !heap.isEmpty() )
+			{
+				final int current = heap.poll();
+				if ( current == target )
+					return toPath( current, -1, -1 );
 
-		@Override
-		public void processVertexLate( final V vertex, final BreadthFirstSearch< V, E > search )
-		{}
+				final V vertex = getObject( current, vref );
+				final double cost = costs[ current ];
+				for ( final E edge : Graphs.getEdges( vertex, directivity ) )
+				{
+					final double weight = edgeWeight.applyAsDouble( edge );
+					if ( weight < 0 )
+						throw new IllegalArgumentException( "Edge weights must be non-negative, got " + weight + " for " + edge + "." );
 
-		@Override
-		public void processVertexEarly( final V vertex, final BreadthFirstSearch< V, E > search )
+					final V neighbor = Graphs.getNeighbor( edge, vertex, directivity, tref );
+					final int n = indexOf( neighbor );
+					ensureCapacity( n );
+					final double newCost = cost + weight;
+					if ( newCost < costs[ n ] )
+					{
+						if ( costs[ n ] == Double.POSITIVE_INFINITY )
+							touched.add( n );
+						costs[ n ] = newCost;
+						forwardParents[ n ] = current;
+						final double priority = heuristic == null ? newCost : newCost + heuristic.applyAsDouble( neighbor );
+						heap.insertOrDecrease( n, priority );
+					}
+				}
+			}
+			return null;
+		}
+		finally
 		{
-			if ( vertex.equals( target ) )
+			heap.clear();
+			releaseRef( vref );
+			releaseRef( tref );
+		}
+	}
+
+	/**
+	 * Expands all the vertices of a BFS frontier, and replaces it with the
+	 * newly discovered vertices. Returns {@code true} if the other search was
+	 * met. In that case, {@code meeting} holds the best crossing edge, as the
+	 * index of its end on this side and on the other side.
+	 */
+	private boolean expandLevel(
+			final TIntArrayList frontier,
+			final SearchDirection direction,
+			final int[] depths,
+			final int[] parents,
+			final int[] otherDepths,
+			final int[] meeting,
+			final V vref,
+			final V tref )
+	{
+		int best = Integer.MAX_VALUE;
+		nextFrontier.resetQuick();
+		for ( int k = 0; k < frontier.size(); k++ )
+		{
+			final int current = frontier.getQuick( k );
+			final V vertex = getObject( current, vref );
+			final int depth = depths[ current ];
+			for ( final E edge : Graphs.getEdges( vertex, direction ) )
 			{
-				search.abort();
+				final int n = indexOf( Graphs.getNeighbor( edge, vertex, direction, tref ) );
+				ensureCapacity( n );
+				if ( otherDepths[ n ] >= 0 )
+				{
+					final int length = depth + 1 + otherDepths[ n ];
+					if ( length < best )
+					{
+						best = length;
+						meeting[ 0 ] = current;
+						meeting[ 1 ] = n;
+					}
+				}
+				if ( depths[ n ] < 0 )
+				{
+					depths[ n ] = depth + 1;
+					parents[ n ] = current;
+					touched.add( n );
+					nextFrontier.add( n );
+				}
 			}
 		}
+		frontier.resetQuick();
+		for ( int k = 0; k < nextFrontier.size(); k++ )
+			frontier.add( nextFrontier.getQuick( k ) );
+		return best != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Builds the path in reverse order. If {@code backwardStart} is negative,
+	 * the path is read from {@code last} up the forward search tree. Otherwise
+	 * it runs from the backward search root down to {@code backwardStart},
+	 * then from {@code forwardEnd} up the forward search tree.
+	 */
+	private RefList< V > toPath( final int last, final int forwardEnd, final int backwardStart )
+	{
+		final RefList< V > path = createVertexList();
+		final V ref = vertexRef();
+		if ( backwardStart >= 0 )
+		{
+			// Backward part: from the target down to backwardStart.
+			final TIntArrayList backwardPart = new TIntArrayList();
+			for ( int i = backwardStart; i >= 0; i = backwardParents[ i ] )
+				backwardPart.add( i );
+			for ( int k = backwardPart.size() - 1; k >= 0; k-- )
+				path.add( getObject( backwardPart.getQuick( k ), ref ) );
+			for ( int i = forwardEnd; i >= 0; i = forwardParents[ i ] )
+				path.add( getObject( i, ref ) );
+		}
+		else
+		{
+			for ( int i = last; i >= 0; i = forwardParents[ i ] )
+				path.add( getObject( i, ref ) );
+		}
+		releaseRef( ref );
+		return path;
+	}
 
-		@Override
-		public void processEdge( final E edge, final V from, final V to, final BreadthFirstSearch< V, E > search )
-		{}
+	/**
+	 * Returns the index of the specified vertex in the state arrays.
+	 */
+	private int indexOf( final V vertex )
+	{
+		if ( pool != null )
+			return pool.getId( vertex );
+		int i = indices.get( vertex );
+		if ( i < 0 )
+		{
+			i = vertices.size();
+			indices.put( vertex, i );
+			vertices.add( vertex );
+		}
+		return i;
+	}
 
-		@Override
-		public void crossComponent( final V from, final V to, final BreadthFirstSearch< V, E > search )
-		{}
+	private V getObject( final int i, final V ref )
+	{
+		return pool != null ? pool.getObject( i, ref ) : vertices.get( i );
+	}
 
+	/**
+	 * Resets the entries touched by the previous query.
+	 */
+	private void prepare()
+	{
+		for ( int k = 0; k < touched.size(); k++ )
+		{
+			final int i = touched.getQuick( k );
+			forwardDepths[ i ] = -1;
+			backwardDepths[ i ] = -1;
+			forwardParents[ i ] = -1;
+			backwardParents[ i ] = -1;
+			costs[ i ] = Double.POSITIVE_INFINITY;
+		}
+		touched.resetQuick();
+		if ( pool == null )
+		{
+			// The graph may have changed: number vertices anew.
+			vertices.clear();
+			indices.clear();
+		}
+	}
+
+	/**
+	 * Grows the state arrays so that they can hold index {@code i}.
+	 */
+	private void ensureCapacity( final int i )
+	{
+		final int length = forwardDepths.length;
+		if ( i < length )
+			return;
+		final int n = Math.max( 16, Math.max( i + 1, 2 * length ) );
+		forwardDepths = grow( forwardDepths, n );
+		backwardDepths = grow( backwardDepths, n );
+		forwardParents = grow( forwardParents, n );
+		backwardParents = grow( backwardParents, n );
+		costs = Arrays.copyOf( costs, n );
+		Arrays.fill( costs, length, n, Double.POSITIVE_INFINITY );
+	}
+
+	private static int[] grow( final int[] array, final int n )
+	{
+		final int[] grown = Arrays.copyOf( array, n );
+		Arrays.fill( grown, array.length, n, -1 );
+		return grown;
 	}
 }
@@ -36,6 +36,7 @@ import org.mastodon.collection.RefStack;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 import org.mastodon.properties.IntPropertyMap;
 
 /**
@@ -49,6 +50,9 @@ import org.mastodon.properties.IntPropertyMap;
  * {@code HashSet}. It is therefore not really suited to very large or deep
  * graphs. It would be better to convert recursion to iteration, then process
  * until one SCC is completed, and provide access to SCCs through an iterator.
+ * <p>
+ * Long computations can be monitored and cancelled with a
+ * {@link ProgressToken}, that counts visited vertices.
  *
  * @author Tobias Pietzsch.
  *
@@ -92,6 +96,18 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 		stack = createVertexStack();
 	}
 
+	/**
+	 * Sets the token used to report progress and check for cancellation in
+	 * subsequent computations. Progress is counted in visited vertices.
+	 *
+	 * @param progress
+	 *            the progress token. Can be {@code null}.
+	 */
+	public void setProgressToken( final ProgressToken progress )
+	{
+		this.progress = progress;
+	}
+
 	/**
 	 * Returns the set of strongly connected components of the graph.
 	 * <p>
@@ -101,6 +117,8 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 	 *
 	 * @return a new {@link Set} containing the strongly connected components of
 	 *         the graph.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the progress token was cancelled.
 	 */
 	public Set< RefSet< V > > get()
 	{
@@ -109,6 +127,10 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 		return components;
 	}
 
+	private ProgressToken progress;
+
+	private ProgressToken.Ticker ticker;
+
 	private int i;
 
 	private final IntPropertyMap< V > index;
@@ -129,6 +151,9 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 		onStack.clear();
 		stack.clear();
 		components = new HashSet<>();
+		ticker = ProgressToken.ticker( progress );
+		if ( progress != null )
+			progress.addTotal( graph.vertices().size() );
 	}
 
 	private void compute()
@@ -138,6 +163,7 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 			if ( !index.isSet( v ) )
 				strongconnect( v );
 		}
+		ticker.flush();
 	}
 
 	private void strongconnect( final V v )
@@ -148,6 +174,7 @@ public class StronglyConnectedComponents< V extends Vertex< E >, E extends Edge<
 		++i;
 		stack.push( v );
 		onStack.add( v );
+		ticker.tick();
 
 		// Consider successors of v
 		final V ref = graph.vertexRef();
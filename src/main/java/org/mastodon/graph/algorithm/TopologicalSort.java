@@ -35,12 +35,17 @@ import org.mastodon.collection.RefSet;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.Graph;
 import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 
 /**
  * A topological order sort for a direct acyclic graph.
  * <p>
  * If the graph provided is not acyclic, the flag returned by the
  * {@link #hasFailed()} method set to {@code true} to indicate the problem.
+ * <p>
+ * The sort is computed at construction. Long computations can be monitored
+ * and cancelled with a {@link ProgressToken} passed to the constructor, that
+ * counts sorted vertices.
  *
  * @param <V>
  *            the type of vertices in the graph.
@@ -58,13 +63,33 @@ public class TopologicalSort< V extends Vertex< E >, E extends Edge< V > > exten
 
 	private final RefList< V > list;
 
+	private final ProgressToken.Ticker ticker;
+
 	public TopologicalSort( final Graph< V, E > graph )
+	{
+		this( graph, null );
+	}
+
+	/**
+	 * Sorts the specified graph, reporting progress to the specified token.
+	 *
+	 * @param graph
+	 *            the graph to sort.
+	 * @param progress
+	 *            the progress token. Can be {@code null}.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the progress token was cancelled.
+	 */
+	public TopologicalSort( final Graph< V, E > graph, final ProgressToken progress )
 	{
 		super( graph );
 		this.failed = false;
 		this.marked = createVertexSet();
 		this.temporaryMarked = createVertexSet();
 		this.list = createVertexList();
+		this.ticker = ProgressToken.ticker( progress );
+		if ( progress != null )
+			progress.addTotal( graph.vertices().size() );
 		fetchList();
 	}
 
@@ -102,6 +127,7 @@ public class TopologicalSort< V extends Vertex< E >, E extends Edge< V > > exten
 		}
 		marked = null;
 		temporaryMarked = null;
+		ticker.flush();
 	}
 
 	private void visit( final V vertex )
@@ -126,6 +152,7 @@ public class TopologicalSort< V extends Vertex< E >, E extends Edge< V > > exten
 			marked.add( vertex );
 			temporaryMarked.remove( vertex );
 			list.add( vertex );
+			ticker.tick();
 		}
 	}
 }
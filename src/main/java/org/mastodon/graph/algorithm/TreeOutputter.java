@@ -28,17 +28,18 @@
  */
 package org.mastodon.graph.algorithm;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
-import java.util.Iterator;
 
-import org.mastodon.collection.RefObjectMap;
 import org.mastodon.collection.RefSet;
 import org.mastodon.graph.Edge;
-import org.mastodon.graph.Edges;
 import org.mastodon.graph.Graph;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
-import org.mastodon.graph.algorithm.traversal.DepthFirstIterator;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+
+import gnu.trove.list.array.TIntArrayList;
 
 /**
  * An algorithm that can output the tree below a specified vertex.
@@ -47,6 +48,11 @@ import org.mastodon.graph.algorithm.traversal.DepthFirstIterator;
  * where all vertices have at most one predecessor. If this class is provided
  * with a graph that is not a tree, vertices that are not accessible by
  * descending from the specified root will be plainly ignored.
+ * <p>
+ * The layout is computed iteratively with primitive arrays, and the text is
+ * written row by row to an {@link Appendable}, so that large trees can be
+ * output without building the whole representation in memory. The output can
+ * be truncated to a maximal depth and a maximal line width.
  * 
  * @param <V>
  *            the type of vertices in the graph.
@@ -67,12 +73,8 @@ public class TreeOutputter< V extends Vertex< E >, E extends Edge< V > > extends
 
 	private static final char TRIANGLE_U_CHAR = '┴';
 
-	private static final char SPACE_CHAR = ' ';
-
 	private static final char H_BAR_CHAR = '─';
 
-	private RefSet< V > visited;
-
 	private final java.util.function.Function< V, String > strFunction;
 
 	public TreeOutputter( final ReadOnlyGraph< V, E > graph )
@@ -101,299 +103,372 @@ public class TreeOutputter< V extends Vertex< E >, E extends Edge< V > > extends
 	 */
 	public String get( final V root )
 	{
-		visited = createVertexSet();
-		final RefObjectMap< V, Integer > widthMap = recursiveCumSum( root, fun );
-		final RefObjectMap< V, Integer > depthMap = depth( root );
-
-		/*
-		 * Max depth and text holder.
-		 */
-
-		int maxDepth = -1;
-		for ( final Integer depth : depthMap.values() )
+		final StringBuilder text = new StringBuilder();
+		try
 		{
-			final int d = depth.intValue();
-			if ( d > maxDepth )
-			{
-				maxDepth = d;
-			}
+			write( root, text );
 		}
-		final StringBuffer[] str = new StringBuffer[ maxDepth + 1 ];
-		final StringBuffer[] above1 = new StringBuffer[ maxDepth + 1 ];
-		final StringBuffer[] above2 = new StringBuffer[ maxDepth + 1 ];
-		final int[] columns = new int[ maxDepth + 1 ];
-
-		for ( int i = 0; i < str.length; i++ )
+		catch ( final IOException e )
 		{
-			str[ i ] = new StringBuffer();
-			above1[ i ] = new StringBuffer();
-			above2[ i ] = new StringBuffer();
+			// Cannot happen with a StringBuilder.
+			throw new UncheckedIOException( e );
 		}
+		return text.toString();
+	}
 
-		/*
-		 * Iterate into the tree.
-		 */
+	/**
+	 * Writes the representation of the tree of children below the specified
+	 * vertex to the specified {@link Appendable}.
+	 *
+	 * @param root
+	 *            the vertex to start the tree representation with.
+	 * @param out
+	 *            where to write the representation.
+	 * @throws IOException
+	 *             if writing to {@code out} fails.
+	 * @see #get(Vertex)
+	 */
+	public void write( final V root, final Appendable out ) throws IOException
+	{
+		write( root, out, Integer.MAX_VALUE, Integer.MAX_VALUE );
+	}
 
-		final RefObjectMap< V, Integer > writeTo = createVertexObjectMap();
-		final Iterator< V > it = new DepthFirstIterator< V, E >( root, graph );
-		visited.clear();
-		while ( it.hasNext() )
+	/**
+	 * Writes the representation of the tree of children below the specified
+	 * vertex to the specified {@link Appendable}, truncated to the specified
+	 * depth and line width.
+	 * <p>
+	 * Vertices deeper than {@code maxDepth} are ignored, and take no room in
+	 * the layout. Lines are cut after {@code maxWidth} characters, and the
+	 * labels of the vertices that fall entirely beyond are not generated.
+	 *
+	 * @param root
+	 *            the vertex to start the tree representation with.
+	 * @param out
+	 *            where to write the representation.
+	 * @param maxDepth
+	 *            the depth of the deepest vertices to write. The root has
+	 *            depth 0.
+	 * @param maxWidth
+	 *            the maximal number of characters per line.
+	 * @throws IOException
+	 *             if writing to {@code out} fails.
+	 * @throws IllegalArgumentException
+	 *             if {@code maxDepth} or {@code maxWidth} is negative.
+	 */
+	public void write( final V root, final Appendable out, final int maxDepth, final int maxWidth ) throws IOException
+	{
+		if ( maxDepth < 0 )
+			throw new IllegalArgumentException( "Maximal depth cannot be negative, was " + maxDepth + "." );
+		if ( maxWidth < 0 )
+			throw new IllegalArgumentException( "Maximal width cannot be negative, was " + maxWidth + "." );
+
+		final Layout layout = new Layout( root, maxDepth );
+		final LineWriter line = new LineWriter( out, maxWidth );
+		final V ref = vertexRef();
+
+		for ( int depth = 0; depth < layout.numRows(); depth++ )
 		{
-			final V vi = it.next();
-			visited.add( vi );
-
-			final int row = depthMap.get( vi ).intValue();
-			final int width = widthMap.get( vi ).intValue();
-
-			writeTo.put( vi, Integer.valueOf( columns[ row ] ) );
-			columns[ row ] += width;
-
-			final StringBuffer sb = new StringBuffer( width );
-			sb.append( spaces( width ) );
-			final String s = strFunction.apply( vi );
-			final int sl = s.length();
-			final int start = width / 2 - sl / 2;
-			final int end = start + sl;
-			sb.replace( start, end, s );
-			str[ row ].append( sb );
-
-			final StringBuffer sb1 = new StringBuffer( width );
-			sb1.append( spaces( width ) );
-			sb1.setCharAt( width / 2, V_BAR_CHAR );
-			above1[ row ].append( sb1 );
-
-			final StringBuffer sb2 = new StringBuffer( width );
-			sb2.append( spaces( width ) );
-			char c;
-			if ( !vi.incomingEdges().isEmpty() && vi.incomingEdges().get( 0 ).getSource().outgoingEdges().size() > 1 )
+			final int from = layout.rowStarts[ depth ];
+			final int to = layout.rowStarts[ depth + 1 ];
+
+			if ( depth > 0 )
 			{
-				if ( vi.incomingEdges().get( 0 ).getSource().outgoingEdges().get( 0 ).equals( vi.incomingEdges().get( 0 ) ) )
-				{
-					c = CORNER_BL_CHAR;
-				}
-				else if ( vi.incomingEdges().get( 0 ).getSource().outgoingEdges().get( vi.incomingEdges().get( 0 ).getSource().outgoingEdges().size() - 1 ).equals( vi.incomingEdges().get( 0 ) ) )
-				{
-					c = CORNER_BR_CHAR;
-				}
-				else
+				/*
+				 * Connectors: siblings are contiguous in a row. Each group
+				 * of siblings is joined by a horizontal bar, with a mark
+				 * below the center of their parent.
+				 */
+				out.append( '\n' );
+				line.reset();
+				int groupStart = from;
+				while ( groupStart < to )
 				{
-					c = TRIANGLE_B_CHAR;
+					final int parent = layout.parents[ layout.rows[ groupStart ] ];
+					int groupEnd = groupStart + 1;
+					while ( groupEnd < to && layout.parents[ layout.rows[ groupEnd ] ] == parent )
+						groupEnd++;
+					if ( layout.columns[ parent ] >= maxWidth )
+						break;
+					writeConnectors( layout, parent, groupStart, groupEnd, line );
+					groupStart = groupEnd;
 				}
 
-			}
-			else
-			{
-				c = V_BAR_CHAR;
-			}
-			sb2.setCharAt( width / 2, c );
-			above2[ row ].append( sb2 );
-
-			/*
-			 * Determine if this vertex is a leaf, or if it has children that
-			 * already have been visited. In any of these 2 cases, we need to
-			 * create space below what will be a childless node (on the
-			 * representation).
-			 */
-			boolean doSpace = isLeaf( vi );
-			if ( !doSpace )
-			{
-				final V tmp = vertexRef();
-				for ( final Edge< V > edge : vi.outgoingEdges() )
+				// Vertical bars above each vertex.
+				out.append( '\n' );
+				line.reset();
+				for ( int i = from; i < to; i++ )
 				{
-					final V target = edge.getTarget( tmp );
-					if ( visited.contains( target ) )
-					{
-						doSpace = true;
+					final int v = layout.rows[ i ];
+					if ( layout.columns[ v ] >= maxWidth )
 						break;
-					}
+					line.put( layout.center( v ), V_BAR_CHAR );
 				}
+				out.append( '\n' );
 			}
 
-			if ( doSpace )
+			// Labels.
+			line.reset();
+			for ( int i = from; i < to; i++ )
 			{
-				for ( int i = row + 1; i <= maxDepth; i++ )
-				{
-					final char[] spaces = spaces( width );
-					str[ i ].append( spaces( width ) );
-					above1[ i ].append( spaces );
-					above2[ i ].append( spaces );
-					columns[ i ] += width;
-				}
+				final int v = layout.rows[ i ];
+				if ( layout.columns[ v ] >= maxWidth )
+					break;
+				final String s = strFunction.apply( layout.getVertex( v, ref ) );
+				final int start = layout.columns[ v ] + layout.widths[ v ] / 2 - s.length() / 2;
+				for ( int c = 0; c < s.length(); c++ )
+					line.put( start + c, s.charAt( c ) );
 			}
 		}
+		releaseRef( ref );
+	}
 
-		/*
-		 * Second iteration
-		 */
-
-		final Iterator< V > it2 = new DepthFirstIterator< V, E >( root, graph );
-		while ( it2.hasNext() )
+	/**
+	 * Writes the connector line segment of the children of a vertex. They
+	 * are stored in the row from {@code from} to {@code to}, from left to
+	 * right.
+	 */
+	private void writeConnectors( final Layout layout, final int parent, final int from, final int to, final LineWriter line ) throws IOException
+	{
+		final int numChildren = to - from;
+		final int parentCenter = layout.center( parent );
+		final char parentMark = numChildren > 1 ? TRIANGLE_U_CHAR : V_BAR_CHAR;
+
+		// Range covered by the horizontal bar.
+		final int firstCenter = layout.center( layout.rows[ from ] );
+		final int lastCenter = layout.center( layout.rows[ to - 1 ] );
+		final int barStart = numChildren > 1 ? firstCenter : Math.min( firstCenter, parentCenter );
+		final int barEnd = numChildren > 1 ? lastCenter : Math.max( firstCenter, parentCenter );
+
+		final int start = Math.min( barStart, parentCenter );
+		final int end = Math.max( barEnd, parentCenter );
+		int child = from;
+		for ( int c = start; c <= end && !line.isFull(); c++ )
 		{
-			final V vi = it2.next();
-			final int row = depthMap.get( vi ).intValue();
-			if ( row == maxDepth )
-			{
-				continue;
-			}
-			final int col = writeTo.get( vi ).intValue();
-			final int width = widthMap.get( vi ).intValue();
-
-			char c;
-			if ( vi.outgoingEdges().size() > 1 )
-			{
-				c = TRIANGLE_U_CHAR;
-			}
-			else if ( vi.outgoingEdges().size() > 0 )
+			while ( child < to && layout.center( layout.rows[ child ] ) < c )
+				child++;
+			final char ch;
+			if ( c == parentCenter )
+				ch = parentMark;
+			else if ( child < to && layout.center( layout.rows[ child ] ) == c )
 			{
-				c = V_BAR_CHAR;
+				if ( numChildren == 1 )
+					ch = V_BAR_CHAR;
+				else if ( child == from )
+					ch = CORNER_BR_CHAR;
+				else if ( child == to - 1 )
+					ch = CORNER_BL_CHAR;
+				else
+					ch = TRIANGLE_B_CHAR;
 			}
+			else if ( c >= barStart && c < barEnd )
+				ch = H_BAR_CHAR;
 			else
-			{
-				c = SPACE_CHAR;
-			}
-			above2[ row + 1 ].setCharAt( col + width / 2, c );
-
-			int fi = -1;
-			for ( int i = col + 1; i < col + width; i++ )
-			{
-				final char d = above2[ row + 1 ].charAt( i );
-				if ( d == V_BAR_CHAR || d == TRIANGLE_B_CHAR || d == CORNER_BL_CHAR || d == CORNER_BR_CHAR )
-				{
-					fi = i;
-					break;
-				}
-			}
-			if ( fi < 0 )
-			{
 				continue;
-			}
+			line.put( c, ch );
+		}
+	}
+
+	/**
+	 * Layout of the tree below a root, in primitive arrays indexed by the
+	 * order in which vertices are met in a depth-first iteration. The
+	 * children of a vertex are iterated in reverse order of their edges, like
+	 * in {@link org.mastodon.graph.algorithm.traversal.DepthFirstIterator}.
+	 */
+	private class Layout
+	{
+		private final DenseIndex< V > index;
 
-			int li = -1;
-			for ( int i = Math.min( col + width - 1, above2[ row + 1 ].length() - 1 ); i >= col + 1; i-- )
+		/**
+		 * Vertex index in the {@link DenseIndex}, by layout index.
+		 */
+		private final int[] vertices;
+
+		/**
+		 * Parent layout index, by layout index. {@code -1} for the root.
+		 */
+		private final int[] parents;
+
+		/**
+		 * Width of the subtree, in characters, by layout index.
+		 */
+		private final int[] widths;
+
+		/**
+		 * First column of the subtree, by layout index.
+		 */
+		private final int[] columns;
+
+		/**
+		 * Layout indices, sorted by depth, then from left to right.
+		 */
+		private final int[] rows;
+
+		/**
+		 * Start of each depth in {@link #rows}, plus a last element for the
+		 * end.
+		 */
+		private final int[] rowStarts;
+
+		Layout( final V root, final int maxDepth )
+		{
+			index = DenseIndex.create( graph.vertices() );
+
+			/*
+			 * Depth-first iteration. A vertex is marked when it is pushed,
+			 * and assigned a layout index when it is popped.
+			 */
+			final boolean[] discovered = new boolean[ index.size() ];
+			final TIntArrayList vertexList = new TIntArrayList();
+			final TIntArrayList parentList = new TIntArrayList();
+			final TIntArrayList depthList = new TIntArrayList();
+			final TIntArrayList widthList = new TIntArrayList();
+			final TIntArrayList stack = new TIntArrayList();
+
+			final V vref = vertexRef();
+			final V tref = vertexRef();
+			final int rootIndex = index.indexOf( root );
+			discovered[ rootIndex ] = true;
+			stack.add( rootIndex );
+			stack.add( -1 );
+			stack.add( 0 );
+			int maxFoundDepth = 0;
+			while ( !stack.isEmpty() )
 			{
-				final char d = above2[ row + 1 ].charAt( i );
-				if ( d == V_BAR_CHAR || d == TRIANGLE_B_CHAR || d == CORNER_BL_CHAR || d == CORNER_BR_CHAR )
+				final int top = stack.size() - 3;
+				final int vi = stack.getQuick( top );
+				final int parent = stack.getQuick( top + 1 );
+				final int depth = stack.getQuick( top + 2 );
+				stack.remove( top, 3 );
+
+				final int current = vertexList.size();
+				final V v = index.getObject( vi, vref );
+				vertexList.add( vi );
+				parentList.add( parent );
+				depthList.add( depth );
+				widthList.add( strFunction.apply( v ).length() + 2 );
+				maxFoundDepth = Math.max( maxFoundDepth, depth );
+
+				if ( depth == maxDepth )
+					continue;
+				for ( final E edge : v.outgoingEdges() )
 				{
-					li = i;
-					break;
+					final int ti = index.indexOf( edge.getTarget( tref ) );
+					if ( !discovered[ ti ] )
+					{
+						discovered[ ti ] = true;
+						stack.add( ti );
+						stack.add( current );
+						stack.add( depth + 1 );
+					}
 				}
 			}
-			if ( li < 0 )
+			releaseRef( vref );
+			releaseRef( tref );
+
+			vertices = vertexList.toArray();
+			parents = parentList.toArray();
+			widths = widthList.toArray();
+			final int n = vertices.length;
+
+			/*
+			 * Widths, in reverse order so that children come before their
+			 * parent. A vertex is as wide as its label plus margins, or as
+			 * all its children.
+			 */
+			final int[] sums = new int[ n ];
+			for ( int i = n - 1; i >= 0; i-- )
 			{
-				continue;
+				widths[ i ] = Math.max( widths[ i ], sums[ i ] );
+				if ( parents[ i ] >= 0 )
+					sums[ parents[ i ] ] += widths[ i ];
 			}
 
-			for ( int i = fi; i < li; i++ )
+			/*
+			 * Columns, in iteration order: children are laid out from left
+			 * to right, starting at the first column of their parent.
+			 */
+			columns = new int[ n ];
+			final int[] next = sums;
+			next[ 0 ] = 0;
+			for ( int i = 1; i < n; i++ )
 			{
-				if ( above2[ row + 1 ].charAt( i ) == SPACE_CHAR )
-				{
-					above2[ row + 1 ].setCharAt( i, H_BAR_CHAR );
-				}
+				final int parent = parents[ i ];
+				columns[ i ] = next[ parent ];
+				next[ parent ] += widths[ i ];
+				next[ i ] = columns[ i ];
 			}
 
+			// Rows, by counting sort over depths.
+			rowStarts = new int[ maxFoundDepth + 2 ];
+			for ( int i = 0; i < n; i++ )
+				rowStarts[ depthList.getQuick( i ) + 1 ]++;
+			for ( int d = 0; d <= maxFoundDepth; d++ )
+				rowStarts[ d + 1 ] += rowStarts[ d ];
+			rows = new int[ n ];
+			final int[] fill = Arrays.copyOf( rowStarts, maxFoundDepth + 1 );
+			for ( int i = 0; i < n; i++ )
+				rows[ fill[ depthList.getQuick( i ) ]++ ] = i;
 		}
 
-		// Cat
-		final StringBuffer text = new StringBuffer();
-		text.append( str[ 0 ] );
-		for ( int i = 1; i < above2.length; i++ )
+		int numRows()
 		{
-			text.append( '\n' );
-			text.append( above2[ i ] );
-			text.append( '\n' );
-			text.append( above1[ i ] );
-			text.append( '\n' );
-			text.append( str[ i ] );
+			return rowStarts.length - 1;
 		}
 
-		return text.toString();
-	}
+		int center( final int i )
+		{
+			return columns[ i ] + widths[ i ] / 2;
+		}
 
-	private boolean isLeaf( final V vi )
-	{
-		return vi.outgoingEdges().isEmpty();
+		V getVertex( final int i, final V ref )
+		{
+			return index.getObject( vertices[ i ], ref );
+		}
 	}
 
-	private RefObjectMap< V, Integer > recursiveCumSum( final V root, final Function< V, Integer > fun )
+	/**
+	 * Writes the characters of a line at increasing columns, padding with
+	 * spaces, and ignoring what lies beyond the maximal width.
+	 */
+	private static class LineWriter
 	{
-		final RefObjectMap< V, Integer > sumMap = createVertexObjectMap();
-		recurse( root, sumMap, fun );
-		return sumMap;
-	}
+		private final Appendable out;
 
-	private boolean recurse( final V vertex, final RefObjectMap< V, Integer > map, final Function< V, Integer > fun )
-	{
-		if ( visited.contains( vertex ) ) { return false; }
-		visited.add( vertex );
-		final Edges< E > oEdges = vertex.outgoingEdges();
-		if ( oEdges.isEmpty() )
+		private final int maxWidth;
+
+		private int position;
+
+		LineWriter( final Appendable out, final int maxWidth )
 		{
-			final Integer val = fun.eval( vertex );
-			map.put( vertex, val );
-			return true;
+			this.out = out;
+			this.maxWidth = maxWidth;
 		}
 
-		int sum = 0;
-		final V tmp = vertexRef();
-		for ( final E edge : oEdges )
+		void reset()
 		{
-			final V v = edge.getTarget( tmp );
-			if ( recurse( v, map, fun ) )
-			{
-				sum += map.get( v ).intValue();
-			}
+			position = 0;
 		}
 
-		sum = Math.max( sum, fun.eval( vertex ).intValue() );
-		map.put( vertex, Integer.valueOf( sum ) );
-		return true;
-	}
-
-	private RefObjectMap< V, Integer > depth( final V root )
-	{
-		final RefObjectMap< V, Integer > depthMap = createVertexObjectMap();
-		depthMap.put( root, Integer.valueOf( 0 ) );
-		recurseDepth( root, depthMap );
-		return depthMap;
-	}
+		boolean isFull()
+		{
+			return position >= maxWidth;
+		}
 
-	private void recurseDepth( final V v, final RefObjectMap< V, Integer > depthMap )
-	{
-		final Edges< E > oEdges = v.outgoingEdges();
-		final Integer val = Integer.valueOf( depthMap.get( v ) + 1 );
-		final V tmp = vertexRef();
-		for ( final E edge : oEdges )
+		void put( final int column, final char c ) throws IOException
 		{
-			final V target = edge.getTarget( tmp );
-			if ( !depthMap.containsKey( target ) )
+			if ( column >= maxWidth || column < position )
+				return;
+			while ( position < column )
 			{
-				depthMap.put( target, val );
-				recurseDepth( target, depthMap );
+				out.append( ' ' );
+				position++;
 			}
+			out.append( c );
+			position++;
 		}
 	}
 
-	private static final char[] spaces( final int n )
-	{
-		final char[] spaces = new char[ n ];
-		Arrays.fill( spaces, ' ' );
-		return spaces;
-	}
-
-	private static interface Function< I, O >
-	{
-		public O eval( I input );
-	}
-
-	private final Function< V, Integer > fun = new Function< V, Integer >()
-	{
-		@Override
-		public Integer eval( final V input )
-		{
-			return Integer.valueOf( strFunction.apply( input ).length() + 2 );
-		}
-	};
-
 	public static < V extends Vertex< E >, E extends Edge< V > > String output( final Graph< V, E > graph, final V root, final java.util.function.Function< V, String > strFunction )
 	{
 		return new TreeOutputter< V, E >( graph, strFunction ).get( root );
@@ -29,12 +29,12 @@
 package org.mastodon.graph.algorithm.traversal;
 
 import org.mastodon.collection.RefDeque;
-import org.mastodon.collection.RefIntMap;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.Edges;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
 import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.SearchIntValues;
 
 /**
  * Base class for breadth-first searches.
@@ -56,7 +56,7 @@ public class AbstractBreadthFirstSearch< T extends AbstractBreadthFirstSearch< T
 
 	protected final RefDeque< V > queue;
 
-	protected final RefIntMap< V > depths;
+	protected final SearchIntValues< V > depths;
 
 	private final SearchDirection directed;
 
@@ -68,7 +68,7 @@ public class AbstractBreadthFirstSearch< T extends AbstractBreadthFirstSearch< T
 		super( graph );
 		this.directed = directed;
 		this.queue = createVertexDeque();
-		this.depths = createVertexIntMap( NO_ENTRY_VALUE );
+		this.depths = SearchIntValues.create( graph.vertices(), NO_ENTRY_VALUE );
 		this.unqueued = graph.vertexRef();
 	}
 
@@ -102,6 +102,7 @@ public class AbstractBreadthFirstSearch< T extends AbstractBreadthFirstSearch< T
 			final V vertex = queue.poll( tmpRef );
 			unqueued = assign( vertex, unqueued );
 			final int level = depths.get( vertex );
+			ticker.tick();
 
 			if ( null != searchListener )
 				searchListener.processVertexEarly( vertex, ( T ) this );
@@ -28,13 +28,14 @@
  */
 package org.mastodon.graph.algorithm.traversal;
 
-import org.mastodon.collection.RefIntMap;
+import java.util.Arrays;
+
 import org.mastodon.collection.RefList;
 import org.mastodon.graph.Edge;
-import org.mastodon.graph.Edges;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
 import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.SearchIntValues;
 
 public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V, E >, V extends Vertex< E >, E extends Edge< V > > extends GraphSearch< T, V, E >
 {
@@ -43,7 +44,7 @@ public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V,
 
 	protected final SearchDirection directivity;
 
-	protected final RefIntMap< V > entryTime;
+	protected final SearchIntValues< V > entryTime;
 
 	protected int time;
 
@@ -53,12 +54,66 @@ public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V,
 	 */
 	protected V unqueued;
 
+	/**
+	 * The vertices being visited, from the start vertex to the current one.
+	 */
+	private final RefList< V > stack;
+
+	/**
+	 * For each vertex on the stack, the index of its next neighbor to visit.
+	 */
+	private int[] cursors;
+
+	/**
+	 * For each vertex on the stack, the end index (exclusive) of its neighbors.
+	 * The neighbors of a vertex start at the end index of the vertex below it
+	 * on the stack.
+	 */
+	private int[] ends;
+
+	/**
+	 * The number of vertices on the stack.
+	 */
+	private int depth;
+
+	/**
+	 * The neighbor vertices of all the vertices on the stack.
+	 */
+	private final RefList< V > neighbors;
+
+	/**
+	 * The edges to the neighbor vertices, aligned with {@link #neighbors}.
+	 */
+	private final RefList< E > neighborEdges;
+
+	/**
+	 * The number of neighbors in use.
+	 */
+	private int size;
+
+	private final V neighborRef;
+
+	private final V parentRef;
+
+	private final V replacedRef;
+
+	private final E replacedEdgeRef;
+
 	public AbstractDepthFirstSearch( final ReadOnlyGraph< V, E > graph, final SearchDirection directivity )
 	{
 		super( graph );
 		this.directivity = directivity;
-		this.entryTime = createVertexIntMap( NO_ENTRY_VALUE );
+		this.entryTime = SearchIntValues.create( graph.vertices(), NO_ENTRY_VALUE );
 		this.unqueued = vertexRef();
+		this.stack = createVertexList();
+		this.cursors = new int[ 16 ];
+		this.ends = new int[ 16 ];
+		this.neighbors = createVertexList();
+		this.neighborEdges = createEdgeList();
+		this.neighborRef = vertexRef();
+		this.parentRef = vertexRef();
+		this.replacedRef = vertexRef();
+		this.replacedEdgeRef = edgeRef();
 	}
 
 	@Override
@@ -66,16 +121,99 @@ public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V,
 	{
 		time = 0;
 		entryTime.clear();
+		// Left over if the previous search was cancelled.
+		depth = 0;
+		size = 0;
 		super.start( start );
 	}
 
+	/**
+	 * Visits the vertices reachable from the specified vertex, depth first.
+	 * <p>
+	 * The search is iterative and keeps its own stack of vertices being
+	 * visited. The neighbors of all the vertices on this stack are stored in
+	 * a single pair of lists, reused across searches, so that no object is
+	 * allocated per visited vertex.
+	 */
 	@SuppressWarnings( "unchecked" )
 	@Override
-	protected void visit( final V vertex )
+	protected void visit( final V start )
 	{
-		if ( wasAborted() )
+		if ( !enter( start ) )
 			return;
 
+		V vertex = vertexRef();
+		V target = vertexRef();
+		E edge = edgeRef();
+		while ( depth > 0 )
+		{
+			final int d = depth - 1;
+			vertex = stack.get( d, vertex );
+			if ( cursors[ d ] < ends[ d ] )
+			{
+				final int i = cursors[ d ]++;
+				edge = neighborEdges.get( i, edge );
+				target = neighbors.get( i, target );
+
+				if ( !discovered.contains( target ) )
+				{
+					parents.put( target, vertex );
+					if ( null != searchListener )
+						searchListener.processEdge( edge, vertex, target, ( T ) this );
+					if ( !enter( target ) )
+						break;
+					/*
+					 * The abort check for this edge happens when the target
+					 * is done, as in a recursive search.
+					 */
+					continue;
+				}
+				else if ( null != searchListener &&
+						( directivity != SearchDirection.UNDIRECTED ||
+								( !processed.contains( target ) && !isParent( target, vertex ) ) ) )
+				{
+					searchListener.processEdge( edge, vertex, target, ( T ) this );
+				}
+			}
+			else
+			{
+				if ( null != searchListener )
+					searchListener.processVertexLate( vertex, ( T ) this );
+				time++;
+
+				unqueued = assign( vertex, unqueued );
+				processed.add( vertex );
+				size = d == 0 ? 0 : ends[ d - 1 ];
+				depth--;
+				if ( depth == 0 )
+					break;
+			}
+
+			if ( wasAborted() )
+				break;
+		}
+
+		depth = 0;
+		size = 0;
+		releaseRef( vertex );
+		releaseRef( target );
+		releaseRef( edge );
+	}
+
+	/**
+	 * Discovers the specified vertex and pushes it on the stack, along with its
+	 * neighbors.
+	 *
+	 * @return {@code false} if the search was aborted and the vertex was not
+	 *         discovered.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private boolean enter( final V vertex )
+	{
+		if ( wasAborted() )
+			return false;
+
+		ticker.tick();
 		time++;
 		entryTime.put( vertex, time );
 		discovered.add( vertex );
@@ -86,98 +224,49 @@ public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V,
 		 * Collect target vertices and edges.
 		 */
 
-		final RefList< V > targets;
-		final RefList< E > targetEdges;
-		V target = vertexRef();
-		switch ( directivity )
-		{
-		case DIRECTED:
-		{
-			final Edges< E > edges = vertex.outgoingEdges();
-			targets = createVertexList( edges.size() );
-			targetEdges = createEdgeList( edges.size() );
-			for ( final E e : edges )
-			{
-				target = e.getTarget( target );
-				targets.add( target );
-				targetEdges.add( e );
-			}
-			break;
-		}
-		case REVERSED:
-		{
-			final Edges< E > edges = vertex.incomingEdges();
-			targets = createVertexList( edges.size() );
-			targetEdges = createEdgeList( edges.size() );
-			for ( final E e : edges )
-			{
-				target = e.getSource( target );
-				targets.add( target );
-				targetEdges.add( e );
-			}
-			break;
-		}
-		case UNDIRECTED:
-		default:
+		final int from = size;
+		for ( final E e : Graphs.getEdges( vertex, directivity ) )
 		{
-			final Edges< E > edges = vertex.edges();
-			targets = createVertexList( edges.size() );
-			targetEdges = createEdgeList( edges.size() );
-			for ( final E e : edges )
-			{
-				target = Graphs.getOppositeVertex( e, vertex, target );
-				targets.add( target );
-				targetEdges.add( e );
-			}
-			break;
-		}
+			set( neighbors, size, Graphs.getNeighbor( e, vertex, directivity, neighborRef ), replacedRef );
+			set( neighborEdges, size, e, replacedEdgeRef );
+			size++;
 		}
 
 		/*
 		 * Potentially sort vertices and edges according to vertices sort order.
 		 */
 
-		if ( null != comparator && targets.size() > 1 )
-		{
-			Graphs.sort( targets, comparator, targetEdges );
-		}
+		if ( null != comparator && size - from > 1 )
+			Graphs.sort( neighbors, from, size, comparator, neighborEdges );
 
-		/*
-		 * Discover vertices across these edges.
-		 */
-
-		E edge = edgeRef();
-		for ( int i = 0; i < targets.size(); i++ )
+		if ( depth == cursors.length )
 		{
-			edge = targetEdges.get( i, edge );
-			target = targets.get( i, target );
-
-			if ( !discovered.contains( target ) )
-			{
-				parents.put( target, vertex );
-				if ( null != searchListener )
-					searchListener.processEdge( edge, vertex, target, ( T ) this );
-				visit( target );
-			}
-			else if ( null != searchListener &&
-					( directivity != SearchDirection.UNDIRECTED ||
-							( !processed.contains( target ) && !parents.get( vertex ).equals( target ) ) ) )
-			{
-				searchListener.processEdge( edge, vertex, target, ( T ) this );
-			}
-
-			if ( wasAborted() )
-				return;
+			cursors = Arrays.copyOf( cursors, 2 * depth );
+			ends = Arrays.copyOf( ends, 2 * depth );
 		}
+		set( stack, depth, vertex, replacedRef );
+		cursors[ depth ] = from;
+		ends[ depth ] = size;
+		depth++;
+		return true;
+	}
 
-		if ( null != searchListener )
-			searchListener.processVertexLate( vertex, ( T ) this );
-		time++;
+	/**
+	 * Stores an element at the specified index of a list used as a growable
+	 * buffer, whose elements past the used range are stale.
+	 */
+	private static < O > void set( final RefList< O > list, final int index, final O o, final O replacedRef )
+	{
+		if ( index < list.size() )
+			list.set( index, o, replacedRef );
+		else
+			list.add( o );
+	}
 
-		unqueued = assign( vertex, unqueued );
-		processed.add( vertex );
-		releaseRef( target );
-		releaseRef( edge );
+	private boolean isParent( final V parent, final V child )
+	{
+		final V p = parents.get( child, parentRef );
+		return p != null && p.equals( parent );
 	}
 
 	/**
@@ -195,7 +284,7 @@ public class AbstractDepthFirstSearch< T extends AbstractDepthFirstSearch< T, V,
 	@Override
 	public EdgeClass edgeClass( final V from, final V to )
 	{
-		if ( from.equals( parents.get( to ) ) ) { return EdgeClass.TREE; }
+		if ( isParent( from, to ) ) { return EdgeClass.TREE; }
 		if ( discovered.contains( to ) && !processed.contains( to ) ) { return EdgeClass.BACK; }
 		if ( processed.contains( to ) )
 		{
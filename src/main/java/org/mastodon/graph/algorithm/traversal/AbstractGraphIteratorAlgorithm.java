@@ -28,22 +28,60 @@
  */
 package org.mastodon.graph.algorithm.traversal;
 
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.mastodon.RefPool;
 import org.mastodon.collection.MaybeRefIterator;
-import org.mastodon.collection.RefSet;
+import org.mastodon.collection.RefCollections;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
 import org.mastodon.graph.algorithm.AbstractGraphAlgorithm;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+import org.mastodon.graph.algorithm.util.SearchIntValues;
+import org.mastodon.graph.algorithm.util.SearchMarks;
 import org.mastodon.pool.PoolObject;
+import org.mastodon.spatial.HasTimepoint;
 
+/**
+ * Base class for graph iterators.
+ * <p>
+ * The traversal can be pruned with {@link #setMaxDepth(int)},
+ * {@link #setVertexFilter(Predicate)}, {@link #setVertexMask(DenseIndex, BitSet)},
+ * {@link #setEdgeFilter(Predicate)} and {@link #setTimepointRange(int, int)}.
+ * Vertices and edges rejected by these are never enqueued nor marked as
+ * visited, so that the part of the graph behind them is not traversed at all.
+ * Pruning only applies to the vertices reached across edges: the start vertex
+ * (and the roots of cross-component iterators) are always iterated. The
+ * neighbors of a vertex are collected when it is returned by {@link #next()},
+ * so pruning settings can be changed right after construction and still
+ * apply to the neighbors of the start vertex.
+ * <p>
+ * The remaining iteration can also be consumed as a {@link #stream()} or, for
+ * pool-backed graphs, as an {@link #indices()} stream of pool indices. Both
+ * are lazy: short-circuiting operations such as {@code findFirst},
+ * {@code anyMatch} or {@code limit} stop the traversal early.
+ *
+ * @param <V>
+ *            the type of the graph vertices iterated.
+ * @param <E>
+ *            the type of the graph edges iterated.
+ */
 public abstract class AbstractGraphIteratorAlgorithm< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E > implements MaybeRefIterator, Iterator< V >
 {
 	/**
 	 * Keep track of visited vertices.
 	 */
-	protected final RefSet< V > visited;
+	protected final SearchMarks< V > visited;
 
 	/**
 	 * Is returned by {@link #next()}.
@@ -62,10 +100,32 @@ public abstract class AbstractGraphIteratorAlgorithm< V extends Vertex< E >, E e
 	protected final V nextRef;
 	protected final V fetchedRef;
 
+	/**
+	 * The depth of vertices reached across edges, only maintained when the
+	 * depth is limited. Vertices without depth are at depth 0.
+	 */
+	private SearchIntValues< V > depths;
+
+	private int maxDepth = -1;
+
+	private Predicate< V > vertexFilter;
+
+	private Predicate< E > edgeFilter;
+
+	private DenseIndex< V > maskIndex;
+
+	private BitSet mask;
+
+	private int minTimepoint = Integer.MIN_VALUE;
+
+	private int maxTimepoint = Integer.MAX_VALUE;
+
+	private boolean pruneVertices;
+
 	public AbstractGraphIteratorAlgorithm( final ReadOnlyGraph< V, E > graph )
 	{
 		super( graph );
-		visited = createVertexSet();
+		visited = SearchMarks.create( graph.vertices() );
 		tmpRef = vertexRef();
 		nextRef = vertexRef();
 		fetchedRef = vertexRef();
@@ -75,10 +135,97 @@ public abstract class AbstractGraphIteratorAlgorithm< V extends Vertex< E >, E e
 	protected void reset()
 	{
 		visited.clear();
+		if ( depths != null )
+			depths.clear();
 		next = null;
 		fetched = null;
 	}
 
+	/**
+	 * Limits the depth of the traversal. Vertices at the maximal depth are
+	 * iterated, but their neighbors are not. The start vertex is at depth 0.
+	 * <p>
+	 * The depth of a vertex is the depth, plus one, of the vertex it was
+	 * reached from. For breadth-first iterators, it is the number of edges of
+	 * the shortest path from the start vertex. For depth-first iterators, it
+	 * depends on the traversal order.
+	 *
+	 * @param maxDepth
+	 *            the maximal depth. A negative value removes the limit.
+	 */
+	public void setMaxDepth( final int maxDepth )
+	{
+		this.maxDepth = maxDepth;
+		if ( maxDepth >= 0 && depths == null )
+			depths = SearchIntValues.create( graph.vertices(), 0 );
+	}
+
+	/**
+	 * Only traverses vertices accepted by the specified filter.
+	 *
+	 * @param vertexFilter
+	 *            the vertex filter. {@code null} removes the filter.
+	 */
+	public void setVertexFilter( final Predicate< V > vertexFilter )
+	{
+		this.vertexFilter = vertexFilter;
+		updatePruneVertices();
+	}
+
+	/**
+	 * Only traverses vertices whose index is set in the specified mask.
+	 *
+	 * @param index
+	 *            the index mapping vertices to bits of the mask.
+	 * @param mask
+	 *            the mask. {@code null} removes the mask.
+	 */
+	public void setVertexMask( final DenseIndex< V > index, final BitSet mask )
+	{
+		this.maskIndex = index;
+		this.mask = mask;
+		updatePruneVertices();
+	}
+
+	/**
+	 * Only traverses edges accepted by the specified filter.
+	 *
+	 * @param edgeFilter
+	 *            the edge filter. {@code null} removes the filter.
+	 */
+	public void setEdgeFilter( final Predicate< E > edgeFilter )
+	{
+		this.edgeFilter = edgeFilter;
+	}
+
+	/**
+	 * Only traverses vertices whose timepoint is within the specified range.
+	 * Use {@link Integer#MIN_VALUE} and {@link Integer#MAX_VALUE} for open
+	 * bounds.
+	 *
+	 * @param minTimepoint
+	 *            the smallest timepoint to traverse, inclusive.
+	 * @param maxTimepoint
+	 *            the largest timepoint to traverse, inclusive.
+	 * @throws UnsupportedOperationException
+	 *             during iteration, if the range is bounded and the graph
+	 *             vertices do not implement {@link HasTimepoint}.
+	 */
+	public void setTimepointRange( final int minTimepoint, final int maxTimepoint )
+	{
+		this.minTimepoint = minTimepoint;
+		this.maxTimepoint = maxTimepoint;
+		updatePruneVertices();
+	}
+
+	private void updatePruneVertices()
+	{
+		pruneVertices = vertexFilter != null
+				|| mask != null
+				|| minTimepoint != Integer.MIN_VALUE
+				|| maxTimepoint != Integer.MAX_VALUE;
+	}
+
 	@Override
 	public boolean isRefIterator()
 	{
@@ -98,27 +245,171 @@ public abstract class AbstractGraphIteratorAlgorithm< V extends Vertex< E >, E e
 	public V next()
 	{
 		next = assign( fetched, nextRef );
+		if ( isExpanded( next ) )
+			expand( next );
 		fetchNext();
 		return next;
 	}
 
+	/**
+	 * Fetches the vertex that will be returned by the following call to
+	 * {@link #next()}.
+	 */
 	protected void fetchNext()
 	{
 		if ( canFetch() )
-		{
 			fetched = fetch( fetchedRef );
-			for ( final E e : neighbors( fetched ) )
+		else
+			fetched = null;
+	}
+
+	/**
+	 * Marks and tosses the unvisited neighbors of the specified vertex that
+	 * pass the pruning settings. Called by {@link #next()} just before
+	 * fetching the following vertex.
+	 *
+	 * @param vertex
+	 *            the vertex whose neighbors to toss.
+	 */
+	protected void expand( final V vertex )
+	{
+		for ( final E e : neighbors( vertex ) )
+		{
+			if ( !acceptEdge( e ) )
+				continue;
+			final V target = targetOf( vertex, e, tmpRef );
+			if ( !visited.contains( target ) && acceptVertex( target ) )
 			{
-				final V target = targetOf( fetched, e, tmpRef );
-				if ( !visited.contains( target ) )
-				{
-					visited.add( target );
-					toss( target );
-				}
+				visited.add( target );
+				setDepth( target, vertex );
+				toss( target );
 			}
 		}
-		else
-			fetched = null;
+	}
+
+	/**
+	 * Returns whether the neighbors of the specified vertex should be
+	 * traversed, according to the depth limit.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return {@code false} if the vertex is at the maximal depth.
+	 */
+	protected boolean isExpanded( final V vertex )
+	{
+		return maxDepth < 0 || depths.get( vertex ) < maxDepth;
+	}
+
+	/**
+	 * Records the depth of a vertex reached from the specified vertex, if the
+	 * depth is limited.
+	 *
+	 * @param target
+	 *            the vertex reached.
+	 * @param source
+	 *            the vertex it was reached from.
+	 */
+	protected void setDepth( final V target, final V source )
+	{
+		if ( maxDepth >= 0 )
+			depths.put( target, depths.get( source ) + 1 );
+	}
+
+	/**
+	 * Returns whether the specified vertex, reached across an edge, passes the
+	 * vertex filter, mask and timepoint range.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return {@code true} if the vertex can be traversed.
+	 */
+	protected boolean acceptVertex( final V vertex )
+	{
+		if ( !pruneVertices )
+			return true;
+		if ( vertexFilter != null && !vertexFilter.test( vertex ) )
+			return false;
+		if ( mask != null )
+		{
+			final int i = maskIndex.indexOf( vertex );
+			if ( i < 0 || !mask.get( i ) )
+				return false;
+		}
+		if ( minTimepoint != Integer.MIN_VALUE || maxTimepoint != Integer.MAX_VALUE )
+		{
+			if ( !( vertex instanceof HasTimepoint ) )
+				throw new UnsupportedOperationException( "Timepoint bounds require vertices that implement HasTimepoint." );
+			final int t = ( ( HasTimepoint ) vertex ).getTimepoint();
+			if ( t < minTimepoint || t > maxTimepoint )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the specified edge passes the edge filter.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @return {@code true} if the edge can be traversed.
+	 */
+	protected boolean acceptEdge( final E edge )
+	{
+		return edgeFilter == null || edgeFilter.test( edge );
+	}
+
+	/**
+	 * Returns a sequential stream over the remaining vertices of this
+	 * iteration. Vertices are traversed as the stream is consumed.
+	 * <p>
+	 * Unlike {@link #next()}, the stream returns a new vertex object for each
+	 * element, so that elements can safely be collected or compared. Use
+	 * {@link #indices()} to avoid creating these objects.
+	 *
+	 * @return a new stream, that consumes this iterator.
+	 */
+	public Stream< V > stream()
+	{
+		final Spliterator< V > spliterator = new Spliterators.AbstractSpliterator< V >( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL )
+		{
+			@Override
+			public boolean tryAdvance( final Consumer< ? super V > action )
+			{
+				if ( !hasNext() )
+					return false;
+				action.accept( assign( next(), vertexRef() ) );
+				return true;
+			}
+		};
+		return StreamSupport.stream( spliterator, false );
+	}
+
+	/**
+	 * Returns a sequential stream over the pool indices of the remaining
+	 * vertices of this iteration. Vertices are traversed as the stream is
+	 * consumed, and no object is created per element.
+	 *
+	 * @return a new stream, that consumes this iterator.
+	 * @throws UnsupportedOperationException
+	 *             if the graph vertices are not backed by a pool.
+	 */
+	public IntStream indices()
+	{
+		final RefPool< V > pool = RefCollections.tryGetRefPool( graph.vertices() );
+		if ( pool == null )
+			throw new UnsupportedOperationException( "Index streams require vertices backed by a pool." );
+		final Spliterator.OfInt spliterator = new Spliterators.AbstractIntSpliterator( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL )
+		{
+			@Override
+			public boolean tryAdvance( final IntConsumer action )
+			{
+				if ( !hasNext() )
+					return false;
+				action.accept( pool.getId( next() ) );
+				return true;
+			}
+		};
+		return StreamSupport.intStream( spliterator, false );
 	}
 
 	@Override
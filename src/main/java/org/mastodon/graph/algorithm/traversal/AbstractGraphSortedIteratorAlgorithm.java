@@ -29,52 +29,180 @@
 package org.mastodon.graph.algorithm.traversal;
 
 import java.util.Comparator;
+import java.util.function.ToDoubleFunction;
 
 import org.mastodon.collection.RefList;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
 
+/**
+ * Base class for graph iterators that toss the neighbors of each vertex in a
+ * sorted order.
+ * <p>
+ * The order is set either by a {@link Comparator}, or by a numerical key
+ * extracted from each vertex. With a key, the keys of the neighbors are
+ * computed once into a primitive array and an array of indices is sorted
+ * against them, so that no boxed comparisons nor swaps of vertex references
+ * happen. Neighbors with equal keys keep their edge order.
+ *
+ * @param <V>
+ *            the type of the graph vertices iterated.
+ * @param <E>
+ *            the type of the graph edges iterated.
+ */
 public abstract class AbstractGraphSortedIteratorAlgorithm< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphIteratorAlgorithm< V, E >
 {
+	/**
+	 * Fan-outs up to this size are sorted by insertion sort.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * The comparator, or {@code null} if the order is set by a key.
+	 */
 	protected final Comparator< V > comparator;
 
 	protected final RefList< V > list;
 
+	/**
+	 * The key, or {@code null} if the order is set by a comparator.
+	 */
+	private final ToDoubleFunction< V > key;
+
+	private double[] keys;
+
+	private int[] order;
+
 	public AbstractGraphSortedIteratorAlgorithm( final ReadOnlyGraph< V, E > graph, final Comparator< V > comparator )
+	{
+		this( graph, comparator, null );
+	}
+
+	/**
+	 * Creates an iterator that tosses neighbors by increasing key.
+	 * <p>
+	 * Integer keys, such as time-points, can be given as well, as in
+	 * {@code v -> v.getTimepoint()}: they convert exactly to {@code double}.
+	 *
+	 * @param graph
+	 *            the graph to iterate.
+	 * @param key
+	 *            the function that computes the key of a vertex.
+	 */
+	public AbstractGraphSortedIteratorAlgorithm( final ReadOnlyGraph< V, E > graph, final ToDoubleFunction< V > key )
+	{
+		this( graph, null, key );
+	}
+
+	private AbstractGraphSortedIteratorAlgorithm( final ReadOnlyGraph< V, E > graph, final Comparator< V > comparator, final ToDoubleFunction< V > key )
 	{
 		super( graph );
 		this.comparator = comparator;
+		this.key = key;
 		this.list = createVertexList();
+		this.keys = new double[ INSERTION_SORT_THRESHOLD ];
+		this.order = new int[ INSERTION_SORT_THRESHOLD ];
 	}
 
 	@Override
-	protected void fetchNext()
+	protected void expand( final V vertex )
 	{
-		if ( canFetch() )
+		list.clear();
+		for ( final E e : neighbors( vertex ) )
 		{
-			fetched = fetch( fetchedRef );
-			list.clear();
-			for ( final E e : neighbors( fetched ) )
+			if ( !acceptEdge( e ) )
+				continue;
+			final V target = targetOf( vertex, e, tmpRef );
+			if ( !visited.contains( target ) && acceptVertex( target ) )
 			{
-				final V target = targetOf( fetched, e, tmpRef );
-				if ( !visited.contains( target ) )
-				{
-					visited.add( target );
-					list.add( target );
-				}
+				visited.add( target );
+				setDepth( target, vertex );
+				list.add( target );
 			}
+		}
 
+		final int n = list.size();
+		if ( key == null )
+		{
 			list.sort( comparator );
 			// To have right order when pop from stack:
-			for ( int i = 0; i < list.size(); i++ )
+			for ( int i = 0; i < n; i++ )
+				toss( list.get( i, tmpRef ) );
+			return;
+		}
+
+		if ( n > keys.length )
+		{
+			keys = new double[ Math.max( n, 2 * keys.length ) ];
+			order = new int[ keys.length ];
+		}
+		for ( int i = 0; i < n; i++ )
+		{
+			keys[ i ] = key.applyAsDouble( list.get( i, tmpRef ) );
+			order[ i ] = i;
+		}
+		if ( n <= INSERTION_SORT_THRESHOLD )
+			insertionSort( order, keys, 0, n );
+		else
+			quickSort( order, keys, 0, n - 1 );
+		for ( int i = 0; i < n; i++ )
+			toss( list.get( order[ i ], tmpRef ) );
+	}
+
+	/**
+	 * Returns whether index {@code i} goes before index {@code j}: by key,
+	 * then by index for equal keys.
+	 */
+	private static boolean before( final int i, final int j, final double[] keys )
+	{
+		final int c = Double.compare( keys[ i ], keys[ j ] );
+		return c < 0 || ( c == 0 && i < j );
+	}
+
+	private static void insertionSort( final int[] order, final double[] keys, final int from, final int to )
+	{
+		for ( int i = from + 1; i < to; i++ )
+		{
+			final int o = order[ i ];
+			int j = i - 1;
+			while ( j >= from && before( o, order[ j ], keys ) )
 			{
-				final V target = list.get( i );
-				toss( target );
+				order[ j + 1 ] = order[ j ];
+				j--;
 			}
+			order[ j + 1 ] = o;
 		}
-		else
-			fetched = null;
 	}
 
+	private static void quickSort( final int[] order, final double[] keys, final int low, final int high )
+	{
+		if ( high - low < INSERTION_SORT_THRESHOLD )
+		{
+			insertionSort( order, keys, low, high + 1 );
+			return;
+		}
+		final int pivot = order[ ( low + high ) >>> 1 ];
+		int i = low;
+		int j = high;
+		while ( i <= j )
+		{
+			while ( before( order[ i ], pivot, keys ) )
+				i++;
+			while ( before( pivot, order[ j ], keys ) )
+				j--;
+			if ( i <= j )
+			{
+				final int tmp = order[ i ];
+				order[ i ] = order[ j ];
+				order[ j ] = tmp;
+				i++;
+				j--;
+			}
+		}
+		if ( low < j )
+			quickSort( order, keys, low, j );
+		if ( i < high )
+			quickSort( order, keys, i, high );
+	}
 }
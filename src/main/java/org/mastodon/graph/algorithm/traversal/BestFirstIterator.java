@@ -0,0 +1,252 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import java.util.function.ToDoubleFunction;
+
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.IndexedMinHeap;
+
+/**
+ * A best-first iterator, that returns the vertices reachable from a root in
+ * order of increasing score.
+ * <p>
+ * At each step, the iterator returns the vertex of the frontier with the
+ * smallest score, then adds its unvisited neighbors to the frontier. Scores are
+ * either given per vertex, or per edge. With edge scores, the score of a
+ * frontier vertex is the smallest score of the edges it was reached through,
+ * and it decreases when a better edge to it is found. The frontier is an
+ * {@link IndexedMinHeap} of vertex indices, so there is no boxing and no
+ * allocation per vertex.
+ * <p>
+ * The root is always returned first. Scores are not cumulative: use
+ * {@link org.mastodon.graph.algorithm.ShortestPath} for path lengths. With a
+ * {@link #setMaxDepth(int) depth limit}, the depth of a vertex is that of the
+ * vertex its best edge comes from, plus one.
+ *
+ * @param <V>
+ *            the type of the graph vertices iterated.
+ * @param <E>
+ *            the type of the graph edges iterated.
+ */
+public class BestFirstIterator< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphIteratorAlgorithm< V, E >
+{
+	/**
+	 * Scores an edge traversed by a {@link BestFirstIterator}.
+	 *
+	 * @param <V>
+	 *            the type of the graph vertices.
+	 * @param <E>
+	 *            the type of the graph edges.
+	 */
+	@FunctionalInterface
+	public interface EdgeScore< V, E >
+	{
+		/**
+		 * Returns the score of an edge, lower scores being iterated first.
+		 *
+		 * @param source
+		 *            the vertex the edge is traversed from.
+		 * @param edge
+		 *            the edge.
+		 * @param target
+		 *            the vertex the edge leads to.
+		 * @return the score.
+		 */
+		public double score( V source, E edge, V target );
+	}
+
+	private final SearchDirection directivity;
+
+	private final EdgeScore< V, E > score;
+
+	private final IndexedMinHeap heap;
+
+	private DenseIndex< V > index;
+
+	/**
+	 * Creates an iterator that returns vertices by increasing vertex score.
+	 *
+	 * @param root
+	 *            the vertex to start iteration with.
+	 * @param graph
+	 *            the graph to iterate.
+	 * @param directivity
+	 *            how the iterator follows edges.
+	 * @param vertexScore
+	 *            the score of each vertex.
+	 */
+	public BestFirstIterator( final V root, final ReadOnlyGraph< V, E > graph, final SearchDirection directivity, final ToDoubleFunction< V > vertexScore )
+	{
+		this( graph, directivity, vertexScore );
+		reset( root );
+	}
+
+	/**
+	 * Creates an iterator that returns vertices by increasing score of the
+	 * best edge they were reached through.
+	 *
+	 * @param root
+	 *            the vertex to start iteration with.
+	 * @param graph
+	 *            the graph to iterate.
+	 * @param directivity
+	 *            how the iterator follows edges.
+	 * @param edgeScore
+	 *            the score of each traversed edge.
+	 */
+	public BestFirstIterator( final V root, final ReadOnlyGraph< V, E > graph, final SearchDirection directivity, final EdgeScore< V, E > edgeScore )
+	{
+		this( graph, directivity, edgeScore );
+		reset( root );
+	}
+
+	/**
+	 * Creates an iterator by vertex score, to be started with
+	 * {@link #reset(Vertex)}.
+	 *
+	 * @param graph
+	 *            the graph to iterate.
+	 * @param directivity
+	 *            how the iterator follows edges.
+	 * @param vertexScore
+	 *            the score of each vertex.
+	 */
+	public BestFirstIterator( final ReadOnlyGraph< V, E > graph, final SearchDirection directivity, final ToDoubleFunction< V > vertexScore )
+	{
+		this( graph, directivity, ( s, e, t ) -> vertexScore.applyAsDouble( t ) );
+	}
+
+	/**
+	 * Creates an iterator by edge score, to be started with
+	 * {@link #reset(Vertex)}.
+	 *
+	 * @param graph
+	 *            the graph to iterate.
+	 * @param directivity
+	 *            how the iterator follows edges.
+	 * @param edgeScore
+	 *            the score of each traversed edge.
+	 */
+	public BestFirstIterator( final ReadOnlyGraph< V, E > graph, final SearchDirection directivity, final EdgeScore< V, E > edgeScore )
+	{
+		super( graph );
+		this.directivity = directivity;
+		this.score = edgeScore;
+		this.index = DenseIndex.create( graph.vertices() );
+		this.heap = new IndexedMinHeap( index.size() );
+	}
+
+	/**
+	 * Restarts the iteration from the specified root.
+	 * <p>
+	 * If the graph vertices are not backed by a pool, the vertex index is
+	 * rebuilt to include vertices added since the last reset. Until then,
+	 * such vertices are not iterated.
+	 *
+	 * @param root
+	 *            the vertex to start iteration with.
+	 */
+	public void reset( final V root )
+	{
+		super.reset();
+		heap.clear();
+		if ( !index.isPoolBacked() )
+			index = DenseIndex.create( graph.vertices() );
+		toss( root );
+		fetchNext();
+		visited.add( root );
+	}
+
+	@Override
+	protected void expand( final V vertex )
+	{
+		for ( final E e : neighbors( vertex ) )
+		{
+			if ( !acceptEdge( e ) )
+				continue;
+			final V target = targetOf( vertex, e, tmpRef );
+			final int t = index.indexOf( target );
+			if ( t < 0 )
+				continue; // Added to a graph without pool since the last reset.
+			if ( heap.contains( t ) )
+			{
+				// Reached through a better edge: it is now a child of vertex.
+				if ( heap.insertOrDecrease( t, score.score( vertex, e, target ) ) )
+					setDepth( target, vertex );
+			}
+			else if ( !visited.contains( target ) && acceptVertex( target ) )
+			{
+				visited.add( target );
+				setDepth( target, vertex );
+				heap.insert( t, score.score( vertex, e, target ) );
+			}
+		}
+	}
+
+	@Override
+	protected Iterable< E > neighbors( final V vertex )
+	{
+		return Graphs.getEdges( vertex, directivity );
+	}
+
+	@Override
+	protected V targetOf( final V source, final E edge, final V ref )
+	{
+		return Graphs.getNeighbor( edge, source, directivity, ref );
+	}
+
+	@Override
+	protected V fetch( final V ref )
+	{
+		return index.getObject( heap.poll(), ref );
+	}
+
+	/**
+	 * Adds the specified vertex to the frontier with the lowest possible
+	 * score. Only used for the root: neighbors are added with their score by
+	 * {@link #expand(Vertex)}.
+	 */
+	@Override
+	protected void toss( final V vertex )
+	{
+		heap.insert( index.indexOf( vertex ), Double.NEGATIVE_INFINITY );
+	}
+
+	@Override
+	protected boolean canFetch()
+	{
+		return !heap.isEmpty();
+	}
+}
@@ -118,6 +118,14 @@ public class BreadthFirstCrossComponentSearch< V extends Vertex< E >, E extends
 		this.rit = cc.iterator();
 	}
 
+	@Override
+	public void start( final V start )
+	{
+		if ( null != progress )
+			progress.addTotal( graph.vertices().size() );
+		super.start( start );
+	}
+
 	@Override
 	protected void visit( final V start )
 	{
@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import org.mastodon.graph.algorithm.util.DenseIndex;
+
+/**
+ * The result of a breadth-first search, stored as a depth, a parent and a
+ * seed per vertex.
+ * <p>
+ * Depths, parents and seeds are stored in {@code int} arrays, indexed by the
+ * {@link DenseIndex} of the graph vertices. Vertices that were not reached
+ * have a depth of {@code -1}. Search sources have a depth of {@code 0} and no
+ * parent.
+ * <p>
+ * The seed of a reached vertex is the source at the root of its branch of
+ * the search tree, that is, a source closest to it. With several sources, the
+ * seeds partition the reached vertices into graph Voronoi cells.
+ *
+ * @param <V>
+ *            the type of vertices in the graph.
+ *
+ * @see ParallelBreadthFirstSearch
+ */
+public class BreadthFirstTree< V >
+{
+	private final DenseIndex< V > index;
+
+	private final int[] depths;
+
+	private final int[] parents;
+
+	private final int[] seeds;
+
+	private final int numReached;
+
+	private final int maxDepth;
+
+	BreadthFirstTree( final DenseIndex< V > index, final int[] depths, final int[] parents, final int[] seeds, final int numReached, final int maxDepth )
+	{
+		this.index = index;
+		this.depths = depths;
+		this.parents = parents;
+		this.seeds = seeds;
+		this.numReached = numReached;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Returns whether the specified vertex was reached by the search.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return {@code true} if the vertex was reached.
+	 */
+	public boolean isReached( final V vertex )
+	{
+		return getDepth( vertex ) >= 0;
+	}
+
+	/**
+	 * Returns the depth of the specified vertex, that is its distance in edges
+	 * to the closest source.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return the depth, or {@code -1} if the vertex was not reached.
+	 */
+	public int getDepth( final V vertex )
+	{
+		final int i = index.indexOf( vertex );
+		return ( i < 0 || i >= depths.length ) ? -1 : depths[ i ];
+	}
+
+	/**
+	 * Returns the parent of the specified vertex in the search tree, that is
+	 * the vertex it was discovered from.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the parent, or {@code null} if the vertex is a source or was not
+	 *         reached.
+	 */
+	public V getParent( final V vertex, final V ref )
+	{
+		final int i = index.indexOf( vertex );
+		if ( i < 0 || i >= parents.length || parents[ i ] < 0 )
+			return null;
+		return index.getObject( parents[ i ], ref );
+	}
+
+	/**
+	 * Returns the seed of the specified vertex, that is the source it was
+	 * reached from. If several sources are at the same distance, one of them
+	 * is returned.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @param ref
+	 *            a vertex reference used for retrieval.
+	 * @return the seed, or {@code null} if the vertex was not reached. The
+	 *         seed of a source is the source itself.
+	 */
+	public V getSeed( final V vertex, final V ref )
+	{
+		final int i = index.indexOf( vertex );
+		if ( i < 0 || i >= seeds.length || seeds[ i ] < 0 )
+			return null;
+		return index.getObject( seeds[ i ], ref );
+	}
+
+	/**
+	 * Returns the number of vertices reached by the search, sources included.
+	 *
+	 * @return the number of reached vertices.
+	 */
+	public int getNumReached()
+	{
+		return numReached;
+	}
+
+	/**
+	 * Returns the largest depth of the reached vertices.
+	 *
+	 * @return the maximal depth, or {@code -1} if there were no sources.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the depths of all the vertices, indexed by the vertex index
+	 * returned by {@link #getIndex()}. The array is not copied and must not
+	 * be modified.
+	 *
+	 * @return the depth array, {@code -1} for vertices that were not reached.
+	 */
+	public int[] getDepths()
+	{
+		return depths;
+	}
+
+	/**
+	 * Returns the parent vertex index of all the vertices, indexed by the
+	 * vertex index returned by {@link #getIndex()}. The array is not copied
+	 * and must not be modified.
+	 *
+	 * @return the parent array, {@code -1} for sources and vertices that were
+	 *         not reached.
+	 */
+	public int[] getParents()
+	{
+		return parents;
+	}
+
+	/**
+	 * Returns the seed vertex index of all the vertices, indexed by the vertex
+	 * index returned by {@link #getIndex()}. The array is not copied and must
+	 * not be modified.
+	 *
+	 * @return the seed array, {@code -1} for vertices that were not reached.
+	 */
+	public int[] getSeeds()
+	{
+		return seeds;
+	}
+
+	/**
+	 * Returns the index that maps vertices to array indices.
+	 *
+	 * @return the vertex index.
+	 */
+	public DenseIndex< V > getIndex()
+	{
+		return index;
+	}
+}
@@ -122,6 +122,8 @@ public class DepthFirstCrossComponentSearch< V extends Vertex< E >, E extends Ed
 	@Override
 	public void start( final V start )
 	{
+		if ( null != progress )
+			progress.addTotal( graph.vertices().size() );
 		super.start( start );
 		while ( rit.hasNext() )
 		{
@@ -132,6 +134,7 @@ public class DepthFirstCrossComponentSearch< V extends Vertex< E >, E extends Ed
 			searchListener.crossComponent( unqueued, next, this );
 			visit( next );
 		}
+		ticker.flush();
 	}
 
 }
@@ -30,12 +30,13 @@ package org.mastodon.graph.algorithm.traversal;
 
 import java.util.Comparator;
 
-import org.mastodon.collection.RefRefMap;
-import org.mastodon.collection.RefSet;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
 import org.mastodon.graph.algorithm.AbstractGraphAlgorithm;
+import org.mastodon.graph.algorithm.util.ProgressToken;
+import org.mastodon.graph.algorithm.util.SearchMarks;
+import org.mastodon.graph.algorithm.util.SearchParents;
 
 public abstract class GraphSearch< T extends GraphSearch< T, V, E >, V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E >
 {
@@ -54,26 +55,55 @@ public abstract class GraphSearch< T extends GraphSearch< T, V, E >, V extends V
 		 * to source).
 		 */
 		REVERSED;
+
+		/**
+		 * Returns the direction that follows edges the opposite way.
+		 * {@link #UNDIRECTED} is its own opposite.
+		 *
+		 * @return the opposite direction.
+		 */
+		public SearchDirection reverse()
+		{
+			switch ( this )
+			{
+			case DIRECTED:
+				return REVERSED;
+			case REVERSED:
+				return DIRECTED;
+			case UNDIRECTED:
+			default:
+				return UNDIRECTED;
+			}
+		}
 	}
 
-	protected final RefSet< V > discovered;
+	protected final SearchMarks< V > discovered;
 
-	protected final RefSet< V > processed;
+	protected final SearchMarks< V > processed;
 
 	private boolean aborted;
 
 	protected SearchListener< V, E, T > searchListener;
 
-	protected final RefRefMap< V, V > parents;
+	protected final SearchParents< V > parents;
 
 	protected Comparator< V > comparator;
 
+	protected ProgressToken progress;
+
+	/**
+	 * Counts the vertices visited by the current search, and reports them to
+	 * the progress token, if any.
+	 */
+	protected ProgressToken.Ticker ticker;
+
 	public GraphSearch(final ReadOnlyGraph< V, E > graph)
 	{
 		super( graph );
-		this.discovered = createVertexSet();
-		this.processed = createVertexSet();
-		this.parents = createVertexVertexMap();
+		this.discovered = SearchMarks.create( graph.vertices() );
+		this.processed = SearchMarks.create( graph.vertices() );
+		this.parents = SearchParents.create( graph.vertices() );
+		this.ticker = ProgressToken.ticker( null );
 	}
 
 	/**
@@ -85,6 +115,8 @@ public abstract class GraphSearch< T extends GraphSearch< T, V, E >, V extends V
 	 *
 	 * @param start
 	 *            the vertex to start the search with.
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the progress token was cancelled during the search.
 	 */
 	public void start( final V start )
 	{
@@ -92,7 +124,9 @@ public abstract class GraphSearch< T extends GraphSearch< T, V, E >, V extends V
 		processed.clear();
 		parents.clear();
 		aborted = false;
+		ticker = ProgressToken.ticker( progress );
 		visit( start );
+		ticker.flush();
 	}
 
 	/**
@@ -128,6 +162,23 @@ public abstract class GraphSearch< T extends GraphSearch< T, V, E >, V extends V
 		this.comparator = comparator;
 	}
 
+	/**
+	 * Sets the token used to report progress and check for cancellation in
+	 * next searches. Progress is counted in visited vertices.
+	 * <p>
+	 * Unlike {@link #abort()}, which is meant to be called by the
+	 * {@link SearchListener}, the token can be cancelled from any thread. The
+	 * search then stops by throwing a
+	 * {@link java.util.concurrent.CancellationException}.
+	 *
+	 * @param progress
+	 *            the progress token. Can be {@code null}.
+	 */
+	public void setProgressToken( final ProgressToken progress )
+	{
+		this.progress = progress;
+	}
+
 	/**
 	 * Aborts the current search before its normal termination.
 	 */
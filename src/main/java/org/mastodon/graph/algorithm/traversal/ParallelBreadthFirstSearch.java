@@ -0,0 +1,389 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.AbstractGraphAlgorithm;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+import org.mastodon.graph.algorithm.util.Graphs;
+import org.mastodon.graph.algorithm.util.ParallelRanges;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Level-synchronous breadth-first search over a whole graph, that can run
+ * with several threads.
+ * <p>
+ * Unlike {@link BreadthFirstSearch}, this search does not notify a listener.
+ * It computes the depth, parent and seed (closest source) of every reachable
+ * vertex, from one or several sources, and returns them as a
+ * {@link BreadthFirstTree}. Searching from several sources at once labels
+ * every vertex with its nearest source in a single pass, instead of one
+ * search per source.
+ * <p>
+ * Each level is expanded either top-down, from the vertices of the current
+ * frontier to their undiscovered neighbors, or bottom-up, from the
+ * undiscovered vertices to a neighbor in the current frontier. Bottom-up
+ * expansion is cheaper when the frontier holds a large part of the remaining
+ * vertices, because each undiscovered vertex stops at the first frontier
+ * neighbor it finds. Discovered vertices are marked atomically in a bitset
+ * indexed by vertex pool index, so that concurrent workers claim each vertex
+ * exactly once.
+ * <p>
+ * If the vertices of the graph are backed by a pool and
+ * {@code numThreads > 1}, levels are expanded concurrently by
+ * {@code numThreads} threads, started once per search. Otherwise, the search
+ * runs in the calling thread. Levels too small to be split, as most levels of
+ * a lineage, are always expanded in the calling thread. The graph must not be
+ * modified during a search.
+ *
+ * @param <V>
+ *            the type of vertices in the graph.
+ * @param <E>
+ *            the type of edges in the graph.
+ */
+public class ParallelBreadthFirstSearch< V extends Vertex< E >, E extends Edge< V > > extends AbstractGraphAlgorithm< V, E >
+{
+	/**
+	 * Switch to bottom-up when the frontier is larger than the undiscovered
+	 * vertices divided by this factor.
+	 */
+	private static final int ALPHA = 14;
+
+	/**
+	 * Switch back to top-down when the frontier is smaller than all the
+	 * vertices divided by this factor.
+	 */
+	private static final int BETA = 24;
+
+	/**
+	 * Minimal number of frontier vertices handled by a task.
+	 */
+	private static final int MIN_FRONTIER_CHUNK = 256;
+
+	private final SearchDirection directivity;
+
+	private final int numThreads;
+
+	/**
+	 * Creates a new parallel breadth-first search.
+	 *
+	 * @param graph
+	 *            the graph to traverse.
+	 * @param directivity
+	 *            how the search follows edges.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 */
+	public ParallelBreadthFirstSearch( final ReadOnlyGraph< V, E > graph, final SearchDirection directivity, final int numThreads )
+	{
+		super( graph );
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "Number of threads cannot be lower than 1, was " + numThreads + "." );
+		this.directivity = directivity;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Searches the graph from the specified vertex.
+	 *
+	 * @param source
+	 *            the vertex to start the search from.
+	 * @return a new {@link BreadthFirstTree}.
+	 */
+	public BreadthFirstTree< V > search( final V source )
+	{
+		return search( Collections.singleton( source ) );
+	}
+
+	/**
+	 * Searches the graph from all the specified vertices at once. The depth
+	 * of a vertex is then its distance to the closest source, and its seed is
+	 * that source.
+	 *
+	 * @param sources
+	 *            the vertices to start the search from.
+	 * @return a new {@link BreadthFirstTree}.
+	 */
+	public BreadthFirstTree< V > search( final Collection< V > sources )
+	{
+		final DenseIndex< V > index = DenseIndex.create( graph.vertices() );
+		final int n = index.size();
+		final State state = new State( n );
+
+		for ( final V source : sources )
+		{
+			final int i = index.indexOf( source );
+			if ( state.claim( i ) )
+			{
+				state.depths[ i ] = 0;
+				state.seeds[ i ] = i;
+				state.frontier.add( i );
+			}
+		}
+		int numReached = state.frontier.size();
+		int maxDepth = numReached > 0 ? 0 : -1;
+
+		final int threads = index.isPoolBacked() ? numThreads : 1;
+		final List< Worker > workers = new ArrayList<>( threads );
+		for ( int t = 0; t < threads; t++ )
+			workers.add( new Worker( index, state ) );
+
+		// Lineages have many small levels: reuse the threads across levels.
+		try (final ParallelRanges.Pool pool = new ParallelRanges.Pool( threads ))
+		{
+			boolean bottomUp = false;
+			int depth = 0;
+			while ( !state.frontier.isEmpty() )
+			{
+				final int frontierSize = state.frontier.size();
+				if ( bottomUp )
+					bottomUp = frontierSize >= n / BETA;
+				else
+					bottomUp = frontierSize > ( n - numReached ) / ALPHA;
+
+				state.depth = depth;
+				if ( bottomUp )
+				{
+					state.buildFrontierBits();
+					for ( final Worker worker : workers )
+						worker.bottomUp = true;
+					pool.run( n, 1024, workers );
+				}
+				else
+				{
+					for ( final Worker worker : workers )
+						worker.bottomUp = false;
+					pool.run( frontierSize, MIN_FRONTIER_CHUNK, workers );
+				}
+
+				// Gather the next frontier.
+				state.frontier.resetQuick();
+				for ( final Worker worker : workers )
+				{
+					final TIntArrayList next = worker.next;
+					for ( int k = 0; k < next.size(); k++ )
+						state.frontier.add( next.getQuick( k ) );
+					next.resetQuick();
+				}
+				numReached += state.frontier.size();
+				depth++;
+				if ( !state.frontier.isEmpty() )
+					maxDepth = depth;
+			}
+		}
+
+		for ( final Worker worker : workers )
+			worker.release();
+		return new BreadthFirstTree<>( index, state.depths, state.parents, state.seeds, numReached, maxDepth );
+	}
+
+	/**
+	 * Search state shared by the workers.
+	 */
+	private static final class State
+	{
+		final int[] depths;
+
+		final int[] parents;
+
+		final int[] seeds;
+
+		/**
+		 * Discovered vertices, one bit per vertex index.
+		 */
+		final AtomicLongArray discovered;
+
+		/**
+		 * Vertices of the current frontier.
+		 */
+		final TIntArrayList frontier;
+
+		/**
+		 * Vertices of the current frontier, one bit per vertex index. Only
+		 * built for bottom-up levels.
+		 */
+		final long[] frontierBits;
+
+		int depth;
+
+		State( final int n )
+		{
+			depths = new int[ n ];
+			parents = new int[ n ];
+			seeds = new int[ n ];
+			Arrays.fill( depths, -1 );
+			Arrays.fill( parents, -1 );
+			Arrays.fill( seeds, -1 );
+			discovered = new AtomicLongArray( ( n + 63 ) >>> 6 );
+			frontier = new TIntArrayList();
+			frontierBits = new long[ ( n + 63 ) >>> 6 ];
+		}
+
+		/**
+		 * Marks the specified vertex index as discovered. Returns
+		 * {@code false} if it already was.
+		 */
+		boolean claim( final int i )
+		{
+			final int word = i >>> 6;
+			final long bit = 1L << ( i & 63 );
+			while ( true )
+			{
+				final long current = discovered.get( word );
+				if ( ( current & bit ) != 0 )
+					return false;
+				if ( discovered.compareAndSet( word, current, current | bit ) )
+					return true;
+			}
+		}
+
+		boolean isDiscovered( final int i )
+		{
+			return ( discovered.get( i >>> 6 ) & ( 1L << ( i & 63 ) ) ) != 0;
+		}
+
+		void buildFrontierBits()
+		{
+			Arrays.fill( frontierBits, 0L );
+			for ( int k = 0; k < frontier.size(); k++ )
+			{
+				final int i = frontier.getQuick( k );
+				frontierBits[ i >>> 6 ] |= 1L << ( i & 63 );
+			}
+		}
+
+		boolean inFrontier( final int i )
+		{
+			return ( frontierBits[ i >>> 6 ] & ( 1L << ( i & 63 ) ) ) != 0;
+		}
+	}
+
+	/**
+	 * Expands a range of the current level. Top-down, the range is over the
+	 * frontier. Bottom-up, it is over all the vertex indices.
+	 */
+	private class Worker implements ParallelRanges.RangeWorker
+	{
+		private final DenseIndex< V > index;
+
+		private final State state;
+
+		private final V vref;
+
+		private final V tref;
+
+		final TIntArrayList next;
+
+		boolean bottomUp;
+
+		Worker( final DenseIndex< V > index, final State state )
+		{
+			this.index = index;
+			this.state = state;
+			this.vref = vertexRef();
+			this.tref = vertexRef();
+			this.next = new TIntArrayList();
+		}
+
+		@Override
+		public void process( final int from, final int to )
+		{
+			if ( bottomUp )
+				processBottomUp( from, to );
+			else
+				processTopDown( from, to );
+		}
+
+		private void processTopDown( final int from, final int to )
+		{
+			final int depth = state.depth + 1;
+			for ( int k = from; k < to; k++ )
+			{
+				final int current = state.frontier.getQuick( k );
+				final V v = index.getObject( current, vref );
+				for ( final E e : Graphs.getEdges( v, directivity ) )
+				{
+					final int t = index.indexOf( Graphs.getNeighbor( e, v, directivity, tref ) );
+					if ( !state.isDiscovered( t ) && state.claim( t ) )
+					{
+						state.depths[ t ] = depth;
+						state.parents[ t ] = current;
+						state.seeds[ t ] = state.seeds[ current ];
+						next.add( t );
+					}
+				}
+			}
+		}
+
+		private void processBottomUp( final int from, final int to )
+		{
+			final SearchDirection reversed = directivity.reverse();
+			final int depth = state.depth + 1;
+			for ( int i = from; i < to; i++ )
+			{
+				if ( state.isDiscovered( i ) )
+					continue;
+				final V v = index.getObject( i, vref );
+				if ( v == null )
+					continue;
+				for ( final E e : Graphs.getEdges( v, reversed ) )
+				{
+					final int s = index.indexOf( Graphs.getNeighbor( e, v, reversed, tref ) );
+					if ( state.inFrontier( s ) )
+					{
+						// Only this worker handles vertex i at this level.
+						state.claim( i );
+						state.depths[ i ] = depth;
+						state.parents[ i ] = s;
+						state.seeds[ i ] = state.seeds[ s ];
+						next.add( i );
+						break;
+					}
+				}
+			}
+		}
+
+		void release()
+		{
+			releaseRef( vref );
+			releaseRef( tref );
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free union-find (disjoint-set) structure over the integers
+ * {@code 0..n-1}, with union by rank and path halving.
+ * <p>
+ * {@link #union(int, int)} and {@link #find(int)} can be called concurrently
+ * from several threads. The parent and rank of each element are packed in a
+ * single {@code long} so that linking a root is a single compare-and-set that
+ * only succeeds if the root and its rank are unchanged. Roots are always linked
+ * below a root with a larger {@code (rank, index)} pair, which prevents cycles
+ * even under contention.
+ */
+public class ConcurrentUnionFind
+{
+	private static final long PARENT_MASK = 0xffffffffL;
+
+	private final AtomicLongArray entries;
+
+	/**
+	 * Creates a union-find over {@code n} singleton sets.
+	 *
+	 * @param n
+	 *            the number of elements.
+	 */
+	public ConcurrentUnionFind( final int n )
+	{
+		entries = new AtomicLongArray( n );
+		for ( int i = 0; i < n; i++ )
+			entries.set( i, pack( i, 0 ) );
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements.
+	 */
+	public int size()
+	{
+		return entries.length();
+	}
+
+	/**
+	 * Returns the representative of the set containing {@code i}. Compresses
+	 * the path to the root along the way (path halving).
+	 *
+	 * @param i
+	 *            the element.
+	 * @return the root of the set containing {@code i}.
+	 */
+	public int find( int i )
+	{
+		while ( true )
+		{
+			final long entry = entries.get( i );
+			final int parent = parent( entry );
+			if ( parent == i )
+				return i;
+			final int grandParent = parent( entries.get( parent ) );
+			if ( grandParent != parent )
+				entries.compareAndSet( i, entry, pack( grandParent, rank( entry ) ) );
+			i = grandParent;
+		}
+	}
+
+	/**
+	 * Merges the sets containing {@code a} and {@code b}.
+	 *
+	 * @param a
+	 *            the first element.
+	 * @param b
+	 *            the second element.
+	 * @return {@code true} if two distinct sets were merged.
+	 */
+	public boolean union( final int a, final int b )
+	{
+		while ( true )
+		{
+			int ra = find( a );
+			int rb = find( b );
+			if ( ra == rb )
+				return false;
+
+			long ea = entries.get( ra );
+			long eb = entries.get( rb );
+			if ( parent( ea ) != ra || parent( eb ) != rb )
+				continue;
+
+			// Link the root with the smaller (rank, index) below the other.
+			if ( rank( ea ) > rank( eb ) || ( rank( ea ) == rank( eb ) && ra > rb ) )
+			{
+				final int tmp = ra;
+				ra = rb;
+				rb = tmp;
+				final long etmp = ea;
+				ea = eb;
+				eb = etmp;
+			}
+			if ( !entries.compareAndSet( ra, ea, pack( rb, rank( ea ) ) ) )
+				continue;
+			if ( rank( ea ) == rank( eb ) )
+				// Best effort: rb might not be a root anymore.
+				entries.compareAndSet( rb, eb, pack( rb, rank( eb ) + 1 ) );
+			return true;
+		}
+	}
+
+	private static long pack( final int parent, final int rank )
+	{
+		return ( ( long ) rank << 32 ) | ( parent & PARENT_MASK );
+	}
+
+	private static int parent( final long entry )
+	{
+		return ( int ) ( entry & PARENT_MASK );
+	}
+
+	private static int rank( final long entry )
+	{
+		return ( int ) ( entry >>> 32 );
+	}
+}
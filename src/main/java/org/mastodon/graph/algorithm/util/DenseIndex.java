@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.ArrayList;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefMaps;
+
+/**
+ * Maps the objects of a {@link RefCollection} (typically the vertices or the
+ * edges of a graph) to dense {@code int} indices, so that algorithms can keep
+ * per-object state in plain arrays instead of hash maps.
+ * <p>
+ * If the collection is backed by a {@link RefPool}, the index of an object is
+ * its pool id ({@link RefPool#getId(Object)}). Indices are then stable, remain
+ * valid for objects added after this index was created, and some indices below
+ * {@link #size()} may not correspond to any object (freed pool slots).
+ * <p>
+ * Otherwise, indices are assigned once, at construction, by enumerating the
+ * collection. Objects added to the collection afterwards are not indexed, and
+ * {@link #indexOf(Object)} returns {@code -1} for them.
+ *
+ * @param <O>
+ *            the type of objects indexed.
+ */
+public abstract class DenseIndex< O >
+{
+
+	/**
+	 * Creates a dense index for the objects of the specified collection.
+	 *
+	 * @param collection
+	 *            the collection to index.
+	 * @param <O>
+	 *            the type of objects in the collection.
+	 * @return a new dense index.
+	 */
+	public static < O > DenseIndex< O > create( final RefCollection< O > collection )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new PoolIndex<>( collection, pool );
+		else
+			return new EnumeratedIndex<>( collection );
+	}
+
+	protected final RefCollection< O > collection;
+
+	protected int size;
+
+	private DenseIndex( final RefCollection< O > collection )
+	{
+		this.collection = collection;
+	}
+
+	/**
+	 * Returns the index of the specified object, or {@code -1} if the object
+	 * is not indexed.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return the index of the object.
+	 */
+	public abstract int indexOf( final O o );
+
+	/**
+	 * Returns the object with the specified index, or {@code null} if there is
+	 * no such object.
+	 *
+	 * @param index
+	 *            the index.
+	 * @param ref
+	 *            a reference object that can be used for retrieval. Depending
+	 *            on concrete implementation, this object can be cleared,
+	 *            ignored or re-used.
+	 * @return the object with the specified index, or {@code null}.
+	 */
+	public abstract O getObject( final int index, final O ref );
+
+	/**
+	 * Returns {@code true} if the indices are the ids of a {@link RefPool}, in
+	 * which case {@link #indexOf(Object)} and {@link #getObject(int, Object)}
+	 * are safe to call concurrently from several threads (using distinct
+	 * reference objects).
+	 *
+	 * @return whether this index is backed by a {@link RefPool}.
+	 */
+	public abstract boolean isPoolBacked();
+
+	/**
+	 * Recomputes the exclusive upper bound of the indices of the objects
+	 * currently in the collection. For collections that are not backed by a
+	 * {@link RefPool} this does nothing.
+	 *
+	 * @return the new value of {@link #size()}.
+	 */
+	public abstract int update();
+
+	/**
+	 * Returns the exclusive upper bound of indices, as of the last call to
+	 * {@link #update()} (or construction). Arrays of this size can hold one
+	 * value per indexed object.
+	 *
+	 * @return the index upper bound.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the collection indexed.
+	 *
+	 * @return the collection.
+	 */
+	public RefCollection< O > getCollection()
+	{
+		return collection;
+	}
+
+	/**
+	 * Returns a new reference object for this index.
+	 *
+	 * @return a new reference.
+	 */
+	public O createRef()
+	{
+		return collection.createRef();
+	}
+
+	/**
+	 * Releases a reference object created by {@link #createRef()}.
+	 *
+	 * @param ref
+	 *            the reference to release.
+	 */
+	public void releaseRef( final O ref )
+	{
+		collection.releaseRef( ref );
+	}
+
+	private static final class PoolIndex< O > extends DenseIndex< O >
+	{
+		private final RefPool< O > pool;
+
+		private PoolIndex( final RefCollection< O > collection, final RefPool< O > pool )
+		{
+			super( collection );
+			this.pool = pool;
+			update();
+		}
+
+		@Override
+		public int indexOf( final O o )
+		{
+			return pool.getId( o );
+		}
+
+		@Override
+		public O getObject( final int index, final O ref )
+		{
+			return pool.getObjectIfExists( index, ref );
+		}
+
+		@Override
+		public boolean isPoolBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public int update()
+		{
+			int max = -1;
+			for ( final O o : collection )
+				max = Math.max( max, pool.getId( o ) );
+			size = max + 1;
+			return size;
+		}
+	}
+
+	private static final class EnumeratedIndex< O > extends DenseIndex< O >
+	{
+		private final RefIntMap< O > indices;
+
+		private final ArrayList< O > objects;
+
+		private EnumeratedIndex( final RefCollection< O > collection )
+		{
+			super( collection );
+			this.indices = RefMaps.createRefIntMap( collection, -1, collection.size() );
+			this.objects = new ArrayList<>( collection.size() );
+			for ( final O o : collection )
+			{
+				indices.put( o, objects.size() );
+				objects.add( o );
+			}
+			size = objects.size();
+		}
+
+		@Override
+		public int indexOf( final O o )
+		{
+			return indices.get( o );
+		}
+
+		@Override
+		public O getObject( final int index, final O ref )
+		{
+			return ( index < 0 || index >= objects.size() ) ? null : objects.get( index );
+		}
+
+		@Override
+		public boolean isPoolBacked()
+		{
+			return false;
+		}
+
+		@Override
+		public int update()
+		{
+			return size;
+		}
+	}
+}
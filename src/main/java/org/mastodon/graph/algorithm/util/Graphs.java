@@ -32,7 +32,9 @@ import java.util.Comparator;
 
 import org.mastodon.collection.RefList;
 import org.mastodon.graph.Edge;
+import org.mastodon.graph.Edges;
 import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
 
 /**
  * A collection of utilities to assist with graph manipulation.
@@ -67,6 +69,71 @@ public class Graphs
 		return other;
 	}
 
+	/**
+	 * Gets the edges of a vertex that a search in the specified direction
+	 * follows: outgoing edges for {@link SearchDirection#DIRECTED}, incoming
+	 * edges for {@link SearchDirection#REVERSED} and all edges for
+	 * {@link SearchDirection#UNDIRECTED}.
+	 * 
+	 * @param vertex
+	 *            the vertex.
+	 * @param direction
+	 *            the search direction.
+	 * @param <V>
+	 *            the type of vertices in the graph.
+	 * @param <E>
+	 *            the type of edges in the graph.
+	 * @return the edges to follow.
+	 */
+	public static final < V extends Vertex< E >, E extends Edge< V > > Edges< E > getEdges( final V vertex, final SearchDirection direction )
+	{
+		switch ( direction )
+		{
+		case DIRECTED:
+			return vertex.outgoingEdges();
+		case REVERSED:
+			return vertex.incomingEdges();
+		case UNDIRECTED:
+		default:
+			return vertex.edges();
+		}
+	}
+
+	/**
+	 * Gets the vertex reached by following an edge from a vertex, in the
+	 * specified search direction. The edge must be one of the edges returned
+	 * by {@link #getEdges(Vertex, SearchDirection)} for this vertex and
+	 * direction.
+	 * 
+	 * @param edge
+	 *            the edge to follow.
+	 * @param vertex
+	 *            the vertex the edge is followed from.
+	 * @param direction
+	 *            the search direction.
+	 * @param tmp
+	 *            an object reference that can be used for retrieval. It must
+	 *            not be the specified vertex.
+	 * @param <V>
+	 *            the type of vertices in the graph.
+	 * @param <E>
+	 *            the type of edges in the graph.
+	 * @return the vertex at the other end of the edge.
+	 */
+	public static final < V extends Vertex< E >, E extends Edge< V > > V getNeighbor( final E edge, final V vertex, final SearchDirection direction, final V tmp )
+	{
+		switch ( direction )
+		{
+		case DIRECTED:
+			return edge.getTarget( tmp );
+		case REVERSED:
+			return edge.getSource( tmp );
+		case UNDIRECTED:
+		default:
+			return getOppositeVertex( edge, vertex, tmp );
+		}
+	}
+
 	/**
 	 * Sorts two {@link RefList}s following the order of the first one set by a
 	 * specified {@link Comparator}.
@@ -110,6 +177,47 @@ public class Graphs
 		listO.releaseRef( tmpO2 );
 	}
 
+	/**
+	 * Sorts a range of two {@link RefList}s following the order of the first
+	 * one set by a specified {@link Comparator}. Elements outside the range
+	 * are left untouched.
+	 *
+	 * @param listO
+	 *            the first list, whose range will be sorted.
+	 * @param fromIndex
+	 *            the index of the first element to sort, inclusive.
+	 * @param toIndex
+	 *            the index of the last element to sort, exclusive.
+	 * @param comparatorO
+	 *            the comparator used to sort the first list. {@code null} is
+	 *            not permitted.
+	 * @param listP
+	 *            the second list, whose range is rearranged according to the
+	 *            sort order of the first list.
+	 * @param <O>
+	 *            the type of objects in the first list (the one to be sorted).
+	 * @param <P>
+	 *            the type of objects in the second list (the one whose sorting
+	 *            order will be matched to the first one).
+	 * @throws IllegalArgumentException
+	 *             if the range does not fit in both lists.
+	 * @see #sort(RefList, Comparator, RefList)
+	 */
+	public static final < O, P > void sort( final RefList< O > listO, final int fromIndex, final int toIndex, final Comparator< O > comparatorO, final RefList< P > listP )
+	{
+		if ( fromIndex < 0 || toIndex > listO.size() || toIndex > listP.size() ) { throw new IllegalArgumentException( "The range does not fit in the two lists." ); }
+		if ( toIndex - fromIndex < 2 )
+			return;
+
+		final O tmpO1 = listO.createRef();
+		final O tmpO2 = listO.createRef();
+
+		quicksort( fromIndex, toIndex - 1, listO, comparatorO, listP, tmpO1, tmpO2 );
+
+		listO.releaseRef( tmpO1 );
+		listO.releaseRef( tmpO2 );
+	}
+
 	private static < O, P > void quicksort( final int low, final int high, final RefList< O > listO, final Comparator< O > comparatorO, final RefList< P > listP,
 			final O tmpO1, final O tmpO2 )
 	{
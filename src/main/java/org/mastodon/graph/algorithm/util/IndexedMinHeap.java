@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of {@code int} elements with {@code double} keys, indexed
+ * by element so that the key of an element already in the heap can be
+ * decreased in {@code O(log n)}.
+ * <p>
+ * Elements are non-negative integers, typically dense object indices (see
+ * {@link DenseIndex}). Storage for the element positions grows on demand.
+ * Everything is stored in primitive arrays: there is no boxing and no
+ * allocation once capacity is reached.
+ */
+public class IndexedMinHeap
+{
+	/**
+	 * Position of each element in the heap arrays, or {@code -1} if the
+	 * element is not in the heap.
+	 */
+	private int[] positions;
+
+	private int[] elements;
+
+	private double[] keys;
+
+	private int size;
+
+	/**
+	 * Creates an empty heap.
+	 *
+	 * @param capacity
+	 *            the initial capacity, in number of elements. Elements up to
+	 *            {@code capacity - 1} can be inserted without reallocation.
+	 */
+	public IndexedMinHeap( final int capacity )
+	{
+		final int c = Math.max( 16, capacity );
+		positions = new int[ c ];
+		Arrays.fill( positions, -1 );
+		elements = new int[ 16 ];
+		keys = new double[ 16 ];
+		size = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Returns whether the specified element is currently in the heap.
+	 *
+	 * @param element
+	 *            the element.
+	 * @return {@code true} if the element is in the heap.
+	 */
+	public boolean contains( final int element )
+	{
+		return element < positions.length && positions[ element ] >= 0;
+	}
+
+	/**
+	 * Returns the key of the specified element, which must be in the heap.
+	 *
+	 * @param element
+	 *            the element.
+	 * @return the key of the element.
+	 */
+	public double getKey( final int element )
+	{
+		return keys[ positions[ element ] ];
+	}
+
+	/**
+	 * Inserts the specified element, or decreases its key if it is already in
+	 * the heap with a larger key. Does nothing if the element is in the heap
+	 * with a key smaller or equal to the specified one.
+	 *
+	 * @param element
+	 *            the element, must be non-negative.
+	 * @param key
+	 *            the key.
+	 * @return {@code true} if the heap was modified.
+	 */
+	public boolean insertOrDecrease( final int element, final double key )
+	{
+		if ( contains( element ) )
+		{
+			final int pos = positions[ element ];
+			if ( key >= keys[ pos ] )
+				return false;
+			keys[ pos ] = key;
+			siftUp( pos );
+			return true;
+		}
+		insert( element, key );
+		return true;
+	}
+
+	/**
+	 * Inserts the specified element, which must not be in the heap already.
+	 *
+	 * @param element
+	 *            the element, must be non-negative.
+	 * @param key
+	 *            the key.
+	 */
+	public void insert( final int element, final double key )
+	{
+		if ( element >= positions.length )
+		{
+			final int oldLength = positions.length;
+			positions = Arrays.copyOf( positions, Math.max( element + 1, oldLength * 2 ) );
+			Arrays.fill( positions, oldLength, positions.length, -1 );
+		}
+		if ( size == elements.length )
+		{
+			elements = Arrays.copyOf( elements, size * 2 );
+			keys = Arrays.copyOf( keys, size * 2 );
+		}
+		elements[ size ] = element;
+		keys[ size ] = key;
+		positions[ element ] = size;
+		siftUp( size++ );
+	}
+
+	/**
+	 * Returns the element with the smallest key, without removing it.
+	 *
+	 * @return the element with the smallest key.
+	 * @throws NoSuchElementException
+	 *             if the heap is empty.
+	 */
+	public int peek()
+	{
+		if ( size == 0 )
+			throw new NoSuchElementException();
+		return elements[ 0 ];
+	}
+
+	/**
+	 * Returns the smallest key in the heap.
+	 *
+	 * @return the smallest key.
+	 * @throws NoSuchElementException
+	 *             if the heap is empty.
+	 */
+	public double peekKey()
+	{
+		if ( size == 0 )
+			throw new NoSuchElementException();
+		return keys[ 0 ];
+	}
+
+	/**
+	 * Removes and returns the element with the smallest key.
+	 *
+	 * @return the element with the smallest key.
+	 * @throws NoSuchElementException
+	 *             if the heap is empty.
+	 */
+	public int poll()
+	{
+		if ( size == 0 )
+			throw new NoSuchElementException();
+		final int min = elements[ 0 ];
+		positions[ min ] = -1;
+		--size;
+		if ( size > 0 )
+		{
+			elements[ 0 ] = elements[ size ];
+			keys[ 0 ] = keys[ size ];
+			positions[ elements[ 0 ] ] = 0;
+			siftDown( 0 );
+		}
+		return min;
+	}
+
+	/**
+	 * Removes all the elements. Costs {@code O(size())}.
+	 */
+	public void clear()
+	{
+		for ( int i = 0; i < size; i++ )
+			positions[ elements[ i ] ] = -1;
+		size = 0;
+	}
+
+	private void siftUp( int pos )
+	{
+		final int element = elements[ pos ];
+		final double key = keys[ pos ];
+		while ( pos > 0 )
+		{
+			final int parent = ( pos - 1 ) >>> 1;
+			if ( keys[ parent ] <= key )
+				break;
+			move( parent, pos );
+			pos = parent;
+		}
+		elements[ pos ] = element;
+		keys[ pos ] = key;
+		positions[ element ] = pos;
+	}
+
+	private void siftDown( int pos )
+	{
+		final int element = elements[ pos ];
+		final double key = keys[ pos ];
+		final int half = size >>> 1;
+		while ( pos < half )
+		{
+			int child = 2 * pos + 1;
+			final int right = child + 1;
+			if ( right < size && keys[ right ] < keys[ child ] )
+				child = right;
+			if ( key <= keys[ child ] )
+				break;
+			move( child, pos );
+			pos = child;
+		}
+		elements[ pos ] = element;
+		keys[ pos ] = key;
+		positions[ element ] = pos;
+	}
+
+	private void move( final int from, final int to )
+	{
+		elements[ to ] = elements[ from ];
+		keys[ to ] = keys[ from ];
+		positions[ elements[ to ] ] = to;
+	}
+}
@@ -0,0 +1,300 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an index range {@code [0, n)} in chunks and processes them with
+ * several worker threads.
+ * <p>
+ * Workers are created by the caller, in the calling thread, so that they can
+ * allocate their own reference objects beforehand. Each worker runs in its own
+ * thread and repeatedly claims the next unprocessed chunk until the range is
+ * exhausted.
+ */
+public class ParallelRanges
+{
+	/**
+	 * Processes a contiguous chunk of indices.
+	 */
+	public interface RangeWorker
+	{
+		/**
+		 * Processes the indices from {@code from} (inclusive) to {@code to}
+		 * (exclusive).
+		 *
+		 * @param from
+		 *            the first index of the chunk.
+		 * @param to
+		 *            the end of the chunk, exclusive.
+		 */
+		public void process( int from, int to );
+	}
+
+	/**
+	 * Processes the range {@code [0, n)} with the specified workers, one
+	 * thread per worker. If there is only one worker, or if the range fits in
+	 * a single chunk, the first worker runs in the calling thread over the
+	 * whole range.
+	 *
+	 * @param n
+	 *            the size of the range.
+	 * @param workers
+	 *            the workers. Must not be empty.
+	 * @throws CancellationException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             workers to complete.
+	 */
+	public static void run( final int n, final List< ? extends RangeWorker > workers )
+	{
+		run( n, 1024, workers );
+	}
+
+	/**
+	 * Processes the range {@code [0, n)} with the specified workers, one
+	 * thread per worker, in chunks of at least {@code minChunkSize} indices.
+	 * If there is only one worker, or if the range fits in a single chunk, the
+	 * first worker runs in the calling thread over the whole range.
+	 * <p>
+	 * A small minimal chunk size is appropriate when processing a single
+	 * index is expensive, for instance when it stands for a whole subgraph.
+	 *
+	 * @param n
+	 *            the size of the range.
+	 * @param minChunkSize
+	 *            the minimal number of indices per chunk.
+	 * @param workers
+	 *            the workers. Must not be empty.
+	 * @throws CancellationException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             workers to complete.
+	 */
+	public static void run( final int n, final int minChunkSize, final List< ? extends RangeWorker > workers )
+	{
+		final int numThreads = workers.size();
+		final int chunkSize = chunkSize( n, minChunkSize, numThreads );
+		if ( numThreads == 1 || n <= chunkSize )
+		{
+			workers.get( 0 ).process( 0, n );
+			return;
+		}
+
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final Throwable[] failure = new Throwable[ 1 ];
+		final Thread[] threads = new Thread[ numThreads ];
+		for ( int t = 0; t < numThreads; t++ )
+		{
+			final Runnable task = task( n, chunkSize, nextChunk, workers.get( t ) );
+			threads[ t ] = new Thread( () -> {
+				try
+				{
+					task.run();
+				}
+				catch ( final Throwable e )
+				{
+					synchronized ( failure )
+					{
+						if ( failure[ 0 ] == null )
+							failure[ 0 ] = e;
+					}
+				}
+			}, "ParallelRanges-" + t );
+			threads[ t ].start();
+		}
+
+		try
+		{
+			for ( final Thread thread : threads )
+				thread.join();
+		}
+		catch ( final InterruptedException e )
+		{
+			for ( final Thread thread : threads )
+				thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new CancellationException( "Interrupted while waiting for workers." );
+		}
+
+		synchronized ( failure )
+		{
+			rethrow( failure[ 0 ] );
+		}
+	}
+
+	/**
+	 * Worker threads reused across several {@code run} calls, for callers that
+	 * process many small ranges in a row, such as the levels of a
+	 * breadth-first search. Must be closed after use.
+	 */
+	public static class Pool implements AutoCloseable
+	{
+		private final ExecutorService executor;
+
+		/**
+		 * Creates a pool able to run the specified number of workers at once.
+		 * The calling thread runs one of them, so the pool only starts
+		 * {@code numThreads - 1} threads, when first needed.
+		 *
+		 * @param numThreads
+		 *            the number of threads, including the calling thread.
+		 */
+		public Pool( final int numThreads )
+		{
+			if ( numThreads < 1 )
+				throw new IllegalArgumentException( "Number of threads cannot be lower than 1, was " + numThreads + "." );
+			final AtomicInteger threadCount = new AtomicInteger();
+			executor = numThreads == 1
+					? null
+					: Executors.newFixedThreadPool( numThreads - 1, r -> {
+						final Thread thread = new Thread( r, "ParallelRanges-" + threadCount.incrementAndGet() );
+						thread.setDaemon( true );
+						return thread;
+					} );
+		}
+
+		/**
+		 * Processes the range {@code [0, n)} with the specified workers, in
+		 * chunks of at least {@code minChunkSize} indices. The first worker
+		 * runs in the calling thread, the others in the threads of this pool.
+		 * If the range fits in a single chunk, only the first worker runs.
+		 *
+		 * @param n
+		 *            the size of the range.
+		 * @param minChunkSize
+		 *            the minimal number of indices per chunk.
+		 * @param workers
+		 *            the workers. Must not be empty.
+		 * @throws CancellationException
+		 *             if the calling thread is interrupted while waiting for
+		 *             the workers to complete.
+		 */
+		public void run( final int n, final int minChunkSize, final List< ? extends RangeWorker > workers )
+		{
+			final int numThreads = workers.size();
+			final int chunkSize = chunkSize( n, minChunkSize, numThreads );
+			if ( numThreads == 1 || n <= chunkSize )
+			{
+				workers.get( 0 ).process( 0, n );
+				return;
+			}
+
+			final AtomicInteger nextChunk = new AtomicInteger();
+			final List< Future< ? > > futures = new ArrayList<>( numThreads - 1 );
+			for ( int t = 1; t < numThreads; t++ )
+				futures.add( executor.submit( task( n, chunkSize, nextChunk, workers.get( t ) ) ) );
+
+			Throwable failure = null;
+			try
+			{
+				task( n, chunkSize, nextChunk, workers.get( 0 ) ).run();
+			}
+			catch ( final Throwable e )
+			{
+				failure = e;
+			}
+			try
+			{
+				for ( final Future< ? > future : futures )
+				{
+					try
+					{
+						future.get();
+					}
+					catch ( final ExecutionException e )
+					{
+						if ( failure == null )
+							failure = e.getCause();
+					}
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				for ( final Future< ? > future : futures )
+					future.cancel( true );
+				Thread.currentThread().interrupt();
+				throw new CancellationException( "Interrupted while waiting for workers." );
+			}
+			rethrow( failure );
+		}
+
+		/**
+		 * Stops the threads of this pool.
+		 */
+		@Override
+		public void close()
+		{
+			if ( executor != null )
+				executor.shutdownNow();
+		}
+	}
+
+	private static int chunkSize( final int n, final int minChunkSize, final int numThreads )
+	{
+		// About 8 chunks per thread, for load balancing.
+		return Math.max( Math.max( 1, minChunkSize ), ( int ) ( ( ( long ) n + 8L * numThreads - 1 ) / ( 8L * numThreads ) ) );
+	}
+
+	/**
+	 * Returns a task that makes the specified worker claim chunks until the
+	 * range is exhausted.
+	 */
+	private static Runnable task( final int n, final int chunkSize, final AtomicInteger nextChunk, final RangeWorker worker )
+	{
+		return () -> {
+			while ( true )
+			{
+				final long from = ( long ) nextChunk.getAndIncrement() * chunkSize;
+				if ( from >= n || Thread.currentThread().isInterrupted() )
+					break;
+				worker.process( ( int ) from, ( int ) Math.min( n, from + chunkSize ) );
+			}
+		};
+	}
+
+	private static void rethrow( final Throwable failure )
+	{
+		if ( failure instanceof RuntimeException )
+			throw ( RuntimeException ) failure;
+		if ( failure instanceof Error )
+			throw ( Error ) failure;
+		if ( failure != null )
+			throw new RuntimeException( failure );
+	}
+
+	private ParallelRanges()
+	{}
+}
@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the progress of long-running graph algorithms, and lets other
+ * threads cancel them.
+ * <p>
+ * A token is passed to an algorithm before it runs. While running, the
+ * algorithm counts the elements it processes, and every
+ * {@link #getCheckInterval()} elements it adds them to the token and checks
+ * whether the token was cancelled or the running thread was interrupted. If
+ * so, it stops by throwing a {@link CancellationException}. The results of an
+ * algorithm cancelled this way are undefined.
+ * <p>
+ * The number of processed elements and the estimated total can be read at any
+ * time, from any thread. Several algorithms can share a token, in which case
+ * their counts and estimated totals add up.
+ */
+public class ProgressToken
+{
+
+	/**
+	 * The default number of elements processed between two checks.
+	 */
+	public static final int DEFAULT_CHECK_INTERVAL = 1024;
+
+	private final int checkInterval;
+
+	private final AtomicLong processed;
+
+	private final AtomicLong total;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a new token, checked every {@value #DEFAULT_CHECK_INTERVAL}
+	 * processed elements.
+	 */
+	public ProgressToken()
+	{
+		this( DEFAULT_CHECK_INTERVAL );
+	}
+
+	/**
+	 * Creates a new token, checked every {@code checkInterval} processed
+	 * elements.
+	 *
+	 * @param checkInterval
+	 *            the number of elements processed between two checks. Must be
+	 *            at least 1.
+	 */
+	public ProgressToken( final int checkInterval )
+	{
+		if ( checkInterval < 1 )
+			throw new IllegalArgumentException( "Check interval cannot be lower than 1, was " + checkInterval + "." );
+		this.checkInterval = checkInterval;
+		this.processed = new AtomicLong();
+		this.total = new AtomicLong();
+	}
+
+	/**
+	 * Requests the algorithms using this token to stop. They do so at their
+	 * next check.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Returns {@code true} if {@link #cancel()} was called on this token, or
+	 * if an algorithm using it was interrupted.
+	 *
+	 * @return whether this token was cancelled.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of elements processed between two checks.
+	 *
+	 * @return the check interval.
+	 */
+	public int getCheckInterval()
+	{
+		return checkInterval;
+	}
+
+	/**
+	 * Returns the number of elements processed so far. This count is updated
+	 * at each check, so it lags behind the actual progress by less than
+	 * {@link #getCheckInterval()} elements per running thread.
+	 *
+	 * @return the number of processed elements.
+	 */
+	public long getProcessed()
+	{
+		return processed.get();
+	}
+
+	/**
+	 * Returns the estimated total number of elements to process, or {@code 0}
+	 * if it is unknown.
+	 *
+	 * @return the estimated total.
+	 */
+	public long getTotal()
+	{
+		return total.get();
+	}
+
+	/**
+	 * Returns the fraction of processed elements, between 0 and 1, or
+	 * {@link Double#NaN} if the estimated total is unknown.
+	 *
+	 * @return the progress fraction.
+	 */
+	public double getProgress()
+	{
+		final long t = total.get();
+		return t <= 0 ? Double.NaN : Math.min( 1., ( double ) processed.get() / t );
+	}
+
+	/**
+	 * Adds to the estimated total number of elements to process. Called by
+	 * algorithms when they start.
+	 *
+	 * @param n
+	 *            the number of elements the algorithm expects to process.
+	 */
+	public void addTotal( final long n )
+	{
+		total.addAndGet( n );
+	}
+
+	/**
+	 * Adds to the number of processed elements, then checks for cancellation.
+	 *
+	 * @param n
+	 *            the number of elements processed since the last call.
+	 * @throws CancellationException
+	 *             if this token was cancelled, or if the calling thread was
+	 *             interrupted.
+	 */
+	public void worked( final long n )
+	{
+		processed.addAndGet( n );
+		check();
+	}
+
+	/**
+	 * Checks for cancellation. If the calling thread was interrupted, this
+	 * token is cancelled, so that other threads using it stop as well. The
+	 * interrupted status of the thread is left unchanged.
+	 *
+	 * @throws CancellationException
+	 *             if this token was cancelled, or if the calling thread was
+	 *             interrupted.
+	 */
+	public void check()
+	{
+		if ( Thread.currentThread().isInterrupted() )
+			cancelled = true;
+		if ( cancelled )
+			throw new CancellationException( "Cancelled after " + processed.get() + " processed elements." );
+	}
+
+	/**
+	 * Returns a new ticker reporting to the specified token. If the token is
+	 * {@code null}, the ticker does nothing.
+	 *
+	 * @param token
+	 *            the token, can be {@code null}.
+	 * @return a new ticker.
+	 */
+	public static Ticker ticker( final ProgressToken token )
+	{
+		return new Ticker( token );
+	}
+
+	/**
+	 * Counts processed elements in a single thread, and reports them to a
+	 * {@link ProgressToken} every {@link ProgressToken#getCheckInterval()}
+	 * elements, so that the shared counters are rarely touched.
+	 */
+	public static final class Ticker
+	{
+		private final ProgressToken token;
+
+		private final int interval;
+
+		private int count;
+
+		private Ticker( final ProgressToken token )
+		{
+			this.token = token;
+			this.interval = token == null ? Integer.MAX_VALUE : token.checkInterval;
+		}
+
+		/**
+		 * Counts one processed element, and checks the token if the check
+		 * interval is reached.
+		 *
+		 * @throws CancellationException
+		 *             if the token was cancelled, or if the calling thread was
+		 *             interrupted.
+		 */
+		public void tick()
+		{
+			if ( ++count >= interval )
+				flush();
+		}
+
+		/**
+		 * Reports the elements counted since the last check to the token, and
+		 * checks it.
+		 *
+		 * @throws CancellationException
+		 *             if the token was cancelled, or if the calling thread was
+		 *             interrupted.
+		 */
+		public void flush()
+		{
+			final int n = count;
+			count = 0;
+			if ( token != null )
+				token.worked( n );
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefMaps;
+
+/**
+ * An {@code int} value per object, used by graph searches to store vertex
+ * depths or discovery times.
+ * <p>
+ * If the objects are backed by a pool, values are stored in an {@code int}
+ * array indexed by pool index, that grows on demand, and validated by
+ * generation stamps so that clearing takes constant time. Otherwise, they are
+ * stored in a {@link RefIntMap}. The implementation is selected by
+ * {@link #create(RefCollection, int)}.
+ *
+ * @param <O>
+ *            the type of objects.
+ */
+public abstract class SearchIntValues< O >
+{
+	/**
+	 * Creates a new, empty value map for the objects of the specified
+	 * collection.
+	 *
+	 * @param collection
+	 *            the collection the objects belong to.
+	 * @param noEntryValue
+	 *            the value returned for objects without value.
+	 * @param <O>
+	 *            the type of objects.
+	 * @return a new value map.
+	 */
+	public static < O > SearchIntValues< O > create( final RefCollection< O > collection, final int noEntryValue )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new PoolValues<>( pool, collection.size(), noEntryValue );
+		else
+			return new MapValues<>( RefMaps.createRefIntMap( collection, noEntryValue ) );
+	}
+
+	/**
+	 * Returns the value of the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return the value, or the no-entry value if the object has no value.
+	 */
+	public abstract int get( O o );
+
+	/**
+	 * Sets the value of the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @param value
+	 *            the value.
+	 */
+	public abstract void put( O o, int value );
+
+	/**
+	 * Removes all values.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Sets the epoch of the generation stamps of pool-backed values, see
+	 * {@link SearchStamps#setEpoch(int)}. For tests only.
+	 *
+	 * @param epoch
+	 *            the new epoch, must not be 0.
+	 * @throws UnsupportedOperationException
+	 *             if the objects are not backed by a pool.
+	 */
+	void setEpoch( final int epoch )
+	{
+		throw new UnsupportedOperationException( "Only pool-backed values have an epoch." );
+	}
+
+	private static final class PoolValues< O > extends SearchIntValues< O >
+	{
+		private final RefPool< O > pool;
+
+		private final int noEntryValue;
+
+		private final SearchStamps stamps;
+
+		private int[] values;
+
+		PoolValues( final RefPool< O > pool, final int capacity, final int noEntryValue )
+		{
+			this.pool = pool;
+			this.noEntryValue = noEntryValue;
+			this.stamps = new SearchStamps( capacity );
+			this.values = new int[ stamps.capacity() ];
+		}
+
+		@Override
+		public int get( final O o )
+		{
+			final int id = pool.getId( o );
+			return stamps.isSet( id ) ? values[ id ] : noEntryValue;
+		}
+
+		@Override
+		public void put( final O o, final int value )
+		{
+			final int id = pool.getId( o );
+			stamps.set( id );
+			if ( id >= values.length )
+				values = Arrays.copyOf( values, stamps.capacity() );
+			values[ id ] = value;
+		}
+
+		@Override
+		public void clear()
+		{
+			stamps.clear();
+		}
+
+		@Override
+		void setEpoch( final int epoch )
+		{
+			stamps.setEpoch( epoch );
+		}
+	}
+
+	private static final class MapValues< O > extends SearchIntValues< O >
+	{
+		private final RefIntMap< O > map;
+
+		MapValues( final RefIntMap< O > map )
+		{
+			this.map = map;
+		}
+
+		@Override
+		public int get( final O o )
+		{
+			return map.get( o );
+		}
+
+		@Override
+		public void put( final O o, final int value )
+		{
+			map.put( o, value );
+		}
+
+		@Override
+		public void clear()
+		{
+			map.clear();
+		}
+	}
+}
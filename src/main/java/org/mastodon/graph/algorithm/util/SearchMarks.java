@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+
+/**
+ * A set of marked objects, used by graph searches and iterators to keep track
+ * of discovered, processed or visited vertices.
+ * <p>
+ * If the objects are backed by a pool, marks are generation stamps in an
+ * array indexed by pool index, that grows on demand. Clearing then takes
+ * constant time, which matters when a search is reused for many small
+ * queries. Otherwise, marks are stored in a {@link RefSet}. The implementation is selected by
+ * {@link #create(RefCollection)}.
+ *
+ * @param <O>
+ *            the type of marked objects.
+ */
+public abstract class SearchMarks< O >
+{
+	/**
+	 * Creates a new, empty mark set for the objects of the specified
+	 * collection.
+	 *
+	 * @param collection
+	 *            the collection the marked objects belong to.
+	 * @param <O>
+	 *            the type of marked objects.
+	 * @return a new mark set.
+	 */
+	public static < O > SearchMarks< O > create( final RefCollection< O > collection )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new PoolMarks<>( pool, collection.size() );
+		else
+			return new SetMarks<>( RefCollections.createRefSet( collection ) );
+	}
+
+	/**
+	 * Returns whether the specified object is marked.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return {@code true} if the object is marked.
+	 */
+	public abstract boolean contains( O o );
+
+	/**
+	 * Marks the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return {@code true} if the object was not marked before.
+	 */
+	public abstract boolean add( O o );
+
+	/**
+	 * Unmarks the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return {@code true} if the object was marked before.
+	 */
+	public abstract boolean remove( O o );
+
+	/**
+	 * Unmarks all objects.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Sets the epoch of the generation stamps of pool-backed marks, see
+	 * {@link SearchStamps#setEpoch(int)}. For tests only.
+	 *
+	 * @param epoch
+	 *            the new epoch, must not be 0.
+	 * @throws UnsupportedOperationException
+	 *             if the objects are not backed by a pool.
+	 */
+	void setEpoch( final int epoch )
+	{
+		throw new UnsupportedOperationException( "Only pool-backed marks have an epoch." );
+	}
+
+	private static final class PoolMarks< O > extends SearchMarks< O >
+	{
+		private final RefPool< O > pool;
+
+		private final SearchStamps stamps;
+
+		PoolMarks( final RefPool< O > pool, final int capacity )
+		{
+			this.pool = pool;
+			this.stamps = new SearchStamps( capacity );
+		}
+
+		@Override
+		public boolean contains( final O o )
+		{
+			return stamps.isSet( pool.getId( o ) );
+		}
+
+		@Override
+		public boolean add( final O o )
+		{
+			return stamps.set( pool.getId( o ) );
+		}
+
+		@Override
+		public boolean remove( final O o )
+		{
+			return stamps.unset( pool.getId( o ) );
+		}
+
+		@Override
+		public void clear()
+		{
+			stamps.clear();
+		}
+
+		@Override
+		void setEpoch( final int epoch )
+		{
+			stamps.setEpoch( epoch );
+		}
+	}
+
+	private static final class SetMarks< O > extends SearchMarks< O >
+	{
+		private final RefSet< O > set;
+
+		SetMarks( final RefSet< O > set )
+		{
+			this.set = set;
+		}
+
+		@Override
+		public boolean contains( final O o )
+		{
+			return set.contains( o );
+		}
+
+		@Override
+		public boolean add( final O o )
+		{
+			return set.add( o );
+		}
+
+		@Override
+		public boolean remove( final O o )
+		{
+			return set.remove( o );
+		}
+
+		@Override
+		public void clear()
+		{
+			set.clear();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefRefMap;
+
+/**
+ * The parent of each object in a search tree.
+ * <p>
+ * If the objects are backed by a pool, the pool index of the parent is stored
+ * in an {@code int} array indexed by pool index, that grows on demand, and
+ * validated by generation stamps so that clearing takes constant time.
+ * Otherwise, parents are stored in a {@link RefRefMap}. The implementation is
+ * selected by {@link #create(RefCollection)}.
+ *
+ * @param <O>
+ *            the type of objects.
+ */
+public abstract class SearchParents< O >
+{
+	/**
+	 * Creates a new, empty parent map for the objects of the specified
+	 * collection.
+	 *
+	 * @param collection
+	 *            the collection the objects belong to.
+	 * @param <O>
+	 *            the type of objects.
+	 * @return a new parent map.
+	 */
+	public static < O > SearchParents< O > create( final RefCollection< O > collection )
+	{
+		final RefPool< O > pool = RefCollections.tryGetRefPool( collection );
+		if ( pool != null )
+			return new PoolParents<>( pool, collection.size() );
+		else
+			return new MapParents<>( RefMaps.createRefRefMap( collection ) );
+	}
+
+	/**
+	 * Returns the parent of the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @param ref
+	 *            an object reference used for retrieval. It can be the
+	 *            specified object itself.
+	 * @return the parent, or {@code null} if the object has no parent.
+	 */
+	public abstract O get( O o, O ref );
+
+	/**
+	 * Returns the parent of the specified object, as a new object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @return the parent, or {@code null} if the object has no parent.
+	 */
+	public abstract O get( O o );
+
+	/**
+	 * Sets the parent of the specified object.
+	 *
+	 * @param o
+	 *            the object.
+	 * @param parent
+	 *            its parent.
+	 */
+	public abstract void put( O o, O parent );
+
+	/**
+	 * Removes all parents.
+	 */
+	public abstract void clear();
+
+	private static final class PoolParents< O > extends SearchParents< O >
+	{
+		private final RefPool< O > pool;
+
+		private final SearchStamps stamps;
+
+		private int[] parents;
+
+		PoolParents( final RefPool< O > pool, final int capacity )
+		{
+			this.pool = pool;
+			this.stamps = new SearchStamps( capacity );
+			this.parents = new int[ stamps.capacity() ];
+		}
+
+		@Override
+		public O get( final O o, final O ref )
+		{
+			final int id = pool.getId( o );
+			return stamps.isSet( id ) ? pool.getObject( parents[ id ], ref ) : null;
+		}
+
+		@Override
+		public O get( final O o )
+		{
+			return get( o, pool.createRef() );
+		}
+
+		@Override
+		public void put( final O o, final O parent )
+		{
+			final int id = pool.getId( o );
+			stamps.set( id );
+			if ( id >= parents.length )
+				parents = Arrays.copyOf( parents, stamps.capacity() );
+			parents[ id ] = pool.getId( parent );
+		}
+
+		@Override
+		public void clear()
+		{
+			stamps.clear();
+		}
+	}
+
+	private static final class MapParents< O > extends SearchParents< O >
+	{
+		private final RefRefMap< O, O > map;
+
+		MapParents( final RefRefMap< O, O > map )
+		{
+			this.map = map;
+		}
+
+		@Override
+		public O get( final O o, final O ref )
+		{
+			return map.get( o, ref );
+		}
+
+		@Override
+		public O get( final O o )
+		{
+			return map.get( o );
+		}
+
+		@Override
+		public void put( final O o, final O parent )
+		{
+			map.put( o, parent );
+		}
+
+		@Override
+		public void clear()
+		{
+			map.clear();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import java.util.Arrays;
+
+/**
+ * Generation stamps over a growable range of indices, used by the pool-backed
+ * search state classes to be cleared in constant time.
+ * <p>
+ * An index is set if its stamp equals the current epoch. Clearing increments
+ * the epoch, so that all stamps become stale at once. The stamp array itself
+ * only needs to be cleared when the epoch counter wraps around.
+ */
+final class SearchStamps
+{
+	private int[] stamps;
+
+	private int epoch;
+
+	SearchStamps( final int capacity )
+	{
+		stamps = new int[ Math.max( 16, capacity ) ];
+		epoch = 1;
+	}
+
+	/**
+	 * Returns whether the specified index is set.
+	 */
+	boolean isSet( final int index )
+	{
+		return index < stamps.length && stamps[ index ] == epoch;
+	}
+
+	/**
+	 * Sets the specified index.
+	 *
+	 * @return {@code true} if the index was not set before.
+	 */
+	boolean set( final int index )
+	{
+		if ( index >= stamps.length )
+			grow( index + 1 );
+		if ( stamps[ index ] == epoch )
+			return false;
+		stamps[ index ] = epoch;
+		return true;
+	}
+
+	/**
+	 * Unsets the specified index.
+	 *
+	 * @return {@code true} if the index was set before.
+	 */
+	boolean unset( final int index )
+	{
+		if ( !isSet( index ) )
+			return false;
+		stamps[ index ] = 0;
+		return true;
+	}
+
+	/**
+	 * Unsets all indices.
+	 */
+	void clear()
+	{
+		if ( ++epoch == 0 )
+		{
+			Arrays.fill( stamps, 0 );
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * Sets the current epoch, without touching the stamps. Moving the epoch
+	 * forward without crossing 0 is the same as calling {@link #clear()}
+	 * repeatedly: this lets tests reach the wrap-around quickly.
+	 *
+	 * @param epoch
+	 *            the new epoch, must not be 0.
+	 */
+	void setEpoch( final int epoch )
+	{
+		if ( epoch == 0 )
+			throw new IllegalArgumentException( "The epoch cannot be 0." );
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Returns the length of the stamp array, that is one more than the
+	 * largest index that can be set without growing.
+	 */
+	int capacity()
+	{
+		return stamps.length;
+	}
+
+	private void grow( final int minCapacity )
+	{
+		stamps = Arrays.copyOf( stamps, Math.max( minCapacity, 2 * stamps.length ) );
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Reduces the linked vertices of a branch, or of a branch subtree, to a single
+ * summary value, for {@link BranchSummary}.
+ * <p>
+ * The {@link #combine(Object, Object)} operation must be associative. It is
+ * called with the summaries of consecutive runs of linked vertices, in
+ * branch order, so it does not need to be commutative: a summary of the path
+ * length can for instance be built from the first and last positions of each
+ * run.
+ *
+ * @param <V>
+ *            the type of linked vertices.
+ * @param <A>
+ *            the type of summary values. They must not retain references to
+ *            the vertices passed to {@link #of(Object)}, which may be reused.
+ */
+public interface BranchAggregator< V, A >
+{
+
+	/**
+	 * Returns the summary of a single linked vertex.
+	 *
+	 * @param vertex
+	 *            the linked vertex.
+	 * @return the summary of the vertex.
+	 */
+	public A of( V vertex );
+
+	/**
+	 * Returns the summary of two consecutive runs of linked vertices.
+	 *
+	 * @param a
+	 *            the summary of the first run.
+	 * @param b
+	 *            the summary of the run that follows it.
+	 * @return the combined summary.
+	 */
+	public A combine( A a, A b );
+
+	/**
+	 * Returns an aggregator that counts linked vertices.
+	 *
+	 * @param <V>
+	 *            the type of linked vertices.
+	 * @return a new aggregator.
+	 */
+	public static < V > BranchAggregator< V, Integer > count()
+	{
+		return new BranchAggregator< V, Integer >()
+		{
+			@Override
+			public Integer of( final V vertex )
+			{
+				return 1;
+			}
+
+			@Override
+			public Integer combine( final Integer a, final Integer b )
+			{
+				return a + b;
+			}
+		};
+	}
+
+	/**
+	 * Returns an aggregator that computes the minimum of an {@code int} value
+	 * of linked vertices, such as their timepoint.
+	 *
+	 * @param value
+	 *            the value of a linked vertex.
+	 * @param <V>
+	 *            the type of linked vertices.
+	 * @return a new aggregator.
+	 */
+	public static < V > BranchAggregator< V, Integer > min( final ToIntFunction< V > value )
+	{
+		return new BranchAggregator< V, Integer >()
+		{
+			@Override
+			public Integer of( final V vertex )
+			{
+				return value.applyAsInt( vertex );
+			}
+
+			@Override
+			public Integer combine( final Integer a, final Integer b )
+			{
+				return Math.min( a, b );
+			}
+		};
+	}
+
+	/**
+	 * Returns an aggregator that computes the maximum of an {@code int} value
+	 * of linked vertices, such as their timepoint.
+	 *
+	 * @param value
+	 *            the value of a linked vertex.
+	 * @param <V>
+	 *            the type of linked vertices.
+	 * @return a new aggregator.
+	 */
+	public static < V > BranchAggregator< V, Integer > max( final ToIntFunction< V > value )
+	{
+		return new BranchAggregator< V, Integer >()
+		{
+			@Override
+			public Integer of( final V vertex )
+			{
+				return value.applyAsInt( vertex );
+			}
+
+			@Override
+			public Integer combine( final Integer a, final Integer b )
+			{
+				return Math.max( a, b );
+			}
+		};
+	}
+}
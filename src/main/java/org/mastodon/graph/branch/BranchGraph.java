@@ -328,6 +328,71 @@ public interface BranchGraph<
 	 */
 	public BV getBranchVertex( V vertex, BV ref );
 
+	/**
+	 * Returns the length of the specified branch, that is the number of linked
+	 * edges in the branch. This takes constant time.
+	 * <p>
+	 * For instance, in
+	 *
+	 * <pre>
+	 *     LINKED-GRAPH                  BRANCH-GRAPH
+	 *
+	 *           v0                           bv0
+	 *           |  e0                         |
+	 *           v1                            |  be0
+	 *           |  e1                         |
+	 *           v2                           bv1
+	 *       e2 / \  e4                       / \
+	 *         /   \                    be1  /   \  be2
+	 *        v3    v5                      /     \
+	 *     e3 |     | e5                   /       \
+	 *        v4    v6                    bv2      bv3
+	 * </pre>
+	 *
+	 * all three branches have a length of 2.
+	 *
+	 * @param be
+	 *            the branch edge.
+	 * @return the number of linked edges in the branch.
+	 */
+	public int getBranchLength( BE be );
+
+	/**
+	 * Returns the position of the specified linked vertex in its branch,
+	 * counted in linked edges from the first vertex of the branch. Branch
+	 * extremities have position 0. This takes constant time.
+	 * <p>
+	 * In the example of {@link #getBranchLength(Edge)}, <code>v1</code>,
+	 * <code>v3</code> and <code>v5</code> have position 1.
+	 *
+	 * @param vertex
+	 *            the linked vertex.
+	 * @return the position of the vertex in its branch.
+	 */
+	public int getBranchPosition( V vertex );
+
+	/**
+	 * Returns the linked vertex at the specified position in a branch,
+	 * specified by its branch edge. Position 0 is the first branch extremity,
+	 * linked to the source of the branch edge, and position
+	 * {@link #getBranchLength(Edge)} is the last one, linked to its target.
+	 * This takes constant time.
+	 *
+	 * @param be
+	 *            the branch edge.
+	 * @param position
+	 *            the position of the vertex in the branch.
+	 * @param ref
+	 *            a reference to a linked graph vertex used for retrieval.
+	 *            Depending on concrete implementation of the linked graph, this
+	 *            object can be cleared, ignored or re-used.
+	 * @return the linked vertex.
+	 * @throws IndexOutOfBoundsException
+	 *             if the position is not in the range
+	 *             <code>[0, getBranchLength(be)]</code>.
+	 */
+	public V getLinkedVertex( BE be, int position, V ref );
+
 	/**
 	 * Returns a graph id map for the branch graph.
 	 *
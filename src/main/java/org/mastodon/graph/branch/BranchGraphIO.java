@@ -0,0 +1,313 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.function.ToIntFunction;
+
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+import org.mastodon.graph.algorithm.util.ProgressToken;
+import org.mastodon.graph.algorithm.util.SearchIntValues;
+import org.mastodon.graph.io.RawGraphIO;
+import org.mastodon.graph.io.RawGraphIO.FileIdToGraphMap;
+import org.mastodon.graph.io.RawGraphIO.GraphToFileIdMap;
+import org.mastodon.graph.ref.AbstractListenableEdge;
+import org.mastodon.graph.ref.AbstractListenableVertex;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * Write/read the branches of a {@link BranchGraphImp} to/from an
+ * ObjectStream, next to its linked graph written with {@link RawGraphIO}.
+ * <p>
+ * The branch vertices are written with the file id of their linked vertex,
+ * and the branch edges with the file ids of their source branch vertex and of
+ * their first linked edge. The other mappings between the linked graph and
+ * the branch graph follow from the branches, and are restored by walking each
+ * branch once, without classifying the vertices of the linked graph.
+ * <p>
+ * A checksum of the linked graph structure is written first. When reading, if
+ * it does not match the linked graph that was read, the branches are skipped
+ * and the branch graph is rebuilt from the linked graph instead.
+ */
+public class BranchGraphIO
+{
+	/**
+	 * Writes the branches of the specified branch graph.
+	 *
+	 * @param branchGraph
+	 *            the branch graph to write.
+	 * @param fileIdMap
+	 *            the file ids of the linked graph, as returned by
+	 *            {@link RawGraphIO#write}.
+	 * @param oos
+	 *            the stream to write to.
+	 * @return the file ids of the branch vertices and edges.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalStateException
+	 *             if a batch is open on the branch graph.
+	 */
+	public static < V extends Vertex< E >, E extends Edge< V >, BV extends AbstractListenableVertex< BV, BE, ?, ? >, BE extends AbstractListenableEdge< BE, BV, ?, ? > >
+			GraphToFileIdMap< BV, BE > write(
+					final BranchGraphImp< V, E, BV, BE, ?, ?, ? > branchGraph,
+					final GraphToFileIdMap< V, E > fileIdMap,
+					final ObjectOutputStream oos )
+			throws IOException
+	{
+		if ( branchGraph.batchDepth > 0 )
+			throw new IllegalStateException( "Cannot write the branch graph while a batch is open." );
+
+		final ReadOnlyGraph< V, E > graph = branchGraph.graph;
+		oos.writeLong( checksum( graph, fileIdMap ) );
+
+		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		final BV bvRef = branchGraph.vertexRef();
+		final GraphIdBimap< BV, BE > idmap = branchGraph.getGraphIdBimap();
+
+		final int numVertices = branchGraph.vertices().size();
+		oos.writeInt( numVertices );
+		final TIntIntHashMap vertexIdToFileIndex = new TIntIntHashMap( 2 * numVertices, 0.75f, -1, -1 );
+		int i = 0;
+		for ( final BV bv : branchGraph.vertices() )
+		{
+			oos.writeInt( fileIdMap.vertices().getId( branchGraph.bvvMap.get( bv, vRef ) ) );
+			vertexIdToFileIndex.put( idmap.getVertexId( bv ), i );
+			++i;
+		}
+
+		// Edges are grouped by source, to keep the order of outgoing edges.
+		final int numEdges = branchGraph.edges().size();
+		oos.writeInt( numEdges );
+		final TIntIntHashMap edgeIdToFileIndex = new TIntIntHashMap( 2 * numEdges, 0.75f, -1, -1 );
+		i = 0;
+		for ( final BV bv : branchGraph.vertices() )
+		{
+			for ( final BE be : bv.outgoingEdges() )
+			{
+				oos.writeInt( vertexIdToFileIndex.get( idmap.getVertexId( be.getSource( bvRef ) ) ) );
+				oos.writeInt( fileIdMap.edges().getId( branchGraph.beeMap.get( be, eRef ) ) );
+				edgeIdToFileIndex.put( idmap.getEdgeId( be ), i );
+				++i;
+			}
+		}
+
+		graph.releaseRef( vRef );
+		graph.releaseRef( eRef );
+		branchGraph.releaseRef( bvRef );
+
+		final ObjectToFileIdMap< BV > vertexToFileIdMap = new ObjectToFileIdMap<>( vertexIdToFileIndex, idmap.vertexIdBimap() );
+		final ObjectToFileIdMap< BE > edgeToFileIdMap = new ObjectToFileIdMap<>( edgeIdToFileIndex, idmap.edgeIdBimap() );
+		return new GraphToFileIdMap<>( vertexToFileIdMap, edgeToFileIdMap );
+	}
+
+	/**
+	 * Reads the branches of the specified branch graph. This must be called
+	 * right after its linked graph was read with {@link RawGraphIO#read},
+	 * while the listeners of the linked graph are still paused. When they are
+	 * resumed, the branch graph then keeps the branches read instead of
+	 * rebuilding them.
+	 * <p>
+	 * If the branches written do not match the linked graph, they are skipped
+	 * and the branch graph is rebuilt from the linked graph when its listeners
+	 * are resumed, as if it had not been read.
+	 *
+	 * @param branchGraph
+	 *            the branch graph to read.
+	 * @param fileIdMap
+	 *            the file ids of the linked graph, as returned by
+	 *            {@link RawGraphIO#read}.
+	 * @param ois
+	 *            the stream to read from.
+	 * @return the file ids of the branch vertices and edges, or {@code null}
+	 *         if the branches were skipped.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws IllegalStateException
+	 *             if a batch is open on the branch graph.
+	 */
+	public static < V extends Vertex< E >, E extends Edge< V >, BV extends AbstractListenableVertex< BV, BE, ?, ? >, BE extends AbstractListenableEdge< BE, BV, ?, ? > >
+			FileIdToGraphMap< BV, BE > read(
+					final BranchGraphImp< V, E, BV, BE, ?, ?, ? > branchGraph,
+					final FileIdToGraphMap< V, E > fileIdMap,
+					final ObjectInputStream ois )
+			throws IOException
+	{
+		final long checksum = ois.readLong();
+		final int numVertices = ois.readInt();
+		final int[] linkedVertices = new int[ numVertices ];
+		for ( int i = 0; i < numVertices; ++i )
+			linkedVertices[ i ] = ois.readInt();
+		final int numEdges = ois.readInt();
+		final int[] sources = new int[ numEdges ];
+		final int[] firstEdges = new int[ numEdges ];
+		for ( int i = 0; i < numEdges; ++i )
+		{
+			sources[ i ] = ois.readInt();
+			firstEdges[ i ] = ois.readInt();
+		}
+
+		final ReadOnlyGraph< V, E > graph = branchGraph.graph;
+		// Otherwise rebuilt once, when the linked graph listeners are resumed.
+		if ( checksum != checksum( graph, fileIdMap ) )
+			return null;
+
+		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		final BV bvRef = branchGraph.vertexRef();
+		final BE beRef = branchGraph.edgeRef();
+		final GraphIdBimap< BV, BE > idmap = branchGraph.getGraphIdBimap();
+		final ProgressToken.Ticker ticker = ProgressToken.ticker( null );
+
+		branchGraph.beginRestore();
+		final TIntIntHashMap fileIndexToVertexId = new TIntIntHashMap( 2 * numVertices, 0.75f, -1, -1 );
+		for ( int i = 0; i < numVertices; ++i )
+		{
+			final V v = fileIdMap.vertices().getObject( linkedVertices[ i ], vRef );
+			final BV bv = branchGraph.addBranchVertex( v, bvRef );
+			fileIndexToVertexId.put( i, idmap.getVertexId( bv ) );
+		}
+		final TIntIntHashMap fileIndexToEdgeId = new TIntIntHashMap( 2 * numEdges, 0.75f, -1, -1 );
+		for ( int i = 0; i < numEdges; ++i )
+		{
+			final BV source = idmap.getVertex( fileIndexToVertexId.get( sources[ i ] ), bvRef );
+			final E first = fileIdMap.edges().getObject( firstEdges[ i ], eRef );
+			final BE be = branchGraph.addBranchEdge( source, first, ticker, beRef );
+			fileIndexToEdgeId.put( i, idmap.getEdgeId( be ) );
+		}
+		branchGraph.endRestore();
+
+		graph.releaseRef( vRef );
+		graph.releaseRef( eRef );
+		branchGraph.releaseRef( bvRef );
+		branchGraph.releaseRef( beRef );
+
+		final FileIdToObjectMap< BV > fileIdToVertexMap = new FileIdToObjectMap<>( fileIndexToVertexId, idmap.vertexIdBimap() );
+		final FileIdToObjectMap< BE > fileIdToEdgeMap = new FileIdToObjectMap<>( fileIndexToEdgeId, idmap.edgeIdBimap() );
+		return new FileIdToGraphMap<>( fileIdToVertexMap, fileIdToEdgeMap );
+	}
+
+	/**
+	 * Computes a checksum of the structure of the specified graph, from the
+	 * file ids of its vertices and edges and the order of the edges around
+	 * each vertex. It does not depend on the iteration order of the graph.
+	 */
+	private static < V extends Vertex< E >, E extends Edge< V > > long checksum(
+			final ReadOnlyGraph< V, E > graph,
+			final GraphToFileIdMap< V, E > fileIdMap )
+	{
+		return checksum( graph, fileIdMap.vertices()::getId, fileIdMap.edges()::getId );
+	}
+
+	/**
+	 * Computes a checksum of the structure of the specified graph, from the
+	 * specified ids of its vertices and edges and the order of the edges
+	 * around each vertex. It does not depend on the iteration order of the
+	 * graph.
+	 */
+	static < V extends Vertex< E >, E extends Edge< V > > long checksum(
+			final ReadOnlyGraph< V, E > graph,
+			final ToIntFunction< V > vertexIds,
+			final ToIntFunction< E > edgeIds )
+	{
+		final V vRef = graph.vertexRef();
+		long sum = 0;
+		for ( final E e : graph.edges() )
+		{
+			final int source = vertexIds.applyAsInt( e.getSource( vRef ) );
+			final int target = vertexIds.applyAsInt( e.getTarget( vRef ) );
+			sum += hash( edgeIds.applyAsInt( e ), source, target, e.getSourceOutIndex(), e.getTargetInIndex() );
+		}
+		graph.releaseRef( vRef );
+		return mix( mix( graph.vertices().size() ) + graph.edges().size() ) + sum;
+	}
+
+	/**
+	 * Computes the same checksum as
+	 * {@link #checksum(ReadOnlyGraph, GraphToFileIdMap)}, from the objects
+	 * mapped to each file id.
+	 */
+	private static < V extends Vertex< E >, E extends Edge< V > > long checksum(
+			final ReadOnlyGraph< V, E > graph,
+			final FileIdToGraphMap< V, E > fileIdMap )
+	{
+		final int numVertices = graph.vertices().size();
+		final int numEdges = graph.edges().size();
+		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		final SearchIntValues< V > fileIds = SearchIntValues.create( graph.vertices(), -1 );
+		for ( int i = 0; i < numVertices; ++i )
+		{
+			final V v = fileIdMap.vertices().getObject( i, vRef );
+			if ( v != null )
+				fileIds.put( v, i );
+		}
+		long sum = 0;
+		for ( int i = 0; i < numEdges; ++i )
+		{
+			final E e = fileIdMap.edges().getObject( i, eRef );
+			if ( e == null )
+				continue;
+			final int source = fileIds.get( e.getSource( vRef ) );
+			final int target = fileIds.get( e.getTarget( vRef ) );
+			sum += hash( i, source, target, e.getSourceOutIndex(), e.getTargetInIndex() );
+		}
+		graph.releaseRef( vRef );
+		graph.releaseRef( eRef );
+		return mix( mix( numVertices ) + numEdges ) + sum;
+	}
+
+	private static long hash( final int edge, final int source, final int target, final int sourceOutIndex, final int targetInIndex )
+	{
+		long h = mix( edge );
+		h = mix( h + source );
+		h = mix( h + target );
+		h = mix( h + sourceOutIndex );
+		return mix( h + targetInIndex );
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator.
+	 */
+	private static long mix( final long x )
+	{
+		long z = x + 0x9E3779B97F4A7C15L;
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+}
@@ -28,17 +28,24 @@
  */
 package org.mastodon.graph.branch;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.function.ToIntFunction;
 
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
 import org.mastodon.collection.RefMaps;
 import org.mastodon.collection.RefRefMap;
+import org.mastodon.collection.RefSet;
 import org.mastodon.graph.Edge;
 import org.mastodon.graph.GraphIdBimap;
 import org.mastodon.graph.GraphListener;
 import org.mastodon.graph.ListenableGraph;
 import org.mastodon.graph.Vertex;
-import org.mastodon.graph.algorithm.Assigner;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 import org.mastodon.graph.ref.AbstractListenableEdge;
 import org.mastodon.graph.ref.AbstractListenableEdgePool;
 import org.mastodon.graph.ref.AbstractListenableVertex;
@@ -91,7 +98,7 @@ public abstract class BranchGraphImp<
 	 * source graph vertex) is not present in this map, it means that it is
 	 * linked to a branch edge.
 	 */
-	final RefRefMap< V, BV > vbvMap;
+	final LinkMap< V, BV > vbvMap;
 
 	/**
 	 * Maps from linked graph vertex to branch edge. Only contains mappings for
@@ -99,29 +106,80 @@ public abstract class BranchGraphImp<
 	 * graph vertex) is not present in this map, it means that it is linked to a
 	 * branch vertex.
 	 */
-	final RefRefMap< V, BE > vbeMap;
+	final LinkMap< V, BE > vbeMap;
 
 	/**
 	 * Maps from linked graph edge to a branch edge.
 	 */
-	final RefRefMap< E, BE > ebeMap;
+	final LinkMap< E, BE > ebeMap;
 
 	/**
 	 * Maps from branch graph edge to a linked graph edge.
 	 */
-	final RefRefMap< BE, E > beeMap;
+	final LinkMap< BE, E > beeMap;
 
 	/**
 	 * Maps from branch graph vertex to a linked graph vertex.
 	 */
-	final RefRefMap< BV, V > bvvMap;
+	final LinkMap< BV, V > bvvMap;
 
-	private final Assigner< V > assigner;
+	/**
+	 * The linked vertices of each branch, in order, indexed by the internal
+	 * pool index of the branch edge. The first and last vertices are the
+	 * branch extremities.
+	 */
+	private final ArrayList< RefList< V > > branches;
+
+	/**
+	 * The position of each linked vertex inside its branch. Only meaningful
+	 * for vertices linked to a branch edge.
+	 */
+	private final PositionMap< V > positions;
 
-	private final ListenableGraph< V, E > graph;
+	/**
+	 * The summaries maintained with this branch graph.
+	 */
+	private final ArrayList< BranchSummary< BV, BE, V, E, ? > > summaries;
+
+	final ListenableGraph< V, E > graph;
 
 	private final GraphIdBimap< BV, BE > idmap;
 
+	private ProgressToken progress;
+
+	/**
+	 * The number of batches currently open.
+	 */
+	int batchDepth;
+
+	/**
+	 * Whether the branch graph was restored from a file, and was not notified
+	 * of a change of the linked graph since.
+	 */
+	private boolean restored;
+
+	/**
+	 * The checksum of the linked graph structure when the branch graph was
+	 * restored from a file, computed by {@link #linkedChecksum()}.
+	 */
+	private long restoredChecksum;
+
+	/**
+	 * The linked vertices whose edges changed during the current batch.
+	 */
+	private final RefSet< V > dirtyVertices;
+
+	/**
+	 * The branch vertices whose linked vertex was removed during the current
+	 * batch.
+	 */
+	private final RefSet< BV > staleVertices;
+
+	/**
+	 * The branch edges whose linked edge was removed during the current batch.
+	 */
+	private final RefSet< BE > staleEdges;
+
 	/**
 	 * Instantiates a branch graph linked to the specified graph. This instance
 	 * registers itself as a listener of the linked graph.
@@ -138,18 +196,34 @@ public abstract class BranchGraphImp<
 		super( branchEdgePool );
 		this.graph = graph;
 		this.idmap = new GraphIdBimap<>( vertexPool, edgePool );
-		this.vbvMap = RefMaps.createRefRefMap( graph.vertices(), vertices() );
-		this.vbeMap = RefMaps.createRefRefMap( graph.vertices(), edges() );
-		this.ebeMap = RefMaps.createRefRefMap( graph.edges(), edges() );
-		this.bvvMap = RefMaps.createRefRefMap( vertices(), graph.vertices() );
-		this.beeMap = RefMaps.createRefRefMap( edges(), graph.edges() );
-		final V vertexRef = graph.vertexRef();
-		this.assigner = Assigner.getFor( vertexRef );
-		graph.releaseRef( vertexRef );
+		this.vbvMap = LinkMap.create( graph.vertices(), vertices() );
+		this.vbeMap = LinkMap.create( graph.vertices(), edges() );
+		this.ebeMap = LinkMap.create( graph.edges(), edges() );
+		this.bvvMap = LinkMap.create( vertices(), graph.vertices() );
+		this.beeMap = LinkMap.create( edges(), graph.edges() );
+		this.branches = new ArrayList<>();
+		this.positions = PositionMap.create( graph.vertices() );
+		this.summaries = new ArrayList<>();
+		this.dirtyVertices = RefCollections.createRefSet( graph.vertices() );
+		this.staleVertices = RefCollections.createRefSet( vertices() );
+		this.staleEdges = RefCollections.createRefSet( edges() );
 		graphRebuilt();
 		graph.addGraphListener( this );
 	}
 
+	/**
+	 * Sets the token used to report progress and check for cancellation when
+	 * the branch graph is rebuilt, in {@link #graphRebuilt()}. Progress is
+	 * counted in processed vertices and edges of the linked graph.
+	 *
+	 * @param progress
+	 *            the progress token. Can be {@code null}.
+	 */
+	public void setProgressToken( final ProgressToken progress )
+	{
+		this.progress = progress;
+	}
+
 	@Override
 	public GraphIdBimap< BV, BE > getGraphIdBimap()
 	{
@@ -291,6 +365,62 @@ public abstract class BranchGraphImp<
 		return beeMap.get( be, ref );
 	}
 
+	@Override
+	public int getBranchLength( final BE be )
+	{
+		return branches.get( be.getInternalPoolIndex() ).size() - 1;
+	}
+
+	@Override
+	public int getBranchPosition( final V vertex )
+	{
+		return vbvMap.containsKey( vertex ) ? 0 : positions.get( vertex );
+	}
+
+	@Override
+	public V getLinkedVertex( final BE be, final int position, final V ref )
+	{
+		final RefList< V > branch = branches.get( be.getInternalPoolIndex() );
+		if ( position < 0 || position >= branch.size() )
+			throw new IndexOutOfBoundsException( "Position " + position + " is out of the branch bounds [0, " + ( branch.size() - 1 ) + "]." );
+		return branch.get( position, ref );
+	}
+
+	/**
+	 * Adds a summary of the linked vertices of each branch and of each branch
+	 * subtree, computed with the specified aggregator. The summary is kept up
+	 * to date with the branch graph until it is removed with
+	 * {@link #removeSummary(BranchSummary)}.
+	 *
+	 * @param aggregator
+	 *            the aggregator that reduces linked vertices to a summary
+	 *            value.
+	 * @param <A>
+	 *            the type of summary values.
+	 * @return a new summary.
+	 */
+	public < A > BranchSummary< BV, BE, V, E, A > addSummary( final BranchAggregator< V, A > aggregator )
+	{
+		final BranchSummary< BV, BE, V, E, A > summary = new BranchSummary<>( this, graph, aggregator );
+		summaries.add( summary );
+		return summary;
+	}
+
+	/**
+	 * Stops maintaining the specified summary.
+	 *
+	 * @param summary
+	 *            the summary, created by {@link #addSummary(BranchAggregator)}.
+	 * @return {@code true} if the summary was maintained by this branch graph.
+	 */
+	public boolean removeSummary( final BranchSummary< BV, BE, V, E, ? > summary )
+	{
+		if ( !summaries.remove( summary ) )
+			return false;
+		summary.dispose();
+		return true;
+	}
+
 	/*
 	 * Graph listener
 	 */
@@ -311,13 +441,8 @@ public abstract class BranchGraphImp<
 			final BE refBE3 = edgeRef();
 			final BV refBV1 = vertexRef();
 			final BV refBV2 = vertexRef();
-			final V refLV1 = graph.vertexRef();
 			final V refLV2 = graph.vertexRef();
-			final V refLV3 = graph.vertexRef();
 			final E refLE1 = graph.edgeRef();
-			final E refLE2 = graph.edgeRef();
-			final E refLE3 = graph.edgeRef();
-			final E refLE4 = graph.edgeRef();
 
 			// beIn := branch edge to bv.
 			final BE beIn = bv.incomingEdges().get( 0, refBE1 );
@@ -339,12 +464,6 @@ public abstract class BranchGraphImp<
 
 				// le := edge linked to beIn.
 				final E le = beeMap.get( beIn, refLE1 );
-				/*
-				 * lv1 := target vertex of le ==> first source vertex on new
-				 * branch edge.
-				 */
-				final V lv1 = le.getTarget( refLV1 );
-
 				/*
 				 * lv2 := source vertex corresponding to bvTarget ==> terminates
 				 * new branch edge.
@@ -352,29 +471,26 @@ public abstract class BranchGraphImp<
 				final V lv2 = bvvMap.get( bvTarget, refLV2 );
 
 				// Remove bv, beIn, beOut from branch graph.
+				unindexBranch( beIn );
+				unindexBranch( beOut );
 				super.remove( bv );
-				bvvMap.removeWithRef( bv, refLV3 );
-				beeMap.removeWithRef( beIn, refLE3 );
-				beeMap.removeWithRef( beOut, refLE4 );
+				bvvMap.remove( bv );
+				beeMap.remove( beIn );
+				beeMap.remove( beOut );
 
 				// beNew := new branch edge between bvSource and bvTarget.
 				final BE beNew = init( super.addEdge( bvSource, bvTarget, refBE3 ), le );
 
-				// reference f3 from every source graph vertex on the path
-				linkBranchEdge( lv1, lv2, beNew );
-
 				// link from f3 to source edge that was previously linked from
 				// f1
-				beeMap.put( beNew, le, refLE2 );
+				beeMap.put( beNew, le );
+
+				// reference f3 from every source graph vertex on the path
+				linkBranchEdge( le, lv2, beNew );
 			}
 
-			graph.releaseRef( refLV1 );
 			graph.releaseRef( refLV2 );
-			graph.releaseRef( refLV3 );
 			graph.releaseRef( refLE1 );
-			graph.releaseRef( refLE2 );
-			graph.releaseRef( refLE3 );
-			graph.releaseRef( refLE4 );
 			releaseRef( refBV1 );
 			releaseRef( refBV2 );
 			releaseRef( refBE1 );
@@ -387,17 +503,12 @@ public abstract class BranchGraphImp<
 	{
 		final E refE1 = graph.edgeRef();
 		final E refE2 = graph.edgeRef();
-		final E refE3 = graph.edgeRef();
-		final E refE4 = graph.edgeRef();
-		final E refE5 = graph.edgeRef();
-		final V refV1 = graph.vertexRef();
 		final V refV2 = graph.vertexRef();
 		final BE refBE0 = edgeRef();
 		final BV refBV1 = vertexRef();
 		final BV refBV2 = vertexRef();
 		final BE refBE1 = edgeRef();
 		final BE refBE2 = edgeRef();
-		final BE refBE3 = edgeRef();
 
 		final BE initialBE = vbeMap.get( v, refBE0 );
 		final E outgoingEdge = v.outgoingEdges().get( 0, refE1 );
@@ -406,36 +517,32 @@ public abstract class BranchGraphImp<
 
 		final BV beSource = initialBE.getSource( refBV1 );
 		final BV beTarget = initialBE.getTarget( refBV2 );
-		final V branchSecondVertex = branchStartingEdge.getTarget( refV1 );
 		final V branchLastVertex = bvvMap.get( beTarget, refV2 );
 
-		beeMap.removeWithRef( initialBE, refE5 );
+		beeMap.remove( initialBE );
+		unindexBranch( initialBE );
 		super.remove( initialBE );
 
 		final BV newVertex = init( super.addVertex( ref ), v );
 
 		final BE newEdge1 = init( super.addEdge( beSource, newVertex, refBE1 ), branchStartingEdge );
-		beeMap.put( newEdge1, branchStartingEdge, refE3 );
-		linkBranchEdge( branchSecondVertex, v, newEdge1 );
+		beeMap.put( newEdge1, branchStartingEdge );
+		linkBranchEdge( branchStartingEdge, v, newEdge1 );
 
 		final BE newEdge2 = init( super.addEdge( newVertex, beTarget, refBE2 ), outgoingEdge );
-		beeMap.put( newEdge2, outgoingEdge, refE4 );
-		linkBranchEdge( v, branchLastVertex, newEdge2 );
+		beeMap.put( newEdge2, outgoingEdge );
+		ebeMap.put( outgoingEdge, newEdge2 );
+		linkBranchEdge( outgoingEdge, branchLastVertex, newEdge2 );
 
 		bvvMap.put( newVertex, v );
 		vbvMap.put( v, newVertex );
-		vbeMap.removeWithRef( v, refBE3 );
+		vbeMap.remove( v );
 
 		graph.releaseRef( refE1 );
 		graph.releaseRef( refE2 );
-		graph.releaseRef( refE3 );
-		graph.releaseRef( refE4 );
-		graph.releaseRef( refE5 );
-		graph.releaseRef( refV1 );
 		graph.releaseRef( refV2 );
 		releaseRef( refBV1 );
 		releaseRef( refBV2 );
-		releaseRef( refBE3 );
 		releaseRef( refBE0 );
 		releaseRef( refBE1 );
 		releaseRef( refBE2 );
@@ -444,38 +551,41 @@ public abstract class BranchGraphImp<
 	}
 
 	/**
-	 * Link source graph vertices from {@code begin} (inclusive) to {@code end}
-	 * (exclusive) to the branch edge.
+	 * Link source graph vertices after the edge {@code first} up to {@code end}
+	 * (exclusive) to the branch edge, and records the linked vertices of the
+	 * branch and their positions in the same walk.
 	 *
-	 * @param begin
-	 *            the source graph vertex that starts the branch.
+	 * @param first
+	 *            the source graph edge that starts the branch.
 	 * @param end
 	 *            the source graph vertex that finishes the branch.
 	 * @param branchEdge
 	 *            the branch edge to link the branch to. All source graph
 	 *            vertices of the branch will be mapped to this branch edge.
 	 */
-	private void linkBranchEdge( final V begin, final V end, final BE branchEdge )
+	private void linkBranchEdge( final E first, final V end, final BE branchEdge )
 	{
 		final E eRef = graph.edgeRef();
 		final V vRef = graph.vertexRef();
-		final BV bvRef = vertexRef();
-		final BE beRef = edgeRef();
-		V v = assigner.assign( begin, vRef );
+		final RefList< V > branch = resetBranch( branchEdge );
+		branch.add( first.getSource( vRef ) );
+		V v = first.getTarget( vRef );
 
 		while ( !v.equals( end ) )
 		{
-			vbvMap.removeWithRef( v, bvRef );
-			vbeMap.put( v, branchEdge, beRef );
+			vbvMap.remove( v );
+			vbeMap.put( v, branchEdge );
+			positions.put( v, branch.size() );
+			branch.add( v );
 			final E e = v.outgoingEdges().get( 0, eRef );
 			v = e.getTarget( vRef );
-			ebeMap.put( e, branchEdge, beRef );
+			ebeMap.put( e, branchEdge );
 		}
+		branch.add( v );
+		branchChanged( branchEdge );
 
 		graph.releaseRef( eRef );
 		graph.releaseRef( vRef );
-		releaseRef( beRef );
-		releaseRef( bvRef );
 	}
 
 	private void releaseBranchEdgeFor( final E edge )
@@ -483,7 +593,6 @@ public abstract class BranchGraphImp<
 		final V vRef1 = graph.vertexRef();
 		final V source = edge.getSource( vRef1 );
 		final BV vertexRef1 = vertexRef();
-		final E eRef = graph.edgeRef();
 
 		final BV svs;
 		if ( vbvMap.containsKey( source ) )
@@ -504,13 +613,13 @@ public abstract class BranchGraphImp<
 		for ( final BE se : svs.outgoingEdges() )
 			if ( se.getTarget().equals( svt ) )
 			{
-				beeMap.removeWithRef( se, eRef );
+				beeMap.remove( se );
+				unindexBranch( se );
 				super.remove( se );
 			}
 
 		releaseRef( vertexRef1 );
 		releaseRef( vertexRef2 );
-		graph.releaseRef( eRef );
 		graph.releaseRef( vRef1 );
 		graph.releaseRef( vRef2 );
 	}
@@ -519,58 +628,312 @@ public abstract class BranchGraphImp<
 	 * Graph listener.
 	 */
 
+	/**
+	 * Rebuilds the branch graph from the linked graph.
+	 * <p>
+	 * The branch graph is built in a single pass over the linked graph,
+	 * without replaying the incremental updates. Branch vertices are created
+	 * for the linked vertices that do not have exactly one incoming and one
+	 * outgoing edge. Then the chain of linked vertices starting at each
+	 * outgoing edge of these vertices is walked once, to create the branch
+	 * edge and to link the chain elements to it. Finally, the remaining
+	 * unlinked vertices belong to cycles without any branch extremity. The
+	 * first vertex of each such cycle, in vertex iteration order, becomes a
+	 * branch vertex with a loop branch edge. The cost is linear in the size of
+	 * the linked graph.
+	 * <p>
+	 * Listeners of the branch graph are not notified of individual changes,
+	 * but receive a single {@link GraphListener#graphRebuilt()} event.
+	 * <p>
+	 * If the progress token is cancelled during the rebuild, the branch graph
+	 * is left empty and the {@link CancellationException} is rethrown. It can
+	 * be rebuilt later by calling this method again.
+	 * <p>
+	 * If the branch graph was just restored from a file with
+	 * {@link BranchGraphIO#read}, the first call after the linked graph
+	 * listeners are resumed keeps the restored branches instead, provided the
+	 * structure of the linked graph is unchanged.
+	 *
+	 * @throws CancellationException
+	 *             if the progress token was cancelled.
+	 */
 	@Override
 	public void graphRebuilt()
 	{
+		final boolean keep = restored && restoredChecksum == linkedChecksum();
+		restored = false;
+		if ( keep )
+			return;
+
+		pauseListeners();
 		clear();
+		clearMappings();
 
-		for ( final V v : graph.vertices() )
-			vertexAdded( v );
+		final ProgressToken.Ticker ticker = ProgressToken.ticker( progress );
+		if ( progress != null )
+			progress.addTotal( graph.vertices().size() + graph.edges().size() );
 
-		for ( final E e : graph.edges() )
-			edgeAdded( e );
+		final BV bvRef = vertexRef();
+		final BE beRef = edgeRef();
+		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		try
+		{
+			// Branch extremities.
+			for ( final V v : graph.vertices() )
+			{
+				if ( !isInBranch( v ) )
+					addBranchVertex( v, bvRef );
+				ticker.tick();
+			}
+
+			// Branches starting at each branch extremity.
+			for ( final BV bv : vertices() )
+			{
+				final V v = bvvMap.get( bv, vRef );
+				for ( final E e : v.outgoingEdges() )
+					addBranchEdge( bv, e, ticker, beRef );
+			}
+
+			// Cycles without branch extremities.
+			for ( final V v : graph.vertices() )
+			{
+				if ( isInBranch( v ) && !vbeMap.containsKey( v ) )
+				{
+					final BV bv = addBranchVertex( v, bvRef );
+					addBranchEdge( bv, v.outgoingEdges().get( 0, eRef ), ticker, beRef );
+				}
+			}
+			ticker.flush();
+		}
+		catch ( final CancellationException e )
+		{
+			clear();
+			clearMappings();
+			throw e;
+		}
+		finally
+		{
+			releaseRef( bvRef );
+			releaseRef( beRef );
+			graph.releaseRef( vRef );
+			graph.releaseRef( eRef );
+			resumeListeners();
+		}
 	}
 
-	@Override
-	public void vertexAdded( final V vertex )
+	/**
+	 * Returns {@code true} if the specified linked vertex is in the middle of
+	 * a branch, that is, if it has exactly one incoming and one outgoing edge.
+	 */
+	private static boolean isInBranch( final Vertex< ? > v )
+	{
+		return v.incomingEdges().size() == 1 && v.outgoingEdges().size() == 1;
+	}
+
+	/**
+	 * Creates the branch vertex linked to the specified vertex, during a
+	 * rebuild.
+	 */
+	BV addBranchVertex( final V v, final BV ref )
+	{
+		final BV bv = init( super.addVertex( ref ), v );
+		vbvMap.put( v, bv );
+		bvvMap.put( bv, v );
+		return bv;
+	}
+
+	/**
+	 * Creates the branch edge starting with the specified linked edge, during
+	 * a rebuild, and links all the vertices and edges of the branch to it. The
+	 * branch ends at the first vertex with a branch vertex.
+	 */
+	BE addBranchEdge( final BV source, final E first, final ProgressToken.Ticker ticker, final BE ref )
 	{
-		final BV bvRef1 = vertexRef();
-		final BV bvRef2 = vertexRef();
 		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		final BV bvRef = vertexRef();
 
-		final BV bv = init( super.addVertex( bvRef1 ), vertex );
-		vbvMap.put( vertex, bv, bvRef2 );
-		bvvMap.put( bv, vertex, vRef );
+		// Find the end of the branch.
+		V v = first.getTarget( vRef );
+		while ( !vbvMap.containsKey( v ) )
+			v = v.outgoingEdges().get( 0, eRef ).getTarget( vRef );
+		final BV target = vbvMap.get( v, bvRef );
+
+		final BE be = init( super.addEdge( source, target, ref ), first );
+		beeMap.put( be, first );
+
+		// Link the branch.
+		ebeMap.put( first, be );
+		ticker.tick();
+		final RefList< V > branch = resetBranch( be );
+		branch.add( first.getSource( vRef ) );
+		v = first.getTarget( vRef );
+		while ( !vbvMap.containsKey( v ) )
+		{
+			vbeMap.put( v, be );
+			positions.put( v, branch.size() );
+			branch.add( v );
+			final E e = v.outgoingEdges().get( 0, eRef );
+			ebeMap.put( e, be );
+			ticker.tick();
+			v = e.getTarget( vRef );
+		}
+		branch.add( v );
+		branchChanged( be );
 
-		releaseRef( bvRef1 );
-		releaseRef( bvRef2 );
 		graph.releaseRef( vRef );
+		graph.releaseRef( eRef );
+		releaseRef( bvRef );
+		return be;
+	}
+
+	/**
+	 * Clears this branch graph before restoring it from a file with
+	 * {@link #addBranchVertex(Vertex, AbstractListenableVertex)} and
+	 * {@link #addBranchEdge(AbstractListenableVertex, Edge, ProgressToken.Ticker, AbstractListenableEdge)}.
+	 * Listeners are paused until {@link #endRestore()}.
+	 */
+	void beginRestore()
+	{
+		if ( batchDepth > 0 )
+			throw new IllegalStateException( "Cannot restore the branch graph while a batch is open." );
+		pauseListeners();
+		clear();
+		clearMappings();
+	}
+
+	/**
+	 * Ends restoring this branch graph from a file and resumes listeners. The
+	 * next {@link #graphRebuilt()} notification keeps the restored branches,
+	 * unless the structure of the linked graph has changed since.
+	 */
+	void endRestore()
+	{
+		resumeListeners();
+		restored = true;
+		restoredChecksum = linkedChecksum();
+	}
+
+	/**
+	 * Computes a checksum of the structure of the linked graph, from the pool
+	 * ids of its vertices and edges, or from their identity hash codes if the
+	 * linked graph is not backed by pools. Replacing the linked objects, even
+	 * by as many other ones, changes the checksum with high probability.
+	 */
+	private long linkedChecksum()
+	{
+		final RefPool< V > vertexPool = RefCollections.tryGetRefPool( graph.vertices() );
+		final RefPool< E > edgePool = RefCollections.tryGetRefPool( graph.edges() );
+		final ToIntFunction< V > vertexIds = vertexPool != null ? vertexPool::getId : System::identityHashCode;
+		final ToIntFunction< E > edgeIds = edgePool != null ? edgePool::getId : System::identityHashCode;
+		return BranchGraphIO.checksum( graph, vertexIds, edgeIds );
+	}
+
+	/**
+	 * Returns the empty list to fill with the linked vertices of the specified
+	 * branch edge, reusing the list of the branch edge previously stored at
+	 * the same pool index if any.
+	 */
+	private RefList< V > resetBranch( final BE be )
+	{
+		final int id = be.getInternalPoolIndex();
+		while ( branches.size() <= id )
+			branches.add( null );
+		RefList< V > branch = branches.get( id );
+		if ( branch == null )
+		{
+			branch = RefCollections.createRefList( graph.vertices() );
+			branches.set( id, branch );
+		}
+		else
+			branch.clear();
+		return branch;
+	}
+
+	private void branchChanged( final BE be )
+	{
+		for ( final BranchSummary< BV, BE, V, E, ? > summary : summaries )
+			summary.branchChanged( be );
+	}
+
+	/**
+	 * Discards the linked vertices of the specified branch edge, which is
+	 * about to be removed. Its list is kept for reuse.
+	 */
+	private void unindexBranch( final BE be )
+	{
+		final RefList< V > branch = branches.get( be.getInternalPoolIndex() );
+		if ( branch != null )
+			branch.clear();
+		branchChanged( be );
+	}
+
+	private void clearMappings()
+	{
+		vbvMap.clear();
+		vbeMap.clear();
+		ebeMap.clear();
+		beeMap.clear();
+		bvvMap.clear();
+		branches.clear();
+		positions.clear();
+		dirtyVertices.clear();
+		staleVertices.clear();
+		staleEdges.clear();
+	}
+
+	@Override
+	public void vertexAdded( final V vertex )
+	{
+		restored = false;
+		if ( batchDepth > 0 )
+		{
+			dirtyVertices.add( vertex );
+			return;
+		}
+
+		final BV bvRef = vertexRef();
+
+		final BV bv = init( super.addVertex( bvRef ), vertex );
+		vbvMap.put( vertex, bv );
+		bvvMap.put( bv, vertex );
+
+		releaseRef( bvRef );
 	}
 
 	@Override
 	public void vertexRemoved( final V vertex )
 	{
-		final BV bvRef1 = vertexRef();
-		final BV bvRef2 = vertexRef();;
-		final BE beRef = edgeRef();
-		final V vRef = graph.vertexRef();
+		restored = false;
+		if ( batchDepth > 0 )
+		{
+			unlinkRemovedVertex( vertex );
+			return;
+		}
 
-		final BV w = vbvMap.get( vertex, bvRef1 );
-		bvvMap.removeWithRef( w, vRef );
+		final BV bvRef = vertexRef();
+
+		final BV w = vbvMap.get( vertex, bvRef );
+		bvvMap.remove( w );
 		super.remove( w );
 
-		vbeMap.removeWithRef( vertex, beRef );
-		vbvMap.removeWithRef( vertex, bvRef2 );
+		vbeMap.remove( vertex );
+		vbvMap.remove( vertex );
 
-		releaseRef( bvRef1 );
-		releaseRef( bvRef2 );
-		releaseRef( beRef );
-		graph.releaseRef( vRef );
+		releaseRef( bvRef );
 	}
 
 	@Override
 	public void edgeAdded( final E edge )
 	{
+		restored = false;
+		if ( batchDepth > 0 )
+		{
+			markEndsDirty( edge );
+			return;
+		}
+
 		final V ref1 = graph.vertexRef();
 		final V ref2 = graph.vertexRef();
 		final BV vref1 = vertexRef();
@@ -583,56 +946,48 @@ public abstract class BranchGraphImp<
 
 		if ( null != sourceBV && null != targetBV )
 		{
-			final BE beRef1 = edgeRef();
-			final BE beRef2 = edgeRef();
-			final E eRef = graph.edgeRef();
+			final BE beRef = edgeRef();
 
-			final BE be = init( super.addEdge( sourceBV, targetBV, beRef1 ), edge );
-			ebeMap.put( edge, be, beRef2 );
-			beeMap.put( be, edge, eRef );
+			final BE be = init( super.addEdge( sourceBV, targetBV, beRef ), edge );
+			ebeMap.put( edge, be );
+			beeMap.put( be, edge );
+			linkBranchEdge( edge, target, be );
 
 			checkFuse( sourceBV );
 			checkFuse( targetBV );
 
-			releaseRef( beRef1 );
-			releaseRef( beRef2 );
-			graph.releaseRef( eRef );
-
+			releaseRef( beRef );
 		}
 		else if ( null == sourceBV && null != targetBV )
 		{
 			final BV bvRef = vertexRef();
-			final BE beRef1 = edgeRef();
-			final BE beRef2 = edgeRef();
-			final E eRef = graph.edgeRef();
+			final BE beRef = edgeRef();
 
 			final BV newSourceBV = split( source, bvRef );
 
-			final BE se = init( super.addEdge( newSourceBV, targetBV, beRef1 ), edge );
-			beeMap.put( se, edge, eRef );
-			ebeMap.put( edge, se, beRef2 );
+			final BE se = init( super.addEdge( newSourceBV, targetBV, beRef ), edge );
+			beeMap.put( se, edge );
+			ebeMap.put( edge, se );
+			linkBranchEdge( edge, target, se );
 
 			checkFuse( targetBV );
 
-			graph.releaseRef( eRef );
-			releaseRef( beRef1 );
-			releaseRef( beRef2 );
+			releaseRef( beRef );
 			releaseRef( bvRef );
 		}
 		else if ( null != sourceBV && null == targetBV )
 		{
 			final BV vertexRef = vertexRef();
 			final BV newTargetBV = split( target, vertexRef );
-			final E edgeRef2 = graph.edgeRef();
 
 			final BE edgeRef = edgeRef();
 			final BE se = init( super.addEdge( sourceBV, newTargetBV, edgeRef ), edge );
 
-			beeMap.put( se, edge, edgeRef2 );
+			beeMap.put( se, edge );
+			linkBranchEdge( edge, target, se );
 
 			checkFuse( sourceBV );
 
-			graph.releaseRef( edgeRef2 );
 			releaseRef( edgeRef );
 			releaseRef( vertexRef );
 		}
@@ -644,21 +999,18 @@ public abstract class BranchGraphImp<
 			final BV newSourceBV = split( source, vertexRef1 );
 			final BV newTargetBV = split( target, vertexRef2 );
 
-			final BE beRef1 = edgeRef();
-			final BE beRef2 = edgeRef();
-			final E eRef = graph.edgeRef();
+			final BE beRef = edgeRef();
 
-			final BE se = init( super.addEdge( newSourceBV, newTargetBV, beRef1 ), edge );
+			final BE se = init( super.addEdge( newSourceBV, newTargetBV, beRef ), edge );
 
-			beeMap.put( se, edge, eRef );
-			ebeMap.put( edge, se, beRef2 );
+			beeMap.put( se, edge );
+			ebeMap.put( edge, se );
+			linkBranchEdge( edge, target, se );
 
 			checkFuse( newSourceBV );
 			checkFuse( newTargetBV );
 
-			graph.releaseRef( eRef );
-			releaseRef( beRef1 );
-			releaseRef( beRef2 );
+			releaseRef( beRef );
 			releaseRef( vertexRef1 );
 			releaseRef( vertexRef2 );
 		}
@@ -672,13 +1024,324 @@ public abstract class BranchGraphImp<
 	@Override
 	public void edgeRemoved( final E edge )
 	{
+		restored = false;
+		if ( batchDepth > 0 )
+		{
+			unlinkRemovedEdge( edge );
+			return;
+		}
+
 		releaseBranchEdgeFor( edge );
 
+		ebeMap.remove( edge );
+	}
+
+	/*
+	 * Batched maintenance.
+	 */
+
+	/**
+	 * Opens a batch of changes to the linked graph.
+	 * <p>
+	 * While a batch is open, changes to the linked graph are not applied to
+	 * the branch graph one by one, which would split and fuse the same
+	 * branches repeatedly during bulk edits. Only the linked vertices whose
+	 * edges change are recorded. When the batch is closed by
+	 * {@link #endBatch()}, the branches around these vertices are recomputed
+	 * once, and the branch graph only emits events for the branch vertices and
+	 * edges that actually changed.
+	 * <p>
+	 * Batches can be nested, and the branch graph is updated when the
+	 * outermost batch is closed. Until then, the branch graph does not reflect
+	 * the changes made to the linked graph during the batch, except that
+	 * linked vertices and edges removed during the batch are unlinked
+	 * immediately.
+	 */
+	public void beginBatch()
+	{
+		batchDepth++;
+	}
+
+	/**
+	 * Closes a batch of changes opened by {@link #beginBatch()}. If this is
+	 * the outermost batch, the branch graph is updated to reflect the changes
+	 * made to the linked graph during the batch.
+	 *
+	 * @throws IllegalStateException
+	 *             if no batch is open.
+	 */
+	public void endBatch()
+	{
+		if ( batchDepth == 0 )
+			throw new IllegalStateException( "No batch is open." );
+		if ( --batchDepth == 0 )
+			updateDirtyBranches();
+	}
+
+	private void markEndsDirty( final E edge )
+	{
+		final V vRef = graph.vertexRef();
+		dirtyVertices.add( edge.getSource( vRef ) );
+		dirtyVertices.add( edge.getTarget( vRef ) );
+		graph.releaseRef( vRef );
+	}
+
+	/**
+	 * Removes the mappings of a linked vertex removed during a batch. Its
+	 * branch vertex, if any, is removed when the batch is closed.
+	 */
+	private void unlinkRemovedVertex( final V vertex )
+	{
+		final BV bvRef = vertexRef();
+		dirtyVertices.remove( vertex );
+		final BV bv = vbvMap.get( vertex, bvRef );
+		if ( bv != null )
+		{
+			bvvMap.remove( bv );
+			staleVertices.add( bv );
+		}
+		vbvMap.remove( vertex );
+		vbeMap.remove( vertex );
+		releaseRef( bvRef );
+	}
+
+	/**
+	 * Removes the mappings of a linked edge removed during a batch. If it is
+	 * the first edge of its branch, the branch edge is removed when the batch
+	 * is closed.
+	 */
+	private void unlinkRemovedEdge( final E edge )
+	{
+		final BE beRef = edgeRef();
+		final E eRef = graph.edgeRef();
+		markEndsDirty( edge );
+		final BE be = ebeMap.get( edge, beRef );
+		if ( be != null && edge.equals( beeMap.get( be, eRef ) ) )
+		{
+			beeMap.remove( be );
+			staleEdges.add( be );
+		}
+		ebeMap.remove( edge );
+		releaseRef( beRef );
+		graph.releaseRef( eRef );
+	}
+
+	/**
+	 * Recomputes the branches that contain or end at the vertices made dirty
+	 * during the batch. Branch vertices linked to vertices that are still
+	 * branch extremities, and branch edges whose first linked edge and
+	 * extremities did not change, are kept. The other branch vertices and
+	 * edges of the affected regions are removed, and the missing ones are
+	 * added.
+	 */
+	private void updateDirtyBranches()
+	{
+		final V vRef = graph.vertexRef();
+		final V endRef = graph.vertexRef();
+		final E eRef1 = graph.edgeRef();
+		final E eRef2 = graph.edgeRef();
+		final BV bvRef1 = vertexRef();
+		final BV bvRef2 = vertexRef();
+		final BE beRef = edgeRef();
+
+		// The new branches around the dirty vertices, from first edge to end.
+		final RefRefMap< E, V > ends = RefMaps.createRefRefMap( graph.edges(), graph.vertices() );
+		final RefSet< V > extremities = RefCollections.createRefSet( graph.vertices() );
+		for ( final V d : dirtyVertices )
+		{
+			if ( isInBranch( d ) && !extremities.contains( d ) )
+			{
+				addDirtyBranch( findBranchStart( d, extremities, eRef1 ), ends, extremities );
+				continue;
+			}
+			extremities.add( d );
+			for ( final E e : d.outgoingEdges() )
+				addDirtyBranch( e, ends, extremities );
+			for ( final E e : d.incomingEdges() )
+			{
+				final V source = e.getSource( vRef );
+				if ( isInBranch( source ) && !extremities.contains( source ) )
+					addDirtyBranch( findBranchStart( source, extremities, eRef1 ), ends, extremities );
+				else
+					addDirtyBranch( e, ends, extremities );
+			}
+		}
+
+		// The branch vertices and edges that may have changed.
+		final RefSet< BV > touchedVertices = RefCollections.createRefSet( vertices() );
+		final RefSet< BE > touchedEdges = RefCollections.createRefSet( edges() );
+		touchedVertices.addAll( staleVertices );
+		touchedEdges.addAll( staleEdges );
+		for ( final V d : dirtyVertices )
+			touch( d, touchedVertices, touchedEdges );
+		for ( final E first : ends.keySet() )
+		{
+			final V end = ends.get( first, endRef );
+			V v = first.getTarget( vRef );
+			while ( !v.equals( end ) )
+			{
+				touch( v, touchedVertices, touchedEdges );
+				v = v.outgoingEdges().get( 0, eRef2 ).getTarget( vRef );
+			}
+		}
+		for ( final BV bv : touchedVertices )
+			for ( final BE be : bv.edges() )
+				touchedEdges.add( be );
+
+		// Remove the branch edges that changed, keep the others.
+		final RefRefMap< E, BE > keptEdges = RefMaps.createRefRefMap( graph.edges(), edges() );
+		final RefList< BE > removedEdges = RefCollections.createRefList( edges() );
+		for ( final BE be : touchedEdges )
+		{
+			final E first = beeMap.get( be, eRef1 );
+			final V end = first == null ? null : ends.get( first, endRef );
+			if ( end != null
+					&& isKept( be.getSource( bvRef1 ), touchedVertices, extremities )
+					&& isKept( be.getTarget( bvRef1 ), touchedVertices, extremities )
+					&& end.equals( bvvMap.get( bvRef1, vRef ) ) )
+				keptEdges.put( first, be, beRef );
+			else
+				removedEdges.add( be );
+		}
+		for ( final BE be : removedEdges )
+		{
+			beeMap.remove( be );
+			unindexBranch( be );
+			super.remove( be );
+		}
+
+		// Remove the branch vertices that are no longer branch extremities.
+		final RefList< BV > removedVertices = RefCollections.createRefList( vertices() );
+		for ( final BV bv : touchedVertices )
+			if ( !isKept( bv, touchedVertices, extremities ) )
+				removedVertices.add( bv );
+		for ( final BV bv : removedVertices )
+		{
+			final V v = bvvMap.get( bv, vRef );
+			if ( v != null )
+				vbvMap.remove( v );
+			bvvMap.remove( bv );
+			super.remove( bv );
+		}
+
+		// Add the missing branch vertices and edges, and link the branches.
+		for ( final V x : extremities )
+		{
+			vbeMap.remove( x );
+			if ( !vbvMap.containsKey( x ) )
+				addBranchVertex( x, bvRef1 );
+		}
+		for ( final E first : ends.keySet() )
+		{
+			final V end = ends.get( first, endRef );
+			BE be = keptEdges.get( first, beRef );
+			if ( be == null )
+			{
+				final BV source = vbvMap.get( first.getSource( vRef ), bvRef1 );
+				final BV target = vbvMap.get( end, bvRef2 );
+				be = init( super.addEdge( source, target, beRef ), first );
+				beeMap.put( be, first );
+			}
+			ebeMap.put( first, be );
+			linkBranchEdge( first, end, be );
+		}
+
+		dirtyVertices.clear();
+		staleVertices.clear();
+		staleEdges.clear();
+
+		graph.releaseRef( vRef );
+		graph.releaseRef( endRef );
+		graph.releaseRef( eRef1 );
+		graph.releaseRef( eRef2 );
+		releaseRef( bvRef1 );
+		releaseRef( bvRef2 );
+		releaseRef( beRef );
+	}
+
+	/**
+	 * Returns the first linked edge of the branch that contains the specified
+	 * vertex, which must be in the middle of a branch. If the vertex is on a
+	 * cycle without branch extremity, a vertex of the cycle is chosen as
+	 * branch extremity and added to the specified set. A vertex that was
+	 * already linked to a branch vertex is preferred.
+	 */
+	private E findBranchStart( final V vertex, final RefSet< V > extremities, final E ref )
+	{
+		final V vRef = graph.vertexRef();
+		E e = vertex.incomingEdges().get( 0, ref );
+		V s = e.getSource( vRef );
+		while ( isInBranch( s ) && !extremities.contains( s ) && !s.equals( vertex ) )
+		{
+			e = s.incomingEdges().get( 0, ref );
+			s = e.getSource( vRef );
+		}
+		if ( s.equals( vertex ) && isInBranch( s ) && !extremities.contains( s ) )
+		{
+			// A cycle without branch extremity.
+			while ( !vbvMap.containsKey( s ) )
+			{
+				s = s.outgoingEdges().get( 0, ref ).getTarget( vRef );
+				if ( s.equals( vertex ) )
+					break;
+			}
+			extremities.add( s );
+			e = s.outgoingEdges().get( 0, ref );
+		}
+		graph.releaseRef( vRef );
+		return e;
+	}
+
+	/**
+	 * Walks the branch starting with the specified linked edge, and records
+	 * its end and extremities.
+	 */
+	private void addDirtyBranch( final E first, final RefRefMap< E, V > ends, final RefSet< V > extremities )
+	{
+		if ( ends.containsKey( first ) )
+			return;
+		final V vRef = graph.vertexRef();
+		final E eRef = graph.edgeRef();
+		V v = first.getTarget( vRef );
+		while ( isInBranch( v ) && !extremities.contains( v ) )
+			v = v.outgoingEdges().get( 0, eRef ).getTarget( vRef );
+		ends.put( first, v );
+		extremities.add( v );
+		extremities.add( first.getSource( vRef ) );
+		graph.releaseRef( vRef );
+		graph.releaseRef( eRef );
+	}
+
+	private void touch( final V v, final RefSet< BV > touchedVertices, final RefSet< BE > touchedEdges )
+	{
+		final BV bvRef = vertexRef();
 		final BE beRef = edgeRef();
-		ebeMap.removeWithRef( edge, beRef );
+		final BV bv = vbvMap.get( v, bvRef );
+		if ( bv != null )
+			touchedVertices.add( bv );
+		final BE be = vbeMap.get( v, beRef );
+		if ( be != null )
+			touchedEdges.add( be );
+		releaseRef( bvRef );
 		releaseRef( beRef );
 	}
 
+	/**
+	 * Returns {@code true} if the specified branch vertex is kept when closing
+	 * a batch: if it was not touched, or if its linked vertex is still a
+	 * branch extremity.
+	 */
+	private boolean isKept( final BV bv, final RefSet< BV > touchedVertices, final RefSet< V > extremities )
+	{
+		if ( !touchedVertices.contains( bv ) )
+			return true;
+		final V vRef = graph.vertexRef();
+		final V v = bvvMap.get( bv, vRef );
+		final boolean kept = v != null && extremities.contains( v );
+		graph.releaseRef( vRef );
+		return kept;
+	}
+
 	/*
 	 * Display. Mainly for debug.
 	 */
@@ -815,25 +1478,25 @@ public abstract class BranchGraphImp<
 
 		private final E eref;
 
-		private final BV bvref;
-
 		private E next;
 
 		private V target;
 
+		private int remaining;
+
 		public EdgeBranchIterator( final BE edge )
 		{
 			this.vref = graph.vertexRef();
 			this.eref = graph.edgeRef();
-			this.bvref = vertexRef();
 			next = getLinkedEdge( edge, eref );
 			target = next.getTarget( vref );
+			remaining = getBranchLength( edge ) - 1;
 		}
 
 		@Override
 		public boolean hasNext()
 		{
-			return getBranchVertex( target, bvref ) == null;
+			return remaining > 0;
 		}
 
 		@Override
@@ -843,6 +1506,7 @@ public abstract class BranchGraphImp<
 				throw new NoSuchElementException();
 			next = target.outgoingEdges().get( 0, eref );
 			target = next.getTarget( vref );
+			remaining--;
 			return next;
 		}
 
@@ -0,0 +1,322 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.util.ArrayList;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.RefStack;
+import org.mastodon.graph.Edge;
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.Vertex;
+
+/**
+ * Summaries of the linked vertices of each branch and of each branch subtree
+ * of a branch graph, computed with a {@link BranchAggregator}.
+ * <p>
+ * Instances are created by {@link BranchGraphImp#addSummary(BranchAggregator)}
+ * and kept up to date with the branch graph. Summaries are computed when
+ * first queried and cached. When a branch changes, only its own summary and
+ * the subtree summaries of its ancestors are discarded. Reading a summary of
+ * an unchanged branch or subtree is therefore a constant time operation,
+ * instead of iterating over its linked vertices.
+ * <p>
+ * The values of the linked vertices are read when summaries are computed. If
+ * they change afterwards, {@link #invalidate()} must be called.
+ *
+ * @param <BV>
+ *            the type of the branch vertices.
+ * @param <BE>
+ *            the type of the branch edges.
+ * @param <V>
+ *            the type of linked vertices.
+ * @param <E>
+ *            the type of linked edges.
+ * @param <A>
+ *            the type of summary values.
+ */
+public class BranchSummary< BV extends Vertex< BE >, BE extends Edge< BV >, V extends Vertex< E >, E extends Edge< V >, A >
+{
+
+	/**
+	 * Marks summaries that are not computed.
+	 */
+	private static final Object INVALID = new Object();
+
+	private final BranchGraph< BV, BE, V, E > branchGraph;
+
+	private final ReadOnlyGraph< V, E > graph;
+
+	private final BranchAggregator< V, A > aggregator;
+
+	private final GraphIdBimap< BV, BE > idmap;
+
+	/**
+	 * The summary of the vertices strictly inside each branch, indexed by
+	 * branch edge id. {@code null} for branches without such vertices.
+	 */
+	private final ArrayList< Object > interiors;
+
+	/**
+	 * The summary of each branch subtree, indexed by branch vertex id.
+	 */
+	private final ArrayList< Object > subtrees;
+
+	private final RefStack< BV > stack;
+
+	private final GraphListener< BV, BE > listener;
+
+	BranchSummary( final BranchGraph< BV, BE, V, E > branchGraph, final ReadOnlyGraph< V, E > graph, final BranchAggregator< V, A > aggregator )
+	{
+		this.branchGraph = branchGraph;
+		this.graph = graph;
+		this.aggregator = aggregator;
+		this.idmap = branchGraph.getGraphIdBimap();
+		this.interiors = new ArrayList<>();
+		this.subtrees = new ArrayList<>();
+		this.stack = RefCollections.createRefStack( branchGraph.vertices() );
+		this.listener = new GraphListener< BV, BE >()
+		{
+			@Override
+			public void graphRebuilt()
+			{
+				invalidate();
+			}
+
+			@Override
+			public void vertexAdded( final BV bv )
+			{
+				set( subtrees, idmap.getVertexId( bv ), INVALID );
+			}
+
+			@Override
+			public void vertexRemoved( final BV bv )
+			{
+				set( subtrees, idmap.getVertexId( bv ), INVALID );
+			}
+
+			@Override
+			public void edgeAdded( final BE be )
+			{}
+
+			@Override
+			public void edgeRemoved( final BE be )
+			{}
+		};
+		branchGraph.addGraphListener( listener );
+	}
+
+	/**
+	 * Returns the aggregator used to compute the summaries.
+	 *
+	 * @return the aggregator.
+	 */
+	public BranchAggregator< V, A > getAggregator()
+	{
+		return aggregator;
+	}
+
+	/**
+	 * Returns the summary of the linked vertices of the specified branch,
+	 * including the two branch extremities. The extremity of a loop branch is
+	 * only included once.
+	 *
+	 * @param be
+	 *            the branch edge.
+	 * @return the summary of the branch.
+	 */
+	public A getBranchSummary( final BE be )
+	{
+		final V vRef = graph.vertexRef();
+		final BV bvRef1 = branchGraph.vertexRef();
+		final BV bvRef2 = branchGraph.vertexRef();
+
+		A a = aggregator.of( branchGraph.getLinkedVertex( be, 0, vRef ) );
+		final A interior = getInterior( be );
+		if ( interior != null )
+			a = aggregator.combine( a, interior );
+		if ( !be.getSource( bvRef1 ).equals( be.getTarget( bvRef2 ) ) )
+			a = aggregator.combine( a, aggregator.of( branchGraph.getLinkedVertex( be, branchGraph.getBranchLength( be ), vRef ) ) );
+
+		graph.releaseRef( vRef );
+		branchGraph.releaseRef( bvRef1 );
+		branchGraph.releaseRef( bvRef2 );
+		return a;
+	}
+
+	/**
+	 * Returns the summary of the linked vertices of the subtree starting at
+	 * the specified branch vertex: the vertex linked to it, then, for each
+	 * outgoing branch edge, the vertices inside the branch and the subtree of
+	 * its target.
+	 * <p>
+	 * If the branch graph has merges, a shared subtree is included once per
+	 * branch leading to it. If it has cycles, the branch edges closing a cycle
+	 * are ignored.
+	 *
+	 * @param bv
+	 *            the branch vertex.
+	 * @return the summary of the subtree.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public A getSubtreeSummary( final BV bv )
+	{
+		final Object cached = get( subtrees, idmap.getVertexId( bv ) );
+		if ( cached != INVALID )
+			return ( A ) cached;
+
+		final V vRef = graph.vertexRef();
+		final BV ref1 = branchGraph.vertexRef();
+		final BV ref2 = branchGraph.vertexRef();
+		final RefSet< BV > inProgress = RefCollections.createRefSet( branchGraph.vertices() );
+
+		// Iterative post-order traversal of the subtree parts not computed.
+		stack.push( bv );
+		inProgress.add( bv );
+		while ( !stack.isEmpty() )
+		{
+			final BV top = stack.peek( ref1 );
+			boolean pushed = false;
+			for ( final BE be : top.outgoingEdges() )
+			{
+				final BV target = be.getTarget( ref2 );
+				if ( get( subtrees, idmap.getVertexId( target ) ) == INVALID && !inProgress.contains( target ) )
+				{
+					stack.push( target );
+					inProgress.add( target );
+					pushed = true;
+					break;
+				}
+			}
+			if ( pushed )
+				continue;
+
+			A a = aggregator.of( branchGraph.getLinkedVertex( top, vRef ) );
+			for ( final BE be : top.outgoingEdges() )
+			{
+				final Object subtree = get( subtrees, idmap.getVertexId( be.getTarget( ref2 ) ) );
+				if ( subtree == INVALID )
+					continue; // Closes a cycle.
+				final A interior = getInterior( be );
+				if ( interior != null )
+					a = aggregator.combine( a, interior );
+				a = aggregator.combine( a, ( A ) subtree );
+			}
+			set( subtrees, idmap.getVertexId( top ), a );
+			inProgress.remove( top );
+			stack.pop( ref2 );
+		}
+
+		graph.releaseRef( vRef );
+		branchGraph.releaseRef( ref1 );
+		branchGraph.releaseRef( ref2 );
+		return ( A ) get( subtrees, idmap.getVertexId( bv ) );
+	}
+
+	/**
+	 * Discards all the summaries. They are recomputed when next queried. This
+	 * must be called when the values of the linked vertices change.
+	 */
+	public void invalidate()
+	{
+		interiors.clear();
+		subtrees.clear();
+	}
+
+	/**
+	 * Called by the branch graph when the linked vertices of a branch changed,
+	 * or before the branch edge is removed.
+	 */
+	void branchChanged( final BE be )
+	{
+		set( interiors, idmap.getEdgeId( be ), INVALID );
+
+		// Discard the subtree summaries of the source and its ancestors.
+		final BV ref1 = branchGraph.vertexRef();
+		final BV ref2 = branchGraph.vertexRef();
+		stack.push( be.getSource( ref1 ) );
+		while ( !stack.isEmpty() )
+		{
+			final BV bv = stack.pop( ref1 );
+			final int id = idmap.getVertexId( bv );
+			if ( get( subtrees, id ) == INVALID )
+				continue;
+			set( subtrees, id, INVALID );
+			for ( final BE in : bv.incomingEdges() )
+				stack.push( in.getSource( ref2 ) );
+		}
+		branchGraph.releaseRef( ref1 );
+		branchGraph.releaseRef( ref2 );
+	}
+
+	/**
+	 * Stops maintaining the summaries.
+	 */
+	void dispose()
+	{
+		branchGraph.removeGraphListener( listener );
+		invalidate();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private A getInterior( final BE be )
+	{
+		final int id = idmap.getEdgeId( be );
+		final Object cached = get( interiors, id );
+		if ( cached != INVALID )
+			return ( A ) cached;
+
+		final V vRef = graph.vertexRef();
+		A a = null;
+		final int length = branchGraph.getBranchLength( be );
+		for ( int i = 1; i < length; i++ )
+		{
+			final A b = aggregator.of( branchGraph.getLinkedVertex( be, i, vRef ) );
+			a = a == null ? b : aggregator.combine( a, b );
+		}
+		graph.releaseRef( vRef );
+		set( interiors, id, a );
+		return a;
+	}
+
+	private static Object get( final ArrayList< Object > list, final int id )
+	{
+		return id < list.size() ? list.get( id ) : INVALID;
+	}
+
+	private static void set( final ArrayList< Object > list, final int id, final Object value )
+	{
+		while ( list.size() <= id )
+			list.add( INVALID );
+		list.set( id, value );
+	}
+}
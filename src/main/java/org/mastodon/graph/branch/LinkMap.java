@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefRefMap;
+
+/**
+ * Links between the objects of two collections, such as the vertices of a
+ * linked graph and the vertices of its branch graph.
+ * <p>
+ * If both collections are backed by a pool, the pool index of the value is
+ * stored in an {@code int} array indexed by the pool index of the key, that
+ * grows on demand, with {@code -1} meaning absent. A lookup is then a single
+ * array read and a link costs 4 bytes per key slot. Otherwise, links are
+ * stored in a {@link RefRefMap}. The implementation is selected by
+ * {@link #create(RefCollection, RefCollection)}.
+ *
+ * @param <K>
+ *            the type of keys.
+ * @param <L>
+ *            the type of values.
+ */
+abstract class LinkMap< K, L >
+{
+	/**
+	 * Creates a new, empty link map between the objects of the specified
+	 * collections.
+	 *
+	 * @param keys
+	 *            the collection the keys belong to.
+	 * @param values
+	 *            the collection the values belong to.
+	 * @param <K>
+	 *            the type of keys.
+	 * @param <L>
+	 *            the type of values.
+	 * @return a new link map.
+	 */
+	static < K, L > LinkMap< K, L > create( final RefCollection< K > keys, final RefCollection< L > values )
+	{
+		final RefPool< K > keyPool = RefCollections.tryGetRefPool( keys );
+		final RefPool< L > valuePool = RefCollections.tryGetRefPool( values );
+		if ( keyPool != null && valuePool != null )
+			return new PoolLinks<>( keyPool, valuePool, keys.size() );
+		else
+			return new MapLinks<>( RefMaps.createRefRefMap( keys, values ) );
+	}
+
+	/**
+	 * Returns the value linked to the specified key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param ref
+	 *            an object reference used for retrieval.
+	 * @return the linked value, or {@code null} if the key is not linked.
+	 */
+	abstract L get( K key, L ref );
+
+	/**
+	 * Returns {@code true} if the specified key is linked to a value.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return whether the key is linked.
+	 */
+	abstract boolean containsKey( K key );
+
+	/**
+	 * Links the specified key to the specified value, replacing any previous
+	 * link of the key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value.
+	 */
+	abstract void put( K key, L value );
+
+	/**
+	 * Removes the link of the specified key, if any.
+	 *
+	 * @param key
+	 *            the key.
+	 */
+	abstract void remove( K key );
+
+	/**
+	 * Removes all links.
+	 */
+	abstract void clear();
+
+	private static final class PoolLinks< K, L > extends LinkMap< K, L >
+	{
+		private static final int NO_ENTRY = -1;
+
+		private final RefPool< K > keyPool;
+
+		private final RefPool< L > valuePool;
+
+		private int[] links;
+
+		/**
+		 * Exclusive upper bound of the key indices that were ever linked since
+		 * the last {@link #clear()}.
+		 */
+		private int size;
+
+		PoolLinks( final RefPool< K > keyPool, final RefPool< L > valuePool, final int capacity )
+		{
+			this.keyPool = keyPool;
+			this.valuePool = valuePool;
+			this.links = new int[ Math.max( 16, capacity ) ];
+			Arrays.fill( links, NO_ENTRY );
+		}
+
+		@Override
+		L get( final K key, final L ref )
+		{
+			final int id = keyPool.getId( key );
+			if ( id >= size )
+				return null;
+			final int link = links[ id ];
+			return link == NO_ENTRY ? null : valuePool.getObject( link, ref );
+		}
+
+		@Override
+		boolean containsKey( final K key )
+		{
+			final int id = keyPool.getId( key );
+			return id < size && links[ id ] != NO_ENTRY;
+		}
+
+		@Override
+		void put( final K key, final L value )
+		{
+			final int id = keyPool.getId( key );
+			if ( id >= links.length )
+			{
+				final int length = links.length;
+				links = Arrays.copyOf( links, Math.max( id + 1, 2 * length ) );
+				Arrays.fill( links, length, links.length, NO_ENTRY );
+			}
+			links[ id ] = valuePool.getId( value );
+			size = Math.max( size, id + 1 );
+		}
+
+		@Override
+		void remove( final K key )
+		{
+			final int id = keyPool.getId( key );
+			if ( id < size )
+				links[ id ] = NO_ENTRY;
+		}
+
+		@Override
+		void clear()
+		{
+			Arrays.fill( links, 0, size, NO_ENTRY );
+			size = 0;
+		}
+	}
+
+	private static final class MapLinks< K, L > extends LinkMap< K, L >
+	{
+		private final RefRefMap< K, L > map;
+
+		private final L ref;
+
+		MapLinks( final RefRefMap< K, L > map )
+		{
+			this.map = map;
+			this.ref = map.createValueRef();
+		}
+
+		@Override
+		L get( final K key, final L ref )
+		{
+			return map.get( key, ref );
+		}
+
+		@Override
+		boolean containsKey( final K key )
+		{
+			return map.containsKey( key );
+		}
+
+		@Override
+		void put( final K key, final L value )
+		{
+			map.put( key, value, ref );
+		}
+
+		@Override
+		void remove( final K key )
+		{
+			map.removeWithRef( key, ref );
+		}
+
+		@Override
+		void clear()
+		{
+			map.clear();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.collection.RefCollection;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefMaps;
+
+/**
+ * Positions of the linked graph vertices inside their branch.
+ * <p>
+ * If the vertices are backed by a pool, positions are stored in an
+ * {@code int} array indexed by pool index, that grows on demand, with
+ * {@code -1} meaning absent. Otherwise, they are stored in a
+ * {@link RefIntMap}. The implementation is selected by
+ * {@link #create(RefCollection)}.
+ *
+ * @param <V>
+ *            the type of vertices.
+ */
+abstract class PositionMap< V >
+{
+	static final int NO_ENTRY = -1;
+
+	/**
+	 * Creates a new, empty position map for the objects of the specified
+	 * collection.
+	 *
+	 * @param vertices
+	 *            the collection the vertices belong to.
+	 * @param <V>
+	 *            the type of vertices.
+	 * @return a new position map.
+	 */
+	static < V > PositionMap< V > create( final RefCollection< V > vertices )
+	{
+		final RefPool< V > pool = RefCollections.tryGetRefPool( vertices );
+		if ( pool != null )
+			return new PoolPositions<>( pool, vertices.size() );
+		else
+			return new MapPositions<>( RefMaps.createRefIntMap( vertices, NO_ENTRY ) );
+	}
+
+	/**
+	 * Returns the position of the specified vertex.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @return the position, or {@code -1} if the vertex has none.
+	 */
+	abstract int get( V vertex );
+
+	/**
+	 * Sets the position of the specified vertex.
+	 *
+	 * @param vertex
+	 *            the vertex.
+	 * @param position
+	 *            the position.
+	 */
+	abstract void put( V vertex, int position );
+
+	/**
+	 * Removes all positions.
+	 */
+	abstract void clear();
+
+	private static final class PoolPositions< V > extends PositionMap< V >
+	{
+		private final RefPool< V > pool;
+
+		private int[] positions;
+
+		/**
+		 * Exclusive upper bound of the vertex indices that were ever given a
+		 * position since the last {@link #clear()}.
+		 */
+		private int size;
+
+		PoolPositions( final RefPool< V > pool, final int capacity )
+		{
+			this.pool = pool;
+			this.positions = new int[ Math.max( 16, capacity ) ];
+			Arrays.fill( positions, NO_ENTRY );
+		}
+
+		@Override
+		int get( final V vertex )
+		{
+			final int id = pool.getId( vertex );
+			return id < size ? positions[ id ] : NO_ENTRY;
+		}
+
+		@Override
+		void put( final V vertex, final int position )
+		{
+			final int id = pool.getId( vertex );
+			if ( id >= positions.length )
+			{
+				final int length = positions.length;
+				positions = Arrays.copyOf( positions, Math.max( id + 1, 2 * length ) );
+				Arrays.fill( positions, length, positions.length, NO_ENTRY );
+			}
+			positions[ id ] = position;
+			size = Math.max( size, id + 1 );
+		}
+
+		@Override
+		void clear()
+		{
+			Arrays.fill( positions, 0, size, NO_ENTRY );
+			size = 0;
+		}
+	}
+
+	private static final class MapPositions< V > extends PositionMap< V >
+	{
+		private final RefIntMap< V > map;
+
+		MapPositions( final RefIntMap< V > map )
+		{
+			this.map = map;
+		}
+
+		@Override
+		int get( final V vertex )
+		{
+			return map.get( vertex );
+		}
+
+		@Override
+		void put( final V vertex, final int position )
+		{
+			map.put( vertex, position );
+		}
+
+		@Override
+		void clear()
+		{
+			map.clear();
+		}
+	}
+}
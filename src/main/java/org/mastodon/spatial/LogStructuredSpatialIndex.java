@@ -0,0 +1,529 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.mastodon.RefPool;
+import org.mastodon.kdtree.ClipConvexPolytope;
+import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.NearestNeighborSearch;
+
+/**
+ * Spatial index of {@link RealLocalizable} objects, made of KDTrees of
+ * geometrically increasing sizes, so that it never needs to rebuild a KDTree
+ * of all its objects while it is being modified.
+ * <p>
+ * Added and moved objects go to a small buffer, which is searched linearly.
+ * When the buffer is full, a KDTree level is built from it. Whenever the
+ * smallest levels hold at least half as many objects as the next larger one,
+ * they are merged into a new level. Each object goes through O(log n) merges,
+ * each costing O(log n) per object, so that modifications cost O(log² n)
+ * amortized. Removed and moved objects are marked as invalid in their level,
+ * and dropped when the level is merged.
+ * <p>
+ * Merges of up to {@code maxSyncMergeSize} objects are done right away.
+ * Larger merges, and the compaction of levels with more invalid than valid
+ * objects, are left to {@link #rebuild()}, called by the
+ * {@link SpatioTemporalIndexImpRebuilder}. It builds the new level
+ * without blocking modifications, and then replays the removals that happened
+ * meanwhile. Without a rebuilder, these merges never happen: levels of about
+ * {@code maxSyncMergeSize} objects (16K by default) then pile up, and their
+ * number grows linearly with the number of objects added.
+ * <p>
+ * Levels are only modified by marking objects as invalid, and are replaced as
+ * a whole. Searches run on the levels present when they are created.
+ *
+ * @param <O>
+ *            type of objects in the index
+ */
+public class LogStructuredSpatialIndex< O extends RealLocalizable > extends ModifiableSpatialIndex< O >
+{
+	/**
+	 * Default number of objects in the buffer before a level is built from it.
+	 */
+	static final int DEFAULT_BUFFER_SIZE = 64;
+
+	/**
+	 * Default number of objects above which merges are left to
+	 * {@link #rebuild()}.
+	 */
+	static final int DEFAULT_MAX_SYNC_MERGE_SIZE = 1 << 14;
+
+	private final RefPool< O > objPool;
+
+	private final int bufferSize;
+
+	private final int maxSyncMergeSize;
+
+	/**
+	 * The levels, by decreasing size. The list is replaced, never modified.
+	 */
+	private volatile List< SpatialIndexData< O > > levels;
+
+	/**
+	 * The objects added since the last level was built, or {@code null} if
+	 * there are none.
+	 */
+	private SpatialIndexData< O > buffer;
+
+	/**
+	 * The levels being merged by {@link #rebuild()}, or {@code null}.
+	 */
+	private List< SpatialIndexData< O > > merging;
+
+	/**
+	 * Ids of the objects removed from {@link #merging} levels since the merge
+	 * started.
+	 */
+	private final TIntArrayList removedWhileMerging;
+
+	private int size;
+
+	private final Lock writeLock;
+
+	private final Lock rebuildLock;
+
+	private static final Comparator< SpatialIndexData< ? > > DECREASING_SIZE = new Comparator< SpatialIndexData< ? > >()
+	{
+		@Override
+		public int compare( final SpatialIndexData< ? > o1, final SpatialIndexData< ? > o2 )
+		{
+			return Integer.compare( o2.size(), o1.size() );
+		}
+	};
+
+	public LogStructuredSpatialIndex( final Collection< O > objs, final RefPool< O > objPool )
+	{
+		this( objs, objPool, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_SYNC_MERGE_SIZE );
+	}
+
+	/**
+	 * Creates an index of the specified objects.
+	 *
+	 * @param objs
+	 *            {@link RealLocalizable} objects to index.
+	 * @param objPool
+	 *            pool for creating refs, collections, etc.
+	 * @param bufferSize
+	 *            the number of objects in the buffer before a level is built
+	 *            from it.
+	 * @param maxSyncMergeSize
+	 *            the number of objects above which merges are left to
+	 *            {@link #rebuild()}.
+	 */
+	LogStructuredSpatialIndex( final Collection< O > objs, final RefPool< O > objPool, final int bufferSize, final int maxSyncMergeSize )
+	{
+		this.objPool = objPool;
+		this.bufferSize = bufferSize;
+		this.maxSyncMergeSize = maxSyncMergeSize;
+		levels = objs.isEmpty()
+				? Collections.emptyList()
+				: Collections.singletonList( new SpatialIndexData<>( objs, objPool ) );
+		size = objs.isEmpty() ? 0 : levels.get( 0 ).size();
+		removedWhileMerging = new TIntArrayList();
+		writeLock = new ReentrantLock();
+		rebuildLock = new ReentrantLock();
+	}
+
+	/**
+	 * Returns the levels and the buffer, as they are now.
+	 */
+	private List< SpatialIndexData< O > > indices()
+	{
+		final List< SpatialIndexData< O > > levels = this.levels;
+		final SpatialIndexData< O > buffer = this.buffer;
+		if ( buffer == null )
+			return levels;
+		final ArrayList< SpatialIndexData< O > > indices = new ArrayList<>( levels.size() + 1 );
+		indices.addAll( levels );
+		indices.add( buffer );
+		return indices;
+	}
+
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new SpatialIndexUnion<>( indices() ).iterator();
+	}
+
+	@Override
+	public NearestNeighborSearch< O > getNearestNeighborSearch()
+	{
+		return new SpatialIndexUnion<>( indices() ).getNearestNeighborSearch();
+	}
+
+	@Override
+	public IncrementalNearestNeighborSearch< O > getIncrementalNearestNeighborSearch()
+	{
+		return new SpatialIndexUnion<>( indices() ).getIncrementalNearestNeighborSearch();
+	}
+
+	@Override
+	public ClipConvexPolytope< O > getClipConvexPolytope()
+	{
+		return new SpatialIndexUnion<>( indices() ).getClipConvexPolytope();
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of KDTree levels, not counting the buffer.
+	 *
+	 * @return the number of levels.
+	 */
+	int numLevels()
+	{
+		return levels.size();
+	}
+
+	@Override
+	boolean add( final O obj )
+	{
+		writeLock.lock();
+		try
+		{
+			boolean isNew = !removeFromLevels( obj );
+			if ( buffer == null )
+				buffer = new SpatialIndexData<>( Collections.singleton( obj ), objPool );
+			else
+			{
+				final int before = buffer.size();
+				buffer.add( obj );
+				if ( buffer.size() == before )
+					isNew = false;
+			}
+			if ( isNew )
+				++size;
+
+			if ( buffer.size() >= bufferSize )
+				flush();
+
+			return isNew;
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	boolean remove( final O obj )
+	{
+		writeLock.lock();
+		try
+		{
+			if ( buffer != null && buffer.remove( obj ) )
+			{
+				if ( buffer.isEmpty() )
+					buffer = null;
+			}
+			else if ( !removeFromLevels( obj ) )
+				return false;
+
+			--size;
+			return true;
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Marks the specified object as invalid in the level that contains it,
+	 * and logs the removal if the level is being merged.
+	 *
+	 * @return {@code true} if a level contained the object.
+	 */
+	private boolean removeFromLevels( final O obj )
+	{
+		for ( final SpatialIndexData< O > level : levels )
+		{
+			if ( level.remove( obj ) )
+			{
+				if ( merging != null && merging.contains( level ) )
+					removedWhileMerging.add( objPool.getId( obj ) );
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Builds a level from the buffer, and merges the smallest levels as long
+	 * as this is cheap.
+	 */
+	private void flush()
+	{
+		final ArrayList< SpatialIndexData< O > > newLevels = new ArrayList<>( levels );
+		newLevels.add( new SpatialIndexData<>( buffer ) );
+		buffer = null;
+		while ( newLevels.size() > 1 )
+		{
+			final int last = newLevels.size() - 1;
+			final SpatialIndexData< O > small = newLevels.get( last );
+			final SpatialIndexData< O > large = newLevels.get( last - 1 );
+			if ( 2 * small.size() < large.size()
+					|| small.size() + large.size() > maxSyncMergeSize
+					|| ( merging != null && merging.contains( large ) ) )
+				break;
+			final SpatialIndexUnion< O > both = new SpatialIndexUnion<>( new ArrayList<>( newLevels.subList( last - 1, last + 1 ) ) );
+			newLevels.remove( last );
+			newLevels.set( last - 1, new SpatialIndexData<>( new Objects( both ), objPool ) );
+		}
+		levels = Collections.unmodifiableList( newLevels );
+	}
+
+	/**
+	 * Merges the levels that are due, building the new level while
+	 * modifications go on.
+	 */
+	@Override
+	void rebuild()
+	{
+		rebuildLock.lock();
+		try
+		{
+			final Merge merge = startMerge();
+			if ( merge != null )
+			{
+				merge.build();
+				merge.finish();
+			}
+		}
+		finally
+		{
+			rebuildLock.unlock();
+		}
+	}
+
+	/**
+	 * Starts merging the levels that are due, if any. Removals from these
+	 * levels are logged until the merge is finished.
+	 *
+	 * @return the merge, or {@code null} if no level is due.
+	 */
+	Merge startMerge()
+	{
+		writeLock.lock();
+		try
+		{
+			merging = dueLevels( levels );
+			if ( merging.isEmpty() )
+			{
+				merging = null;
+				return null;
+			}
+			final TIntArrayList ids = new TIntArrayList();
+			for ( final O obj : new SpatialIndexUnion<>( merging ) )
+				ids.add( objPool.getId( obj ) );
+			return new Merge( ids );
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * A merge of levels started by {@link #startMerge()}. The new level is
+	 * built by {@link #build()} without holding the lock, and replaces the
+	 * merged levels in {@link #finish()}, after the removals that happened
+	 * meanwhile are replayed on it.
+	 */
+	class Merge
+	{
+		/**
+		 * Ids of the valid objects of the merged levels when the merge
+		 * started.
+		 */
+		private final TIntArrayList ids;
+
+		private SpatialIndexData< O > merged;
+
+		private Merge( final TIntArrayList ids )
+		{
+			this.ids = ids;
+		}
+
+		/**
+		 * Builds the new level from the objects recorded when the merge
+		 * started.
+		 */
+		void build()
+		{
+			merged = new SpatialIndexData<>( new AbstractCollection< O >()
+			{
+				@Override
+				public Iterator< O > iterator()
+				{
+					return new Iterator< O >()
+					{
+						private final O ref = objPool.createRef();
+
+						private int i = 0;
+
+						@Override
+						public boolean hasNext()
+						{
+							return i < ids.size();
+						}
+
+						@Override
+						public O next()
+						{
+							return objPool.getObject( ids.getQuick( i++ ), ref );
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return ids.size();
+				}
+			}, objPool );
+		}
+
+		/**
+		 * Removes the objects removed since the merge started from the new
+		 * level, and replaces the merged levels with it.
+		 */
+		void finish()
+		{
+			writeLock.lock();
+			try
+			{
+				final O ref = objPool.createRef();
+				for ( int i = 0; i < removedWhileMerging.size(); i++ )
+					merged.remove( objPool.getObject( removedWhileMerging.getQuick( i ), ref ) );
+				objPool.releaseRef( ref );
+
+				final ArrayList< SpatialIndexData< O > > newLevels = new ArrayList<>( levels.size() );
+				for ( final SpatialIndexData< O > level : levels )
+					if ( !merging.contains( level ) )
+						newLevels.add( level );
+				if ( !merged.isEmpty() )
+					newLevels.add( merged );
+				Collections.sort( newLevels, DECREASING_SIZE );
+				levels = Collections.unmodifiableList( newLevels );
+				merging = null;
+				removedWhileMerging.resetQuick();
+			}
+			finally
+			{
+				writeLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of objects, valid or not, in the levels that
+	 * {@link #rebuild()} would merge.
+	 */
+	@Override
+	int modCount()
+	{
+		int modCount = 0;
+		for ( final SpatialIndexData< O > level : dueLevels( levels ) )
+			modCount += level.size() + level.modCount();
+		return modCount;
+	}
+
+	/**
+	 * Returns the levels that should be merged: the smallest levels, if they
+	 * hold at least half as many objects as the next larger one, and the levels
+	 * with more invalid than valid objects.
+	 */
+	private static < O extends RealLocalizable > List< SpatialIndexData< O > > dueLevels( final List< SpatialIndexData< O > > levels )
+	{
+		final ArrayList< SpatialIndexData< O > > due = new ArrayList<>();
+		int first = levels.size() - 1;
+		if ( first > 0 )
+		{
+			int smallSize = levels.get( first ).size();
+			while ( first > 0 && 2 * smallSize >= levels.get( first - 1 ).size() )
+				smallSize += levels.get( --first ).size();
+		}
+		for ( int i = 0; i < levels.size(); i++ )
+		{
+			final SpatialIndexData< O > level = levels.get( i );
+			if ( ( i >= first && first < levels.size() - 1 ) || level.modCount() > level.size() )
+				due.add( level );
+		}
+		return due;
+	}
+
+	/**
+	 * The objects of an index, as a collection to build a KDTree from.
+	 */
+	private class Objects extends AbstractCollection< O >
+	{
+		private final SpatialIndex< O > index;
+
+		Objects( final SpatialIndex< O > index )
+		{
+			this.index = index;
+		}
+
+		@Override
+		public Iterator< O > iterator()
+		{
+			return index.iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return index.size();
+		}
+	}
+}
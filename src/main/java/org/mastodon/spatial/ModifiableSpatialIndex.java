@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * A {@link SpatialIndex} that follows the changes of the objects it indexes,
+ * as maintained for each time-point by the {@link SpatioTemporalIndexImp}.
+ *
+ * @param <O>
+ *            type of objects in the index
+ */
+abstract class ModifiableSpatialIndex< O extends RealLocalizable > implements SpatialIndex< O >
+{
+	/**
+	 * Add a new object to the index. Also use this to indicate that an existing
+	 * object was moved.
+	 *
+	 * @param obj
+	 *            object to add.
+	 * @return {@code true} if this index did not already contain the specified
+	 *         object.
+	 */
+	abstract boolean add( final O obj );
+
+	/**
+	 * Remove an object from the index.
+	 *
+	 * @param obj object to remove.
+	 * @return {@code true} if this index contained the specified object.
+	 */
+	abstract boolean remove( final O obj );
+
+	/**
+	 * Reorganizes the index after modifications, so that searches are fast
+	 * again. Called by the {@link SpatioTemporalIndexImpRebuilder} when
+	 * {@link #modCount()} exceeds its threshold.
+	 */
+	abstract void rebuild();
+
+	/**
+	 * Returns how much work a {@link #rebuild()} would save to searches,
+	 * typically the number of modifications since the last rebuild.
+	 *
+	 * @return the number of modifications.
+	 */
+	abstract int modCount();
+}
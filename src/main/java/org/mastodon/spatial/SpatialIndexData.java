@@ -66,6 +66,12 @@ import net.imglib2.neighborsearch.NearestNeighborSearch;
  * Instead, affected nodes in the KDTree are marked as invalid and the modified
  * objects are maintained in a separate set.
  * <p>
+ * So that searches do not scan all the modified objects, a second, smaller
+ * KDTree of the modified objects is built when there are more objects
+ * modified since it was last built than the square root of all the modified
+ * objects (and at least {@value #MIN_RECENT_SIZE}). Only these recent objects
+ * are scanned.
+ * <p>
  * The idea is that a new {@link SpatialIndexData} is built after a certain
  * number of modifications.
  * <p>
@@ -83,7 +89,7 @@ import net.imglib2.neighborsearch.NearestNeighborSearch;
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
 class SpatialIndexData< O extends RealLocalizable >
-		implements Iterable< O >
+		implements SpatialIndex< O >
 {
 	private final RefPool< O > objPool;
 
@@ -106,11 +112,40 @@ class SpatialIndexData< O extends RealLocalizable >
 	 */
 	private final RefRefMap< O, KDTreeNode< O, DoubleMappedElement > > nodeMap;
 
+	/**
+	 * KDTree of objects that were in {@link #added} when it was last built,
+	 * or {@code null} if it was not built yet. Objects modified or removed
+	 * since are marked as invalid.
+	 */
+	private KDTree< O, DoubleMappedElement > addedKdtree;
+
+	/**
+	 * maps objects to corresponding nodes in {@link #addedKdtree}.
+	 */
+	private RefRefMap< O, KDTreeNode< O, DoubleMappedElement > > addedNodeMap;
+
+	/**
+	 * Objects of {@link #added} that are not valid in {@link #addedKdtree}.
+	 * These are searched linearly.
+	 */
+	private final RefSet< O > recent;
+
 	/**
 	 * temporary ref.
 	 */
 	private final KDTreeNode< O, DoubleMappedElement > node;
 
+	/**
+	 * temporary ref for {@link #addedKdtree}.
+	 */
+	private KDTreeNode< O, DoubleMappedElement > addedNode;
+
+	/**
+	 * {@link #recent} can hold at least that many objects before
+	 * {@link #addedKdtree} is rebuilt.
+	 */
+	private static final int MIN_RECENT_SIZE = 64;
+
 	/**
 	 * Keeps track of the number of (valid) objects maintained in this index.
 	 */
@@ -130,6 +165,7 @@ class SpatialIndexData< O extends RealLocalizable >
 		kdtree = KDTree.kdtree( objs, objPool );
 		nodeMap = KDTree.createRefToKDTreeNodeMap( kdtree );
 		added = new RefSetImp<>( objPool );
+		recent = new RefSetImp<>( objPool );
 		node = kdtree.createRef();
 	    size = kdtree.size();
 	}
@@ -158,6 +194,7 @@ class SpatialIndexData< O extends RealLocalizable >
 		kdtree = KDTree.kdtree( collection, objPool );
 		nodeMap = KDTree.createRefToKDTreeNodeMap( kdtree );
 		added = new RefSetImp<>( objPool );
+		recent = new RefSetImp<>( objPool );
 		node = kdtree.createRef();
 	    size = kdtree.size();
 	}
@@ -177,16 +214,19 @@ class SpatialIndexData< O extends RealLocalizable >
 		return new Iter<>( objPool, kdtreeIter, addedIter );
 	}
 
+	@Override
 	public NearestNeighborSearch< O > getNearestNeighborSearch()
 	{
 		return new NNS();
 	}
 
+	@Override
 	public IncrementalNearestNeighborSearch< O > getIncrementalNearestNeighborSearch()
 	{
 		return new INNS();
 	}
 
+	@Override
 	public ClipConvexPolytope< O > getClipConvexPolytope()
 	{
 		return new CCP();
@@ -213,13 +253,16 @@ class SpatialIndexData< O extends RealLocalizable >
 			}
 		}
 
-		if ( added.add( obj ) )
-		{
+		invalidateAdded( obj );
+		recent.add( obj );
+		final boolean isNew = added.add( obj );
+		if ( isNew )
 			++size;
-			return true;
-		}
 
-		return false;
+		if ( recent.size() > Math.max( MIN_RECENT_SIZE, ( int ) Math.sqrt( added.size() ) ) )
+			rebuildAdded();
+
+		return isNew;
 	}
 
 	/**
@@ -246,6 +289,8 @@ class SpatialIndexData< O extends RealLocalizable >
 
 		if ( added.remove( obj ) )
 		{
+			invalidateAdded( obj );
+			recent.remove( obj );
 			--size;
 			return true;
 		}
@@ -253,16 +298,47 @@ class SpatialIndexData< O extends RealLocalizable >
 		return false;
 	}
 
+	/**
+	 * Marks the node of the specified object in {@link #addedKdtree} as
+	 * invalid, if there is one.
+	 */
+	private void invalidateAdded( final O obj )
+	{
+		if ( addedNodeMap == null )
+			return;
+		final KDTreeNode< O, DoubleMappedElement > n = addedNodeMap.get( obj, addedNode );
+		if ( n != null )
+			n.setValid( false );
+	}
+
+	/**
+	 * Builds {@link #addedKdtree} from all the objects in {@link #added}.
+	 */
+	private void rebuildAdded()
+	{
+		addedKdtree = KDTree.kdtree( added, objPool );
+		addedNodeMap = KDTree.createRefToKDTreeNodeMap( addedKdtree );
+		addedNode = addedKdtree.createRef();
+		recent.clear();
+	}
+
 	/**
 	 * Get number of objects in the index.
 	 *
 	 * @return number of objects in the index.
 	 */
+	@Override
 	public int size()
 	{
 		return size;
 	}
 
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
 	static class Iter< O > implements Iterator< O >
 	{
 		private final RefPool< O > pool;
@@ -327,6 +403,14 @@ class SpatialIndexData< O extends RealLocalizable >
 	{
 		private final NearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > search;
 
+		/**
+		 * Search on {@link #addedSearchTree}, recreated when
+		 * {@link SpatialIndexData#addedKdtree} changes.
+		 */
+		private NearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > addedSearch;
+
+		private KDTree< O, DoubleMappedElement > addedSearchTree;
+
 		private double bestSquDistance;
 
 		private int bestVertexIndex;
@@ -367,8 +451,23 @@ class SpatialIndexData< O extends RealLocalizable >
 				bestVertexIndex = objPool.getId( search.get() );
 			}
 
+			if ( addedSearchTree != addedKdtree )
+			{
+				addedSearchTree = addedKdtree;
+				addedSearch = new NearestValidNeighborSearchOnKDTree<>( addedKdtree );
+			}
+			if ( addedSearch != null )
+			{
+				addedSearch.search( query );
+				if ( addedSearch.get() != null && addedSearch.getSquareDistance() < bestSquDistance )
+				{
+					bestSquDistance = addedSearch.getSquareDistance();
+					bestVertexIndex = objPool.getId( addedSearch.get() );
+				}
+			}
+
 			query.localize( pos );
-			for ( final O v : added )
+			for ( final O v : recent )
 			{
 				double sum = 0;
 				for ( int d = 0; d < n; ++d )
@@ -434,6 +533,14 @@ class SpatialIndexData< O extends RealLocalizable >
 	{
 		private final IncrementalNearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > search;
 
+		/**
+		 * Search on {@link #addedSearchTree}, recreated when
+		 * {@link SpatialIndexData#addedKdtree} changes.
+		 */
+		private IncrementalNearestValidNeighborSearchOnKDTree< O, DoubleMappedElement > addedSearch;
+
+		private KDTree< O, DoubleMappedElement > addedSearchTree;
+
 		private final RefArrayPriorityQueueComparator< O > addedQueue;
 
 		private final int n;
@@ -450,6 +557,8 @@ class SpatialIndexData< O extends RealLocalizable >
 
 		private O nextTree;
 
+		private O nextAddedTree;
+
 		private O current;
 
 		private double currentSquDistance;
@@ -474,7 +583,7 @@ class SpatialIndexData< O extends RealLocalizable >
 		public INNS()
 		{
 			search = new IncrementalNearestValidNeighborSearchOnKDTree<>( kdtree );
-			addedQueue = new RefArrayPriorityQueueComparator<>( objPool, comparator, added.size() );
+			addedQueue = new RefArrayPriorityQueueComparator<>( objPool, comparator, recent.size() );
 			n = search.numDimensions();
 			pos = new double[ n ];
 			ref1 = objPool.createRef();
@@ -490,7 +599,15 @@ class SpatialIndexData< O extends RealLocalizable >
 			ref2 = objPool.createRef();
 			numSteps = that.numSteps;
 
-			addedQueue = new RefArrayPriorityQueueComparator<>( objPool, comparator, added.size() );
+			addedSearchTree = that.addedSearchTree;
+			addedSearch = that.addedSearch == null
+					? null
+					: that.addedSearch.copy();
+			nextAddedTree = that.nextAddedTree == null
+					? null
+					: addedSearch.get();
+
+			addedQueue = new RefArrayPriorityQueueComparator<>( objPool, comparator, recent.size() );
 			final TIntIterator it = that.addedQueue.getIndexCollection().iterator();
 			while( it.hasNext() )
 				this.addedQueue.offer( objPool.getObject( it.next(), ref2 ) );
@@ -516,6 +633,13 @@ class SpatialIndexData< O extends RealLocalizable >
 		public void search( final RealLocalizable query )
 		{
 			search.search( query );
+			if ( addedSearchTree != addedKdtree )
+			{
+				addedSearchTree = addedKdtree;
+				addedSearch = new IncrementalNearestValidNeighborSearchOnKDTree<>( addedKdtree );
+			}
+			if ( addedSearch != null )
+				addedSearch.search( query );
 			query.localize( pos );
 			resetx();
 		}
@@ -523,9 +647,10 @@ class SpatialIndexData< O extends RealLocalizable >
 		private void resetx()
 		{
 			addedQueue.reset();
-			addedQueue.addAll( added );
+			addedQueue.addAll( recent );
 			nextAdded = addedQueue.peek( ref1 );
 			nextTree = search.hasNext() ? search.next() : null;
+			nextAddedTree = addedSearch != null && addedSearch.hasNext() ? addedSearch.next() : null;
 			numSteps = 0;
 		}
 
@@ -533,6 +658,8 @@ class SpatialIndexData< O extends RealLocalizable >
 		public void reset()
 		{
 			search.reset();
+			if ( addedSearch != null )
+				addedSearch.reset();
 			resetx();
 		}
 
@@ -541,8 +668,18 @@ class SpatialIndexData< O extends RealLocalizable >
 		{
 			if ( nextTree == null && search.hasNext() )
 				nextTree = search.next();
+			if ( nextAddedTree == null && addedSearch != null && addedSearch.hasNext() )
+				nextAddedTree = addedSearch.next();
 
-			if ( nextTree == null || ( nextAdded != null && comparator.compare( nextAdded, nextTree ) < 0 ) )
+			if ( nextAddedTree != null
+					&& ( nextTree == null || comparator.compare( nextAddedTree, nextTree ) < 0 )
+					&& ( nextAdded == null || comparator.compare( nextAddedTree, nextAdded ) <= 0 ) )
+			{
+				current = nextAddedTree;
+				currentSquDistance = addedSearch.getSquareDistance();
+				nextAddedTree = null;
+			}
+			else if ( nextTree == null || ( nextAdded != null && comparator.compare( nextAdded, nextTree ) < 0 ) )
 			{
 				current = addedQueue.poll( ref2 );
 				if ( current != null )
@@ -645,6 +782,14 @@ class SpatialIndexData< O extends RealLocalizable >
 	{
 		private final ClipConvexPolytopeKDTree< O, DoubleMappedElement > clip;
 
+		/**
+		 * Clip on {@link #addedClipTree}, recreated when
+		 * {@link SpatialIndexData#addedKdtree} changes.
+		 */
+		private ClipConvexPolytopeKDTree< O, DoubleMappedElement > addedClip;
+
+		private KDTree< O, DoubleMappedElement > addedClipTree;
+
 		private final RefList< O > inside;
 
 		private final RefList< O > outside;
@@ -669,6 +814,8 @@ class SpatialIndexData< O extends RealLocalizable >
 		public void clip( final ConvexPolytope polytope )
 		{
 			clip.clip( polytope );
+			if ( updateAddedClip() )
+				addedClip.clip( polytope );
 			clipAdded( polytope );
 		}
 
@@ -676,9 +823,27 @@ class SpatialIndexData< O extends RealLocalizable >
 		public void clip( final double[][] planes )
 		{
 			clip.clip( planes );
+			if ( updateAddedClip() )
+				addedClip.clip( planes );
 			clipAdded( planes );
 		}
 
+		/**
+		 * Makes {@link #addedClip} clip the current
+		 * {@link SpatialIndexData#addedKdtree}.
+		 *
+		 * @return {@code false} if this tree was not built yet.
+		 */
+		private boolean updateAddedClip()
+		{
+			if ( addedClipTree != addedKdtree )
+			{
+				addedClipTree = addedKdtree;
+				addedClip = new ClipConvexPolytopeKDTree<>( addedKdtree );
+			}
+			return addedClip != null;
+		}
+
 		@Override
 		public Iterable< O > getInsideValues()
 		{
@@ -688,7 +853,9 @@ class SpatialIndexData< O extends RealLocalizable >
 				public Iterator< O > iterator()
 				{
 					final Iterator< O > kdtreeIter = clip.getValidInsideValues().iterator();
-					final Iterator< O > addedIter = inside.iterator();
+					final Iterator< O > addedIter = addedClip == null
+							? inside.iterator()
+							: new Iter<>( objPool, addedClip.getValidInsideValues().iterator(), inside.iterator() );
 					return new Iter<>( objPool, kdtreeIter, addedIter );
 				}
 			};
@@ -703,7 +870,9 @@ class SpatialIndexData< O extends RealLocalizable >
 				public Iterator< O > iterator()
 				{
 					final Iterator< O > kdtreeIter = clip.getValidOutsideValues().iterator();
-					final Iterator< O > addedIter = outside.iterator();
+					final Iterator< O > addedIter = addedClip == null
+							? outside.iterator()
+							: new Iter<>( objPool, addedClip.getValidOutsideValues().iterator(), outside.iterator() );
 					return new Iter<>( objPool, kdtreeIter, addedIter );
 				}
 			};
@@ -729,7 +898,7 @@ class SpatialIndexData< O extends RealLocalizable >
 			final int nPlanes = planes.length;
 			inside.clear();
 			outside.clear();
-			A: for ( final O p : added )
+			A: for ( final O p : recent )
 			{
 				for ( int i = 0; i < nPlanes; ++i )
 				{
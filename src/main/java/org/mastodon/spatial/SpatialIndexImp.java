@@ -50,7 +50,7 @@ import net.imglib2.neighborsearch.NearestNeighborSearch;
  *
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
-public class SpatialIndexImp< O extends RealLocalizable > implements SpatialIndex< O >
+public class SpatialIndexImp< O extends RealLocalizable > extends ModifiableSpatialIndex< O >
 {
 	private SpatialIndexData< O > data;
 
@@ -66,6 +66,7 @@ public class SpatialIndexImp< O extends RealLocalizable > implements SpatialInde
 	    writeLock = rwl.writeLock();
 	}
 
+	@Override
 	void rebuild()
 	{
 		readLock.lock();
@@ -124,6 +125,7 @@ public class SpatialIndexImp< O extends RealLocalizable > implements SpatialInde
 	 * @return {@code true} if this index did not already contain the specified
 	 *         object.
 	 */
+	@Override
 	boolean add( final O obj )
 	{
 		writeLock.lock();
@@ -143,6 +145,7 @@ public class SpatialIndexImp< O extends RealLocalizable > implements SpatialInde
 	 * @param obj object to remove.
 	 * @return {@code true} if this index contained the specified object.
 	 */
+	@Override
 	boolean remove( final O obj )
 	{
 		writeLock.lock();
@@ -156,6 +159,7 @@ public class SpatialIndexImp< O extends RealLocalizable > implements SpatialInde
 		}
 	}
 
+	@Override
 	int modCount()
 	{
 		return data.modCount();
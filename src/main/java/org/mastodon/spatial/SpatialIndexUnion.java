@@ -0,0 +1,542 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.mastodon.kdtree.ClipConvexPolytope;
+import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
+
+import net.imglib2.EuclideanSpace;
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.algorithm.kdtree.ConvexPolytope;
+import net.imglib2.neighborsearch.NearestNeighborSearch;
+
+/**
+ * A {@link SpatialIndex} over the union of several {@link SpatialIndex}es,
+ * for instance the indices of a range of time-points.
+ * <p>
+ * The objects of the indices are not copied. Searches run on each index
+ * separately and their results are merged on the fly: incremental nearest
+ * neighbor searches are merged with a priority queue ordered by distance to
+ * the query, so that each index is only advanced when its current neighbor
+ * has been consumed.
+ * <p>
+ * The indices are given as a live collection. Sizes and iterators reflect
+ * its current content. Searches use the indices present when they are
+ * created.
+ *
+ * @param <O>
+ *            type of indexed {@link RealLocalizable} objects.
+ */
+class SpatialIndexUnion< O extends RealLocalizable > implements SpatialIndex< O >
+{
+	private final Collection< ? extends SpatialIndex< O > > indices;
+
+	/**
+	 * Creates a union of spatial indices.
+	 *
+	 * @param indices
+	 *            the indices, possibly a view that changes over time.
+	 */
+	SpatialIndexUnion( final Collection< ? extends SpatialIndex< O > > indices )
+	{
+		this.indices = indices;
+	}
+
+	@Override
+	public Iterator< O > iterator()
+	{
+		return new Iter();
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for ( final SpatialIndex< O > index : indices )
+			size += index.size();
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for ( final SpatialIndex< O > index : indices )
+			if ( !index.isEmpty() )
+				return false;
+		return true;
+	}
+
+	@Override
+	public NearestNeighborSearch< O > getNearestNeighborSearch()
+	{
+		final ArrayList< NearestNeighborSearch< O > > searches = new ArrayList<>();
+		for ( final SpatialIndex< O > index : indices )
+			searches.add( index.getNearestNeighborSearch() );
+		return new NNS( searches );
+	}
+
+	@Override
+	public IncrementalNearestNeighborSearch< O > getIncrementalNearestNeighborSearch()
+	{
+		final ArrayList< IncrementalNearestNeighborSearch< O > > searches = new ArrayList<>();
+		for ( final SpatialIndex< O > index : indices )
+			searches.add( index.getIncrementalNearestNeighborSearch() );
+		return new INNS( searches );
+	}
+
+	@Override
+	public ClipConvexPolytope< O > getClipConvexPolytope()
+	{
+		final ArrayList< ClipConvexPolytope< O > > clips = new ArrayList<>();
+		for ( final SpatialIndex< O > index : indices )
+			clips.add( index.getClipConvexPolytope() );
+		return new CCP( clips );
+	}
+
+	/**
+	 * Iterates over the objects of each index in turn.
+	 */
+	private class Iter implements Iterator< O >
+	{
+		private final Iterator< ? extends SpatialIndex< O > > indexIterator;
+
+		private Iterator< O > objectIterator;
+
+		Iter()
+		{
+			indexIterator = indices.iterator();
+			objectIterator = Collections.emptyIterator();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while ( !objectIterator.hasNext() && indexIterator.hasNext() )
+				objectIterator = indexIterator.next().iterator();
+			return objectIterator.hasNext();
+		}
+
+		@Override
+		public O next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			return objectIterator.next();
+		}
+	}
+
+	/**
+	 * Iterates over the objects of several iterables in turn.
+	 */
+	private static < O > Iterable< O > concat( final ArrayList< Iterable< O > > iterables )
+	{
+		return new Iterable< O >()
+		{
+			@Override
+			public Iterator< O > iterator()
+			{
+				return new Iterator< O >()
+				{
+					private int i = 0;
+
+					private Iterator< O > objectIterator = Collections.emptyIterator();
+
+					@Override
+					public boolean hasNext()
+					{
+						while ( !objectIterator.hasNext() && i < iterables.size() )
+							objectIterator = iterables.get( i++ ).iterator();
+						return objectIterator.hasNext();
+					}
+
+					@Override
+					public O next()
+					{
+						if ( !hasNext() )
+							throw new NoSuchElementException();
+						return objectIterator.next();
+					}
+				};
+			}
+		};
+	}
+
+	private static int numDimensions( final ArrayList< ? extends EuclideanSpace > spaces )
+	{
+		// Empty indices may report 0 dimensions.
+		int n = 0;
+		for ( final EuclideanSpace space : spaces )
+			n = Math.max( n, space.numDimensions() );
+		return n;
+	}
+
+	private class NNS implements NearestNeighborSearch< O >, Sampler< O >
+	{
+		private final ArrayList< NearestNeighborSearch< O > > searches;
+
+		/**
+		 * The search that found the nearest neighbor, or -1.
+		 */
+		private int best;
+
+		NNS( final ArrayList< NearestNeighborSearch< O > > searches )
+		{
+			this.searches = searches;
+			this.best = -1;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return SpatialIndexUnion.numDimensions( searches );
+		}
+
+		@Override
+		public void search( final RealLocalizable query )
+		{
+			best = -1;
+			double bestSquDistance = Double.MAX_VALUE;
+			for ( int i = 0; i < searches.size(); ++i )
+			{
+				final NearestNeighborSearch< O > search = searches.get( i );
+				search.search( query );
+				if ( search.getSampler().get() != null && search.getSquareDistance() < bestSquDistance )
+				{
+					bestSquDistance = search.getSquareDistance();
+					best = i;
+				}
+			}
+		}
+
+		@Override
+		public Sampler< O > getSampler()
+		{
+			return this;
+		}
+
+		@Override
+		public O get()
+		{
+			return best < 0 ? null : searches.get( best ).getSampler().get();
+		}
+
+		@Override
+		public RealLocalizable getPosition()
+		{
+			return best < 0 ? null : searches.get( best ).getPosition();
+		}
+
+		@Override
+		public double getSquareDistance()
+		{
+			return best < 0 ? Double.MAX_VALUE : searches.get( best ).getSquareDistance();
+		}
+
+		@Override
+		public double getDistance()
+		{
+			return Math.sqrt( getSquareDistance() );
+		}
+
+		@Override
+		public NNS copy()
+		{
+			final ArrayList< NearestNeighborSearch< O > > copies = new ArrayList<>( searches.size() );
+			for ( final NearestNeighborSearch< O > search : searches )
+				copies.add( search.copy() );
+			final NNS copy = new NNS( copies );
+			copy.best = best;
+			return copy;
+		}
+	}
+
+	private class INNS implements IncrementalNearestNeighborSearch< O >
+	{
+		private final ArrayList< IncrementalNearestNeighborSearch< O > > searches;
+
+		/**
+		 * Binary min-heap of the searches that have a pending neighbor, ordered
+		 * by the distance of this neighbor to the query.
+		 */
+		private final int[] heap;
+
+		private int heapSize;
+
+		/**
+		 * The search whose neighbor is the current one, or -1. It is not in the
+		 * heap, and is advanced at the next step.
+		 */
+		private int current;
+
+		INNS( final ArrayList< IncrementalNearestNeighborSearch< O > > searches )
+		{
+			this.searches = searches;
+			this.heap = new int[ searches.size() ];
+			this.current = -1;
+		}
+
+		private INNS( final INNS that )
+		{
+			this.searches = new ArrayList<>( that.searches.size() );
+			for ( final IncrementalNearestNeighborSearch< O > search : that.searches )
+				searches.add( search.copy() );
+			this.heap = that.heap.clone();
+			this.heapSize = that.heapSize;
+			this.current = that.current;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return SpatialIndexUnion.numDimensions( searches );
+		}
+
+		@Override
+		public void search( final RealLocalizable query )
+		{
+			for ( final IncrementalNearestNeighborSearch< O > search : searches )
+				search.search( query );
+			initHeap();
+		}
+
+		@Override
+		public void reset()
+		{
+			for ( final IncrementalNearestNeighborSearch< O > search : searches )
+				search.reset();
+			initHeap();
+		}
+
+		private void initHeap()
+		{
+			heapSize = 0;
+			current = -1;
+			for ( int i = 0; i < searches.size(); ++i )
+				advance( i );
+		}
+
+		/**
+		 * Moves the specified search to its next neighbor, and puts it in the
+		 * heap if there is one.
+		 */
+		private void advance( final int i )
+		{
+			final IncrementalNearestNeighborSearch< O > search = searches.get( i );
+			if ( !search.hasNext() )
+				return;
+			search.fwd();
+			int k = heapSize++;
+			final double d = search.getSquareDistance();
+			while ( k > 0 )
+			{
+				final int parent = ( k - 1 ) / 2;
+				if ( squDistance( heap[ parent ] ) <= d )
+					break;
+				heap[ k ] = heap[ parent ];
+				k = parent;
+			}
+			heap[ k ] = i;
+		}
+
+		/**
+		 * Removes the search with the nearest pending neighbor from the heap.
+		 */
+		private int pollHeap()
+		{
+			final int top = heap[ 0 ];
+			final int last = heap[ --heapSize ];
+			final double d = squDistance( last );
+			int k = 0;
+			while ( true )
+			{
+				int child = 2 * k + 1;
+				if ( child >= heapSize )
+					break;
+				if ( child + 1 < heapSize && squDistance( heap[ child + 1 ] ) < squDistance( heap[ child ] ) )
+					++child;
+				if ( d <= squDistance( heap[ child ] ) )
+					break;
+				heap[ k ] = heap[ child ];
+				k = child;
+			}
+			if ( heapSize > 0 )
+				heap[ k ] = last;
+			return top;
+		}
+
+		private double squDistance( final int i )
+		{
+			return searches.get( i ).getSquareDistance();
+		}
+
+		@Override
+		public void fwd()
+		{
+			if ( current >= 0 )
+				advance( current );
+			current = heapSize > 0 ? pollHeap() : -1;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return heapSize > 0 || ( current >= 0 && searches.get( current ).hasNext() );
+		}
+
+		@Override
+		public void jumpFwd( final long steps )
+		{
+			for ( long i = 0; i < steps; ++i )
+				fwd();
+		}
+
+		@Override
+		public O next()
+		{
+			fwd();
+			return get();
+		}
+
+		@Override
+		public O get()
+		{
+			return current < 0 ? null : searches.get( current ).get();
+		}
+
+		@Override
+		public double getSquareDistance()
+		{
+			return searches.get( current ).getSquareDistance();
+		}
+
+		@Override
+		public double getDistance()
+		{
+			return Math.sqrt( getSquareDistance() );
+		}
+
+		@Override
+		public INNS copy()
+		{
+			return new INNS( this );
+		}
+
+		@Override
+		public INNS copyCursor()
+		{
+			return copy();
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			searches.get( current ).localize( position );
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			searches.get( current ).localize( position );
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return searches.get( current ).getFloatPosition( d );
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return searches.get( current ).getDoublePosition( d );
+		}
+	}
+
+	private class CCP implements ClipConvexPolytope< O >
+	{
+		private final ArrayList< ClipConvexPolytope< O > > clips;
+
+		private final Iterable< O > inside;
+
+		private final Iterable< O > outside;
+
+		CCP( final ArrayList< ClipConvexPolytope< O > > clips )
+		{
+			this.clips = clips;
+			final ArrayList< Iterable< O > > insides = new ArrayList<>( clips.size() );
+			final ArrayList< Iterable< O > > outsides = new ArrayList<>( clips.size() );
+			for ( final ClipConvexPolytope< O > clip : clips )
+			{
+				insides.add( () -> clip.getInsideValues().iterator() );
+				outsides.add( () -> clip.getOutsideValues().iterator() );
+			}
+			this.inside = concat( insides );
+			this.outside = concat( outsides );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return SpatialIndexUnion.numDimensions( clips );
+		}
+
+		@Override
+		public void clip( final ConvexPolytope polytope )
+		{
+			for ( final ClipConvexPolytope< O > clip : clips )
+				clip.clip( polytope );
+		}
+
+		@Override
+		public void clip( final double[][] planes )
+		{
+			for ( final ClipConvexPolytope< O > clip : clips )
+				clip.clip( planes );
+		}
+
+		@Override
+		public Iterable< O > getInsideValues()
+		{
+			return inside;
+		}
+
+		@Override
+		public Iterable< O > getOutsideValues()
+		{
+			return outside;
+		}
+	}
+}
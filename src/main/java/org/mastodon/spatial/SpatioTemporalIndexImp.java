@@ -28,9 +28,10 @@
  */
 package org.mastodon.spatial;
 
-import java.util.Arrays;
+import java.util.AbstractCollection;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.PrimitiveIterator.OfInt;
+import java.util.NoSuchElementException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -43,9 +44,9 @@ import org.mastodon.graph.GraphListener;
 import org.mastodon.graph.ListenableReadOnlyGraph;
 import org.mastodon.graph.ReadOnlyGraph;
 import org.mastodon.graph.Vertex;
-import org.mastodon.graph.algorithm.Assigner;
 
 import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import net.imglib2.RealLocalizable;
 
@@ -79,16 +80,33 @@ public class SpatioTemporalIndexImp<
 	 */
 	private final static int NO_ENTRY_KEY = -1;
 
-	final TIntObjectHashMap< SpatialIndexImp< V > > timepointToSpatialIndex;
+	final TIntObjectHashMap< ModifiableSpatialIndex< V > > timepointToSpatialIndex;
+
+	/**
+	 * The time-points of {@link #timepointToSpatialIndex}, sorted.
+	 */
+	private final TIntArrayList timepoints;
 
 	private final ReadOnlyGraph< V, E > graph;
 
 	private final RefPool< V > vertexPool;
 
+	/**
+	 * Whether time-points are indexed by {@link LogStructuredSpatialIndex}
+	 * rather than by {@link SpatialIndexImp}.
+	 */
+	private final boolean logStructured;
+
 	private final Lock readLock;
 
 	private final Lock writeLock;
 
+	/**
+	 * Notified of the modifications and queries of time-points, or
+	 * {@code null}.
+	 */
+	private volatile SpatioTemporalIndexImpRebuilder rebuilder;
+
 	/**
 	 * Creates a new spatio-temporal index for the specified graph, using the
 	 * specified vertex pool. The temporal information is fetched directly from
@@ -104,10 +122,38 @@ public class SpatioTemporalIndexImp<
 	 *            the {@link RefPool} of the vertices of the graph.
 	 */
 	public SpatioTemporalIndexImp( final ListenableReadOnlyGraph< V, E > graph, final RefPool< V > vertexPool )
+	{
+		this( graph, vertexPool, false );
+	}
+
+	/**
+	 * Creates a new spatio-temporal index for the specified graph, using the
+	 * specified vertex pool, and possibly a {@link LogStructuredSpatialIndex}
+	 * for each time-point.
+	 * <p>
+	 * With a {@link SpatialIndexImp}, the index of a time-point slows down as
+	 * it is modified, until it is rebuilt as a whole by the
+	 * {@link SpatioTemporalIndexImpRebuilder}. A
+	 * {@link LogStructuredSpatialIndex} stays fast under heavy editing and
+	 * only needs the rebuilder for its largest merges, at the cost of
+	 * searching several KDTrees.
+	 *
+	 * @param graph
+	 *            the graph to build the spatio-temporal index for.
+	 * @param vertexPool
+	 *            the {@link RefPool} of the vertices of the graph.
+	 * @param logStructured
+	 *            whether to index each time-point with a
+	 *            {@link LogStructuredSpatialIndex} rather than a
+	 *            {@link SpatialIndexImp}.
+	 */
+	public SpatioTemporalIndexImp( final ListenableReadOnlyGraph< V, E > graph, final RefPool< V > vertexPool, final boolean logStructured )
 	{
 		this.graph = graph;
 		this.vertexPool = vertexPool;
+		this.logStructured = logStructured;
 		timepointToSpatialIndex = new TIntObjectHashMap<>( 10, 0.5f, NO_ENTRY_KEY );
+		timepoints = new TIntArrayList();
 		graph.addGraphListener( this );
 		if ( graph instanceof VertexPositionChangeProvider )
 		{
@@ -135,14 +181,18 @@ public class SpatioTemporalIndexImp<
 			vs.add( v );
 		}
 
+		timepointToSpatialIndex.clear();
+		timepoints.resetQuick();
 		final TIntObjectIterator< RefList< V > > i = timepointToVertices.iterator();
 		while ( i.hasNext() )
 		{
 			i.advance();
 			final int timepoint = i.key();
-			final SpatialIndexImp< V > data = new SpatialIndexImp<>( i.value(), vertexPool );
+			final ModifiableSpatialIndex< V > data = createIndex( i.value() );
 			timepointToSpatialIndex.put( timepoint, data );
+			timepoints.add( timepoint );
 		}
+		timepoints.sort();
 	}
 
 	@Override
@@ -151,43 +201,89 @@ public class SpatioTemporalIndexImp<
 		return readLock;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Iterating is not a spatial query: the rebuilder is not notified.
+	 */
 	@Override
 	public Iterator< V > iterator()
 	{
-		return new SpatioTemporalIndexIterator();
+		return new SpatialIndexUnion<>( new TimepointRange( Integer.MIN_VALUE, Integer.MAX_VALUE ) ).iterator();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If the time-point has no objects yet, no index is created for it: the
+	 * returned index is then an empty view, which follows the objects added
+	 * to the time-point later.
+	 */
 	@Override
 	public SpatialIndex< V > getSpatialIndex( final int timepoint )
 	{
-		return getSpatialIndexImp( timepoint );
+		final ModifiableSpatialIndex< V > index = timepointToSpatialIndex.get( timepoint );
+		if ( index == null )
+			return new SpatialIndexUnion<>( new TimepointRange( timepoint, timepoint ) );
+		final SpatioTemporalIndexImpRebuilder rebuilder = this.rebuilder;
+		if ( rebuilder != null )
+			rebuilder.queried( timepoint, index );
+		return index;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned index is a view on the indices of the time-points in the
+	 * range, in increasing time-point order. Time-points that get objects
+	 * later are included. Searches merge the results of the searches on each
+	 * time-point, without copying objects.
+	 */
 	@Override
 	public SpatialIndex< V > getSpatialIndex( final int fromTimepoint, final int toTimepoint )
 	{
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException( "not implemented yet" );
+		final SpatioTemporalIndexImpRebuilder rebuilder = this.rebuilder;
+		if ( rebuilder != null )
+		{
+			for ( int i = lowerBound( fromTimepoint ); i < timepoints.size() && timepoints.getQuick( i ) <= toTimepoint; i++ )
+			{
+				final int timepoint = timepoints.getQuick( i );
+				rebuilder.queried( timepoint, timepointToSpatialIndex.get( timepoint ) );
+			}
+		}
+		return new SpatialIndexUnion<>( new TimepointRange( fromTimepoint, toTimepoint ) );
+	}
+
+	/**
+	 * Sets the rebuilder to notify of the modifications and queries of
+	 * time-points.
+	 *
+	 * @param rebuilder
+	 *            the rebuilder, or {@code null} to stop notifying.
+	 */
+	void setRebuilder( final SpatioTemporalIndexImpRebuilder rebuilder )
+	{
+		this.rebuilder = rebuilder;
 	}
 
 	/**
-	 * Rebuild one {@link SpatialIndexData} for which the
-	 * {@link SpatialIndexData#modCount()} exceeds the specified threshold.
+	 * Rebuild one time-point index for which the
+	 * {@link ModifiableSpatialIndex#modCount()} exceeds the specified threshold.
 	 *
 	 * @param modCountThreshold
 	 *            how many modifications should have happened (at least) to a
-	 *            {@code SpatialIndexData} to make it eligible for rebuilding.
+	 *            time-point index to make it eligible for rebuilding.
 	 * @return whether any index was rebuild. I.e., if {@code false} is
 	 *         returned, no index had more than {@code maxModCount}
 	 *         modifications.
 	 */
 	boolean rebuildAny( final int modCountThreshold )
 	{
-		SpatialIndexImp< V > index = null;
+		ModifiableSpatialIndex< V > index = null;
 		readLock.lock();
 		try
 		{
-			final TIntObjectIterator< SpatialIndexImp< V > > i = timepointToSpatialIndex.iterator();
+			final TIntObjectIterator< ModifiableSpatialIndex< V > > i = timepointToSpatialIndex.iterator();
 			while ( i.hasNext() )
 			{
 				i.advance();
@@ -216,7 +312,9 @@ public class SpatioTemporalIndexImp<
 		writeLock.lock();
 		try
 		{
-			getSpatialIndexImp( vertex.getTimepoint() ).add( vertex );
+			final ModifiableSpatialIndex< V > index = getOrCreateSpatialIndex( vertex.getTimepoint() );
+			index.add( vertex );
+			modified( vertex.getTimepoint(), index );
 		}
 		finally
 		{
@@ -231,8 +329,9 @@ public class SpatioTemporalIndexImp<
 		writeLock.lock();
 		try
 		{
-			final SpatialIndexImp< V > index = timepointToSpatialIndex.get( vertex.getTimepoint() );
+			final ModifiableSpatialIndex< V > index = timepointToSpatialIndex.get( vertex.getTimepoint() );
 			index.remove( vertex );
+			modified( vertex.getTimepoint(), index );
 		}
 		finally
 		{
@@ -256,6 +355,9 @@ public class SpatioTemporalIndexImp<
 		try
 		{
 			init();
+			final SpatioTemporalIndexImpRebuilder rebuilder = this.rebuilder;
+			if ( rebuilder != null )
+				rebuilder.cleared();
 		}
 		finally
 		{
@@ -269,76 +371,91 @@ public class SpatioTemporalIndexImp<
 		vertexAdded( vertex );
 	}
 
-	private SpatialIndexImp< V > getSpatialIndexImp( final int timepoint )
+	private void modified( final int timepoint, final ModifiableSpatialIndex< V > index )
+	{
+		final SpatioTemporalIndexImpRebuilder rebuilder = this.rebuilder;
+		if ( rebuilder != null )
+			rebuilder.modified( timepoint, index );
+	}
+
+	/**
+	 * Returns the position of the first time-point not lower than the
+	 * specified one in the sorted time-points.
+	 */
+	private int lowerBound( final int timepoint )
 	{
-		SpatialIndexImp< V > index = timepointToSpatialIndex.get( timepoint );
+		final int i = timepoints.binarySearch( timepoint );
+		return i >= 0 ? i : -( i + 1 );
+	}
+
+	/**
+	 * Returns the index of the specified time-point, creating it if needed.
+	 * Must be called while holding the write lock.
+	 */
+	private ModifiableSpatialIndex< V > getOrCreateSpatialIndex( final int timepoint )
+	{
+		ModifiableSpatialIndex< V > index = timepointToSpatialIndex.get( timepoint );
 		if ( index == null )
 		{
-			index = new SpatialIndexImp<>( RefCollections.createRefSet( graph.vertices() ), vertexPool );
+			index = createIndex( RefCollections.createRefSet( graph.vertices() ) );
 			timepointToSpatialIndex.put( timepoint, index );
+			timepoints.insert( -( timepoints.binarySearch( timepoint ) + 1 ), timepoint );
 		}
 		return index;
 	}
 
-	private class SpatioTemporalIndexIterator implements Iterator< V >
+	private ModifiableSpatialIndex< V > createIndex( final Collection< V > vertices )
 	{
+		return logStructured
+				? new LogStructuredSpatialIndex<>( vertices, vertexPool )
+				: new SpatialIndexImp<>( vertices, vertexPool );
+	}
 
-		private final OfInt timeIterator;
-
-		private Iterator< V > valueIterator;
-
-		private boolean hasNext;
-
-		private final Assigner< V > assigner;
-
-		private V next;
+	/**
+	 * The spatial indices of a range of time-points, in increasing time-point
+	 * order. This is a view, which follows the time-points added to this
+	 * spatio-temporal index.
+	 */
+	private class TimepointRange extends AbstractCollection< ModifiableSpatialIndex< V > >
+	{
+		private final int fromTimepoint;
 
-		private V current;
+		private final int toTimepoint;
 
-		public SpatioTemporalIndexIterator()
+		TimepointRange( final int fromTimepoint, final int toTimepoint )
 		{
-			final int[] keys = timepointToSpatialIndex.keys();
-			Arrays.sort( keys );
-			this.timeIterator = Arrays.stream( keys ).iterator();
-			this.current = vertexPool.createRef();
-			this.assigner = Assigner.getFor( current );
-			hasNext = timeIterator.hasNext();
-			if ( hasNext )
-			{
-				valueIterator = timepointToSpatialIndex.get( timeIterator.nextInt() ).iterator();
-				prefetch();
-			}
+			this.fromTimepoint = fromTimepoint;
+			this.toTimepoint = toTimepoint;
 		}
 
-		private void prefetch()
+		@Override
+		public Iterator< ModifiableSpatialIndex< V > > iterator()
 		{
-			if ( valueIterator.hasNext() )
-			{
-				next = valueIterator.next();
-				return;
-			}
-			if ( timeIterator.hasNext() )
+			return new Iterator< ModifiableSpatialIndex< V > >()
 			{
-				valueIterator = timepointToSpatialIndex.get( timeIterator.nextInt() ).iterator();
-				prefetch();
-				return;
-			}
-			hasNext = false;
-			next = null;
-		}
+				private int i = lowerBound( fromTimepoint );
 
-		@Override
-		public boolean hasNext()
-		{
-			return hasNext;
+				@Override
+				public boolean hasNext()
+				{
+					return i < timepoints.size() && timepoints.getQuick( i ) <= toTimepoint;
+				}
+
+				@Override
+				public ModifiableSpatialIndex< V > next()
+				{
+					if ( !hasNext() )
+						throw new NoSuchElementException();
+					return timepointToSpatialIndex.get( timepoints.getQuick( i++ ) );
+				}
+			};
 		}
 
 		@Override
-		public V next()
+		public int size()
 		{
-			current = assigner.assign( next, current );
-			prefetch();
-			return current;
+			final int to = toTimepoint == Integer.MAX_VALUE ? timepoints.size() : lowerBound( toTimepoint + 1 );
+			return Math.max( 0, to - lowerBound( fromTimepoint ) );
 		}
 	}
 }
@@ -0,0 +1,323 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Rebuilds the spatial indices of a {@link SpatioTemporalIndexImp} on a pool
+ * of worker threads, as they get modified.
+ * <p>
+ * The spatio-temporal index notifies this rebuilder when a time-point is
+ * modified or queried. A time-point is queued for rebuilding when its
+ * {@link ModifiableSpatialIndex#modCount()} exceeds a threshold that adapts to
+ * how much it is queried: the number of objects in the time-point divided by
+ * the number of queries since its last rebuild, clamped to
+ * {@code [minModCount, maxModCount]}. A time-point that is queried often is
+ * rebuilt after a few modifications, because each query pays for them. A
+ * time-point that is only edited waits for {@code maxModCount} modifications.
+ * <p>
+ * Queued time-points are ordered by how long they have been due and by how
+ * often they were queried since their last rebuild, including while they wait
+ * in the queue: each query brings a time-point forward. Several
+ * time-points are rebuilt in parallel, each one by a single worker. Workers
+ * are daemon threads that terminate when idle.
+ */
+public class SpatioTemporalIndexImpRebuilder
+{
+	/**
+	 * How much later than the time it became due a time-point is ordered, if
+	 * it was not queried since its last rebuild. A time-point that was queried
+	 * {@code q} times is ordered {@code QUEUE_DELAY_NANOS / (q + 1)} later.
+	 */
+	private static final long QUEUE_DELAY_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+
+	private static final AtomicInteger rebuilderCount = new AtomicInteger();
+
+	private final SpatioTemporalIndexImp< ?, ? > index;
+
+	private final int minModCount;
+
+	private final int maxModCount;
+
+	private final ExecutorService executor;
+
+	private final TIntObjectHashMap< TimepointState > states;
+
+	private final PriorityQueue< TimepointState > queue;
+
+	/**
+	 * Creates a rebuilder for the specified index, with one worker for every
+	 * two processors, and thresholds between 100 and 10000 modifications.
+	 *
+	 * @param index
+	 *            the spatio-temporal index to rebuild.
+	 */
+	public SpatioTemporalIndexImpRebuilder( final SpatioTemporalIndexImp< ?, ? > index )
+	{
+		this( index, Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ), 100, 10000 );
+	}
+
+	/**
+	 * Creates a rebuilder for the specified index. From now on, the index
+	 * notifies this rebuilder of its modifications and queries, until
+	 * {@link #shutdown()} is called.
+	 *
+	 * @param index
+	 *            the spatio-temporal index to rebuild.
+	 * @param numThreads
+	 *            the maximal number of time-points rebuilt in parallel.
+	 * @param minModCount
+	 *            how many modifications should have happened (at least) to a
+	 *            time-point to make it eligible for rebuilding, however often
+	 *            it is queried.
+	 * @param maxModCount
+	 *            how many modifications make a time-point eligible for
+	 *            rebuilding, even if it is not queried.
+	 * @throws IllegalArgumentException
+	 *             if {@code numThreads} is less than 1, or if
+	 *             {@code minModCount} is greater than {@code maxModCount}.
+	 */
+	public SpatioTemporalIndexImpRebuilder(
+			final SpatioTemporalIndexImp< ?, ? > index,
+			final int numThreads,
+			final int minModCount,
+			final int maxModCount )
+	{
+		this( index, createExecutor( numThreads ), minModCount, maxModCount );
+	}
+
+	/**
+	 * Creates a rebuilder for the specified index, that runs its rebuilds on
+	 * the specified executor.
+	 */
+	SpatioTemporalIndexImpRebuilder(
+			final SpatioTemporalIndexImp< ?, ? > index,
+			final ExecutorService executor,
+			final int minModCount,
+			final int maxModCount )
+	{
+		if ( minModCount > maxModCount )
+			throw new IllegalArgumentException( "The minimal modification count " + minModCount
+					+ " is greater than the maximal one " + maxModCount + "." );
+		this.index = index;
+		this.executor = executor;
+		this.minModCount = minModCount;
+		this.maxModCount = maxModCount;
+		states = new TIntObjectHashMap<>();
+		queue = new PriorityQueue<>( Comparator.comparingLong( s -> s.order ) );
+		index.setRebuilder( this );
+	}
+
+	private static ExecutorService createExecutor( final int numThreads )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "The number of threads must be at least 1, was " + numThreads + "." );
+		final String name = "Spatial index rebuilder " + rebuilderCount.incrementAndGet();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( numThreads, numThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			final Thread thread = new Thread( r, name + " - " + threadCount.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Stops following the modifications of the index. Rebuilds that already
+	 * started are completed, queued ones are dropped.
+	 */
+	public void shutdown()
+	{
+		index.setRebuilder( null );
+		// Under the same lock as scheduleIfDue(), which must not submit tasks
+		// to a shut-down executor.
+		synchronized ( this )
+		{
+			queue.clear();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Called by the index after a time-point was modified.
+	 *
+	 * @param timepoint
+	 *            the time-point.
+	 * @param spatialIndex
+	 *            the index of the time-point.
+	 */
+	synchronized void modified( final int timepoint, final ModifiableSpatialIndex< ? > spatialIndex )
+	{
+		scheduleIfDue( state( timepoint ), spatialIndex );
+	}
+
+	/**
+	 * Called by the index when a time-point is queried.
+	 *
+	 * @param timepoint
+	 *            the time-point.
+	 * @param spatialIndex
+	 *            the index of the time-point.
+	 */
+	synchronized void queried( final int timepoint, final ModifiableSpatialIndex< ? > spatialIndex )
+	{
+		final TimepointState state = state( timepoint );
+		state.queries++;
+		if ( !state.scheduled )
+			scheduleIfDue( state, spatialIndex );
+		else if ( queue.remove( state ) )
+		{
+			// Still waiting: move it forward.
+			state.updateOrder();
+			queue.add( state );
+		}
+	}
+
+	/**
+	 * Called by the index when all its time-points are replaced.
+	 */
+	synchronized void cleared()
+	{
+		states.clear();
+		queue.clear();
+	}
+
+	private TimepointState state( final int timepoint )
+	{
+		TimepointState state = states.get( timepoint );
+		if ( state == null )
+		{
+			state = new TimepointState( timepoint );
+			states.put( timepoint, state );
+		}
+		return state;
+	}
+
+	private void scheduleIfDue( final TimepointState state, final ModifiableSpatialIndex< ? > spatialIndex )
+	{
+		if ( state.scheduled || executor.isShutdown() )
+			return;
+		final int threshold = Math.max( minModCount, Math.min( maxModCount, spatialIndex.size() / Math.max( 1, state.queries ) ) );
+		if ( spatialIndex.modCount() <= threshold )
+			return;
+		state.scheduled = true;
+		state.dueSince = System.nanoTime();
+		state.updateOrder();
+		queue.add( state );
+		executor.execute( this::rebuildNext );
+	}
+
+	/**
+	 * Rebuilds the first queued time-point. Each queued time-point submits one
+	 * such task, so that workers always take the first time-point in the queue
+	 * when they become free.
+	 */
+	private void rebuildNext()
+	{
+		final TimepointState state;
+		synchronized ( this )
+		{
+			state = queue.poll();
+		}
+		if ( state == null )
+			return;
+
+		ModifiableSpatialIndex< ? > spatialIndex = null;
+		try
+		{
+			index.readLock().lock();
+			try
+			{
+				spatialIndex = index.timepointToSpatialIndex.get( state.timepoint );
+			}
+			finally
+			{
+				index.readLock().unlock();
+			}
+			if ( spatialIndex != null )
+				spatialIndex.rebuild();
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				state.scheduled = false;
+				state.queries = 0;
+				// Modifications made during the rebuild may be due already.
+				if ( spatialIndex != null && states.get( state.timepoint ) == state )
+					scheduleIfDue( state, spatialIndex );
+			}
+		}
+	}
+
+	private static class TimepointState
+	{
+		final int timepoint;
+
+		/**
+		 * The number of queries since the last rebuild.
+		 */
+		int queries;
+
+		/**
+		 * Whether the time-point is queued or being rebuilt.
+		 */
+		boolean scheduled;
+
+		/**
+		 * When the time-point was queued, in {@link System#nanoTime()}.
+		 */
+		long dueSince;
+
+		/**
+		 * The order of the time-point in the queue.
+		 */
+		long order;
+
+		TimepointState( final int timepoint )
+		{
+			this.timepoint = timepoint;
+		}
+
+		void updateOrder()
+		{
+			order = dueSince + QUEUE_DELAY_NANOS / ( queries + 1 );
+		}
+	}
+}
@@ -36,7 +36,11 @@ import java.lang.ref.WeakReference;
  * {@link SpatioTemporalIndexImp}, one by one.
  *
  * @author Tobias Pietzsch
+ * @deprecated Use {@link SpatioTemporalIndexImpRebuilder}, which rebuilds
+ *             time-points as they get modified rather than polling them, and
+ *             can rebuild several of them in parallel.
  */
+@Deprecated
 public class SpatioTemporalIndexImpRebuilderThread extends Thread
 {
 	private final WeakReference< SpatioTemporalIndexImp< ?, ? > > index;
@@ -30,10 +30,13 @@ package org.mastodon.graph.algorithm;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +47,7 @@ import org.mastodon.graph.TestSimpleEdge;
 import org.mastodon.graph.TestSimpleGraph;
 import org.mastodon.graph.TestSimpleVertex;
 import org.mastodon.graph.algorithm.ConnectedComponents;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -229,4 +233,84 @@ public class ConnectedComponentsTest
 
 	}
 
+	@Test
+	public void testLabels()
+	{
+		final ConnectedComponents< TestSimpleVertex, TestSimpleEdge > cc = new ConnectedComponents< TestSimpleVertex, TestSimpleEdge >( graph );
+		final ComponentLabels< TestSimpleVertex > labels = cc.labels();
+		assertEquals( "Unexpected number of components.", 6, labels.numComponents() );
+
+		int total = 0;
+		for ( int label = 0; label < labels.numComponents(); label++ )
+			total += labels.getSize( label );
+		assertEquals( "Component sizes do not span the whole graph.", graph.vertices().size(), total );
+
+		for ( final TestSimpleVertex v : graph.vertices() )
+		{
+			final int label = labels.getLabel( v );
+			final RefSet< TestSimpleVertex > component = labels.getComponent( label );
+			assertTrue( "Vertex not in its own component.", component.contains( v ) );
+			for ( final TestSimpleVertex w : component )
+				assertEquals( "Found an undesired vertex in a connected components.", v.getId(), w.getId() );
+		}
+
+		assertEquals( "Components were not filtered by size.", 2, new ConnectedComponents<>( graph, 5 ).get().size() );
+	}
+
+	@Test
+	public void testParallelLabels()
+	{
+		final TestSimpleGraph big = new TestSimpleGraph();
+		final int nChains = 100;
+		final int chainLength = 1000;
+		for ( int c = 0; c < nChains; c++ )
+		{
+			TestSimpleVertex previous = big.addVertex().init( c );
+			for ( int i = 1; i < chainLength; i++ )
+			{
+				final TestSimpleVertex current = big.addVertex().init( c );
+				if ( i % 2 == 0 )
+					big.addEdge( previous, current );
+				else
+					big.addEdge( current, previous );
+				previous = current;
+			}
+		}
+
+		final ComponentLabels< TestSimpleVertex > labels = new ConnectedComponents<>( big ).labels( 4 );
+		assertEquals( "Unexpected number of components.", nChains, labels.numComponents() );
+		for ( int label = 0; label < nChains; label++ )
+			assertEquals( "Unexpected component size.", chainLength, labels.getSize( label ) );
+
+		final TIntHashSet seen = new TIntHashSet();
+		for ( final TestSimpleVertex v : big.vertices() )
+		{
+			final int label = labels.getLabel( v );
+			assertTrue( "Vertex has no label.", label >= 0 );
+			seen.add( label * nChains + v.getId() );
+		}
+		assertEquals( "Vertices from different chains share a component label.", nChains, seen.size() );
+	}
+
+	@Test
+	public void testProgressToken()
+	{
+		final ConnectedComponents< TestSimpleVertex, TestSimpleEdge > cc = new ConnectedComponents<>( graph );
+		final ProgressToken progress = new ProgressToken( 2 );
+		cc.setProgressToken( progress );
+		cc.get();
+		assertEquals( "All edges should have been counted.", graph.edges().size(), progress.getProcessed() );
+		assertEquals( "The total should be the number of edges.", graph.edges().size(), progress.getTotal() );
+		assertEquals( "Progress should be complete.", 1., progress.getProgress(), 0. );
+
+		progress.cancel();
+		try
+		{
+			cc.get();
+			fail( "A cancelled token should stop the computation." );
+		}
+		catch ( final CancellationException e )
+		{}
+		assertTrue( "The token should be cancelled.", progress.isCancelled() );
+	}
 }
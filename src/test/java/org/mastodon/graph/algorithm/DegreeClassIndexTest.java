@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mastodon.graph.ListenableTestEdge;
+import org.mastodon.graph.ListenableTestGraph;
+import org.mastodon.graph.ListenableTestVertex;
+
+public class DegreeClassIndexTest
+{
+	@Test
+	public void testRandomEdits()
+	{
+		final ListenableTestGraph graph = new ListenableTestGraph();
+		final DegreeClassIndex< ListenableTestVertex, ListenableTestEdge > index = new DegreeClassIndex<>( graph );
+		final Random random = new Random( 0l );
+
+		final List< ListenableTestVertex > vertices = new ArrayList<>();
+		int id = 0;
+		for ( int i = 0; i < 2000; i++ )
+		{
+			final int op = random.nextInt( 10 );
+			if ( op < 3 || vertices.size() < 2 )
+			{
+				vertices.add( graph.addVertex().init( id++, 0 ) );
+			}
+			else if ( op < 8 )
+			{
+				final ListenableTestVertex source = vertices.get( random.nextInt( vertices.size() ) );
+				final ListenableTestVertex target = vertices.get( random.nextInt( vertices.size() ) );
+				graph.addEdge( source, target );
+			}
+			else if ( op < 9 )
+			{
+				if ( graph.edges().isEmpty() )
+					continue;
+				graph.remove( graph.edges().iterator().next() );
+			}
+			else
+			{
+				final ListenableTestVertex v = vertices.remove( random.nextInt( vertices.size() ) );
+				graph.remove( v );
+			}
+			if ( i % 100 == 0 )
+				check( graph, index );
+		}
+		check( graph, index );
+	}
+
+	@Test
+	public void testDivisionsAndMerges()
+	{
+		final ListenableTestGraph graph = new ListenableTestGraph();
+		final DegreeClassIndex< ListenableTestVertex, ListenableTestEdge > index = new DegreeClassIndex<>( graph );
+
+		final ListenableTestVertex a = graph.addVertex().init( 0, 0 );
+		final ListenableTestVertex b = graph.addVertex().init( 1, 1 );
+		final ListenableTestVertex c = graph.addVertex().init( 2, 1 );
+		final ListenableTestVertex d = graph.addVertex().init( 3, 2 );
+		assertEquals( "All isolated vertices should be roots.", 4, index.getRoots().size() );
+
+		graph.addEdge( a, b );
+		final ListenableTestEdge ac = graph.addEdge( a, c );
+		graph.addEdge( b, d );
+		graph.addEdge( c, d );
+		assertEquals( "Unexpected number of roots.", 1, index.getRoots().size() );
+		assertEquals( "Unexpected number of leaves.", 1, index.getLeaves().size() );
+		assertEquals( "Unexpected number of divisions.", 1, index.getDivisions().size() );
+		assertEquals( "Unexpected number of merges.", 1, index.getMerges().size() );
+
+		graph.remove( ac );
+		assertEquals( "Unexpected number of roots.", 2, index.getRoots().size() );
+		assertEquals( "Unexpected number of divisions.", 0, index.getDivisions().size() );
+		assertEquals( "Unexpected number of merges.", 1, index.getMerges().size() );
+
+		graph.remove( d );
+		assertEquals( "Unexpected number of leaves.", 2, index.getLeaves().size() );
+		assertEquals( "Unexpected number of merges.", 0, index.getMerges().size() );
+	}
+
+	private static void check( final ListenableTestGraph graph, final DegreeClassIndex< ListenableTestVertex, ListenableTestEdge > index )
+	{
+		final Set< Integer > roots = new HashSet<>();
+		final Set< Integer > leaves = new HashSet<>();
+		final Set< Integer > divisions = new HashSet<>();
+		final Set< Integer > merges = new HashSet<>();
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final int in = v.incomingEdges().size();
+			final int out = v.outgoingEdges().size();
+			if ( in == 0 )
+				roots.add( v.getId() );
+			if ( out == 0 )
+				leaves.add( v.getId() );
+			if ( out >= 2 )
+				divisions.add( v.getId() );
+			if ( in >= 2 )
+				merges.add( v.getId() );
+		}
+		assertEquals( "Unexpected roots.", roots, ids( index.getRoots() ) );
+		assertEquals( "Unexpected leaves.", leaves, ids( index.getLeaves() ) );
+		assertEquals( "Unexpected divisions.", divisions, ids( index.getDivisions() ) );
+		assertEquals( "Unexpected merges.", merges, ids( index.getMerges() ) );
+	}
+
+	private static Set< Integer > ids( final Set< ListenableTestVertex > vertices )
+	{
+		final Set< Integer > ids = new HashSet<>();
+		for ( final ListenableTestVertex v : vertices )
+			ids.add( v.getId() );
+		return ids;
+	}
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+
+public class LineageIndexTest
+{
+	private TestSimpleGraph graph;
+
+	private List< TestSimpleVertex > vertices;
+
+	/**
+	 * Parent id by vertex id, -1 for roots.
+	 */
+	private int[] parents;
+
+	@Before
+	public void setUp()
+	{
+		// Random forest of dividing cells.
+		final Random random = new Random( 42l );
+		graph = new TestSimpleGraph();
+		vertices = new ArrayList<>();
+		final int n = 2000;
+		parents = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleVertex v = graph.addVertex().init( i );
+			vertices.add( v );
+			if ( i < 5 || random.nextInt( 50 ) == 0 )
+				parents[ i ] = -1;
+			else
+			{
+				parents[ i ] = i - 1 - random.nextInt( Math.min( i, 10 ) );
+				graph.addEdge( vertices.get( parents[ i ] ), v );
+			}
+		}
+	}
+
+	private boolean isAncestor( final int a, int d )
+	{
+		while ( d >= 0 )
+		{
+			if ( d == a )
+				return true;
+			d = parents[ d ];
+		}
+		return false;
+	}
+
+	private int depth( int v )
+	{
+		int depth = 0;
+		while ( parents[ v ] >= 0 )
+		{
+			v = parents[ v ];
+			depth++;
+		}
+		return depth;
+	}
+
+	private int lca( int a, int b )
+	{
+		while ( a >= 0 )
+		{
+			if ( isAncestor( a, b ) )
+				return a;
+			a = parents[ a ];
+		}
+		return -1;
+	}
+
+	@Test
+	public void testAncestorsAndDepths()
+	{
+		final LineageIndex< TestSimpleVertex, TestSimpleEdge > index = new LineageIndex<>( graph );
+		assertEquals( "All vertices should be indexed.", vertices.size(), index.size() );
+
+		final Random random = new Random( 1l );
+		for ( int k = 0; k < 20000; k++ )
+		{
+			final int a = random.nextInt( vertices.size() );
+			final int d = random.nextInt( vertices.size() );
+			assertEquals( "Unexpected ancestor test result.", isAncestor( a, d ), index.isAncestor( vertices.get( a ), vertices.get( d ) ) );
+		}
+		for ( int i = 0; i < vertices.size(); i++ )
+			assertEquals( "Unexpected depth.", depth( i ), index.getDepth( vertices.get( i ) ) );
+	}
+
+	@Test
+	public void testLowestCommonAncestor()
+	{
+		final LineageIndex< TestSimpleVertex, TestSimpleEdge > index = new LineageIndex<>( graph );
+		final TestSimpleVertex ref = graph.vertexRef();
+		final Random random = new Random( 2l );
+		for ( int k = 0; k < 20000; k++ )
+		{
+			final int a = random.nextInt( vertices.size() );
+			final int b = random.nextInt( vertices.size() );
+			final int expected = lca( a, b );
+			final TestSimpleVertex actual = index.getLowestCommonAncestor( vertices.get( a ), vertices.get( b ), ref );
+			if ( expected < 0 )
+				assertNull( "Vertices in different trees should not have a common ancestor.", actual );
+			else
+				assertEquals( "Unexpected lowest common ancestor.", expected, actual.getId() );
+		}
+		graph.releaseRef( ref );
+	}
+
+	@Test
+	public void testDescendants()
+	{
+		final LineageIndex< TestSimpleVertex, TestSimpleEdge > index = new LineageIndex<>( graph );
+		final List< TestSimpleVertex > initial = Arrays.asList( vertices.get( 0 ), vertices.get( 10 ), vertices.get( 11 ), vertices.get( 500 ) );
+
+		final Set< Integer > expected = new HashSet<>();
+		for ( int i = 0; i < vertices.size(); i++ )
+			for ( final TestSimpleVertex v : initial )
+				if ( isAncestor( v.getId(), i ) )
+					expected.add( i );
+
+		final Set< Integer > actual = new HashSet<>();
+		for ( final TestSimpleVertex v : index.getDescendants( initial ) )
+			actual.add( v.getId() );
+		assertEquals( "Unexpected descendants.", expected, actual );
+
+		// Subtree is a contiguous range of positions.
+		final TestSimpleVertex ref = graph.vertexRef();
+		final TestSimpleVertex v = vertices.get( 10 );
+		final int start = index.getPosition( v );
+		for ( int p = start; p < start + index.getSubtreeSize( v ); p++ )
+			assertTrue( "Vertex in subtree range is not a descendant.", isAncestor( 10, index.getVertexAt( p, ref ).getId() ) );
+		graph.releaseRef( ref );
+	}
+
+	@Test
+	public void testParallelRebuild()
+	{
+		final LineageIndex< TestSimpleVertex, TestSimpleEdge > sequential = new LineageIndex<>( graph );
+		final LineageIndex< TestSimpleVertex, TestSimpleEdge > parallel = new LineageIndex<>( graph, 4 );
+		final TestSimpleVertex ref1 = graph.vertexRef();
+		final TestSimpleVertex ref2 = graph.vertexRef();
+		for ( final TestSimpleVertex v : vertices )
+		{
+			assertEquals( "Unexpected position.", sequential.getPosition( v ), parallel.getPosition( v ) );
+			assertEquals( "Unexpected subtree size.", sequential.getSubtreeSize( v ), parallel.getSubtreeSize( v ) );
+			assertEquals( "Unexpected root.", sequential.getRoot( v, ref1 ), parallel.getRoot( v, ref2 ) );
+		}
+		graph.releaseRef( ref1 );
+		graph.releaseRef( ref2 );
+
+		// Rebuild after modification.
+		final TestSimpleVertex root = vertices.get( 0 );
+		final TestSimpleVertex child = graph.addVertex().init( vertices.size() );
+		graph.addEdge( root, child );
+		assertFalse( "New vertex should not be indexed before rebuild.", parallel.contains( child ) );
+		parallel.rebuild( 4 );
+		assertTrue( "New vertex should be a descendant after rebuild.", parallel.isAncestor( root, child ) );
+	}
+}
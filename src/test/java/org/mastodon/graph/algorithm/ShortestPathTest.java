@@ -31,6 +31,7 @@ package org.mastodon.graph.algorithm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -43,6 +44,8 @@ import org.mastodon.graph.TestSimpleVertex;
 import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
 import org.mastodon.graph.algorithm.traversal.GraphsForTests;
 import org.mastodon.graph.algorithm.traversal.GraphsForTests.GraphTestBundle;
+import org.mastodon.graph.object.ObjectEdge;
+import org.mastodon.graph.object.ObjectVertex;
 
 public class ShortestPathTest
 {
@@ -127,7 +130,109 @@ public class ShortestPathTest
 	@Test
 	public void testNonExistingPath()
 	{
-		// TODO
+		final TestSimpleVertex D = bundle.vertices.get( 3 );
+		final TestSimpleVertex G = bundle.vertices.get( 6 );
+
+		final ShortestPath< TestSimpleVertex, TestSimpleEdge > sp = new ShortestPath<>( bundle.graph, SearchDirection.DIRECTED );
+		assertNull( "Found a path from D to G, though it does not exist.", sp.findPath( D, G ) );
+		assertNull( "Found a weighted path from D to G, though it does not exist.", sp.findPath( D, G, e -> 1. ) );
+
+		// Same vertex.
+		final Iterator< TestSimpleVertex > path = sp.findPath( D, D ).iterator();
+		assertEquals( "Path to itself should contain the vertex.", D, path.next() );
+		assertFalse( "Path to itself should contain only the vertex.", path.hasNext() );
+	}
+
+	@Test
+	public void testRepeatedQueries()
+	{
+		final ShortestPath< TestSimpleVertex, TestSimpleEdge > sp = new ShortestPath<>( bundle.graph, SearchDirection.UNDIRECTED );
+		for ( final TestSimpleVertex from : bundle.vertices )
+			for ( final TestSimpleVertex to : bundle.vertices )
+			{
+				final List< TestSimpleVertex > path = new ArrayList<>( sp.findPath( from, to ) );
+				assertEquals( "Path should end at the source.", from, path.get( path.size() - 1 ) );
+				assertEquals( "Path should start at the target.", to, path.get( 0 ) );
+			}
+
+		final TestSimpleVertex D = bundle.vertices.get( 3 );
+		final TestSimpleVertex G = bundle.vertices.get( 6 );
+		assertEquals( "Unexpected path length.", 5, sp.findPath( D, G ).size() );
+		assertEquals( "Unexpected path length.", 5, sp.findPath( G, D ).size() );
+	}
+
+	@Test
+	public void testQueriesAfterEdits()
+	{
+		final ShortestPath< TestSimpleVertex, TestSimpleEdge > sp = new ShortestPath<>( bundle.graph, SearchDirection.UNDIRECTED );
+		final TestSimpleVertex D = bundle.vertices.get( 3 );
+		final TestSimpleVertex G = bundle.vertices.get( 6 );
+		assertEquals( "Unexpected path length.", 5, sp.findPath( D, G ).size() );
+
+		// Vertices added after the searcher was created.
+		final TestSimpleVertex H = bundle.graph.addVertex().init( 7 );
+		bundle.graph.addEdge( G, H );
+		assertEquals( "Unexpected path length to a new vertex.", 6, sp.findPath( D, H ).size() );
+		assertEquals( "Unexpected weighted path length to a new vertex.", 6, sp.findPath( H, D, e -> 1. ).size() );
+	}
+
+	@Test
+	public void testStdObjects()
+	{
+		final GraphTestBundle< ObjectVertex< Integer >, ObjectEdge< Integer > > objects = GraphsForTests.wpExampleStdObjects();
+		final ShortestPath< ObjectVertex< Integer >, ObjectEdge< Integer > > sp = new ShortestPath<>( objects.graph, SearchDirection.UNDIRECTED );
+		for ( final ObjectVertex< Integer > from : objects.vertices )
+			for ( final ObjectVertex< Integer > to : objects.vertices )
+			{
+				final List< ObjectVertex< Integer > > path = new ArrayList<>( sp.findPath( from, to ) );
+				assertEquals( "Path should end at the source.", from, path.get( path.size() - 1 ) );
+				assertEquals( "Path should start at the target.", to, path.get( 0 ) );
+				assertEquals( "Weighted path should have the same length.", path.size(), sp.findPath( from, to, e -> 1. ).size() );
+			}
+
+		final ObjectVertex< Integer > D = objects.vertices.get( 3 );
+		final ObjectVertex< Integer > G = objects.vertices.get( 6 );
+		assertEquals( "Unexpected path length.", 5, sp.findPath( D, G ).size() );
+
+		// Vertices added after the searcher was created.
+		final ObjectVertex< Integer > H = objects.graph.addVertex().init( 7 );
+		objects.graph.addEdge( G, H );
+		assertEquals( "Unexpected path length to a new vertex.", 6, sp.findPath( D, H ).size() );
+	}
+
+	@Test
+	public void testWeighted()
+	{
+		final TestSimpleVertex A = bundle.vertices.get( 0 );
+		final TestSimpleVertex E = bundle.vertices.get( 4 );
+
+		// A -> E is direct, but expensive. A -> B -> F -> E is cheaper.
+		final TestSimpleEdge eAE = bundle.edges.get( 2 );
+		final ShortestPath< TestSimpleVertex, TestSimpleEdge > sp = new ShortestPath<>( bundle.graph, SearchDirection.DIRECTED );
+		final List< TestSimpleVertex > path = new ArrayList<>( sp.findPath( A, E, e -> e.equals( eAE ) ? 10. : 1. ) );
+
+		final List< TestSimpleVertex > expected = new ArrayList<>( 4 );
+		// Reverse order
+		expected.add( E );
+		expected.add( bundle.vertices.get( 5 ) );
+		expected.add( bundle.vertices.get( 1 ) );
+		expected.add( A );
+		assertEquals( "Weighted path found does not follow expected order.", expected, path );
+
+		// A* with a zero heuristic must give the same result.
+		final List< TestSimpleVertex > pathAStar = new ArrayList<>( sp.findPath( A, E, e -> e.equals( eAE ) ? 10. : 1., v -> 0. ) );
+		assertEquals( "A* path found does not follow expected order.", expected, pathAStar );
+
+		// With unit weights, the direct edge wins.
+		final List< TestSimpleVertex > pathUnit = new ArrayList<>( sp.findPath( A, E, e -> 1. ) );
+		assertEquals( "Unexpected path length.", 2, pathUnit.size() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNegativeWeight()
+	{
+		final ShortestPath< TestSimpleVertex, TestSimpleEdge > sp = new ShortestPath<>( bundle.graph, SearchDirection.DIRECTED );
+		sp.findPath( bundle.vertices.get( 0 ), bundle.vertices.get( 4 ), e -> -1. );
 	}
 
 }
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+
+public class TreeOutputterTest
+{
+	@Test
+	public void testDivision()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final TestSimpleVertex a = graph.addVertex().init( 0 );
+		final TestSimpleVertex b = graph.addVertex().init( 1 );
+		final TestSimpleVertex c = graph.addVertex().init( 2 );
+		graph.addEdge( a, b );
+		graph.addEdge( a, c );
+
+		final TreeOutputter< TestSimpleVertex, TestSimpleEdge > outputter = new TreeOutputter<>( graph, v -> Integer.toString( v.getId() ) );
+		final String[] lines = outputter.get( a ).split( "\n" );
+		assertEquals( "Unexpected number of lines.", 4, lines.length );
+		assertEquals( "Unexpected root line.", "   0", lines[ 0 ] );
+		assertEquals( "Unexpected connector line.", " ┌─┴┐", lines[ 1 ] );
+		assertEquals( "Unexpected bar line.", " │  │", lines[ 2 ] );
+		assertEquals( "Unexpected label line.", " 2  1", lines[ 3 ] );
+	}
+
+	@Test
+	public void testTruncation() throws IOException
+	{
+		// Long chain, that would not fit on the stack with recursion.
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final TestSimpleVertex root = graph.addVertex().init( 0 );
+		final TestSimpleVertex previous = graph.vertexRef();
+		previous.refTo( root );
+		for ( int i = 1; i < 100000; i++ )
+		{
+			final TestSimpleVertex v = graph.addVertex().init( i );
+			graph.addEdge( previous, v );
+			previous.refTo( v );
+		}
+		graph.releaseRef( previous );
+
+		final TreeOutputter< TestSimpleVertex, TestSimpleEdge > outputter = new TreeOutputter<>( graph, v -> Integer.toString( v.getId() ) );
+		final StringBuilder sb = new StringBuilder();
+		outputter.write( root, sb, 2, 2 );
+		final String[] lines = sb.toString().split( "\n" );
+		assertEquals( "Unexpected number of lines for a depth of 2.", 7, lines.length );
+		for ( final String line : lines )
+			assertTrue( "Line is longer than the maximal width.", line.length() <= 2 );
+
+		final StringBuilder full = new StringBuilder();
+		outputter.write( root, full );
+		assertEquals( "Unexpected number of lines for the full tree.", 1 + 3 * 99999, full.toString().split( "\n" ).length );
+	}
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.Test;
+import org.mastodon.graph.ReadOnlyGraph;
+import org.mastodon.graph.TestSimpleSpatialEdge;
+import org.mastodon.graph.TestSimpleSpatialGraph;
+import org.mastodon.graph.TestSimpleSpatialVertex;
+
+public class AbstractGraphSortedIteratorAlgorithmTest
+{
+
+	@Test
+	public void testKeyOrder()
+	{
+		final Random random = new Random( 1l );
+		// Fan-outs sorted by insertion sort, and by quicksort.
+		for ( final int fanOut : new int[] { 0, 1, 2, 5, 15, 16, 17, 40, 300 } )
+		{
+			for ( int trial = 0; trial < 5; trial++ )
+			{
+				final TestSimpleSpatialGraph graph = new TestSimpleSpatialGraph();
+				final TestSimpleSpatialVertex root = graph.addVertex().init( -1, 0, 0 );
+				final TestSimpleSpatialVertex ref = graph.vertexRef();
+				for ( int i = 0; i < fanOut; i++ )
+				{
+					// Few distinct keys, so that there are many ties.
+					final TestSimpleSpatialVertex child = graph.addVertex( ref ).init( i, random.nextInt( 4 ), random.nextInt( 1 + fanOut / 3 ) );
+					graph.addEdge( root, child );
+				}
+
+				final ToDoubleFunction< TestSimpleSpatialVertex > key = v -> v.getDoublePosition( 0 );
+				assertEquals( "Unexpected order for a fan-out of " + fanOut + ".",
+						expectedOrder( root, key ), new TossRecorder( graph, key ).tossedIds( root ) );
+
+				// An implicitly typed lambda on an integer key.
+				final TossRecorder byTimepoint = new TossRecorder( graph, v -> v.getTimepoint() );
+				assertEquals( "Unexpected order by time-point for a fan-out of " + fanOut + ".",
+						expectedOrder( root, v -> v.getTimepoint() ), byTimepoint.tossedIds( root ) );
+			}
+		}
+	}
+
+	/**
+	 * Returns the ids of the children of the root, in edge order, sorted by
+	 * a stable sort on the key.
+	 */
+	private static List< Integer > expectedOrder( final TestSimpleSpatialVertex root, final ToDoubleFunction< TestSimpleSpatialVertex > key )
+	{
+		final List< double[] > children = new ArrayList<>();
+		for ( final TestSimpleSpatialEdge e : root.outgoingEdges() )
+		{
+			final TestSimpleSpatialVertex child = e.getTarget();
+			children.add( new double[] { key.applyAsDouble( child ), child.getId() } );
+		}
+		children.sort( Comparator.comparingDouble( c -> c[ 0 ] ) );
+		final List< Integer > ids = new ArrayList<>();
+		for ( final double[] child : children )
+			ids.add( ( int ) child[ 1 ] );
+		return ids;
+	}
+
+	/**
+	 * Records the vertices tossed when expanding a vertex.
+	 */
+	private static class TossRecorder extends AbstractGraphSortedIteratorAlgorithm< TestSimpleSpatialVertex, TestSimpleSpatialEdge >
+	{
+		private final List< Integer > tossed = new ArrayList<>();
+
+		TossRecorder( final ReadOnlyGraph< TestSimpleSpatialVertex, TestSimpleSpatialEdge > graph, final ToDoubleFunction< TestSimpleSpatialVertex > key )
+		{
+			super( graph, key );
+		}
+
+		List< Integer > tossedIds( final TestSimpleSpatialVertex vertex )
+		{
+			tossed.clear();
+			expand( vertex );
+			return tossed;
+		}
+
+		@Override
+		protected Iterable< TestSimpleSpatialEdge > neighbors( final TestSimpleSpatialVertex vertex )
+		{
+			return vertex.outgoingEdges();
+		}
+
+		@Override
+		protected TestSimpleSpatialVertex fetch( final TestSimpleSpatialVertex ref )
+		{
+			return null;
+		}
+
+		@Override
+		protected void toss( final TestSimpleSpatialVertex vertex )
+		{
+			tossed.add( vertex.getId() );
+		}
+
+		@Override
+		protected boolean canFetch()
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.object.ObjectEdge;
+import org.mastodon.graph.object.ObjectGraph;
+import org.mastodon.graph.object.ObjectVertex;
+
+public class BestFirstIteratorTest
+{
+	@Test
+	public void testVertexScore()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > v = vertices( graph, 5 );
+		graph.addEdge( v.get( 0 ), v.get( 1 ) );
+		graph.addEdge( v.get( 0 ), v.get( 2 ) );
+		graph.addEdge( v.get( 1 ), v.get( 3 ) );
+		graph.addEdge( v.get( 2 ), v.get( 4 ) );
+
+		final double[] scores = new double[] { 1., 0.5, 0.1, 0., 0.9 };
+		final BestFirstIterator< TestSimpleVertex, TestSimpleEdge > it =
+				new BestFirstIterator<>( v.get( 0 ), graph, SearchDirection.DIRECTED, vertex -> scores[ vertex.getId() ] );
+		assertEquals( "Unexpected iteration order.", Arrays.asList( 0, 2, 1, 3, 4 ), ids( it ) );
+	}
+
+	@Test
+	public void testEdgeScoreDecrease()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > v = vertices( graph, 4 );
+		final double[] scores = new double[ 4 ];
+		scores[ graph.addEdge( v.get( 0 ), v.get( 1 ) ).getInternalPoolIndex() ] = 0.8;
+		scores[ graph.addEdge( v.get( 0 ), v.get( 2 ) ).getInternalPoolIndex() ] = 0.1;
+		scores[ graph.addEdge( v.get( 0 ), v.get( 3 ) ).getInternalPoolIndex() ] = 0.5;
+		// A better edge to vertex 1 is found after expanding vertex 2.
+		scores[ graph.addEdge( v.get( 2 ), v.get( 1 ) ).getInternalPoolIndex() ] = 0.05;
+
+		final BestFirstIterator< TestSimpleVertex, TestSimpleEdge > it =
+				new BestFirstIterator<>( v.get( 0 ), graph, SearchDirection.DIRECTED, ( s, e, t ) -> scores[ e.getInternalPoolIndex() ] );
+		assertEquals( "Unexpected iteration order.", Arrays.asList( 0, 2, 1, 3 ), ids( it ) );
+	}
+
+	@Test
+	public void testDepthOfDecreasedVertex()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > v = vertices( graph, 4 );
+		final double[] scores = new double[ 4 ];
+		scores[ graph.addEdge( v.get( 0 ), v.get( 1 ) ).getInternalPoolIndex() ] = 0.8;
+		scores[ graph.addEdge( v.get( 0 ), v.get( 2 ) ).getInternalPoolIndex() ] = 0.1;
+		// Vertex 1 is now reached from vertex 2, at depth 2, and not expanded.
+		scores[ graph.addEdge( v.get( 2 ), v.get( 1 ) ).getInternalPoolIndex() ] = 0.05;
+		scores[ graph.addEdge( v.get( 1 ), v.get( 3 ) ).getInternalPoolIndex() ] = 0.;
+
+		final BestFirstIterator< TestSimpleVertex, TestSimpleEdge > it =
+				new BestFirstIterator<>( v.get( 0 ), graph, SearchDirection.DIRECTED, ( s, e, t ) -> scores[ e.getInternalPoolIndex() ] );
+		it.setMaxDepth( 2 );
+		assertEquals( "Unexpected iteration order.", Arrays.asList( 0, 2, 1 ), ids( it ) );
+	}
+
+	@Test
+	public void testVertexAddedAfterReset()
+	{
+		final ObjectGraph< Integer > graph = new ObjectGraph<>();
+		final ObjectVertex< Integer > v0 = graph.addVertex().init( 0 );
+		final ObjectVertex< Integer > v1 = graph.addVertex().init( 1 );
+		graph.addEdge( v0, v1 );
+
+		final BestFirstIterator< ObjectVertex< Integer >, ObjectEdge< Integer > > it =
+				new BestFirstIterator<>( v0, graph, SearchDirection.DIRECTED, ObjectVertex::getContent );
+		final ObjectVertex< Integer > v2 = graph.addVertex().init( 2 );
+		graph.addEdge( v0, v2 );
+		assertEquals( "Vertices added since the last reset should not be iterated.", Arrays.asList( 0, 1 ), contents( it ) );
+
+		it.reset( v0 );
+		assertEquals( "Unexpected iteration order after reset.", Arrays.asList( 0, 1, 2 ), contents( it ) );
+	}
+
+	private static List< TestSimpleVertex > vertices( final TestSimpleGraph graph, final int n )
+	{
+		final List< TestSimpleVertex > vertices = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			vertices.add( graph.addVertex().init( i ) );
+		return vertices;
+	}
+
+	private static List< Integer > ids( final BestFirstIterator< TestSimpleVertex, TestSimpleEdge > it )
+	{
+		final List< Integer > ids = new ArrayList<>();
+		while ( it.hasNext() )
+			ids.add( it.next().getId() );
+		return ids;
+	}
+
+	private static List< Integer > contents( final BestFirstIterator< ObjectVertex< Integer >, ObjectEdge< Integer > > it )
+	{
+		final List< Integer > contents = new ArrayList<>();
+		while ( it.hasNext() )
+			contents.add( it.next().getContent() );
+		return contents;
+	}
+}
@@ -28,6 +28,9 @@
  */
 package org.mastodon.graph.algorithm.traversal;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mastodon.graph.algorithm.traversal.GraphSearch.EdgeClass.BACK;
 import static org.mastodon.graph.algorithm.traversal.GraphSearch.EdgeClass.FORWARD;
 import static org.mastodon.graph.algorithm.traversal.GraphSearch.EdgeClass.TREE;
@@ -36,12 +39,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import org.junit.Test;
 import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
 import org.mastodon.graph.TestSimpleVertex;
 import org.mastodon.graph.algorithm.traversal.GraphSearch.EdgeClass;
 import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 import org.mastodon.graph.object.ObjectEdge;
 import org.mastodon.graph.object.ObjectVertex;
 import org.mastodon.graph.algorithm.traversal.GraphsForTests.GraphTestBundle;
@@ -135,6 +141,58 @@ public class DepthFirstSearchTest
 		traversalTester.searchDone();
 	}
 
+	@Test
+	public void testReuseAfterCancellation()
+	{
+		final GraphTestBundle< TestSimpleVertex, TestSimpleEdge > bundle = GraphsForTests.loopPoolObjects();
+
+		final TestSimpleVertex first = bundle.vertices.get( 0 );
+		final DepthFirstSearch< TestSimpleVertex, TestSimpleEdge > dfs = new DepthFirstSearch<>( bundle.graph, SearchDirection.DIRECTED );
+
+		// Cancelled in the middle of the loop, with vertices on the stack.
+		final ProgressToken progress = new ProgressToken( 1 )
+		{
+			@Override
+			public void worked( final long n )
+			{
+				if ( getProcessed() + n >= 4 )
+					cancel();
+				super.worked( n );
+			}
+		};
+		dfs.setProgressToken( progress );
+		try
+		{
+			dfs.start( first );
+			fail( "A cancelled token should stop the search." );
+		}
+		catch ( final CancellationException e )
+		{}
+		assertEquals( "The search should stop at the check that saw the cancellation.", 4, progress.getProcessed() );
+
+		// The same search can be reused, and gives the complete traversal.
+		dfs.setProgressToken( null );
+		final List< EdgeClass > edgeClass = Arrays.asList( TREE, TREE, TREE, TREE, TREE, TREE, BACK );
+		final List< TestSimpleVertex > processedVertices = Arrays.asList(
+				bundle.vertices.get( 6 ),
+				bundle.vertices.get( 5 ),
+				bundle.vertices.get( 4 ),
+				bundle.vertices.get( 3 ),
+				bundle.vertices.get( 2 ),
+				bundle.vertices.get( 1 ),
+				bundle.vertices.get( 0 ) );
+		final TraversalTester< TestSimpleVertex, TestSimpleEdge, DepthFirstSearch< TestSimpleVertex, TestSimpleEdge > > traversalTester =
+				new TraversalTester<>(
+				bundle.vertices.iterator(),
+				processedVertices.iterator(),
+				bundle.edges.iterator(),
+				edgeClass.iterator() );
+
+		dfs.setTraversalListener( traversalTester );
+		dfs.start( first );
+		traversalTester.searchDone();
+	}
+
 	@Test
 	public void testLoopStdObjects()
 	{
@@ -544,4 +602,32 @@ public class DepthFirstSearchTest
 		dfs.start( first );
 		traversalTester.searchDone();
 	}
+
+	/**
+	 * A long track would overflow the stack of a recursive search.
+	 */
+	@Test
+	public void testLongTrack()
+	{
+		final int n = 1_000_000;
+		final TestSimpleGraph graph = new TestSimpleGraph( n );
+		final TestSimpleVertex first = graph.addVertex().init( 0 );
+		final TestSimpleVertex previous = graph.vertexRef();
+		final TestSimpleVertex vertex = graph.vertexRef();
+		final TestSimpleEdge edge = graph.edgeRef();
+		previous.refTo( first );
+		for ( int i = 1; i < n; i++ )
+		{
+			graph.addVertex( vertex ).init( i );
+			graph.addEdge( previous, vertex, edge );
+			previous.refTo( vertex );
+		}
+
+		final DepthFirstSearch< TestSimpleVertex, TestSimpleEdge > dfs = new DepthFirstSearch<>( graph, SearchDirection.UNDIRECTED );
+		dfs.start( first );
+		assertFalse( "Search should not have been aborted.", dfs.wasAborted() );
+		assertEquals( "Unexpected discovery time for the first vertex.", 1, dfs.timeOf( first ) );
+		assertEquals( "Unexpected discovery time for the last vertex.", n, dfs.timeOf( previous ) );
+		assertEquals( "Unexpected parent for the last vertex.", n - 2, dfs.parent( previous ).getId() );
+	}
 }
@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefDeque;
+import org.mastodon.collection.RefIntMap;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefRefMap;
+import org.mastodon.collection.RefSet;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.algorithm.util.SearchIntValues;
+import org.mastodon.graph.algorithm.util.SearchMarks;
+import org.mastodon.graph.algorithm.util.SearchParents;
+
+/**
+ * Compares the traversal throughput of hash-based visitation state
+ * ({@link RefSet}, {@link RefIntMap}, {@link RefRefMap}) with the dense,
+ * pool-index-keyed state used by {@link GraphSearch} and its iterators, on a
+ * large lineage-like graph.
+ * <p>
+ * The first two benchmarks run the same breadth-first loop and only differ by
+ * the state they use. The next two time the full {@link BreadthFirstSearch}
+ * and {@link UndirectedDepthFirstIterator}. The last one reuses a
+ * {@link DepthFirstIterator} for many small queries, and is dominated by the
+ * cost of resetting the visitation state.
+ */
+public class GraphSearchBenchmark
+{
+	private static final int N_VERTICES = 1_000_000;
+
+	private static final int N_ROOTS = 100;
+
+	private static final int N_QUERIES = 10_000;
+
+	private static final int QUERY_SIZE = 10;
+
+	private static final int WARMUP = 5;
+
+	private static final int RUNS = 20;
+
+	public static void main( final String[] args )
+	{
+		final TestSimpleGraph graph = createLineages( N_VERTICES, N_ROOTS, new Random( 1l ) );
+		final TestSimpleVertex root = graph.vertices().iterator().next();
+		System.out.println( String.format( "Graph with %d vertices and %d edges.", graph.vertices().size(), graph.edges().size() ) );
+
+		benchmark( "BFS loop, hash state", () -> hashBreadthFirst( graph, root ) );
+		benchmark( "BFS loop, dense state", () -> denseBreadthFirst( graph, root ) );
+
+		final BreadthFirstSearch< TestSimpleVertex, TestSimpleEdge > bfs = new BreadthFirstSearch<>( graph, SearchDirection.UNDIRECTED );
+		benchmark( "BreadthFirstSearch", () -> {
+			bfs.start( root );
+			return 0;
+		} );
+
+		benchmark( "DepthFirstIterator", () -> {
+			int n = 0;
+			final UndirectedDepthFirstIterator< TestSimpleVertex, TestSimpleEdge > it = new UndirectedDepthFirstIterator<>( root, graph );
+			while ( it.hasNext() )
+			{
+				it.next();
+				n++;
+			}
+			return n;
+		} );
+
+		final DepthFirstIterator< TestSimpleVertex, TestSimpleEdge > dfi = new DepthFirstIterator<>( graph );
+		final TestSimpleVertex ref = graph.vertexRef();
+		final Random random = new Random( 2l );
+		benchmark( "DepthFirstIterator, reset", () -> {
+			int n = 0;
+			for ( int q = 0; q < N_QUERIES; q++ )
+			{
+				dfi.reset( graph.getVertexPool().getObject( random.nextInt( N_VERTICES ), ref ) );
+				for ( int i = 0; i < QUERY_SIZE && dfi.hasNext(); i++ )
+				{
+					dfi.next();
+					n++;
+				}
+			}
+			return n;
+		} );
+	}
+
+	private static int hashBreadthFirst( final TestSimpleGraph graph, final TestSimpleVertex root )
+	{
+		final RefSet< TestSimpleVertex > discovered = RefCollections.createRefSet( graph.vertices() );
+		final RefIntMap< TestSimpleVertex > depths = RefMaps.createRefIntMap( graph.vertices(), -1 );
+		final RefRefMap< TestSimpleVertex, TestSimpleVertex > parents = RefMaps.createRefRefMap( graph.vertices() );
+		final RefDeque< TestSimpleVertex > queue = RefCollections.createRefDeque( graph.vertices() );
+		final TestSimpleVertex vertex = graph.vertexRef();
+		final TestSimpleVertex target = graph.vertexRef();
+		discovered.add( root );
+		depths.put( root, 0 );
+		queue.add( root );
+		int n = 0;
+		while ( !queue.isEmpty() )
+		{
+			queue.poll( vertex );
+			final int level = depths.get( vertex );
+			n++;
+			for ( final TestSimpleEdge edge : vertex.edges() )
+			{
+				edge.getSource( target );
+				if ( target.equals( vertex ) )
+					edge.getTarget( target );
+				if ( discovered.add( target ) )
+				{
+					depths.put( target, level + 1 );
+					parents.put( target, vertex );
+					queue.add( target );
+				}
+			}
+		}
+		graph.releaseRef( vertex );
+		graph.releaseRef( target );
+		return n;
+	}
+
+	private static int denseBreadthFirst( final TestSimpleGraph graph, final TestSimpleVertex root )
+	{
+		final SearchMarks< TestSimpleVertex > discovered = SearchMarks.create( graph.vertices() );
+		final SearchIntValues< TestSimpleVertex > depths = SearchIntValues.create( graph.vertices(), -1 );
+		final SearchParents< TestSimpleVertex > parents = SearchParents.create( graph.vertices() );
+		final RefDeque< TestSimpleVertex > queue = RefCollections.createRefDeque( graph.vertices() );
+		final TestSimpleVertex vertex = graph.vertexRef();
+		final TestSimpleVertex target = graph.vertexRef();
+		discovered.add( root );
+		depths.put( root, 0 );
+		queue.add( root );
+		int n = 0;
+		while ( !queue.isEmpty() )
+		{
+			queue.poll( vertex );
+			final int level = depths.get( vertex );
+			n++;
+			for ( final TestSimpleEdge edge : vertex.edges() )
+			{
+				edge.getSource( target );
+				if ( target.equals( vertex ) )
+					edge.getTarget( target );
+				if ( discovered.add( target ) )
+				{
+					depths.put( target, level + 1 );
+					parents.put( target, vertex );
+					queue.add( target );
+				}
+			}
+		}
+		graph.releaseRef( vertex );
+		graph.releaseRef( target );
+		return n;
+	}
+
+	private interface Task
+	{
+		public int run();
+	}
+
+	private static void benchmark( final String name, final Task task )
+	{
+		for ( int i = 0; i < WARMUP; i++ )
+			task.run();
+		final double[] times = new double[ RUNS ];
+		for ( int i = 0; i < RUNS; i++ )
+		{
+			final long start = System.nanoTime();
+			task.run();
+			times[ i ] = ( System.nanoTime() - start ) / 1e6;
+		}
+		Arrays.sort( times );
+		System.out.println( String.format( "%-25s median %8.2f ms, min %8.2f ms", name, times[ RUNS / 2 ], times[ 0 ] ) );
+	}
+
+	/**
+	 * Creates a forest of lineages, where each vertex has one or two (with
+	 * probability 0.05) children. All roots are attached to a common first
+	 * vertex so that the graph is connected.
+	 */
+	private static TestSimpleGraph createLineages( final int nVertices, final int nRoots, final Random random )
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph( nVertices );
+		final TestSimpleVertex ref1 = graph.vertexRef();
+		final TestSimpleVertex ref2 = graph.vertexRef();
+		final TestSimpleEdge eref = graph.edgeRef();
+
+		final int[] leaves = new int[ nVertices ];
+		int nLeaves = 0;
+		final TestSimpleVertex top = graph.addVertex( ref1 ).init( 0 );
+		for ( int i = 0; i < nRoots; i++ )
+		{
+			final TestSimpleVertex root = graph.addVertex( ref2 ).init( i + 1 );
+			graph.addEdge( top, root, eref );
+			leaves[ nLeaves++ ] = root.getInternalPoolIndex();
+		}
+		int id = nRoots + 1;
+		while ( id < nVertices && nLeaves > 0 )
+		{
+			// Extend a random lineage.
+			final int l = random.nextInt( nLeaves );
+			final TestSimpleVertex parent = graph.getVertexPool().getObject( leaves[ l ], ref1 );
+			final TestSimpleVertex child = graph.addVertex( ref2 ).init( id++ );
+			graph.addEdge( parent, child, eref );
+			leaves[ l ] = child.getInternalPoolIndex();
+			if ( random.nextDouble() < 0.05 && id < nVertices )
+			{
+				final TestSimpleVertex sibling = graph.addVertex( ref2 ).init( id++ );
+				graph.addEdge( parent, sibling, eref );
+				leaves[ nLeaves++ ] = sibling.getInternalPoolIndex();
+			}
+		}
+
+		graph.releaseRef( ref1 );
+		graph.releaseRef( ref2 );
+		graph.releaseRef( eref );
+		return graph;
+	}
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.graph.ListenableTestEdge;
+import org.mastodon.graph.ListenableTestGraph;
+import org.mastodon.graph.ListenableTestVertex;
+import org.mastodon.graph.algorithm.util.DenseIndex;
+
+public class IteratorPruningTest
+{
+	private ListenableTestGraph graph;
+
+	private ListenableTestVertex root;
+
+	private ListenableTestVertex c;
+
+	/**
+	 * <pre>
+	 * t=0        0
+	 *           / \
+	 * t=1      1   4
+	 *          |   |
+	 * t=2      2   5
+	 *          |
+	 * t=3      3
+	 * </pre>
+	 */
+	@Before
+	public void setUp()
+	{
+		graph = new ListenableTestGraph();
+		root = graph.addVertex().init( 0, 0 );
+		final ListenableTestVertex a = graph.addVertex().init( 1, 1 );
+		final ListenableTestVertex b = graph.addVertex().init( 2, 2 );
+		c = graph.addVertex().init( 3, 3 );
+		final ListenableTestVertex d = graph.addVertex().init( 4, 1 );
+		final ListenableTestVertex e = graph.addVertex().init( 5, 2 );
+		graph.addEdge( root, a );
+		graph.addEdge( a, b );
+		graph.addEdge( b, c );
+		graph.addEdge( root, d );
+		graph.addEdge( d, e );
+	}
+
+	@Test
+	public void testMaxDepth()
+	{
+		final BreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new BreadthFirstIterator<>( root, graph );
+		it.setMaxDepth( 1 );
+		assertEquals( "Unexpected vertices within depth 1.", Arrays.asList( 0, 1, 4 ), ids( it ) );
+	}
+
+	@Test
+	public void testMaxDepthZero()
+	{
+		final DepthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new DepthFirstIterator<>( graph );
+		it.setMaxDepth( 0 );
+		it.reset( root );
+		assertEquals( "Only the start vertex should be iterated.", Arrays.asList( 0 ), ids( it ) );
+	}
+
+	@Test
+	public void testTimepointRange()
+	{
+		final BreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new BreadthFirstIterator<>( root, graph );
+		it.setTimepointRange( Integer.MIN_VALUE, 1 );
+		assertEquals( "Unexpected vertices up to timepoint 1.", Arrays.asList( 0, 1, 4 ), ids( it ) );
+
+		final InverseBreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > iit = new InverseBreadthFirstIterator<>( c, graph );
+		iit.setTimepointRange( 2, Integer.MAX_VALUE );
+		assertEquals( "Unexpected ancestors down to timepoint 2.", Arrays.asList( 3, 2 ), ids( iit ) );
+	}
+
+	@Test
+	public void testVertexFilter()
+	{
+		final BreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new BreadthFirstIterator<>( root, graph );
+		it.setVertexFilter( v -> v.getId() != 1 );
+		assertEquals( "The branch behind a rejected vertex should be pruned.", Arrays.asList( 0, 4, 5 ), ids( it ) );
+	}
+
+	@Test
+	public void testVertexMask()
+	{
+		final DenseIndex< ListenableTestVertex > index = DenseIndex.create( graph.vertices() );
+		final BitSet mask = new BitSet();
+		for ( final ListenableTestVertex v : graph.vertices() )
+			if ( v.getId() != 4 )
+				mask.set( index.indexOf( v ) );
+
+		final BreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new BreadthFirstIterator<>( root, graph );
+		it.setVertexMask( index, mask );
+		assertEquals( "The branch behind a masked vertex should be pruned.", Arrays.asList( 0, 1, 2, 3 ), ids( it ) );
+	}
+
+	@Test
+	public void testEdgeFilter()
+	{
+		final BreadthFirstIterator< ListenableTestVertex, ListenableTestEdge > it = new BreadthFirstIterator<>( root, graph );
+		final ListenableTestVertex ref = graph.vertexRef();
+		it.setEdgeFilter( e -> e.getTarget( ref ).getId() != 2 );
+		assertEquals( "The branch behind a rejected edge should be pruned.", Arrays.asList( 0, 1, 4, 5 ), ids( it ) );
+	}
+
+	private static List< Integer > ids( final AbstractGraphIteratorAlgorithm< ListenableTestVertex, ListenableTestEdge > it )
+	{
+		final List< Integer > ids = new ArrayList<>();
+		while ( it.hasNext() )
+			ids.add( it.next().getId() );
+		return ids;
+	}
+}
@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+
+public class IteratorStreamTest
+{
+	@Test
+	public void testStream()
+	{
+		final TestSimpleGraph graph = createBinaryTree( 15 );
+		final TestSimpleVertex root = graph.vertices().iterator().next();
+
+		final List< TestSimpleVertex > vertices = new BreadthFirstIterator<>( root, graph ).stream().collect( Collectors.toList() );
+		final List< Integer > ids = new ArrayList<>();
+		for ( final TestSimpleVertex v : vertices )
+			ids.add( v.getId() );
+		final List< Integer > expected = new ArrayList<>();
+		for ( int i = 0; i < 15; i++ )
+			expected.add( i );
+		assertEquals( "Collected vertices should be distinct objects in iteration order.", expected, ids );
+	}
+
+	@Test
+	public void testShortCircuit()
+	{
+		final TestSimpleGraph graph = createBinaryTree( 1000 );
+		final TestSimpleVertex root = graph.vertices().iterator().next();
+
+		final BreadthFirstIterator< TestSimpleVertex, TestSimpleEdge > it = new BreadthFirstIterator<>( root, graph );
+		final int[] tested = new int[ 1 ];
+		it.setVertexFilter( v -> ++tested[ 0 ] > 0 );
+		final int first = it.stream().filter( v -> v.getId() == 5 ).findFirst().get().getId();
+		assertEquals( "Unexpected vertex found.", 5, first );
+		assertTrue( "The traversal should have stopped early.", tested[ 0 ] < 20 );
+		assertTrue( "The iteration should continue after the stream.", it.hasNext() );
+	}
+
+	@Test
+	public void testIndices()
+	{
+		final TestSimpleGraph graph = createBinaryTree( 7 );
+		final TestSimpleVertex root = graph.vertices().iterator().next();
+
+		final int[] indices = new DepthFirstIterator<>( root, graph ).indices().limit( 3 ).toArray();
+		final int[] expected = new int[ 3 ];
+		final DepthFirstIterator< TestSimpleVertex, TestSimpleEdge > it = new DepthFirstIterator<>( root, graph );
+		for ( int i = 0; i < 3; i++ )
+			expected[ i ] = it.next().getInternalPoolIndex();
+		assertArrayEquals( "Unexpected pool indices.", expected, indices );
+	}
+
+	/**
+	 * Creates a binary tree where vertex {@code i} is the parent of vertices
+	 * {@code 2i+1} and {@code 2i+2}.
+	 */
+	private static TestSimpleGraph createBinaryTree( final int n )
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > vertices = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			vertices.add( graph.addVertex().init( i ) );
+		for ( int i = 1; i < n; i++ )
+			graph.addEdge( vertices.get( ( i - 1 ) / 2 ), vertices.get( i ) );
+		return graph;
+	}
+}
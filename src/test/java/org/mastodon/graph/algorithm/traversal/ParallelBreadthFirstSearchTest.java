@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.traversal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleEdge;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+import org.mastodon.graph.algorithm.traversal.GraphSearch.SearchDirection;
+import org.mastodon.graph.algorithm.traversal.GraphsForTests.GraphTestBundle;
+
+public class ParallelBreadthFirstSearchTest
+{
+	@Test
+	public void testWpExample()
+	{
+		final GraphTestBundle< TestSimpleVertex, TestSimpleEdge > bundle = GraphsForTests.wpExamplePoolObjects();
+		final TestSimpleVertex A = bundle.vertices.get( 0 );
+		final BreadthFirstTree< TestSimpleVertex > tree = new ParallelBreadthFirstSearch<>( bundle.graph, SearchDirection.DIRECTED, 2 ).search( A );
+
+		// A -> B, C, E -> D, F, G
+		final int[] expected = new int[] { 0, 1, 1, 2, 1, 2, 2 };
+		for ( int i = 0; i < expected.length; i++ )
+			assertEquals( "Unexpected depth for vertex " + bundle.vertices.get( i ), expected[ i ], tree.getDepth( bundle.vertices.get( i ) ) );
+		assertEquals( "Unexpected number of reached vertices.", 7, tree.getNumReached() );
+		assertEquals( "Unexpected maximal depth.", 2, tree.getMaxDepth() );
+
+		final TestSimpleVertex ref = bundle.graph.vertexRef();
+		assertNull( "The source should not have a parent.", tree.getParent( A, ref ) );
+		assertEquals( "Unexpected parent.", bundle.vertices.get( 1 ), tree.getParent( bundle.vertices.get( 3 ), ref ) );
+		bundle.graph.releaseRef( ref );
+	}
+
+	@Test
+	public void testNearestSeeds()
+	{
+		// 0 - 1 - 2 - 3 - 4 - 5 - 6, with seeds 0 and 5.
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > vertices = new ArrayList<>();
+		for ( int i = 0; i < 7; i++ )
+			vertices.add( graph.addVertex().init( i ) );
+		for ( int i = 1; i < 7; i++ )
+			graph.addEdge( vertices.get( i - 1 ), vertices.get( i ) );
+
+		final BreadthFirstTree< TestSimpleVertex > tree = new ParallelBreadthFirstSearch<>( graph, SearchDirection.UNDIRECTED, 1 )
+				.search( Arrays.asList( vertices.get( 0 ), vertices.get( 5 ) ) );
+
+		final int[] expectedSeeds = new int[] { 0, 0, 0, 5, 5, 5, 5 };
+		final int[] expectedDepths = new int[] { 0, 1, 2, 2, 1, 0, 1 };
+		final TestSimpleVertex ref = graph.vertexRef();
+		for ( int i = 0; i < 7; i++ )
+		{
+			assertEquals( "Unexpected seed for vertex " + i, expectedSeeds[ i ], tree.getSeed( vertices.get( i ), ref ).getId() );
+			assertEquals( "Unexpected depth for vertex " + i, expectedDepths[ i ], tree.getDepth( vertices.get( i ) ) );
+		}
+		graph.releaseRef( ref );
+	}
+
+	@Test
+	public void testRandomGraph()
+	{
+		final Random random = new Random( 1l );
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final int n = 50000;
+		final List< TestSimpleVertex > vertices = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			vertices.add( graph.addVertex().init( i ) );
+		final List< List< Integer > > neighbors = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			neighbors.add( new ArrayList<>() );
+		for ( int k = 0; k < 3 * n; k++ )
+		{
+			final int s = random.nextInt( n );
+			final int t = random.nextInt( n );
+			graph.addEdge( vertices.get( s ), vertices.get( t ) );
+			neighbors.get( s ).add( t );
+			neighbors.get( t ).add( s );
+		}
+
+		// Reference sequential BFS from two sources.
+		final int[] expected = new int[ n ];
+		Arrays.fill( expected, -1 );
+		final ArrayDeque< Integer > queue = new ArrayDeque<>();
+		for ( final int s : new int[] { 0, 1 } )
+		{
+			expected[ s ] = 0;
+			queue.add( s );
+		}
+		while ( !queue.isEmpty() )
+		{
+			final int v = queue.poll();
+			for ( final int t : neighbors.get( v ) )
+				if ( expected[ t ] < 0 )
+				{
+					expected[ t ] = expected[ v ] + 1;
+					queue.add( t );
+				}
+		}
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final BreadthFirstTree< TestSimpleVertex > tree = new ParallelBreadthFirstSearch<>( graph, SearchDirection.UNDIRECTED, numThreads )
+					.search( Arrays.asList( vertices.get( 0 ), vertices.get( 1 ) ) );
+			final TestSimpleVertex ref = graph.vertexRef();
+			for ( int i = 0; i < n; i++ )
+			{
+				final TestSimpleVertex v = vertices.get( i );
+				assertEquals( "Unexpected depth.", expected[ i ], tree.getDepth( v ) );
+				final TestSimpleVertex parent = tree.getParent( v, ref );
+				if ( expected[ i ] > 0 )
+					assertEquals( "Parent should be one level up.", expected[ i ] - 1, tree.getDepth( parent ) );
+			}
+			graph.releaseRef( ref );
+		}
+	}
+}
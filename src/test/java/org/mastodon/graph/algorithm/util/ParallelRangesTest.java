@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+import org.mastodon.graph.algorithm.util.ParallelRanges.RangeWorker;
+
+public class ParallelRangesTest
+{
+
+	private static final int N_THREADS = 4;
+
+	@Test
+	public void testPoolReusesThreads()
+	{
+		final Set< Thread > threads = Collections.synchronizedSet( new HashSet<>() );
+		try (final ParallelRanges.Pool pool = new ParallelRanges.Pool( N_THREADS ))
+		{
+			for ( int n = 0; n < 5000; n += 37 )
+			{
+				final AtomicIntegerArray counts = new AtomicIntegerArray( n );
+				final List< RangeWorker > workers = new ArrayList<>();
+				for ( int t = 0; t < N_THREADS; t++ )
+				{
+					workers.add( ( from, to ) -> {
+						threads.add( Thread.currentThread() );
+						for ( int i = from; i < to; i++ )
+							counts.incrementAndGet( i );
+					} );
+				}
+				pool.run( n, 16, workers );
+				for ( int i = 0; i < n; i++ )
+					assertEquals( "Index " + i + " should be processed once.", 1, counts.get( i ) );
+			}
+		}
+		assertTrue( "Threads should be reused across runs.", threads.size() <= N_THREADS );
+	}
+
+	@Test
+	public void testSingleChunkRunsInline()
+	{
+		final Thread caller = Thread.currentThread();
+		final int[] calls = new int[ N_THREADS ];
+		final List< RangeWorker > workers = new ArrayList<>();
+		for ( int t = 0; t < N_THREADS; t++ )
+		{
+			final int worker = t;
+			workers.add( ( from, to ) -> {
+				assertEquals( "A single chunk should be processed in the calling thread.", caller, Thread.currentThread() );
+				assertEquals( "A single chunk should cover the whole range.", 100, to - from );
+				calls[ worker ]++;
+			} );
+		}
+
+		ParallelRanges.run( 100, 256, workers );
+		try (final ParallelRanges.Pool pool = new ParallelRanges.Pool( N_THREADS ))
+		{
+			pool.run( 100, 256, workers );
+		}
+		assertEquals( "The first worker should process the single chunk.", 2, calls[ 0 ] );
+		for ( int t = 1; t < N_THREADS; t++ )
+			assertEquals( "Other workers should not be called.", 0, calls[ t ] );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testPoolRethrows()
+	{
+		final List< RangeWorker > workers = new ArrayList<>();
+		for ( int t = 0; t < N_THREADS; t++ )
+		{
+			workers.add( ( from, to ) -> {
+				if ( from <= 500 && 500 < to )
+					throw new IllegalStateException();
+			} );
+		}
+		try (final ParallelRanges.Pool pool = new ParallelRanges.Pool( N_THREADS ))
+		{
+			pool.run( 1000, 1, workers );
+		}
+	}
+}
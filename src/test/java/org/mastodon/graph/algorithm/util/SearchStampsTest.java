@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.algorithm.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.graph.TestSimpleGraph;
+import org.mastodon.graph.TestSimpleVertex;
+
+/**
+ * Tests the generation stamps of {@link SearchStamps} through the pool-backed
+ * {@link SearchMarks} and {@link SearchIntValues}.
+ */
+public class SearchStampsTest
+{
+
+	private static final int NO_ENTRY = -1;
+
+	@Test
+	public void testMarks()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final SearchMarks< TestSimpleVertex > marks = SearchMarks.create( graph.vertices() );
+		// More vertices than the initial capacity, to grow the stamps.
+		final List< TestSimpleVertex > vs = vertices( graph, 40 );
+
+		for ( int i = 0; i < vs.size(); i += 2 )
+			assertTrue( "Adding an unmarked vertex should return true.", marks.add( vs.get( i ) ) );
+		assertFalse( "Adding a marked vertex should return false.", marks.add( vs.get( 0 ) ) );
+		for ( int i = 0; i < vs.size(); i++ )
+			assertEquals( "Unexpected mark of vertex " + i + ".", i % 2 == 0, marks.contains( vs.get( i ) ) );
+
+		assertTrue( "Removing a marked vertex should return true.", marks.remove( vs.get( 2 ) ) );
+		assertFalse( "Removing an unmarked vertex should return false.", marks.remove( vs.get( 2 ) ) );
+		assertFalse( "Removing an unmarked vertex should return false.", marks.remove( vs.get( 3 ) ) );
+		assertFalse( "A removed vertex should not be marked.", marks.contains( vs.get( 2 ) ) );
+
+		marks.clear();
+		for ( int i = 0; i < vs.size(); i++ )
+			assertFalse( "No vertex should be marked after clear.", marks.contains( vs.get( i ) ) );
+		assertTrue( "A vertex marked before clear should be marked again.", marks.add( vs.get( 0 ) ) );
+		assertTrue( "Vertex should be marked.", marks.contains( vs.get( 0 ) ) );
+	}
+
+	@Test
+	public void testValues()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final SearchIntValues< TestSimpleVertex > values = SearchIntValues.create( graph.vertices(), NO_ENTRY );
+		final List< TestSimpleVertex > vs = vertices( graph, 40 );
+
+		for ( int i = 0; i < vs.size(); i += 2 )
+			values.put( vs.get( i ), 10 * i );
+		values.put( vs.get( 4 ), 0 );
+		for ( int i = 0; i < vs.size(); i++ )
+		{
+			final int expected = i == 4 ? 0 : i % 2 == 0 ? 10 * i : NO_ENTRY;
+			assertEquals( "Unexpected value of vertex " + i + ".", expected, values.get( vs.get( i ) ) );
+		}
+
+		values.clear();
+		for ( int i = 0; i < vs.size(); i++ )
+			assertEquals( "No vertex should have a value after clear.", NO_ENTRY, values.get( vs.get( i ) ) );
+		values.put( vs.get( 1 ), 3 );
+		assertEquals( "Unexpected value after clear.", 3, values.get( vs.get( 1 ) ) );
+	}
+
+	@Test
+	public void testEpochOverflow()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > vs = vertices( graph, 3 );
+		final SearchMarks< TestSimpleVertex > marks = SearchMarks.create( graph.vertices() );
+		marks.setEpoch( Integer.MAX_VALUE );
+
+		// The epoch goes from Integer.MAX_VALUE to Integer.MIN_VALUE.
+		marks.add( vs.get( 0 ) );
+		marks.add( vs.get( 1 ) );
+		marks.clear();
+		assertFalse( "No vertex should be marked after clear.", marks.contains( vs.get( 0 ) ) );
+		assertFalse( "No vertex should be marked after clear.", marks.contains( vs.get( 1 ) ) );
+		assertTrue( "Adding an unmarked vertex should return true.", marks.add( vs.get( 1 ) ) );
+		assertTrue( "Removing a marked vertex should return true.", marks.remove( vs.get( 1 ) ) );
+		assertFalse( "A removed vertex should not be marked.", marks.contains( vs.get( 1 ) ) );
+		assertFalse( "A vertex never marked should not be marked.", marks.contains( vs.get( 2 ) ) );
+	}
+
+	@Test
+	public void testMarksEpochWrap()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > vs = vertices( graph, 4 );
+		final SearchMarks< TestSimpleVertex > marks = SearchMarks.create( graph.vertices() );
+
+		// Stamped with epoch 1, which comes back after the wrap.
+		marks.add( vs.get( 0 ) );
+		marks.setEpoch( -1 );
+		assertFalse( "A vertex marked in an old epoch should not be marked.", marks.contains( vs.get( 0 ) ) );
+		marks.add( vs.get( 1 ) );
+		marks.add( vs.get( 2 ) );
+		marks.remove( vs.get( 2 ) );
+
+		// The epoch wraps around: all stamps must be reset.
+		marks.clear();
+		for ( int i = 0; i < vs.size(); i++ )
+			assertFalse( "No vertex should be marked after the epoch wraps.", marks.contains( vs.get( i ) ) );
+		assertTrue( "Adding an unmarked vertex should return true.", marks.add( vs.get( 0 ) ) );
+		assertTrue( "Removing a marked vertex should return true.", marks.remove( vs.get( 0 ) ) );
+		assertFalse( "Removing an unmarked vertex should return false.", marks.remove( vs.get( 3 ) ) );
+		for ( int i = 0; i < vs.size(); i++ )
+			assertFalse( "No vertex should be marked.", marks.contains( vs.get( i ) ) );
+	}
+
+	@Test
+	public void testValuesEpochWrap()
+	{
+		final TestSimpleGraph graph = new TestSimpleGraph();
+		final List< TestSimpleVertex > vs = vertices( graph, 3 );
+		final SearchIntValues< TestSimpleVertex > values = SearchIntValues.create( graph.vertices(), NO_ENTRY );
+
+		// Stamped with epoch 1, which comes back after the wrap.
+		values.put( vs.get( 0 ), 5 );
+		values.setEpoch( -1 );
+		assertEquals( "A value of an old epoch should be absent.", NO_ENTRY, values.get( vs.get( 0 ) ) );
+		values.put( vs.get( 1 ), 7 );
+
+		// The epoch wraps around: all stamps must be reset.
+		values.clear();
+		for ( int i = 0; i < vs.size(); i++ )
+			assertEquals( "No vertex should have a value after the epoch wraps.", NO_ENTRY, values.get( vs.get( i ) ) );
+		values.put( vs.get( 2 ), 9 );
+		assertEquals( "Unexpected value after the epoch wraps.", 9, values.get( vs.get( 2 ) ) );
+	}
+
+	private static List< TestSimpleVertex > vertices( final TestSimpleGraph graph, final int n )
+	{
+		final List< TestSimpleVertex > vertices = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			vertices.add( graph.addVertex().init( i ) );
+		return vertices;
+	}
+}
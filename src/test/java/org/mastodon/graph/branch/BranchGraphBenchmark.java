@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefRefMap;
+import org.mastodon.graph.ListenableTestEdge;
+import org.mastodon.graph.ListenableTestGraph;
+import org.mastodon.graph.ListenableTestVertex;
+
+/**
+ * Compares the memory footprint and the lookup throughput of the dense,
+ * pool-index-keyed {@link LinkMap} used by {@link BranchGraphImp} with the
+ * {@link RefRefMap} it replaces, on a large lineage-like graph.
+ * <p>
+ * Both maps hold the same links, from every linked vertex inside a branch to
+ * its branch edge, which is the largest of the branch graph mappings. The
+ * last benchmark times {@link BranchGraphImp#getBranchEdge(Object, Object)}
+ * and {@link BranchGraphImp#getBranchVertex(Object, Object)} for every linked
+ * vertex, as done when rendering all spots. Run with a large heap, e.g.
+ * {@code -Xmx16g}. The number of linked vertices, 10 million by default, can
+ * be given as first argument.
+ */
+public class BranchGraphBenchmark
+{
+	private static final int N_VERTICES = 10_000_000;
+
+	private static final int N_ROOTS = 1000;
+
+	private static final double DIVISION_PROBABILITY = 0.01;
+
+	private static final int WARMUP = 3;
+
+	private static final int RUNS = 10;
+
+	public static void main( final String[] args )
+	{
+		final int nVertices = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : N_VERTICES;
+		final ListenableTestGraph graph = createLineages( nVertices, N_ROOTS, new Random( 1l ) );
+		final long t0 = System.nanoTime();
+		final BranchTestGraph bg = new BranchTestGraph( graph, new BranchTestEdgePool( nVertices / 10, new BranchTestVertexPool( nVertices / 10 ) ) );
+		System.out.println( String.format( "Graph with %d vertices and %d edges.", graph.vertices().size(), graph.edges().size() ) );
+		System.out.println( String.format( "Branch graph with %d vertices and %d edges, built in %.2f ms.",
+				bg.vertices().size(), bg.edges().size(), ( System.nanoTime() - t0 ) / 1e6 ) );
+
+		final long m0 = usedMemory();
+		final LinkMap< ListenableTestVertex, BranchTestEdge > dense = LinkMap.create( graph.vertices(), bg.edges() );
+		fill( dense, graph, bg );
+		final long m1 = usedMemory();
+		final RefRefMap< ListenableTestVertex, BranchTestEdge > hash = RefMaps.createRefRefMap( graph.vertices(), bg.edges() );
+		fill( hash, graph, bg );
+		final long m2 = usedMemory();
+		System.out.println( String.format( "Vertex to branch edge links: dense %.1f MB, hash %.1f MB.",
+				( m1 - m0 ) / 1e6, ( m2 - m1 ) / 1e6 ) );
+
+		final ListenableTestVertex vref = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+		final BranchTestEdge beref = bg.edgeRef();
+		final BranchTestVertex bvref = bg.vertexRef();
+		benchmark( "Lookups, dense", () -> {
+			int n = 0;
+			for ( final ListenableTestVertex v : graph.vertices() )
+				if ( dense.get( v, beref ) != null )
+					n++;
+			return n;
+		} );
+		benchmark( "Lookups, hash", () -> {
+			int n = 0;
+			for ( final ListenableTestVertex v : graph.vertices() )
+				if ( hash.get( v, beref ) != null )
+					n++;
+			return n;
+		} );
+		benchmark( "BranchGraph lookups", () -> {
+			int n = 0;
+			for ( final ListenableTestVertex v : graph.vertices() )
+			{
+				if ( bg.getBranchVertex( v, bvref ) != null )
+					bg.getLinkedVertex( bvref, vref );
+				else
+					bg.getLinkedEdge( bg.getBranchEdge( v, beref ), eref );
+				n++;
+			}
+			return n;
+		} );
+	}
+
+	private static void fill( final LinkMap< ListenableTestVertex, BranchTestEdge > map, final ListenableTestGraph graph, final BranchTestGraph bg )
+	{
+		final BranchTestEdge ref = bg.edgeRef();
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final BranchTestEdge be = bg.getBranchEdge( v, ref );
+			if ( be != null )
+				map.put( v, be );
+		}
+		bg.releaseRef( ref );
+	}
+
+	private static void fill( final RefRefMap< ListenableTestVertex, BranchTestEdge > map, final ListenableTestGraph graph, final BranchTestGraph bg )
+	{
+		final BranchTestEdge ref = bg.edgeRef();
+		final BranchTestEdge ref2 = bg.edgeRef();
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final BranchTestEdge be = bg.getBranchEdge( v, ref );
+			if ( be != null )
+				map.put( v, be, ref2 );
+		}
+		bg.releaseRef( ref );
+		bg.releaseRef( ref2 );
+	}
+
+	private static long usedMemory()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for ( int i = 0; i < 3; i++ )
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private interface Task
+	{
+		public int run();
+	}
+
+	private static void benchmark( final String name, final Task task )
+	{
+		for ( int i = 0; i < WARMUP; i++ )
+			task.run();
+		final double[] times = new double[ RUNS ];
+		for ( int i = 0; i < RUNS; i++ )
+		{
+			final long start = System.nanoTime();
+			task.run();
+			times[ i ] = ( System.nanoTime() - start ) / 1e6;
+		}
+		Arrays.sort( times );
+		System.out.println( String.format( "%-25s median %8.2f ms, min %8.2f ms", name, times[ RUNS / 2 ], times[ 0 ] ) );
+	}
+
+	/**
+	 * Creates a forest of lineages, where each vertex has one or two (with
+	 * probability {@value #DIVISION_PROBABILITY}) children.
+	 */
+	private static ListenableTestGraph createLineages( final int nVertices, final int nRoots, final Random random )
+	{
+		final ListenableTestGraph graph = new ListenableTestGraph( nVertices );
+		final ListenableTestVertex ref1 = graph.vertexRef();
+		final ListenableTestVertex ref2 = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+
+		final int[] leaves = new int[ nVertices ];
+		int nLeaves = 0;
+		int id = 0;
+		for ( int i = 0; i < nRoots; i++ )
+		{
+			final ListenableTestVertex root = graph.addVertex( ref2 ).init( id++, 0 );
+			leaves[ nLeaves++ ] = root.getInternalPoolIndex();
+		}
+		while ( id < nVertices )
+		{
+			// Extend a random lineage.
+			final int l = random.nextInt( nLeaves );
+			final ListenableTestVertex parent = graph.getVertexPool().getObject( leaves[ l ], ref1 );
+			final ListenableTestVertex child = graph.addVertex( ref2 ).init( id++, parent.getTimepoint() + 1 );
+			graph.addEdge( parent, child, eref ).init();
+			leaves[ l ] = child.getInternalPoolIndex();
+			if ( random.nextDouble() < DIVISION_PROBABILITY && id < nVertices )
+			{
+				final ListenableTestVertex sibling = graph.addVertex( ref2 ).init( id++, parent.getTimepoint() + 1 );
+				graph.addEdge( parent, sibling, eref ).init();
+				leaves[ nLeaves++ ] = sibling.getInternalPoolIndex();
+			}
+		}
+
+		graph.releaseRef( ref1 );
+		graph.releaseRef( ref2 );
+		graph.releaseRef( eref );
+		return graph;
+	}
+}
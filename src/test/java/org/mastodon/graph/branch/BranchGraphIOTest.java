@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.graph.ListenableTestEdge;
+import org.mastodon.graph.ListenableTestGraph;
+import org.mastodon.graph.ListenableTestVertex;
+import org.mastodon.graph.io.GraphSerializer;
+import org.mastodon.graph.io.RawGraphIO;
+import org.mastodon.graph.io.RawGraphIO.FileIdToGraphMap;
+import org.mastodon.graph.io.RawGraphIO.GraphToFileIdMap;
+import org.mastodon.io.AttributeSerializer;
+
+public class BranchGraphIOTest
+{
+
+	@Test
+	public void testReadWrite() throws IOException
+	{
+		final LoadableTestGraph graph = createGraph();
+		final BranchTestGraph bg = new BranchTestGraph( graph, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		final byte[] bytes = write( graph, bg );
+
+		final LoadableTestGraph loaded = new LoadableTestGraph();
+		final BranchTestGraph lbg = new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		final RebuiltCounter counter = new RebuiltCounter();
+		lbg.addGraphListener( counter );
+		try (final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ) ))
+		{
+			loaded.pause();
+			final FileIdToGraphMap< ListenableTestVertex, ListenableTestEdge > fileIdMap = RawGraphIO.read( loaded, idmap( loaded ), new TestGraphSerializer(), ois );
+			assertNotNull( "The branches should be read.", BranchGraphIO.read( lbg, fileIdMap, ois ) );
+			loaded.resume();
+		}
+		assertEquals( "The branch graph should not be rebuilt after reading.", 1, counter.rebuilt );
+		assertSameBranches( loaded, new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) ), lbg );
+
+		// The branch graph read is maintained as usual.
+		final ListenableTestVertex v = loaded.vertices().iterator().next();
+		loaded.addEdge( v, loaded.addVertex().init( 100, 100 ) ).init();
+		assertSameBranches( loaded, new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) ), lbg );
+	}
+
+	@Test
+	public void testChecksumMismatch() throws IOException
+	{
+		final LoadableTestGraph graph = createGraph();
+		final BranchTestGraph bg = new BranchTestGraph( graph, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		final byte[] bytes = write( graph, bg );
+
+		final LoadableTestGraph loaded = new LoadableTestGraph();
+		final BranchTestGraph lbg = new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		final RebuiltCounter counter = new RebuiltCounter();
+		lbg.addGraphListener( counter );
+		try (final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ) ))
+		{
+			loaded.pause();
+			final FileIdToGraphMap< ListenableTestVertex, ListenableTestEdge > fileIdMap = RawGraphIO.read( loaded, idmap( loaded ), new TestGraphSerializer(), ois );
+			// The linked graph differs from the one the branches were written for.
+			final ListenableTestVertex v = loaded.vertices().iterator().next();
+			loaded.addEdge( v, loaded.addVertex().init( 100, 100 ) ).init();
+			assertNull( "The branches should not be read.", BranchGraphIO.read( lbg, fileIdMap, ois ) );
+			assertEquals( "The whole stream should be consumed.", 0, ois.available() );
+			loaded.resume();
+		}
+		assertEquals( "The branch graph should be rebuilt once.", 1, counter.rebuilt );
+		assertSameBranches( loaded, new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) ), lbg );
+	}
+
+	@Test
+	public void testRestoreNotFollowedByResume() throws IOException
+	{
+		final LoadableTestGraph graph = createGraph();
+		final BranchTestGraph bg = new BranchTestGraph( graph, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		final byte[] bytes = write( graph, bg );
+
+		final LoadableTestGraph loaded = new LoadableTestGraph();
+		final BranchTestGraph lbg = new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) );
+		try (final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ) ))
+		{
+			loaded.pause();
+			final FileIdToGraphMap< ListenableTestVertex, ListenableTestEdge > fileIdMap = RawGraphIO.read( loaded, idmap( loaded ), new TestGraphSerializer(), ois );
+			loaded.resume();
+			// Read while the linked graph listeners are not paused.
+			assertNotNull( "The branches should be read.", BranchGraphIO.read( lbg, fileIdMap, ois ) );
+		}
+
+		// Same number of vertices and edges, different structure.
+		loaded.pause();
+		final ListenableTestVertex v = loaded.vertices().iterator().next();
+		loaded.remove( v.outgoingEdges().iterator().next() );
+		final ListenableTestVertex source = loaded.vertices().iterator().next();
+		ListenableTestVertex target = null;
+		for ( final ListenableTestVertex w : loaded.vertices() )
+			if ( w.incomingEdges().isEmpty() && !w.equals( source ) )
+				target = w;
+		loaded.addEdge( source, target ).init();
+		loaded.resume();
+		assertSameBranches( loaded, new BranchTestGraph( loaded, new BranchTestEdgePool( 10, new BranchTestVertexPool( 10 ) ) ), lbg );
+	}
+
+	/**
+	 * Creates a lineage with divisions, a merge, a cycle without branch
+	 * extremities and an isolated vertex.
+	 */
+	private static LoadableTestGraph createGraph()
+	{
+		final LoadableTestGraph graph = new LoadableTestGraph();
+		final ListenableTestVertex[] vs = new ListenableTestVertex[ 14 ];
+		for ( int i = 0; i < vs.length; i++ )
+			vs[ i ] = graph.addVertex().init( i, i );
+		graph.addEdge( vs[ 0 ], vs[ 1 ] ).init();
+		graph.addEdge( vs[ 1 ], vs[ 2 ] ).init();
+		graph.addEdge( vs[ 2 ], vs[ 3 ] ).init();
+		graph.addEdge( vs[ 3 ], vs[ 4 ] ).init();
+		graph.addEdge( vs[ 2 ], vs[ 5 ] ).init();
+		graph.addEdge( vs[ 5 ], vs[ 6 ] ).init();
+		graph.addEdge( vs[ 6 ], vs[ 7 ] ).init();
+		graph.addEdge( vs[ 4 ], vs[ 7 ] ).init();
+		graph.addEdge( vs[ 7 ], vs[ 8 ] ).init();
+		graph.addEdge( vs[ 9 ], vs[ 10 ] ).init();
+		graph.addEdge( vs[ 10 ], vs[ 11 ] ).init();
+		graph.addEdge( vs[ 11 ], vs[ 12 ] ).init();
+		graph.addEdge( vs[ 12 ], vs[ 9 ] ).init();
+		return graph;
+	}
+
+	private static byte[] write( final LoadableTestGraph graph, final BranchTestGraph bg ) throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream( bos ))
+		{
+			final GraphToFileIdMap< ListenableTestVertex, ListenableTestEdge > fileIdMap = RawGraphIO.write( graph, idmap( graph ), new TestGraphSerializer(), oos );
+			BranchGraphIO.write( bg, fileIdMap, oos );
+		}
+		return bos.toByteArray();
+	}
+
+	private static GraphIdBimap< ListenableTestVertex, ListenableTestEdge > idmap( final LoadableTestGraph graph )
+	{
+		return new GraphIdBimap<>( graph.getVertexPool(), graph.getEdgePool() );
+	}
+
+	/**
+	 * Checks that two branch graphs of the specified linked graph have the
+	 * same branches.
+	 */
+	private static void assertSameBranches( final ListenableTestGraph graph, final BranchTestGraph expected, final BranchTestGraph actual )
+	{
+		assertEquals( "Unexpected number of branch vertices.", expected.vertices().size(), actual.vertices().size() );
+		assertEquals( "Unexpected number of branch edges.", expected.edges().size(), actual.edges().size() );
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final boolean isExtremity = expected.getBranchVertex( v, expected.vertexRef() ) != null;
+			assertEquals( "Unexpected branch extremity.", isExtremity, actual.getBranchVertex( v, actual.vertexRef() ) != null );
+			assertEquals( "Unexpected branch position.", expected.getBranchPosition( v ), actual.getBranchPosition( v ) );
+		}
+		for ( final ListenableTestEdge e : graph.edges() )
+		{
+			final BranchTestEdge ebe = expected.getBranchEdge( e, expected.edgeRef() );
+			final BranchTestEdge be = actual.getBranchEdge( e, actual.edgeRef() );
+			assertNotNull( "Each edge should be linked to a branch edge.", be );
+			assertEquals( "Branch edges should start with the same linked edge.",
+					expected.getLinkedEdge( ebe, graph.edgeRef() ), actual.getLinkedEdge( be, graph.edgeRef() ) );
+			assertEquals( "Unexpected branch length.", expected.getBranchLength( ebe ), actual.getBranchLength( be ) );
+		}
+	}
+
+	private static final class LoadableTestGraph extends ListenableTestGraph
+	{
+		private void pause()
+		{
+			pauseListeners();
+		}
+
+		private void resume()
+		{
+			resumeListeners();
+		}
+	}
+
+	private static final class TestGraphSerializer implements GraphSerializer< ListenableTestVertex, ListenableTestEdge >
+	{
+		@Override
+		public AttributeSerializer< ListenableTestVertex > getVertexSerializer()
+		{
+			return new AttributeSerializer< ListenableTestVertex >()
+			{
+				@Override
+				public int getNumBytes()
+				{
+					return 8;
+				}
+
+				@Override
+				public void getBytes( final ListenableTestVertex v, final byte[] bytes )
+				{
+					ByteBuffer.wrap( bytes ).putInt( v.getId() ).putInt( v.getTimepoint() );
+				}
+
+				@Override
+				public void setBytes( final ListenableTestVertex v, final byte[] bytes )
+				{
+					final ByteBuffer buffer = ByteBuffer.wrap( bytes );
+					v.init( buffer.getInt(), buffer.getInt() );
+				}
+
+				@Override
+				public void notifySet( final ListenableTestVertex v )
+				{}
+			};
+		}
+
+		@Override
+		public AttributeSerializer< ListenableTestEdge > getEdgeSerializer()
+		{
+			return new AttributeSerializer< ListenableTestEdge >()
+			{
+				@Override
+				public int getNumBytes()
+				{
+					return 0;
+				}
+
+				@Override
+				public void getBytes( final ListenableTestEdge e, final byte[] bytes )
+				{}
+
+				@Override
+				public void setBytes( final ListenableTestEdge e, final byte[] bytes )
+				{}
+
+				@Override
+				public void notifySet( final ListenableTestEdge e )
+				{
+					e.init();
+				}
+			};
+		}
+	}
+
+	private static final class RebuiltCounter implements GraphListener< BranchTestVertex, BranchTestEdge >
+	{
+		private int rebuilt;
+
+		@Override
+		public void graphRebuilt()
+		{
+			rebuilt++;
+		}
+
+		@Override
+		public void vertexAdded( final BranchTestVertex vertex )
+		{}
+
+		@Override
+		public void vertexRemoved( final BranchTestVertex vertex )
+		{}
+
+		@Override
+		public void edgeAdded( final BranchTestEdge edge )
+		{}
+
+		@Override
+		public void edgeRemoved( final BranchTestEdge edge )
+		{}
+	}
+}
@@ -31,15 +31,23 @@ package org.mastodon.graph.branch;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mastodon.collection.RefCollection;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefList;
+import org.mastodon.graph.GraphListener;
 import org.mastodon.graph.ListenableTestEdge;
 import org.mastodon.graph.ListenableTestGraph;
 import org.mastodon.graph.ListenableTestVertex;
+import org.mastodon.graph.algorithm.util.ProgressToken;
 
 public class BranchGraphTest
 {
@@ -984,4 +992,407 @@ public class BranchGraphTest
 		assertEquals( "Expected the branch graph to have 4 vertices.", 4, bg2.vertices().size() );
 	}
 
+
+	@Test
+	public void testGraphRebuiltMatchesIncremental()
+	{
+		// A Y-shaped tree.
+		final ListenableTestVertex v0 = graph.addVertex().init( 0, 0 );
+		final ListenableTestVertex v1 = graph.addVertex().init( 1, 1 );
+		final ListenableTestVertex v2 = graph.addVertex().init( 2, 2 );
+		final ListenableTestVertex v3 = graph.addVertex().init( 3, 3 );
+		final ListenableTestVertex v4 = graph.addVertex().init( 4, 3 );
+		graph.addEdge( v0, v1 ).init();
+		graph.addEdge( v1, v2 ).init();
+		graph.addEdge( v2, v3 ).init();
+		graph.addEdge( v2, v4 ).init();
+
+		// A separate ring.
+		final ListenableTestVertex r0 = graph.addVertex().init( 10, 0 );
+		final ListenableTestVertex r1 = graph.addVertex().init( 11, 1 );
+		final ListenableTestVertex r2 = graph.addVertex().init( 12, 2 );
+		graph.addEdge( r0, r1 ).init();
+		graph.addEdge( r1, r2 ).init();
+		graph.addEdge( r2, r0 ).init();
+
+		final BranchGraph< BranchTestVertex, BranchTestEdge, ListenableTestVertex, ListenableTestEdge > bg2 =
+				new BranchTestGraph( graph, new BranchTestEdgePool( 50, new BranchTestVertexPool( 50 ) ) );
+
+		assertEquals( "Expected the rebuilt branch graph to have as many vertices as the incremental one.",
+				bg.vertices().size(), bg2.vertices().size() );
+		assertEquals( "Expected the rebuilt branch graph to have as many edges as the incremental one.",
+				bg.edges().size(), bg2.edges().size() );
+		assertEquals( "Expected the rebuilt branch graph to have 5 vertices.", 5, bg2.vertices().size() );
+		assertEquals( "Expected the rebuilt branch graph to have 4 edges.", 4, bg2.edges().size() );
+
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final boolean isBranchVertex = bg2.getBranchVertex( v, bg2.vertexRef() ) != null;
+			final boolean isInBranch = bg2.getBranchEdge( v, bg2.edgeRef() ) != null;
+			assertTrue( "Each vertex should be either a branch vertex or inside a branch edge.", isBranchVertex ^ isInBranch );
+		}
+		for ( final ListenableTestEdge e : graph.edges() )
+			assertNotNull( "Each edge should be linked to a branch edge.", bg2.getBranchEdge( e, bg2.edgeRef() ) );
+
+		// The intermediate vertices of a branch map to the same branch edge.
+		assertEquals( "Vertices inside the same branch should map to the same branch edge.",
+				bg2.getBranchEdge( v1, bg2.edgeRef() ), bg2.getBranchEdge( v1.outgoingEdges().get( 0 ), bg2.edgeRef() ) );
+		assertEquals( "Vertices inside the ring should map to the same branch edge.",
+				bg2.getBranchEdge( r1, bg2.edgeRef() ), bg2.getBranchEdge( r2, bg2.edgeRef() ) );
+	}
+
+
+	@Test
+	public void testBranchPositions()
+	{
+		// v0 -> v1 -> v2, then v2 -> v3 -> v4 and v2 -> v5 -> v6.
+		final ListenableTestVertex v0 = graph.addVertex().init( 0, 0 );
+		final ListenableTestVertex v1 = graph.addVertex().init( 1, 1 );
+		final ListenableTestVertex v2 = graph.addVertex().init( 2, 2 );
+		final ListenableTestVertex v3 = graph.addVertex().init( 3, 3 );
+		final ListenableTestVertex v4 = graph.addVertex().init( 4, 4 );
+		final ListenableTestVertex v5 = graph.addVertex().init( 5, 3 );
+		final ListenableTestVertex v6 = graph.addVertex().init( 6, 4 );
+		graph.addEdge( v0, v1 ).init();
+		graph.addEdge( v1, v2 ).init();
+		graph.addEdge( v2, v3 ).init();
+		graph.addEdge( v3, v4 ).init();
+		assertBranchPositions( bg );
+		assertEquals( "Expected a single branch of length 4.", 4, bg.getBranchLength( bg.edges().iterator().next() ) );
+		assertEquals( "Unexpected position of v3.", 3, bg.getBranchPosition( v3 ) );
+
+		graph.addEdge( v2, v5 ).init();
+		graph.addEdge( v5, v6 ).init();
+		assertBranchPositions( bg );
+		for ( final BranchTestEdge be : bg.edges() )
+			assertEquals( "Expected all branches to have a length of 2.", 2, bg.getBranchLength( be ) );
+		assertEquals( "Unexpected position of v1.", 1, bg.getBranchPosition( v1 ) );
+		assertEquals( "Unexpected position of v3.", 1, bg.getBranchPosition( v3 ) );
+		assertEquals( "Branch extremities should have position 0.", 0, bg.getBranchPosition( v2 ) );
+
+		final BranchTestEdge be = bg.getBranchEdge( v5, bg.edgeRef() );
+		assertEquals( "Unexpected first vertex of the branch.", v2, bg.getLinkedVertex( be, 0, graph.vertexRef() ) );
+		assertEquals( "Unexpected middle vertex of the branch.", v5, bg.getLinkedVertex( be, 1, graph.vertexRef() ) );
+		assertEquals( "Unexpected last vertex of the branch.", v6, bg.getLinkedVertex( be, 2, graph.vertexRef() ) );
+		try
+		{
+			bg.getLinkedVertex( be, 3, graph.vertexRef() );
+			fail( "Expected an exception for a position past the end of the branch." );
+		}
+		catch ( final IndexOutOfBoundsException e )
+		{}
+
+		// Positions are updated when the branch is split.
+		graph.remove( v3 );
+		assertBranchPositions( bg );
+		assertEquals( "Unexpected position of v1.", 1, bg.getBranchPosition( v1 ) );
+		assertEquals( "Expected v4 to be a branch extremity.", 0, bg.getBranchPosition( v4 ) );
+	}
+
+	@Test
+	public void testBranchPositionsRandomEdits()
+	{
+		final Random random = new Random( 1l );
+		final RefList< ListenableTestVertex > vlist = RefCollections.createRefList( graph.vertices() );
+		final ListenableTestVertex ref1 = graph.vertexRef();
+		final ListenableTestVertex ref2 = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+		for ( int i = 0; i < 5; i++ )
+			vlist.add( graph.addVertex( ref1 ).init( i, 0 ) );
+
+		for ( int i = 0; i < 500; i++ )
+		{
+			final ListenableTestVertex v = vlist.get( random.nextInt( vlist.size() ), ref1 );
+			if ( random.nextInt( 4 ) > 0 )
+			{
+				// Extend or divide a track.
+				final ListenableTestVertex child = graph.addVertex( ref2 ).init( 100 + i, v.getTimepoint() + 1 );
+				graph.addEdge( v, child, eref ).init();
+				vlist.add( child );
+			}
+			else if ( vlist.size() > 5 && v.outgoingEdges().isEmpty() )
+			{
+				// Remove a leaf.
+				vlist.remove( v );
+				graph.remove( v );
+			}
+			assertBranchPositions( bg );
+		}
+
+		final BranchTestGraph bg2 = new BranchTestGraph( graph, new BranchTestEdgePool( 50, new BranchTestVertexPool( 50 ) ) );
+		assertBranchPositions( bg2 );
+	}
+
+	@Test
+	public void testBatchNetEvents()
+	{
+		final ListenableTestVertex v0 = graph.addVertex().init( 0, 0 );
+		ListenableTestVertex last = graph.vertexRef();
+		last.refTo( v0 );
+		for ( int i = 1; i < 10; i++ )
+		{
+			final ListenableTestVertex v = graph.addVertex().init( i, i );
+			graph.addEdge( last, v ).init();
+			last = v;
+		}
+		final EventCounter counter = new EventCounter();
+		bg.addGraphListener( counter );
+
+		// Changes that cancel out do not change the branch graph.
+		bg.beginBatch();
+		final ListenableTestVertex extra = graph.addVertex().init( 100, 10 );
+		graph.addEdge( last, extra ).init();
+		graph.remove( extra );
+		bg.endBatch();
+		assertEquals( "Expected no event for changes that cancel out.", 0, counter.total() );
+		assertBranchPositions( bg );
+
+		// Extending the track replaces its end only once.
+		bg.beginBatch();
+		for ( int i = 10; i < 20; i++ )
+		{
+			final ListenableTestVertex v = graph.addVertex().init( i, i );
+			graph.addEdge( last, v ).init();
+			last = v;
+		}
+		bg.endBatch();
+		assertEquals( "Unexpected number of branch vertices added.", 1, counter.verticesAdded );
+		assertEquals( "Unexpected number of branch vertices removed.", 1, counter.verticesRemoved );
+		assertEquals( "Unexpected number of branch edges added.", 1, counter.edgesAdded );
+		assertEquals( "Unexpected number of branch edges removed.", 1, counter.edgesRemoved );
+		assertEquals( "Expected a single branch of length 19.", 19, bg.getBranchLength( bg.edges().iterator().next() ) );
+		assertBranchPositions( bg );
+	}
+
+	@Test
+	public void testBatchRandomEdits()
+	{
+		final Random random = new Random( 1l );
+		final RefList< ListenableTestVertex > vlist = RefCollections.createRefList( graph.vertices() );
+		final ListenableTestVertex ref1 = graph.vertexRef();
+		final ListenableTestVertex ref2 = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+		for ( int i = 0; i < 5; i++ )
+			vlist.add( graph.addVertex( ref1 ).init( i, 0 ) );
+
+		for ( int batch = 0; batch < 50; batch++ )
+		{
+			bg.beginBatch();
+			for ( int i = 0; i < 20; i++ )
+			{
+				final int op = random.nextInt( 10 );
+				final ListenableTestVertex v = vlist.get( random.nextInt( vlist.size() ), ref1 );
+				if ( op < 6 )
+				{
+					// Extend or divide a track.
+					final ListenableTestVertex child = graph.addVertex( ref2 ).init( 100 * batch + i, v.getTimepoint() + 1 );
+					graph.addEdge( v, child, eref ).init();
+					vlist.add( child );
+				}
+				else if ( op < 8 )
+				{
+					// Link two existing vertices, possibly making merges and
+					// cycles.
+					final ListenableTestVertex w = vlist.get( random.nextInt( vlist.size() ), ref2 );
+					if ( !v.equals( w ) && graph.getEdge( v, w, eref ) == null && graph.getEdge( w, v, eref ) == null )
+						graph.addEdge( v, w, eref ).init();
+				}
+				else if ( op < 9 )
+				{
+					if ( !v.outgoingEdges().isEmpty() )
+						graph.remove( v.outgoingEdges().get( 0, eref ) );
+				}
+				else if ( vlist.size() > 5 )
+				{
+					vlist.remove( v );
+					graph.remove( v );
+				}
+			}
+			bg.endBatch();
+
+			assertBranchPositions( bg );
+			final BranchTestGraph expected = new BranchTestGraph( graph, new BranchTestEdgePool( 50, new BranchTestVertexPool( 50 ) ) );
+			graph.removeGraphListener( expected );
+			assertSameBranches( expected, bg );
+		}
+	}
+
+	@Test
+	public void testCancelledRebuild()
+	{
+		// A track of 20 vertices that divides at its middle.
+		final ListenableTestVertex ref = graph.vertexRef();
+		ListenableTestVertex previous = graph.addVertex().init( 0, 0 );
+		for ( int i = 1; i < 20; i++ )
+		{
+			final ListenableTestVertex v = graph.addVertex( ref ).init( i, i );
+			graph.addEdge( previous, v ).init();
+			previous = graph.addVertex().init( i, i );
+			graph.addEdge( v, previous ).init();
+			if ( i == 10 )
+				graph.addEdge( v, graph.addVertex().init( 100, 11 ) ).init();
+		}
+
+		// Cancelled while linking branches, after all 40 vertices are visited.
+		final ProgressToken progress = new ProgressToken( 1 )
+		{
+			@Override
+			public void worked( final long n )
+			{
+				if ( getProcessed() + n >= 45 )
+					cancel();
+				super.worked( n );
+			}
+		};
+		bg.setProgressToken( progress );
+		try
+		{
+			bg.graphRebuilt();
+			fail( "A cancelled token should stop the rebuild." );
+		}
+		catch ( final CancellationException e )
+		{}
+		assertEquals( "The branch graph should be left without vertices.", 0, bg.vertices().size() );
+		assertEquals( "The branch graph should be left without edges.", 0, bg.edges().size() );
+
+		// It can be rebuilt later.
+		bg.setProgressToken( null );
+		bg.graphRebuilt();
+		final BranchTestGraph expected = new BranchTestGraph( graph, new BranchTestEdgePool( 50, new BranchTestVertexPool( 50 ) ) );
+		graph.removeGraphListener( expected );
+		assertSameBranches( expected, bg );
+		assertBranchPositions( bg );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testEndBatchWithoutBegin()
+	{
+		bg.endBatch();
+	}
+
+	/**
+	 * Checks that two branch graphs of the same linked graph have the same
+	 * branch extremities and branches.
+	 */
+	private void assertSameBranches( final BranchTestGraph expected, final BranchTestGraph actual )
+	{
+		assertEquals( "Unexpected number of branch vertices.", expected.vertices().size(), actual.vertices().size() );
+		assertEquals( "Unexpected number of branch edges.", expected.edges().size(), actual.edges().size() );
+		final BranchTestVertex bvref = actual.vertexRef();
+		final BranchTestEdge beref = actual.edgeRef();
+		final ListenableTestVertex vref = graph.vertexRef();
+		for ( final ListenableTestVertex v : graph.vertices() )
+		{
+			final boolean isExtremity = expected.getBranchVertex( v, expected.vertexRef() ) != null;
+			assertEquals( "Unexpected branch extremity.", isExtremity, actual.getBranchVertex( v, bvref ) != null );
+			if ( !isExtremity && actual.getBranchVertex( v, bvref ) == null )
+				assertNotNull( "A vertex inside a branch should be linked to a branch edge.", actual.getBranchEdge( v, beref ) );
+		}
+		for ( final ListenableTestEdge e : graph.edges() )
+		{
+			final BranchTestEdge be = actual.getBranchEdge( e, beref );
+			assertNotNull( "Each edge should be linked to a branch edge.", be );
+			assertEquals( "Unexpected branch length.",
+					expected.getBranchLength( expected.getBranchEdge( e, expected.edgeRef() ) ), actual.getBranchLength( be ) );
+		}
+		for ( final BranchTestEdge be : actual.edges() )
+		{
+			final ListenableTestEdge first = actual.getLinkedEdge( be, graph.edgeRef() );
+			final BranchTestEdge ebe = expected.getBranchEdge( first, expected.edgeRef() );
+			assertEquals( "Branch edges should start with the same linked edge.", first, expected.getLinkedEdge( ebe, graph.edgeRef() ) );
+			assertEquals( "Branch edges should end at the same linked vertex.",
+					expected.getLinkedVertex( ebe.getTarget(), graph.vertexRef() ),
+					actual.getLinkedVertex( be.getTarget( bvref ), vref ) );
+		}
+		actual.releaseRef( bvref );
+		actual.releaseRef( beref );
+		graph.releaseRef( vref );
+	}
+
+	private static final class EventCounter implements GraphListener< BranchTestVertex, BranchTestEdge >
+	{
+		private int verticesAdded;
+
+		private int verticesRemoved;
+
+		private int edgesAdded;
+
+		private int edgesRemoved;
+
+		private int total()
+		{
+			return verticesAdded + verticesRemoved + edgesAdded + edgesRemoved;
+		}
+
+		@Override
+		public void graphRebuilt()
+		{}
+
+		@Override
+		public void vertexAdded( final BranchTestVertex vertex )
+		{
+			verticesAdded++;
+		}
+
+		@Override
+		public void vertexRemoved( final BranchTestVertex vertex )
+		{
+			verticesRemoved++;
+		}
+
+		@Override
+		public void edgeAdded( final BranchTestEdge edge )
+		{
+			edgesAdded++;
+		}
+
+		@Override
+		public void edgeRemoved( final BranchTestEdge edge )
+		{
+			edgesRemoved++;
+		}
+	}
+
+	/**
+	 * Checks the position index of the specified branch graph against a walk
+	 * of each branch in the linked graph.
+	 */
+	private void assertBranchPositions( final BranchTestGraph bg )
+	{
+		final ListenableTestVertex vref = graph.vertexRef();
+		final ListenableTestVertex vref2 = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+		final BranchTestVertex bvref = bg.vertexRef();
+		for ( final BranchTestEdge be : bg.edges() )
+		{
+			ListenableTestEdge e = bg.getLinkedEdge( be, eref );
+			assertEquals( "Unexpected first vertex of the branch.", e.getSource( vref ), bg.getLinkedVertex( be, 0, vref2 ) );
+			int position = 1;
+			ListenableTestVertex v = e.getTarget( vref );
+			while ( bg.getBranchVertex( v, bvref ) == null )
+			{
+				assertEquals( "Unexpected vertex position in the branch.", position, bg.getBranchPosition( v ) );
+				assertEquals( "Unexpected vertex at position in the branch.", v, bg.getLinkedVertex( be, position, vref2 ) );
+				e = v.outgoingEdges().get( 0, eref );
+				v = e.getTarget( vref );
+				position++;
+			}
+			assertEquals( "Unexpected branch length.", position, bg.getBranchLength( be ) );
+			assertEquals( "Unexpected last vertex of the branch.", v, bg.getLinkedVertex( be, position, vref2 ) );
+
+			int nEdges = 0;
+			final Iterator< ListenableTestEdge > it = bg.edgeBranchIterator( be );
+			while ( it.hasNext() )
+			{
+				it.next();
+				nEdges++;
+			}
+			assertEquals( "Unexpected number of edges iterated.", position - 1, nEdges );
+		}
+		graph.releaseRef( vref );
+		graph.releaseRef( vref2 );
+		graph.releaseRef( eref );
+		bg.releaseRef( bvref );
+	}
+
 }
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.graph.branch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.RefSet;
+import org.mastodon.collection.RefStack;
+import org.mastodon.graph.ListenableTestEdge;
+import org.mastodon.graph.ListenableTestGraph;
+import org.mastodon.graph.ListenableTestVertex;
+
+public class BranchSummaryTest
+{
+
+	private ListenableTestGraph graph;
+
+	private BranchTestGraph bg;
+
+	private BranchSummary< BranchTestVertex, BranchTestEdge, ListenableTestVertex, ListenableTestEdge, Integer > count;
+
+	private BranchSummary< BranchTestVertex, BranchTestEdge, ListenableTestVertex, ListenableTestEdge, Integer > minTimepoint;
+
+	private BranchSummary< BranchTestVertex, BranchTestEdge, ListenableTestVertex, ListenableTestEdge, Integer > maxTimepoint;
+
+	@Before
+	public void setUp()
+	{
+		graph = new ListenableTestGraph();
+		bg = new BranchTestGraph( graph, new BranchTestEdgePool( 50, new BranchTestVertexPool( 50 ) ) );
+		count = bg.addSummary( BranchAggregator.count() );
+		minTimepoint = bg.addSummary( BranchAggregator.min( ListenableTestVertex::getTimepoint ) );
+		maxTimepoint = bg.addSummary( BranchAggregator.max( ListenableTestVertex::getTimepoint ) );
+	}
+
+	@Test
+	public void testLineage()
+	{
+		// v0 -> v1 -> v2, then v2 -> v3 -> v4 and v2 -> v5.
+		final ListenableTestVertex v0 = graph.addVertex().init( 0, 10 );
+		final ListenableTestVertex v1 = graph.addVertex().init( 1, 11 );
+		final ListenableTestVertex v2 = graph.addVertex().init( 2, 12 );
+		final ListenableTestVertex v3 = graph.addVertex().init( 3, 13 );
+		final ListenableTestVertex v4 = graph.addVertex().init( 4, 14 );
+		final ListenableTestVertex v5 = graph.addVertex().init( 5, 13 );
+		graph.addEdge( v0, v1 ).init();
+		graph.addEdge( v1, v2 ).init();
+		graph.addEdge( v2, v3 ).init();
+		graph.addEdge( v3, v4 ).init();
+
+		final BranchTestVertex root = bg.getBranchVertex( v0, bg.vertexRef() );
+		assertEquals( "Unexpected subtree vertex count.", 5, count.getSubtreeSummary( root ).intValue() );
+		assertEquals( "Unexpected branch vertex count.", 5, count.getBranchSummary( root.outgoingEdges().get( 0 ) ).intValue() );
+		assertEquals( "Unexpected subtree last timepoint.", 14, maxTimepoint.getSubtreeSummary( root ).intValue() );
+
+		// Divide at v2: the summaries of the root are updated.
+		graph.addEdge( v2, v5 ).init();
+		assertEquals( "Unexpected subtree vertex count.", 6, count.getSubtreeSummary( root ).intValue() );
+		final BranchTestEdge be = bg.getBranchEdge( v1, bg.edgeRef() );
+		assertEquals( "Unexpected branch vertex count.", 3, count.getBranchSummary( be ).intValue() );
+		assertEquals( "Unexpected branch first timepoint.", 10, minTimepoint.getBranchSummary( be ).intValue() );
+		assertEquals( "Unexpected branch last timepoint.", 12, maxTimepoint.getBranchSummary( be ).intValue() );
+
+		final BranchTestVertex division = bg.getBranchVertex( v2, bg.vertexRef() );
+		assertEquals( "Unexpected subtree vertex count.", 4, count.getSubtreeSummary( division ).intValue() );
+		assertEquals( "Unexpected subtree first timepoint.", 12, minTimepoint.getSubtreeSummary( division ).intValue() );
+		assertEquals( "Unexpected subtree last timepoint.", 14, maxTimepoint.getSubtreeSummary( division ).intValue() );
+
+		// Removing the division fuses the branches back.
+		graph.remove( v5 );
+		assertEquals( "Unexpected subtree vertex count.", 5, count.getSubtreeSummary( root ).intValue() );
+	}
+
+	@Test
+	public void testBranchOrder()
+	{
+		final BranchSummary< BranchTestVertex, BranchTestEdge, ListenableTestVertex, ListenableTestEdge, String > ids =
+				bg.addSummary( new BranchAggregator< ListenableTestVertex, String >()
+				{
+					@Override
+					public String of( final ListenableTestVertex vertex )
+					{
+						return Integer.toString( vertex.getId() );
+					}
+
+					@Override
+					public String combine( final String a, final String b )
+					{
+						return a + "," + b;
+					}
+				} );
+
+		final ListenableTestVertex v0 = graph.addVertex().init( 0, 0 );
+		ListenableTestVertex last = graph.vertexRef();
+		last.refTo( v0 );
+		for ( int i = 1; i < 5; i++ )
+		{
+			final ListenableTestVertex v = graph.addVertex().init( i, i );
+			graph.addEdge( last, v ).init();
+			last = v;
+		}
+		final BranchTestEdge be = bg.edges().iterator().next();
+		assertEquals( "Vertices should be combined in branch order.", "0,1,2,3,4", ids.getBranchSummary( be ) );
+		assertEquals( "Vertices should be combined in branch order.", "0,1,2,3,4", ids.getSubtreeSummary( be.getSource() ) );
+
+		assertTrue( "The summary should be removed.", bg.removeSummary( ids ) );
+		assertFalse( "The summary should not be removed twice.", bg.removeSummary( ids ) );
+	}
+
+	@Test
+	public void testRandomEdits()
+	{
+		final Random random = new Random( 1l );
+		final RefList< ListenableTestVertex > vlist = RefCollections.createRefList( graph.vertices() );
+		final ListenableTestVertex ref1 = graph.vertexRef();
+		final ListenableTestVertex ref2 = graph.vertexRef();
+		final ListenableTestEdge eref = graph.edgeRef();
+		for ( int i = 0; i < 5; i++ )
+			vlist.add( graph.addVertex( ref1 ).init( i, random.nextInt( 100 ) ) );
+
+		for ( int i = 0; i < 300; i++ )
+		{
+			// Every tenth step, make several changes in a batch.
+			final boolean batch = i % 10 == 0;
+			if ( batch )
+				bg.beginBatch();
+			for ( int j = 0; j < ( batch ? 10 : 1 ); j++ )
+			{
+				final ListenableTestVertex v = vlist.get( random.nextInt( vlist.size() ), ref1 );
+				if ( random.nextInt( 4 ) > 0 )
+				{
+					final ListenableTestVertex child = graph.addVertex( ref2 ).init( 100 + 10 * i + j, random.nextInt( 100 ) );
+					graph.addEdge( v, child, eref ).init();
+					vlist.add( child );
+				}
+				else if ( vlist.size() > 5 && v.outgoingEdges().isEmpty() )
+				{
+					vlist.remove( v );
+					graph.remove( v );
+				}
+			}
+			if ( batch )
+				bg.endBatch();
+			assertSummaries();
+		}
+	}
+
+	/**
+	 * Compares the summaries with the ones computed by iterating over the
+	 * linked graph, which is a forest.
+	 */
+	private void assertSummaries()
+	{
+		final ListenableTestVertex vref = graph.vertexRef();
+		for ( final BranchTestEdge be : bg.edges() )
+		{
+			final int length = bg.getBranchLength( be );
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for ( int i = 0; i <= length; i++ )
+			{
+				final int t = bg.getLinkedVertex( be, i, vref ).getTimepoint();
+				min = Math.min( min, t );
+				max = Math.max( max, t );
+			}
+			assertEquals( "Unexpected branch vertex count.", length + 1, count.getBranchSummary( be ).intValue() );
+			assertEquals( "Unexpected branch minimum.", min, minTimepoint.getBranchSummary( be ).intValue() );
+			assertEquals( "Unexpected branch maximum.", max, maxTimepoint.getBranchSummary( be ).intValue() );
+		}
+
+		final RefStack< ListenableTestVertex > stack = RefCollections.createRefStack( graph.vertices() );
+		final RefSet< ListenableTestVertex > visited = RefCollections.createRefSet( graph.vertices() );
+		for ( final BranchTestVertex bv : bg.vertices() )
+		{
+			int n = 0;
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			visited.clear();
+			stack.push( bg.getLinkedVertex( bv, vref ) );
+			while ( !stack.isEmpty() )
+			{
+				final ListenableTestVertex v = stack.pop( vref );
+				if ( !visited.add( v ) )
+					continue;
+				n++;
+				min = Math.min( min, v.getTimepoint() );
+				max = Math.max( max, v.getTimepoint() );
+				for ( final ListenableTestEdge e : v.outgoingEdges() )
+					stack.push( e.getTarget() );
+			}
+			assertEquals( "Unexpected subtree vertex count.", n, count.getSubtreeSummary( bv ).intValue() );
+			assertEquals( "Unexpected subtree minimum.", min, minTimepoint.getSubtreeSummary( bv ).intValue() );
+			assertEquals( "Unexpected subtree maximum.", max, maxTimepoint.getSubtreeSummary( bv ).intValue() );
+		}
+		graph.releaseRef( vref );
+	}
+}
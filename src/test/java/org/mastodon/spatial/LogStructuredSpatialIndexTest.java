@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.spatial.SpatialIndexDataTest.assertSearches;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.graph.TestSimpleSpatialGraph;
+import org.mastodon.graph.TestSimpleSpatialVertex;
+
+public class LogStructuredSpatialIndexTest
+{
+
+	private static final int N_VERTICES = 200;
+
+	private TestSimpleSpatialGraph graph;
+
+	private RefList< TestSimpleSpatialVertex > vs;
+
+	private LogStructuredSpatialIndex< TestSimpleSpatialVertex > index;
+
+	private Random random;
+
+	private int nextId;
+
+	@Before
+	public void setUp()
+	{
+		graph = new TestSimpleSpatialGraph();
+		vs = RefCollections.createRefList( graph.vertices() );
+		random = new Random( 1l );
+		for ( nextId = 0; nextId < N_VERTICES; nextId++ )
+			vs.add( graph.addVertex().init( nextId, 0, 100 * random.nextDouble() ) );
+		// Small sizes, so that some merges are left to rebuild().
+		index = new LogStructuredSpatialIndex<>( vs, graph.getVertexPool(), 4, 64 );
+	}
+
+	@Test
+	public void testSearchesAfterEdits()
+	{
+		assertSearches( index, vs, random );
+		for ( int round = 0; round < 10; round++ )
+		{
+			edit( 30 );
+			assertEquals( "Unexpected index size.", vs.size(), index.size() );
+			assertSearches( index, vs, random );
+			if ( round % 3 == 2 )
+			{
+				index.rebuild();
+				assertEquals( "Unexpected index size after rebuild.", vs.size(), index.size() );
+				assertSearches( index, vs, random );
+			}
+		}
+	}
+
+	@Test
+	public void testRebuildMergesLevels()
+	{
+		for ( int i = 0; i < 10; i++ )
+			edit( 100 );
+		assertTrue( "Some merges should be left to rebuild().", index.modCount() > 0 );
+
+		while ( index.modCount() > 0 )
+			index.rebuild();
+		assertTrue( "Levels should have geometrically increasing sizes.", index.numLevels() <= 1 + 32 - Integer.numberOfLeadingZeros( vs.size() ) );
+		assertEquals( "Unexpected index size after rebuild.", vs.size(), index.size() );
+		assertSearches( index, vs, random );
+
+		index.rebuild();
+		assertEquals( "A rebuild with nothing to merge should not change the levels.", 0, index.modCount() );
+	}
+
+	@Test
+	public void testEditsDuringRebuild() throws InterruptedException, ExecutionException
+	{
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			for ( int round = 0; round < 10; round++ )
+			{
+				edit( 100 );
+				final LogStructuredSpatialIndex< TestSimpleSpatialVertex >.Merge merge = index.startMerge();
+				if ( merge == null )
+					continue;
+
+				// Edits between the start of the merge and the build.
+				editDuringRebuild( 10 );
+				final Future< ? > build = executor.submit( merge::build );
+				// Edits while the new level is built on another thread.
+				editDuringRebuild( 10 );
+				build.get();
+				editDuringRebuild( 10 );
+				merge.finish();
+
+				assertEquals( "Unexpected index size after rebuild.", vs.size(), index.size() );
+				assertSearches( index, vs, random );
+			}
+
+			// The whole rebuild on another thread.
+			edit( 100 );
+			final Future< ? > rebuild = executor.submit( index::rebuild );
+			editDuringRebuild( 10 );
+			rebuild.get();
+			assertEquals( "Unexpected index size after rebuild.", vs.size(), index.size() );
+			assertSearches( index, vs, random );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Moves the specified number of objects, removes and re-adds as many, and
+	 * removes as many from the index and the graph before adding new objects,
+	 * which may reuse their pool slots.
+	 */
+	private void editDuringRebuild( final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleSpatialVertex moved = vs.get( random.nextInt( vs.size() ) );
+			moved.setPosition( 100 * random.nextDouble() );
+			assertFalse( "A moved object should not be new to the index.", index.add( moved ) );
+
+			final TestSimpleSpatialVertex readded = vs.get( random.nextInt( vs.size() ) );
+			assertTrue( "The object should be removed.", index.remove( readded ) );
+			assertTrue( "The object should be new to the index.", index.add( readded ) );
+
+			final TestSimpleSpatialVertex removed = vs.remove( random.nextInt( vs.size() ) );
+			assertTrue( "The object should be removed.", index.remove( removed ) );
+			graph.remove( removed );
+			final TestSimpleSpatialVertex added = graph.addVertex().init( nextId++, 0, 100 * random.nextDouble() );
+			vs.add( added );
+			assertTrue( "The object should be new to the index.", index.add( added ) );
+		}
+	}
+
+	/**
+	 * Moves, removes and adds the specified number of objects each.
+	 */
+	private void edit( final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleSpatialVertex v = vs.get( random.nextInt( vs.size() ) );
+			v.setPosition( 100 * random.nextDouble() );
+			assertFalse( "A moved object should not be new to the index.", index.add( v ) );
+		}
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleSpatialVertex v = vs.remove( random.nextInt( vs.size() ) );
+			assertTrue( "The object should be removed.", index.remove( v ) );
+			assertFalse( "The object should not be removed twice.", index.remove( v ) );
+		}
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleSpatialVertex v = graph.addVertex().init( nextId++, 0, 100 * random.nextDouble() );
+			vs.add( v );
+			assertTrue( "The object should be new to the index.", index.add( v ) );
+		}
+	}
+}
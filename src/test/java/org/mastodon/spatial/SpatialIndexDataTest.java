@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.collection.RefSet;
+import org.mastodon.graph.TestSimpleSpatialGraph;
+import org.mastodon.graph.TestSimpleSpatialVertex;
+import org.mastodon.kdtree.ClipConvexPolytope;
+import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
+
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.NearestNeighborSearch;
+
+public class SpatialIndexDataTest
+{
+
+	private static final int N_VERTICES = 200;
+
+	private TestSimpleSpatialGraph graph;
+
+	private RefList< TestSimpleSpatialVertex > vs;
+
+	private SpatialIndexData< TestSimpleSpatialVertex > index;
+
+	private Random random;
+
+	@Before
+	public void setUp()
+	{
+		graph = new TestSimpleSpatialGraph();
+		vs = RefCollections.createRefList( graph.vertices() );
+		random = new Random( 1l );
+		for ( int i = 0; i < N_VERTICES; i++ )
+			vs.add( graph.addVertex().init( i, 0, 100 * random.nextDouble() ) );
+		index = new SpatialIndexData<>( vs, graph.getVertexPool() );
+	}
+
+	@Test
+	public void testSearchesAfterEdits()
+	{
+		assertSearches( index, vs, random );
+		for ( int round = 0; round < 5; round++ )
+		{
+			// Enough moves to build the KDTree of modified objects.
+			for ( int i = 0; i < 40; i++ )
+			{
+				final TestSimpleSpatialVertex v = vs.get( random.nextInt( vs.size() ) );
+				v.setPosition( 100 * random.nextDouble() );
+				index.add( v );
+			}
+			for ( int i = 0; i < 5; i++ )
+			{
+				final TestSimpleSpatialVertex v = vs.remove( random.nextInt( vs.size() ) );
+				assertTrue( "The object should be removed.", index.remove( v ) );
+				assertFalse( "The object should not be removed twice.", index.remove( v ) );
+			}
+			for ( int i = 0; i < 10; i++ )
+			{
+				final TestSimpleSpatialVertex v = graph.addVertex().init( 1000 + 10 * round + i, 0, 100 * random.nextDouble() );
+				vs.add( v );
+				assertTrue( "The object should be new to the index.", index.add( v ) );
+			}
+			assertEquals( "Unexpected index size.", vs.size(), index.size() );
+			assertSearches( index, vs, random );
+		}
+	}
+
+	/**
+	 * Compares the searches on the index with brute-force searches on the
+	 * current positions of the objects.
+	 */
+	static void assertSearches( final SpatialIndex< TestSimpleSpatialVertex > index, final RefList< TestSimpleSpatialVertex > vs, final Random random )
+	{
+		final NearestNeighborSearch< TestSimpleSpatialVertex > nns = index.getNearestNeighborSearch();
+		final IncrementalNearestNeighborSearch< TestSimpleSpatialVertex > inns = index.getIncrementalNearestNeighborSearch();
+		for ( int i = 0; i < 10; i++ )
+		{
+			final RealPoint query = new RealPoint( 100 * random.nextDouble() );
+			double best = Double.MAX_VALUE;
+			for ( final TestSimpleSpatialVertex v : vs )
+				best = Math.min( best, squDistance( v, query ) );
+
+			nns.search( query );
+			assertEquals( "Unexpected nearest neighbor distance.", best, nns.getSquareDistance(), 1e-12 );
+			assertEquals( "The nearest neighbor should be at the returned distance.", best, squDistance( nns.getSampler().get(), query ), 1e-12 );
+
+			inns.search( query );
+			final RefSet< TestSimpleSpatialVertex > visited = RefCollections.createRefSet( vs );
+			double previous = 0;
+			while ( inns.hasNext() )
+			{
+				final TestSimpleSpatialVertex v = inns.next();
+				assertTrue( "Neighbor " + v + " should be returned once.", visited.add( v ) );
+				assertEquals( "Unexpected neighbor distance.", squDistance( v, query ), inns.getSquareDistance(), 1e-12 );
+				assertTrue( "Neighbors should be returned by increasing distance.", inns.getSquareDistance() >= previous );
+				previous = inns.getSquareDistance();
+			}
+			assertEquals( "All the objects should be returned.", vs.size(), visited.size() );
+		}
+
+		final ClipConvexPolytope< TestSimpleSpatialVertex > ccp = index.getClipConvexPolytope();
+		// Inside is 20 <= x <= 60.
+		ccp.clip( new double[][] { { 1, 20 }, { -1, -60 } } );
+		final RefSet< TestSimpleSpatialVertex > clipped = RefCollections.createRefSet( vs );
+		for ( final TestSimpleSpatialVertex v : ccp.getInsideValues() )
+		{
+			assertTrue( "Inside object " + v + " should be inside the polytope.", v.getDoublePosition( 0 ) >= 20 && v.getDoublePosition( 0 ) <= 60 );
+			assertTrue( "Inside object " + v + " should be returned once.", clipped.add( v ) );
+		}
+		for ( final TestSimpleSpatialVertex v : ccp.getOutsideValues() )
+		{
+			assertFalse( "Outside object " + v + " should be outside the polytope.", v.getDoublePosition( 0 ) >= 20 && v.getDoublePosition( 0 ) <= 60 );
+			assertTrue( "Outside object " + v + " should be returned once.", clipped.add( v ) );
+		}
+		assertEquals( "Objects should be either inside or outside the polytope.", vs.size(), clipped.size() );
+	}
+
+	private static double squDistance( final TestSimpleSpatialVertex v, final RealPoint p )
+	{
+		final double d = v.getDoublePosition( 0 ) - p.getDoublePosition( 0 );
+		return d * d;
+	}
+}
@@ -0,0 +1,293 @@
+/*-
+ * #%L
+ * Mastodon Graphs
+ * %%
+ * Copyright (C) 2015 - 2021 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.spatial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mastodon.collection.RefCollections;
+import org.mastodon.collection.RefList;
+import org.mastodon.graph.TestSimpleSpatialEdge;
+import org.mastodon.graph.TestSimpleSpatialGraph;
+import org.mastodon.graph.TestSimpleSpatialVertex;
+
+public class SpatioTemporalIndexImpRebuilderTest
+{
+
+	private static final int N_TIMEPOINTS = 3;
+
+	private static final int N_VERTICES = 50;
+
+	private TestSimpleSpatialGraph graph;
+
+	private RefList< TestSimpleSpatialVertex > vs;
+
+	private SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti;
+
+	private SpatioTemporalIndexImpRebuilder rebuilder;
+
+	private Random random;
+
+	@Before
+	public void setUp()
+	{
+		graph = new TestSimpleSpatialGraph();
+		vs = RefCollections.createRefList( graph.vertices() );
+		random = new Random( 1l );
+		int id = 0;
+		for ( int tp = 0; tp < N_TIMEPOINTS; tp++ )
+			for ( int i = 0; i < N_VERTICES; i++ )
+				vs.add( graph.addVertex().init( id++, tp, 100 * random.nextDouble() ) );
+		sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool() );
+		rebuilder = new SpatioTemporalIndexImpRebuilder( sti, 2, 5, 20 );
+	}
+
+	@After
+	public void tearDown()
+	{
+		rebuilder.shutdown();
+	}
+
+	@Test
+	public void testRebuildAfterModifications() throws InterruptedException
+	{
+		// Each move counts as the removal of a KDTree object and an addition.
+		move( 0, 10 );
+		move( 1, 15 );
+		move( 2, 15 );
+		awaitRebuilt( 1, 20 );
+		awaitRebuilt( 2, 20 );
+		assertEquals( "A time-point below the threshold should not be rebuilt.", 20, modCount( 0 ) );
+	}
+
+	@Test
+	public void testQueriesLowerThreshold() throws InterruptedException
+	{
+		// Threshold of N_VERTICES / 10 queries = 5 modifications.
+		for ( int i = 0; i < 10; i++ )
+			sti.getSpatialIndex( 0 );
+		move( 0, 3 );
+		move( 1, 3 );
+		awaitRebuilt( 0, 5 );
+		assertEquals( "A time-point that is not queried should not be rebuilt.", 6, modCount( 1 ) );
+
+		// A range query counts for each time-point.
+		for ( int i = 0; i < 10; i++ )
+			sti.getSpatialIndex( 1, 2 );
+		awaitRebuilt( 1, 5 );
+	}
+
+	@Test
+	public void testQueriesReorderQueue()
+	{
+		rebuilder.shutdown();
+		final ManualExecutor executor = new ManualExecutor();
+		rebuilder = new SpatioTemporalIndexImpRebuilder( sti, executor, 5, 20 );
+		move( 0, 15 );
+		move( 1, 15 );
+		move( 2, 15 );
+		// Queried while waiting in the queue.
+		for ( int i = 0; i < 10; i++ )
+			sti.getSpatialIndex( 2 );
+
+		executor.runNext();
+		assertEquals( "The most queried time-point should be rebuilt first.", 0, modCount( 2 ) );
+		executor.runNext();
+		assertEquals( "Then the time-point queued first.", 0, modCount( 0 ) );
+		assertEquals( "The last time-point should still be queued.", 30, modCount( 1 ) );
+		executor.runNext();
+		assertEquals( "All queued time-points should be rebuilt.", 0, modCount( 1 ) );
+	}
+
+	@Test
+	public void testIterationIsNotAQuery()
+	{
+		rebuilder.shutdown();
+		final ManualExecutor executor = new ManualExecutor();
+		rebuilder = new SpatioTemporalIndexImpRebuilder( sti, executor, 5, 20 );
+		for ( int i = 0; i < 10; i++ )
+			for ( @SuppressWarnings( "unused" ) final TestSimpleSpatialVertex v : sti )
+			{}
+		move( 0, 3 );
+		assertTrue( "Iterating should not lower the rebuild threshold.", executor.tasks.isEmpty() );
+
+		for ( int i = 0; i < 10; i++ )
+			sti.getSpatialIndex( 0 );
+		assertFalse( "Queries should lower the rebuild threshold.", executor.tasks.isEmpty() );
+	}
+
+	@Test
+	public void testShutdown() throws InterruptedException
+	{
+		rebuilder.shutdown();
+		move( 0, 15 );
+		Thread.sleep( 100 );
+		assertEquals( "Time-points should not be rebuilt after shutdown.", 30, modCount( 0 ) );
+	}
+
+	@Test
+	public void testShutdownWhileEditing() throws InterruptedException
+	{
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference< Throwable > failure = new AtomicReference<>();
+		final Thread editor = new Thread( () -> {
+			final Random random = new Random( 2l );
+			final TestSimpleSpatialVertex ref = graph.vertexRef();
+			try
+			{
+				while ( !stop.get() )
+				{
+					final TestSimpleSpatialVertex v = vs.get( random.nextInt( vs.size() ), ref );
+					v.setPosition( 100 * random.nextDouble() );
+					sti.vertexPositionChanged( v );
+				}
+			}
+			catch ( final Throwable e )
+			{
+				failure.set( e );
+			}
+		} );
+		editor.start();
+		for ( int i = 0; i < 20; i++ )
+		{
+			Thread.sleep( 5 );
+			rebuilder.shutdown();
+			rebuilder = new SpatioTemporalIndexImpRebuilder( sti, 2, 1, 1 );
+		}
+		rebuilder.shutdown();
+		stop.set( true );
+		editor.join();
+		assertNull( "Edits should not fail while the rebuilder shuts down.", failure.get() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testIllegalThresholds()
+	{
+		new SpatioTemporalIndexImpRebuilder( sti, 1, 20, 5 );
+	}
+
+	/**
+	 * Runs the submitted tasks only when asked to.
+	 */
+	private static class ManualExecutor extends AbstractExecutorService
+	{
+		private final ArrayDeque< Runnable > tasks = new ArrayDeque<>();
+
+		private boolean shutdown;
+
+		void runNext()
+		{
+			tasks.poll().run();
+		}
+
+		@Override
+		public void execute( final Runnable command )
+		{
+			tasks.add( command );
+		}
+
+		@Override
+		public void shutdown()
+		{
+			shutdown = true;
+		}
+
+		@Override
+		public List< Runnable > shutdownNow()
+		{
+			shutdown = true;
+			final List< Runnable > remaining = new ArrayList<>( tasks );
+			tasks.clear();
+			return remaining;
+		}
+
+		@Override
+		public boolean isShutdown()
+		{
+			return shutdown;
+		}
+
+		@Override
+		public boolean isTerminated()
+		{
+			return shutdown;
+		}
+
+		@Override
+		public boolean awaitTermination( final long timeout, final TimeUnit unit )
+		{
+			return shutdown;
+		}
+	}
+
+	/**
+	 * Moves the specified number of distinct vertices of a time-point.
+	 */
+	private void move( final int timepoint, final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			final TestSimpleSpatialVertex v = vs.get( timepoint * N_VERTICES + i );
+			v.setPosition( 100 * random.nextDouble() );
+			sti.vertexPositionChanged( v );
+		}
+	}
+
+	private int modCount( final int timepoint )
+	{
+		return sti.timepointToSpatialIndex.get( timepoint ).modCount();
+	}
+
+	/**
+	 * Waits until the modification count of a time-point is back under the
+	 * threshold. It may not be 0, if the rebuild started before the last
+	 * modifications.
+	 */
+	private void awaitRebuilt( final int timepoint, final int threshold ) throws InterruptedException
+	{
+		final long end = System.currentTimeMillis() + 10000;
+		while ( modCount( timepoint ) > threshold && System.currentTimeMillis() < end )
+			Thread.sleep( 10 );
+		assertTrue( "Time-point " + timepoint + " should be rebuilt.", modCount( timepoint ) <= threshold );
+	}
+}
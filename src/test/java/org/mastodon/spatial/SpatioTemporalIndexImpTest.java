@@ -29,17 +29,28 @@
 package org.mastodon.spatial;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefList;
+import org.mastodon.collection.RefSet;
 import org.mastodon.graph.TestSimpleSpatialEdge;
 import org.mastodon.graph.TestSimpleSpatialGraph;
 import org.mastodon.graph.TestSimpleSpatialVertex;
+import org.mastodon.kdtree.ClipConvexPolytope;
+import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
+
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.NearestNeighborSearch;
 
 public class SpatioTemporalIndexImpTest
 {
@@ -88,4 +99,165 @@ public class SpatioTemporalIndexImpTest
 		}
 		assertEquals( "Did not iterate over all objects in graph vertex collection.", vs.size(), iterated );
 	}
+
+	@Test
+	public void testTimepointRangeIterator()
+	{
+		final SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool() );
+		final SpatialIndex< TestSimpleSpatialVertex > index = sti.getSpatialIndex( 2, 7 );
+		assertEquals( "Unexpected number of objects in the time-point range.", 2 * N_VERTICES, index.size() );
+
+		int previous = -1;
+		int iterated = 0;
+		for ( final TestSimpleSpatialVertex v : index )
+		{
+			assertTrue( "Iterated object " + v + " should be in the time-point range.", v.getTimepoint() >= 2 && v.getTimepoint() <= 7 );
+			assertTrue( "Objects should be iterated in time-point order.", v.getTimepoint() >= previous );
+			previous = v.getTimepoint();
+			iterated++;
+		}
+		assertEquals( "Did not iterate over all objects in the time-point range.", 2 * N_VERTICES, iterated );
+
+		// The range follows the time-points added later.
+		graph.addVertex().init( 100, 7, 0.5 );
+		assertEquals( "Unexpected number of objects in the time-point range.", 2 * N_VERTICES + 1, index.size() );
+		assertTrue( "An empty range should be empty.", sti.getSpatialIndex( 13, 20 ).isEmpty() );
+		assertFalse( "A non-empty range should not be empty.", sti.getSpatialIndex( 7, 7 ).isEmpty() );
+	}
+
+	@Test
+	public void testEmptyTimepoint()
+	{
+		final SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool() );
+		final SpatialIndex< TestSimpleSpatialVertex > index = sti.getSpatialIndex( 100 );
+		assertTrue( "A time-point without objects should be empty.", index.isEmpty() );
+		assertFalse( "Querying a time-point should not create its index.", sti.timepointToSpatialIndex.containsKey( 100 ) );
+
+		// The empty index follows the objects added later.
+		graph.addVertex().init( 100, 100, 0.5 );
+		assertEquals( "Unexpected number of objects in the time-point.", 1, index.size() );
+		assertEquals( "Unexpected number of objects in the time-point.", 1, sti.getSpatialIndex( 100 ).size() );
+	}
+
+	@Test
+	public void testEmptyRange()
+	{
+		final SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool() );
+		final SpatialIndex< TestSimpleSpatialVertex > reversed = sti.getSpatialIndex( 9, 0 );
+		assertEquals( "A reversed range should be empty.", 0, reversed.size() );
+		assertTrue( "A reversed range should be empty.", reversed.isEmpty() );
+
+		final Iterator< TestSimpleSpatialVertex > it = sti.getSpatialIndex( 13, 20 ).iterator();
+		assertFalse( "An empty range should have no objects.", it.hasNext() );
+		try
+		{
+			it.next();
+			fail( "Iterating past the end should throw." );
+		}
+		catch ( final NoSuchElementException e )
+		{}
+	}
+
+	@Test
+	public void testTimepointRangeSearches()
+	{
+		final SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool() );
+		final Random random = new Random( 1l );
+		// Moved and added vertices are searched outside of the kd-trees.
+		for ( int i = 0; i < 5; i++ )
+		{
+			final TestSimpleSpatialVertex v = vs.get( random.nextInt( vs.size() ) );
+			v.setPosition( 10 * random.nextDouble() );
+			sti.vertexPositionChanged( v );
+		}
+		graph.addVertex().init( 100, 6, 2.25 );
+
+		final int from = 3;
+		final int to = 9;
+		final SpatialIndex< TestSimpleSpatialVertex > index = sti.getSpatialIndex( from, to );
+		final RefList< TestSimpleSpatialVertex > inRange = RefCollections.createRefList( graph.vertices() );
+		for ( final TestSimpleSpatialVertex v : graph.vertices() )
+			if ( v.getTimepoint() >= from && v.getTimepoint() <= to )
+				inRange.add( v );
+
+		final NearestNeighborSearch< TestSimpleSpatialVertex > nns = index.getNearestNeighborSearch();
+		final IncrementalNearestNeighborSearch< TestSimpleSpatialVertex > inns = index.getIncrementalNearestNeighborSearch();
+		for ( int i = 0; i < 20; i++ )
+		{
+			final RealPoint query = new RealPoint( 10 * random.nextDouble() );
+			double best = Double.MAX_VALUE;
+			for ( final TestSimpleSpatialVertex v : inRange )
+				best = Math.min( best, squDistance( v, query ) );
+
+			nns.search( query );
+			assertEquals( "Unexpected nearest neighbor distance.", best, nns.getSquareDistance(), 1e-12 );
+			assertEquals( "The nearest neighbor should be at the returned distance.", best, squDistance( nns.getSampler().get(), query ), 1e-12 );
+
+			inns.search( query );
+			final RefSet< TestSimpleSpatialVertex > visited = RefCollections.createRefSet( graph.vertices() );
+			double previous = 0;
+			while ( inns.hasNext() )
+			{
+				final TestSimpleSpatialVertex v = inns.next();
+				assertTrue( "Neighbor " + v + " should be in the time-point range.", v.getTimepoint() >= from && v.getTimepoint() <= to );
+				assertTrue( "Neighbor " + v + " should be returned once.", visited.add( v ) );
+				assertEquals( "Unexpected neighbor distance.", squDistance( v, query ), inns.getSquareDistance(), 1e-12 );
+				assertTrue( "Neighbors should be returned by increasing distance.", inns.getSquareDistance() >= previous );
+				previous = inns.getSquareDistance();
+			}
+			assertEquals( "All the objects in the range should be returned.", inRange.size(), visited.size() );
+		}
+
+		final ClipConvexPolytope< TestSimpleSpatialVertex > ccp = index.getClipConvexPolytope();
+		// Inside is 2 <= x <= 6.
+		ccp.clip( new double[][] { { 1, 2 }, { -1, -6 } } );
+		int inside = 0;
+		for ( final TestSimpleSpatialVertex v : ccp.getInsideValues() )
+		{
+			assertTrue( "Inside object " + v + " should be in the time-point range.", v.getTimepoint() >= from && v.getTimepoint() <= to );
+			assertTrue( "Inside object " + v + " should be inside the polytope.", v.getDoublePosition( 0 ) >= 2 && v.getDoublePosition( 0 ) <= 6 );
+			inside++;
+		}
+		int outside = 0;
+		for ( final TestSimpleSpatialVertex v : ccp.getOutsideValues() )
+		{
+			assertFalse( "Outside object " + v + " should be outside the polytope.", v.getDoublePosition( 0 ) >= 2 && v.getDoublePosition( 0 ) <= 6 );
+			outside++;
+		}
+		assertEquals( "Objects should be either inside or outside the polytope.", inRange.size(), inside + outside );
+
+		final NearestNeighborSearch< TestSimpleSpatialVertex > empty = sti.getSpatialIndex( 13, 20 ).getNearestNeighborSearch();
+		empty.search( new RealPoint( 1. ) );
+		assertNull( "An empty range should have no nearest neighbor.", empty.getSampler().get() );
+	}
+
+	@Test
+	public void testLogStructured()
+	{
+		final SpatioTemporalIndexImp< TestSimpleSpatialVertex, TestSimpleSpatialEdge > sti = new SpatioTemporalIndexImp<>( graph, graph.getVertexPool(), true );
+		assertTrue( "Time-points should use a log-structured index.", sti.getSpatialIndex( 3 ) instanceof LogStructuredSpatialIndex );
+		assertEquals( "Unexpected number of objects in the time-point.", N_VERTICES, sti.getSpatialIndex( 3 ).size() );
+
+		graph.addVertex().init( 100, 3, 0.25 );
+		graph.remove( vs.get( 0 ) );
+		assertEquals( "Unexpected number of objects after an addition.", N_VERTICES + 1, sti.getSpatialIndex( 3 ).size() );
+		assertEquals( "Unexpected number of objects after a removal.", N_VERTICES - 1, sti.getSpatialIndex( 0 ).size() );
+
+		// A new time-point starts with an empty index.
+		graph.addVertex().init( 101, 200, 7.5 );
+		final NearestNeighborSearch< TestSimpleSpatialVertex > nns = sti.getSpatialIndex( 200 ).getNearestNeighborSearch();
+		nns.search( new RealPoint( 1. ) );
+		assertEquals( "Unexpected nearest neighbor in a new time-point.", 101, nns.getSampler().get().getId() );
+
+		int iterated = 0;
+		for ( @SuppressWarnings( "unused" ) final TestSimpleSpatialVertex v : sti )
+			iterated++;
+		assertEquals( "Did not iterate over all objects in graph vertex collection.", graph.vertices().size(), iterated );
+	}
+
+	private static double squDistance( final TestSimpleSpatialVertex v, final RealPoint p )
+	{
+		final double d = v.getDoublePosition( 0 ) - p.getDoublePosition( 0 );
+		return d * d;
+	}
 }